@@ -12,9 +12,26 @@ repositories {
     mavenCentral()
 }
 
+sourceSets {
+    create("jmh") {
+        compileClasspath += sourceSets.main.get().output
+        runtimeClasspath += sourceSets.main.get().output
+        // Benchmarks run on the test fixtures.
+        resources.srcDir("src/test/resources")
+    }
+}
+
+val jmhImplementation: Configuration by configurations.getting {
+    extendsFrom(configurations.implementation.get())
+}
+
+val jmhVersion = "1.37"
+
 dependencies {
     testImplementation("junit:junit:4.13.2")
     testImplementation("org.mockito:mockito-core:3.12.4")
+    jmhImplementation("org.openjdk.jmh:jmh-core:$jmhVersion")
+    "jmhAnnotationProcessor"("org.openjdk.jmh:jmh-generator-annprocess:$jmhVersion")
 }
 
 group = "oss.gff3-to-model"
@@ -22,6 +39,91 @@ version = "1.0-SNAPSHOT"
 description = "gff3-to-model"
 java.sourceCompatibility = JavaVersion.VERSION_1_8
 
+// Read sources as UTF-8 whatever the platform's default.
+tasks.withType<JavaCompile> {
+    options.encoding = "UTF-8"
+}
+
+// Run the JMH benchmarks, with the GC profiler for allocation rates.  Narrow the run with JMH's own
+// options, e.g.:  ./gradlew jmh -PjmhArgs="LineReaderBenchmark -p input=synthetic:1000000"
+tasks.register<JavaExec>("jmh") {
+    group = "verification"
+    description = "Runs the JMH benchmarks."
+    classpath = sourceSets["jmh"].runtimeClasspath
+    mainClass.set("org.openjdk.jmh.Main")
+    val resultFile = layout.buildDirectory.file("reports/jmh/results.json")
+    args("-prof", "gc", "-rf", "json", "-rff", resultFile.get().asFile.path)
+    args((findProperty("jmhArgs") as String? ?: "").split(" ").filter { it.isNotBlank() })
+    doFirst { resultFile.get().asFile.parentFile.mkdirs() }
+}
+
+// Write src/main/resources/.../SOFA.txt, which SofaTypes reads, from a release of sofa.obo:
+//   gradle sofaTable -PsofaObo=/path/to/sofa.obo
+// Every term is kept, with all its is_a parents, its exact synonyms and its INSDC feature keys.
+tasks.register("sofaTable") {
+    group = "build"
+    description = "Writes the SOFA term table from sofa.obo."
+    doLast {
+        val obo = file(findProperty("sofaObo") as String? ?: throw GradleException("Give -PsofaObo=<path to sofa.obo>"))
+        val terms = mutableListOf<Triple<String, String, MutableList<String>>>()
+        val synonyms = mutableMapOf<String, MutableList<String>>()
+        var id: String? = null
+        var name: String? = null
+        var parents = mutableListOf<String>()
+        var termSynonyms = mutableListOf<String>()
+        fun endStanza() {
+            if (id != null && name != null) {
+                terms.add(Triple(id!!, name!!, parents))
+                synonyms[id!!] = termSynonyms
+            }
+            id = null; name = null; parents = mutableListOf(); termSynonyms = mutableListOf()
+        }
+        obo.forEachLine { line ->
+            when {
+                line.startsWith("[") -> { endStanza(); if (line != "[Term]") id = null }
+                line.startsWith("id: SO:") -> id = line.substring(4).trim()
+                line.startsWith("name: ") -> name = line.substring(6).trim()
+                line.startsWith("is_a: ") -> parents.add(line.substring(6).substringBefore('!').substringBefore('{').trim())
+                line.startsWith("synonym: \"") && line.contains("\" EXACT") -> {
+                    val text = line.substring(10).substringBefore('"')
+                    val key = if (text.startsWith("INSDC_feature:")) text.substringAfter(':') else text
+                    if (!key.contains(' ')) termSynonyms.add(key)
+                }
+            }
+        }
+        endStanza()
+        val ids = terms.map { it.first }.toSet()
+        val taken = terms.map { it.second }.toMutableSet()
+        val table = file("src/main/resources/oss/model/builder/gff3/SOFA.txt")
+        table.printWriter().use { out ->
+            out.println("# SOFA, the Sequence Ontology Feature Annotation subset, http://www.sequenceontology.org")
+            out.println("# Written by the sofaTable Gradle task from sofa.obo; regenerate with:  gradle sofaTable -PsofaObo=<path to sofa.obo>")
+            out.println("# FORMAT: accession <tab> name <tab> accessions of is_a parents, comma-separated, or - for none")
+            out.println("#         [<tab> exact synonyms and INSDC feature keys, comma-separated].")
+            for ((termId, termName, termParents) in terms.sortedBy { it.first }) {
+                val known = termParents.filter { it in ids }
+                val extra = synonyms[termId]!!.filter { taken.add(it) }
+                val columns = mutableListOf(termId, termName, if (known.isEmpty()) "-" else known.joinToString(","))
+                if (extra.isNotEmpty()) columns.add(extra.joinToString(","))
+                out.println(columns.joinToString("\t"))
+            }
+        }
+    }
+}
+
+// Build the benchmarks into one runnable jar:  java -jar build/libs/gff3-to-model-jmh.jar -prof gc
+tasks.register<Jar>("jmhJar") {
+    group = "build"
+    description = "Assembles a self-contained jar of the JMH benchmarks."
+    archiveClassifier.set("jmh")
+    manifest { attributes("Main-Class" to "org.openjdk.jmh.Main") }
+    duplicatesStrategy = DuplicatesStrategy.EXCLUDE
+    from(sourceSets["jmh"].output)
+    from(sourceSets.main.get().output)
+    from({ configurations["jmhRuntimeClasspath"].filter { it.name.endsWith(".jar") }.map { zipTree(it) } })
+    exclude("META-INF/*.SF", "META-INF/*.DSA", "META-INF/*.RSA")
+}
+
 publishing {
     publications.create<MavenPublication>("maven") {
         from(components["java"])
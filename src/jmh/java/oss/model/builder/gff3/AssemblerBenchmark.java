@@ -0,0 +1,92 @@
+/**
+ *   Copyright Leslie L. Foster, 2011.
+ *
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation; version 2.1 of the License.
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation, Inc.
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+package oss.model.builder.gff3;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Assembles models with a fresh Gff3DataAssembler each time, so nothing is carried over between
+ * invocations.  prepareModels() is given the axis having the most top-level features.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+public class AssemblerBenchmark {
+	@Param( { "scerevisiae_regulatory.gff", "discoidium_chr_1.gff", "burkholderia/ATCC_23344_NC_006348.gff.short",
+		      "synthetic:1000000", "synthetic:4000000" } )
+	public String input;
+
+	private File file;
+	private String axisId;
+	private long lineCount;
+
+	@Setup
+	public void prepare() throws IOException {
+		file = BenchmarkInputs.resolve( input );
+		try ( Stream<String> lines = Files.lines( file.toPath() ) ) {
+			lineCount = lines.count();
+		}
+		Gff3DataAssembler assembler = new Gff3DataAssembler( file.getAbsolutePath() );
+		assembler.prepareAllModels();
+		int mostFeatures = -1;
+		for ( String landmarkId: assembler.getLandmarkIds() ) {
+			int features = assembler.getTopLevelFeatures( landmarkId ).size();
+			if ( features > mostFeatures ) {
+				mostFeatures = features;
+				axisId = landmarkId;
+			}
+		}
+	}
+
+	@Benchmark
+	public List<ModelTreeNode> prepareModels( ThroughputCounters counters ) {
+		Gff3DataAssembler assembler = new Gff3DataAssembler( file.getAbsolutePath() );
+		assembler.prepareModels( axisId );
+		counters.lines += lineCount;
+		counters.bytes += file.length();
+		return assembler.getTopLevelFeatures();
+	}
+
+	@Benchmark
+	public List<Gff3GenericModel> getAxisModels( ThroughputCounters counters ) {
+		Gff3DataAssembler assembler = new Gff3DataAssembler( file.getAbsolutePath() );
+		counters.lines += lineCount;
+		counters.bytes += file.length();
+		return assembler.getAxisModels();
+	}
+}
@@ -0,0 +1,127 @@
+/**
+ *   Copyright Leslie L. Foster, 2011.
+ *
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation; version 2.1 of the License.
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation, Inc.
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+package oss.model.builder.gff3;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Input files for the benchmarks.  A name is either a test fixture, found on the class path, or
+ * "synthetic:N" for a generated file of about N lines.  Each is put into the temporary directory once,
+ * and kept there between runs, as generating millions of lines takes a while.
+ */
+final class BenchmarkInputs {
+	static final String SYNTHETIC_PREFIX = "synthetic:";
+
+	private static final int LANDMARKS = 16;
+	private static final int LINES_PER_GENE = 8;
+	private static final int GENE_SPACING = 2000;
+
+	private BenchmarkInputs() {
+	}
+
+	/** File holding the input named. */
+	static File resolve( String name ) throws IOException {
+		File dir = new File( System.getProperty( "java.io.tmpdir" ), "gff3-jmh" );
+		if ( ! dir.isDirectory()  &&  ! dir.mkdirs() ) {
+			throw new IOException( "Failed to create directory " + dir );
+		}
+		if ( name.startsWith( SYNTHETIC_PREFIX ) ) {
+			int lineCount = Integer.parseInt( name.substring( SYNTHETIC_PREFIX.length() ) );
+			File file = new File( dir, "synthetic_" + lineCount + ".gff3" );
+			if ( ! file.isFile() ) {
+				File temp = new File( dir, file.getName() + ".tmp" );
+				writeSynthetic( temp, lineCount );
+				Files.move( temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING );
+			}
+			return file;
+		}
+		File file = new File( dir, name.replace( '/', '_' ) );
+		try ( InputStream in = BenchmarkInputs.class.getResourceAsStream( "/" + name ) ) {
+			if ( in == null ) {
+				throw new IOException( "No test fixture " + name + " on the class path." );
+			}
+			Files.copy( in, file.toPath(), StandardCopyOption.REPLACE_EXISTING );
+		}
+		return file;
+	}
+
+	/**
+	 * Write genes, each with one mRNA of three exons and three CDS, spread evenly over several
+	 * chromosomes.  Names and notes carry URL escapes, as real files often do.
+	 */
+	static void writeSynthetic( File file, int lineCount ) throws IOException {
+		int genesPerLandmark = Math.max( 1, lineCount / LINES_PER_GENE / LANDMARKS );
+		try ( Writer out = new BufferedWriter( new OutputStreamWriter( new FileOutputStream( file ), StandardCharsets.US_ASCII ), 1 << 16 ) ) {
+			out.write( "##gff-version 3\n" );
+			for ( int landmark = 1; landmark <= LANDMARKS; landmark++ ) {
+				String chr = "chr" + landmark;
+				int length = genesPerLandmark * GENE_SPACING + GENE_SPACING;
+				out.write( "##sequence-region " + chr + " 1 " + length + "\n" );
+				writeLine( out, chr, "chromosome", 1, length, '.', '.', "ID=" + chr + ";Name=" + chr );
+				for ( int gene = 0; gene < genesPerLandmark; gene++ ) {
+					String geneId = chr + "_g" + gene;
+					String mrnaId = geneId + ".t1";
+					int start = gene * GENE_SPACING + 100;
+					char strand = gene % 3 == 0 ? '-' : '+';
+					writeLine( out, chr, "gene", start, start + 1499, strand, '.',
+							"ID=" + geneId + ";Name=GENE" + gene + ";Note=putative%20kinase%2C%20class%20" + ( gene % 7 ) +
+							";Dbxref=GeneID:" + ( 100000 + gene ) + ",UniProtKB:Q" + gene );
+					writeLine( out, chr, "mRNA", start, start + 1499, strand, '.',
+							"ID=" + mrnaId + ";Parent=" + geneId + ";Name=GENE" + gene + "-RA;Ontology_term=SO:0000234" );
+					for ( int exon = 0; exon < 3; exon++ ) {
+						int exonStart = start + exon * 500;
+						writeLine( out, chr, "exon", exonStart, exonStart + 399, strand, '.',
+								"ID=" + mrnaId + ".e" + exon + ";Parent=" + mrnaId );
+					}
+					for ( int exon = 0; exon < 3; exon++ ) {
+						int exonStart = start + exon * 500;
+						writeLine( out, chr, "CDS", exonStart, exonStart + 399, strand, (char)( '0' + exon ),
+								"ID=" + mrnaId + ".cds;Parent=" + mrnaId + ";product=serine%2Fthreonine%20kinase" );
+					}
+				}
+			}
+		}
+	}
+
+	private static void writeLine( Writer out, String landmark, String type, int start, int end,
+			                       char strand, char phase, String attributes ) throws IOException {
+		out.write( landmark );
+		out.write( "\tsynthetic\t" );
+		out.write( type );
+		out.write( '\t' );
+		out.write( Integer.toString( start ) );
+		out.write( '\t' );
+		out.write( Integer.toString( end ) );
+		out.write( "\t.\t" );
+		out.write( strand );
+		out.write( '\t' );
+		out.write( phase );
+		out.write( '\t' );
+		out.write( attributes );
+		out.write( '\n' );
+	}
+}
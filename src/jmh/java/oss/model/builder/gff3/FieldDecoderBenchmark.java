@@ -0,0 +1,111 @@
+/**
+ *   Copyright Leslie L. Foster, 2011.
+ *
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation; version 2.1 of the License.
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation, Inc.
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+package oss.model.builder.gff3;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decodes column 9 of every feature line of a file, already in memory, so that only the decoding is
+ * measured.  parseAttributes() splits and unescapes each setting; unescapeUrl() is given the whole column.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+public class FieldDecoderBenchmark {
+	@Param( { "scerevisiae_regulatory.gff", "discoidium_chr_1.gff", "burkholderia/ATCC_23344_NC_006348.gff.short",
+		      "synthetic:1000000" } )
+	public String input;
+
+	private byte[] text;
+	// Bounds of each attribute column within the text.
+	private int[] froms;
+	private int[] tos;
+	private long columnBytes;
+
+	@Setup
+	public void prepare() throws IOException {
+		text = Files.readAllBytes( BenchmarkInputs.resolve( input ).toPath() );
+		froms = new int[ 1024 ];
+		tos = new int[ 1024 ];
+		int count = 0;
+		int lineStart = 0;
+		while ( lineStart < text.length ) {
+			int lineEnd = lineStart;
+			while ( lineEnd < text.length  &&  text[ lineEnd ] != '\n' ) {
+				lineEnd++;
+			}
+			if ( lineEnd > lineStart  &&  text[ lineStart ] != '#' ) {
+				int column = lineStart;
+				for ( int tabs = 0; tabs < 8  &&  column < lineEnd; column++ ) {
+					if ( text[ column ] == '\t' ) {
+						tabs++;
+					}
+				}
+				int columnEnd = lineEnd > column  &&  text[ lineEnd - 1 ] == '\r' ? lineEnd - 1 : lineEnd;
+				if ( count == froms.length ) {
+					froms = Arrays.copyOf( froms, count * 2 );
+					tos = Arrays.copyOf( tos, count * 2 );
+				}
+				froms[ count ] = column;
+				tos[ count ] = columnEnd;
+				columnBytes += columnEnd - column;
+				count++;
+			}
+			lineStart = lineEnd + 1;
+		}
+		froms = Arrays.copyOf( froms, count );
+		tos = Arrays.copyOf( tos, count );
+	}
+
+	@Benchmark
+	public void parseAttributes( ThroughputCounters counters, Blackhole blackhole ) {
+		for ( int i = 0; i < froms.length; i++ ) {
+			blackhole.consume( Gff3FieldDecoder.parseAttributes( text, froms[ i ], tos[ i ], i ) );
+		}
+		counters.lines += froms.length;
+		counters.bytes += columnBytes;
+	}
+
+	@Benchmark
+	public void unescapeUrl( ThroughputCounters counters, Blackhole blackhole ) {
+		for ( int i = 0; i < froms.length; i++ ) {
+			blackhole.consume( Gff3FieldDecoder.unescapeUrl( text, froms[ i ], tos[ i ], i ) );
+		}
+		counters.lines += froms.length;
+		counters.bytes += columnBytes;
+	}
+}
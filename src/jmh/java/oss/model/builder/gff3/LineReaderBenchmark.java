@@ -0,0 +1,72 @@
+/**
+ *   Copyright Leslie L. Foster, 2011.
+ *
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation; version 2.1 of the License.
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation, Inc.
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+package oss.model.builder.gff3;
+
+import oss.model.builder.gff3.Gff3LineReader.Gff3LineReaderException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/** Reads every model of a file with Gff3LineReader.nextLine(). */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+public class LineReaderBenchmark {
+	@Param( { "scerevisiae_regulatory.gff", "discoidium_chr_1.gff", "burkholderia/ATCC_23344_NC_006348.gff.short",
+		      "synthetic:1000000", "synthetic:4000000" } )
+	public String input;
+
+	private File file;
+
+	@Setup
+	public void prepare() throws IOException {
+		file = BenchmarkInputs.resolve( input );
+	}
+
+	@Benchmark
+	public void nextLine( ThroughputCounters counters, Blackhole blackhole ) throws Gff3LineReaderException {
+		Gff3LineReader rdr = new Gff3LineReader( file );
+		try {
+			Gff3GenericModel model;
+			while ( null != ( model = rdr.nextLine() ) ) {
+				blackhole.consume( model );
+				counters.lines++;
+			}
+		} finally {
+			rdr.close();
+		}
+		counters.bytes += file.length();
+	}
+}
@@ -0,0 +1,127 @@
+/**
+ *   Copyright Leslie L. Foster, 2011.
+ *
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation; version 2.1 of the License.
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation, Inc.
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+package oss.model.builder.gff3;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Unchanging set of assembled models for all landmarks of an input, safe to read from any number of
+ * threads without locking.  Made by Gff3DataAssembler.assembleAll().
+ *
+ * Every node is frozen: its links cannot be changed, and its child and parent lists are read-only.
+ * The lists and maps given out are read-only as well.  Models are left settable, as they always have
+ * been, but must not be changed once shared; reading them, attributes included, is thread-safe.
+ *
+ * Once built, nothing here is written again, so an instance handed to other threads through a
+ * volatile field, an AtomicReference or a concurrent collection is seen whole.  See AssembledModelsHolder.
+ */
+public final class AssembledModels {
+	private final String sourceName;
+	private final List<Gff3GenericModel> axisModels;
+	private final Map<String,Landmark> landmarkVsNodes;
+	private final FeatureRangeIndex rangeIndex;
+
+	/**
+	 * @param landmarkVsIds the ID-to-node lookup of each landmark.
+	 * @param landmarkVsTopLevelFeatures the top-level features of each landmark.  The nodes are
+	 *     frozen; the lookups and lists are copied.
+	 */
+	AssembledModels( String sourceName, List<Gff3GenericModel> axisModels,
+			         Map<String,NodeIdIndex> landmarkVsIds,
+			         Map<String,List<ModelTreeNode>> landmarkVsTopLevelFeatures ) {
+		this.sourceName = sourceName;
+		this.axisModels = Collections.unmodifiableList( new ArrayList<Gff3GenericModel>( axisModels ) );
+		Map<String,Landmark> landmarkVsNodes = new LinkedHashMap<>();
+		Map<String,Collection<ModelTreeNode>> landmarkVsIndexed = new HashMap<>();
+		for ( Map.Entry<String,NodeIdIndex> entry: landmarkVsIds.entrySet() ) {
+			NodeIdIndex ids = entry.getValue().copy();
+			List<ModelTreeNode> keyedNodes = ids.nodes();
+			List<ModelTreeNode> placeholderRoots = new ArrayList<>();
+			for ( ModelTreeNode node: keyedNodes ) {
+				ModelTreeNode.freezeReachable( node );
+				if ( node.getModel() == null  &&  ( node.getParents() == null  ||  node.getParents().isEmpty() ) ) {
+					placeholderRoots.add( node );
+				}
+			}
+			List<ModelTreeNode> topLevelFeatures = landmarkVsTopLevelFeatures.get( entry.getKey() );
+			topLevelFeatures = topLevelFeatures == null ? Collections.<ModelTreeNode>emptyList()
+					                                    : new ArrayList<ModelTreeNode>( topLevelFeatures );
+			for ( ModelTreeNode node: topLevelFeatures ) {
+				ModelTreeNode.freezeReachable( node );
+			}
+			landmarkVsNodes.put( entry.getKey(), new Landmark( ids, Collections.unmodifiableList( topLevelFeatures ),
+			                                                     Collections.unmodifiableList( placeholderRoots ) ) );
+			landmarkVsIndexed.put( entry.getKey(), keyedNodes );
+		}
+		this.landmarkVsNodes = Collections.unmodifiableMap( landmarkVsNodes );
+		this.rangeIndex = new FeatureRangeIndex( landmarkVsIndexed );
+	}
+
+	/** Tell what input these were assembled from. */
+	public String getSourceName() { return sourceName; }
+
+	/** Models of all axes, as from Gff3DataAssembler.getAxisModels(). */
+	public List<Gff3GenericModel> getAxisModels() { return axisModels; }
+
+	/** All landmarks, in order of first appearance. */
+	public Set<String> getLandmarkIds() { return landmarkVsNodes.keySet(); }
+
+	/** Features of the landmark having no parent.  Empty for a landmark not in the input. */
+	public List<ModelTreeNode> getTopLevelFeatures( String landmarkId ) {
+		Landmark landmark = landmarkVsNodes.get( landmarkId );
+		return landmark == null ? Collections.<ModelTreeNode>emptyList() : landmark.topLevelFeatures;
+	}
+
+	/**
+	 * Nodes of the landmark standing for parents never seen, which hold no model.  Their children are
+	 * not reached from getTopLevelFeatures().
+	 */
+	public List<ModelTreeNode> getPlaceholderRoots( String landmarkId ) {
+		Landmark landmark = landmarkVsNodes.get( landmarkId );
+		return landmark == null ? Collections.<ModelTreeNode>emptyList() : landmark.placeholderRoots;
+	}
+
+	/** Node of the feature with this ID on the landmark, or null. */
+	public ModelTreeNode getNode( String landmarkId, String id ) {
+		Landmark landmark = landmarkVsNodes.get( landmarkId );
+		return landmark == null ? null : landmark.ids.get( id );
+	}
+
+	/** Overlap index over the features of every landmark, built along with these models. */
+	public FeatureRangeIndex getRangeIndex() { return rangeIndex; }
+
+	/** Nodes of one landmark. */
+	private static final class Landmark {
+		private final NodeIdIndex ids;    // Never changed once here, so safe to read from any thread.
+		private final List<ModelTreeNode> topLevelFeatures;
+		private final List<ModelTreeNode> placeholderRoots;
+
+		Landmark( NodeIdIndex ids, List<ModelTreeNode> topLevelFeatures, List<ModelTreeNode> placeholderRoots ) {
+			this.ids = ids;
+			this.topLevelFeatures = topLevelFeatures;
+			this.placeholderRoots = placeholderRoots;
+		}
+	}
+}
@@ -0,0 +1,90 @@
+/**
+ *   Copyright Leslie L. Foster, 2011.
+ *
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation; version 2.1 of the License.
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation, Inc.
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+package oss.model.builder.gff3;
+
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Holds the current AssembledModels of an input, for serving queries from many threads while the
+ * input is reloaded from time to time.  Readers take get(), and keep using that instance for the whole
+ * of a request; a reload assembles a complete new instance and only then swaps it in, so a reader sees
+ * either the old models or the new, never a mix.
+ *
+ * Once models have been loaded, get() never blocks, not even during a reload.  Until then it loads
+ * them itself, holding the reload lock, so every get() made before the first load completes waits
+ * for it, as does one made while a first reload() is still loading.  Call reload() at start-up to
+ * have the wait over before readers arrive.
+ *
+ * Reloads are made one at a time.  A reload which fails leaves the current models in place.
+ */
+public class AssembledModelsHolder {
+	private final Supplier<AssembledModels> loader;
+	private final AtomicReference<AssembledModels> current = new AtomicReference<>();
+	private final Object reloadLock = new Object();
+
+	/** Holder whose models come from assembling the whole of the input file, anew each time. */
+	public AssembledModelsHolder( final String inputfile ) {
+		this( () -> new Gff3DataAssembler( inputfile ).assembleAll() );
+	}
+
+	/**
+	 * @param loader gives a freshly assembled set of models each time called, as from a newly
+	 *     configured Gff3DataAssembler's assembleAll().
+	 */
+	public AssembledModelsHolder( Supplier<AssembledModels> loader ) {
+		this.loader = loader;
+	}
+
+	/**
+	 * The models as last loaded, loading them first if none have been.  Lock-free once models are
+	 * held; blocks until they are otherwise.
+	 */
+	public AssembledModels get() {
+		AssembledModels models = current.get();
+		if ( models == null ) {
+			synchronized ( reloadLock ) {
+				models = current.get();
+				if ( models == null ) {
+					models = loader.get();
+					current.set( models );
+				}
+			}
+		}
+		return models;
+	}
+
+	/**
+	 * Load the models again, and put them in place of those held.  Readers carry on with the old
+	 * models meanwhile, and are given the new ones from the moment they are in place.
+	 *
+	 * @return the new models.
+	 */
+	public AssembledModels reload() {
+		synchronized ( reloadLock ) {
+			AssembledModels models = loader.get();
+			current.set( models );
+			return models;
+		}
+	}
+
+	/** The models held, without loading; null if not yet loaded. */
+	public AssembledModels peek() {
+		return current.get();
+	}
+}
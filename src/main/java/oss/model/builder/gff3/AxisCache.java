@@ -0,0 +1,260 @@
+/**
+ *   Copyright Leslie L. Foster, 2011.
+ *
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation; version 2.1 of the License.
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation, Inc.
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+package oss.model.builder.gff3;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+
+/**
+ * Keeps the assembled features of recently used axes, keyed by input file and axis, within a memory
+ * budget.  When over budget, the axes used least recently are let go.
+ *
+ * A miss assembles the axis with Gff3DataAssembler.prepareModels(), on the calling thread.  Other
+ * threads asking for the same axis meanwhile wait for that one assembly rather than starting their own.
+ * Each axis is held as a ModelGraph, whose frozen nodes may be shared among threads; the nodes the
+ * assembler built are let go.  Features under placeholders for parents never seen are held as well,
+ * and are had from the graph's getPlaceholderRoots().
+ *
+ * Memory is estimated, not measured: each feature is taken as FEATURE_BYTES, about what a feature
+ * with its model and interned text was found to take on typical input.
+ */
+public class AxisCache {
+	/** Estimated heap taken by a feature: its model, share of the graph, and share of pooled text. */
+	public static final int FEATURE_BYTES = 320;
+
+	private final long maxBytes;
+	// Access-ordered, least recently used first.  Guarded by 'this'.
+	private final LinkedHashMap<List<String>,CompletableFuture<Entry>> keyVsEntry = new LinkedHashMap<>( 16, 0.75f, true );
+	private long weightedBytes;
+	private long hits;
+	private long misses;
+	private long evictions;
+	private long loadFailures;
+	private long loadNanos;
+	private volatile Function<String,Gff3DataAssembler> assemblerFactory = Gff3DataAssembler::new;
+
+	/** @param maxBytes estimated bytes of features to keep, at most. */
+	public AxisCache( long maxBytes ) {
+		if ( maxBytes < 1 ) {
+			throw new IllegalArgumentException( "Budget must be at least 1 byte." );
+		}
+		this.maxBytes = maxBytes;
+	}
+
+	/** @param assemblerFactory makes the assembler for an input file, configured as wanted, on each miss. */
+	public void setAssemblerFactory( Function<String,Gff3DataAssembler> assemblerFactory ) {
+		this.assemblerFactory = assemblerFactory;
+	}
+
+	public Function<String,Gff3DataAssembler> getAssemblerFactory() { return assemblerFactory; }
+
+	public long getMaxBytes() { return maxBytes; }
+
+	/**
+	 * Top-level features of the axis, assembling them if not held.  Assembly failures are thrown as by
+	 * Gff3DataAssembler, and are not kept: the next request tries again.
+	 */
+	public List<ModelTreeNode> get( String inputfile, String axisId ) {
+		return getGraph( inputfile, axisId ).getTopLevelFeatures();
+	}
+
+	/** Graph of the axis, assembling it if not held; as get(), for walks by feature index. */
+	public ModelGraph getGraph( String inputfile, String axisId ) {
+		List<String> key = Arrays.asList( inputfile, axisId );
+		CompletableFuture<Entry> future;
+		boolean loading = false;
+		synchronized ( this ) {
+			future = keyVsEntry.get( key );
+			if ( future != null ) {
+				hits++;
+			}
+			else {
+				misses++;
+				future = new CompletableFuture<>();
+				keyVsEntry.put( key, future );
+				loading = true;
+			}
+		}
+		if ( loading ) {
+			load( key, future );
+		}
+		try {
+			return future.join().graph;
+		} catch ( CompletionException ce ) {
+			if ( ce.getCause() instanceof RuntimeException ) {
+				throw (RuntimeException)ce.getCause();
+			}
+			throw ce;
+		}
+	}
+
+	/** Top-level features of the axis if held and assembled, else null.  Never assembles. */
+	public List<ModelTreeNode> getIfPresent( String inputfile, String axisId ) {
+		CompletableFuture<Entry> future;
+		synchronized ( this ) {
+			future = keyVsEntry.get( Arrays.asList( inputfile, axisId ) );
+		}
+		if ( future == null  ||  ! future.isDone()  ||  future.isCompletedExceptionally() ) {
+			return null;
+		}
+		return future.join().graph.getTopLevelFeatures();
+	}
+
+	/** Let go of one axis.  An assembly under way still finishes for those waiting on it. */
+	public synchronized void invalidate( String inputfile, String axisId ) {
+		remove( Arrays.asList( inputfile, axisId ) );
+	}
+
+	/** Let go of every axis of an input, as when the file has changed. */
+	public synchronized void invalidateFile( String inputfile ) {
+		for ( List<String> key: new ArrayList<>( keyVsEntry.keySet() ) ) {
+			if ( key.get( 0 ).equals( inputfile ) ) {
+				remove( key );
+			}
+		}
+	}
+
+	public synchronized void invalidateAll() {
+		keyVsEntry.clear();
+		weightedBytes = 0;
+	}
+
+	/** Figures as they stand. */
+	public synchronized Stats stats() {
+		return new Stats( hits, misses, evictions, loadFailures, loadNanos, keyVsEntry.size(), weightedBytes );
+	}
+
+	/** Estimated bytes of the features of a graph. */
+	static long weigh( ModelGraph graph ) {
+		return (long)graph.size() * FEATURE_BYTES;
+	}
+
+	private void load( List<String> key, CompletableFuture<Entry> future ) {
+		long began = System.nanoTime();
+		Entry entry;
+		try {
+			Gff3DataAssembler assembler = assemblerFactory.apply( key.get( 0 ) );
+			assembler.prepareModels( key.get( 1 ) );
+			ModelGraph graph = new ModelGraph( assembler.getTopLevelFeatures(), assembler.getPlaceholderRoots() );
+			entry = new Entry( graph, weigh( graph ) );
+		} catch ( RuntimeException | Error e ) {
+			synchronized ( this ) {
+				loadFailures++;
+				loadNanos += System.nanoTime() - began;
+				if ( keyVsEntry.get( key ) == future ) {
+					keyVsEntry.remove( key );
+				}
+			}
+			future.completeExceptionally( e );
+			return;
+		}
+		synchronized ( this ) {
+			loadNanos += System.nanoTime() - began;
+			if ( keyVsEntry.get( key ) == future ) {
+				weightedBytes += entry.bytes;
+				future.complete( entry );    // Within the lock, so that a removal sees the size accounted.
+				evictOverBudget( key );
+				return;
+			}
+		}
+		future.complete( entry );    // Invalidated while assembling: those waiting have it, but it is not kept.
+	}
+
+	/** Let go of the least recently used axes until within budget, sparing the one just added. */
+	private void evictOverBudget( List<String> spared ) {
+		Iterator<Map.Entry<List<String>,CompletableFuture<Entry>>> it = keyVsEntry.entrySet().iterator();
+		while ( weightedBytes > maxBytes  &&  it.hasNext() ) {
+			Map.Entry<List<String>,CompletableFuture<Entry>> eldest = it.next();
+			CompletableFuture<Entry> future = eldest.getValue();
+			if ( eldest.getKey().equals( spared )  ||  ! future.isDone() ) {
+				continue;    // Assemblies under way have no size yet.
+			}
+			weightedBytes -= future.join().bytes;
+			it.remove();
+			evictions++;
+		}
+	}
+
+	private void remove( List<String> key ) {
+		CompletableFuture<Entry> future = keyVsEntry.remove( key );
+		if ( future != null  &&  future.isDone()  &&  ! future.isCompletedExceptionally() ) {
+			weightedBytes -= future.join().bytes;
+		}
+	}
+
+	/** Graph of one axis, and its estimated size. */
+	private static class Entry {
+		private final ModelGraph graph;
+		private final long bytes;
+
+		Entry( ModelGraph graph, long bytes ) {
+			this.graph = graph;
+			this.bytes = bytes;
+		}
+	}
+
+	/** Unchanging copy of the cache's figures. */
+	public static class Stats {
+		private final long hits;
+		private final long misses;
+		private final long evictions;
+		private final long loadFailures;
+		private final long loadNanos;
+		private final int entryCount;
+		private final long weightedBytes;
+
+		Stats( long hits, long misses, long evictions, long loadFailures, long loadNanos, int entryCount, long weightedBytes ) {
+			this.hits = hits;
+			this.misses = misses;
+			this.evictions = evictions;
+			this.loadFailures = loadFailures;
+			this.loadNanos = loadNanos;
+			this.entryCount = entryCount;
+			this.weightedBytes = weightedBytes;
+		}
+
+		/** Requests answered by what was held, or by an assembly already under way. */
+		public long getHits() { return hits; }
+		/** Requests which started an assembly. */
+		public long getMisses() { return misses; }
+		public long getEvictions() { return evictions; }
+		public long getLoadFailures() { return loadFailures; }
+		/** Time spent assembling, over all misses. */
+		public long getLoadNanos() { return loadNanos; }
+		public int getEntryCount() { return entryCount; }
+		public long getWeightedBytes() { return weightedBytes; }
+
+		public double getHitRate() {
+			long requests = hits + misses;
+			return requests == 0 ? 1.0 : (double)hits / requests;
+		}
+
+		@Override
+		public String toString() {
+			return "hits=" + hits + ", misses=" + misses + ", evictions=" + evictions + ", loadFailures=" + loadFailures +
+				   ", loadMillis=" + loadNanos / 1000000 + ", entries=" + entryCount + ", weightedBytes=" + weightedBytes;
+		}
+	}
+}
@@ -0,0 +1,368 @@
+/**
+ *   Copyright Leslie L. Foster, 2011.
+ *
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation; version 2.1 of the License.
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation, Inc.
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+package oss.model.builder.gff3;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Inflates a BGZF file, with blocks inflated on worker threads ahead of the reader.  Blocks are read
+ * from the file in order on the calling thread, handed to the workers, and their text is given back
+ * in file order.  Only a bounded number of blocks are in flight at once.
+ *
+ * All streams share one pool of inflating threads, one per processor, so that many open files do not
+ * each bring threads of their own.  Its threads stop when left idle.
+ *
+ * A stream may also cover just a range given by BGZF virtual offsets: the block's offset in the file
+ * shifted left 16 bits, ORed with an offset into the block's text.
+ *
+ * See the SAM/BAM specification, section 4.1, for the format.
+ */
+class BgzfInputStream extends InputStream {
+	/** Bytes of a BGZF block header, up to and including the BSIZE field of its extra subfield. */
+	static final int HEADER_SIZE = 18;
+
+	private static final int FIXED_HEADER_SIZE = 12;
+	private static final int TRAILER_SIZE = 8;
+	private static final int FLAG_EXTRA = 4;
+	private static final int BLOCKS_IN_FLIGHT_PER_THREAD = 4;
+	private static final long IDLE_THREAD_SECONDS = 30;
+
+	private final File file;
+	private final DataInputStream in;
+	private final ExecutorService executor;
+	private final Deque<Future<InflatedBlock>> inFlight = new ArrayDeque<>();
+	private final int maxInFlight;
+	private final long endBlockOffset;
+	private final int endTextOffset;
+	private long nextBlockOffset;
+	private boolean allBlocksRead;
+	private int firstBlockSkip;
+	private byte[] block = new byte[ 0 ];
+	private int blockPos;
+	private int blockLimit;
+
+	// Where each block handed out began, in the file and in the text; kept only if asked for.
+	private boolean recordingBlocks;
+	private long[] blockOffsets;
+	private long[] blockTextStarts;
+	private int blockCount;
+	private long textHandedOut;
+
+	/**
+	 * @param file to read.
+	 * @param threads number of blocks this stream has inflated at once, on the shared threads.  With 1,
+	 *     blocks are inflated on the calling thread.
+	 */
+	BgzfInputStream( File file, int threads ) throws IOException {
+		this( file, threads, 0, Long.MAX_VALUE );
+	}
+
+	/**
+	 * Read only the text from one virtual offset up to another.
+	 *
+	 * @param beginVirtualOffset of the first byte to read.
+	 * @param endVirtualOffset just past the last byte to read; Long.MAX_VALUE for end of file.
+	 */
+	BgzfInputStream( File file, int threads, long beginVirtualOffset, long endVirtualOffset ) throws IOException {
+		this.file = file;
+		this.nextBlockOffset = beginVirtualOffset >>> 16;
+		this.firstBlockSkip = (int)( beginVirtualOffset & 0xffff );
+		this.endBlockOffset = endVirtualOffset >>> 16;
+		this.endTextOffset = (int)( endVirtualOffset & 0xffff );
+		FileInputStream fileIn = new FileInputStream( file );
+		try {
+			fileIn.getChannel().position( nextBlockOffset );
+		} catch ( IOException ioe ) {
+			fileIn.close();
+			throw ioe;
+		}
+		this.in = new DataInputStream( new BufferedInputStream( fileIn, 128 * 1024 ) );
+		this.executor = threads > 1 ? SharedInflaters.EXECUTOR : null;
+		this.maxInFlight = threads * BLOCKS_IN_FLIGHT_PER_THREAD;
+	}
+
+	/** Keep track of block positions from here on, so that text offsets may be made into virtual offsets. */
+	void recordBlocks() {
+		recordingBlocks = true;
+		blockOffsets = new long[ 64 ];
+		blockTextStarts = new long[ 64 ];
+	}
+
+	/**
+	 * Virtual offset of a text offset, counted from the start of this stream.  Call recordBlocks() before
+	 * reading, and ask only for offsets of text already read.
+	 */
+	long virtualOffsetOf( long textOffset ) {
+		int low = 0;
+		int high = blockCount - 1;
+		while ( low < high ) {
+			// Last block beginning at or before the offset.  Empty blocks give way to any block after them.
+			int middle = ( low + high + 1 ) >>> 1;
+			if ( blockTextStarts[ middle ] <= textOffset ) {
+				low = middle;
+			}
+			else {
+				high = middle - 1;
+			}
+		}
+		if ( blockCount == 0  ||  blockTextStarts[ low ] > textOffset ) {
+			throw new IllegalArgumentException( "Text offset " + textOffset + " has not been read." );
+		}
+		return ( blockOffsets[ low ] << 16 ) | ( textOffset - blockTextStarts[ low ] );
+	}
+
+	/** Tells if the header is that of a gzip member carrying the BGZF "BC" subfield. */
+	static boolean isBgzfHeader( byte[] header ) {
+		return ( header[ 0 ] & 0xff ) == 0x1f  &&  ( header[ 1 ] & 0xff ) == 0x8b  &&  header[ 2 ] == 8
+		    &&  ( header[ 3 ] & FLAG_EXTRA ) != 0
+		    &&  header[ 12 ] == 'B'  &&  header[ 13 ] == 'C'  &&  header[ 14 ] == 2  &&  header[ 15 ] == 0;
+	}
+
+	@Override
+	public int read() throws IOException {
+		if ( ! ensureText() ) {
+			return -1;
+		}
+		return block[ blockPos++ ] & 0xff;
+	}
+
+	@Override
+	public int read( byte[] b, int off, int len ) throws IOException {
+		if ( len == 0 ) {
+			return 0;
+		}
+		if ( ! ensureText() ) {
+			return -1;
+		}
+		int count = Math.min( len, blockLimit - blockPos );
+		System.arraycopy( block, blockPos, b, off, count );
+		blockPos += count;
+		return count;
+	}
+
+	@Override
+	public int available() {
+		return blockLimit - blockPos;
+	}
+
+	@Override
+	public void close() throws IOException {
+		for ( Future<InflatedBlock> abandoned: inFlight ) {
+			abandoned.cancel( true );
+		}
+		inFlight.clear();    // The threads are shared, so are left running.
+		in.close();
+	}
+
+	/** Make sure there is text left in the current block, taking the next non-empty one as needed. */
+	private boolean ensureText() throws IOException {
+		while ( blockPos >= blockLimit ) {
+			fillPipeline();
+			if ( inFlight.isEmpty() ) {
+				return false;
+			}
+			InflatedBlock inflated = await( inFlight.poll() );
+			if ( recordingBlocks ) {
+				record( inflated );
+			}
+			block = inflated.text;
+			blockLimit = inflated.offset == endBlockOffset ? Math.min( endTextOffset, block.length ) : block.length;
+			blockPos = Math.min( firstBlockSkip, blockLimit );
+			firstBlockSkip = 0;
+		}
+		return true;
+	}
+
+	private void record( InflatedBlock inflated ) {
+		if ( blockCount == blockOffsets.length ) {
+			blockOffsets = Arrays.copyOf( blockOffsets, blockCount * 2 );
+			blockTextStarts = Arrays.copyOf( blockTextStarts, blockCount * 2 );
+		}
+		blockOffsets[ blockCount ] = inflated.offset;
+		blockTextStarts[ blockCount++ ] = textHandedOut;
+		textHandedOut += inflated.text.length;
+	}
+
+	/** Read blocks from the file until enough are in flight, or there are no more. */
+	private void fillPipeline() throws IOException {
+		while ( ! allBlocksRead  &&  inFlight.size() < maxInFlight ) {
+			CompressedBlock compressed = nextBlockOffset > endBlockOffset ? null : readBlock();
+			if ( compressed == null ) {
+				allBlocksRead = true;
+			}
+			else if ( executor == null ) {
+				inFlight.add( CompletableFuture.completedFuture( compressed.inflate() ) );
+				return;
+			}
+			else {
+				inFlight.add( executor.submit( compressed::inflate ) );
+			}
+		}
+	}
+
+	/** @return next block's compressed data, or null at end of file. */
+	private CompressedBlock readBlock() throws IOException {
+		long blockOffset = nextBlockOffset;
+		byte[] header = new byte[ FIXED_HEADER_SIZE ];
+		int first = in.read();
+		if ( first == -1 ) {
+			return null;
+		}
+		header[ 0 ] = (byte)first;
+		in.readFully( header, 1, FIXED_HEADER_SIZE - 1 );
+		if ( ( header[ 0 ] & 0xff ) != 0x1f  ||  ( header[ 1 ] & 0xff ) != 0x8b  ||  ( header[ 3 ] & FLAG_EXTRA ) == 0 ) {
+			throw new IOException( "Not a BGZF block at byte " + blockOffset + " of " + file );
+		}
+		int extraLength = littleEndianShort( header, 10 );
+		byte[] extra = new byte[ extraLength ];
+		in.readFully( extra );
+		int blockSize = findBlockSize( extra, blockOffset );
+		int remaining = blockSize - FIXED_HEADER_SIZE - extraLength;
+		if ( remaining < TRAILER_SIZE ) {
+			throw new IOException( "BGZF block at byte " + blockOffset + " of " + file + " is too short." );
+		}
+		byte[] data = new byte[ remaining ];
+		try {
+			in.readFully( data );
+		} catch ( EOFException eofe ) {
+			throw new IOException( "BGZF block at byte " + blockOffset + " of " + file + " is cut short.", eofe );
+		}
+		nextBlockOffset += blockSize;
+		return new CompressedBlock( blockOffset, data );
+	}
+
+	/** Total block size, from the "BC" subfield of the extra field. */
+	private int findBlockSize( byte[] extra, long blockOffset ) throws IOException {
+		int pos = 0;
+		while ( pos + 4 <= extra.length ) {
+			int subfieldLength = littleEndianShort( extra, pos + 2 );
+			if ( extra[ pos ] == 'B'  &&  extra[ pos + 1 ] == 'C'  &&  subfieldLength == 2  &&  pos + 6 <= extra.length ) {
+				return littleEndianShort( extra, pos + 4 ) + 1;
+			}
+			pos += 4 + subfieldLength;
+		}
+		throw new IOException( "Gzip member at byte " + blockOffset + " of " + file + " has no BGZF block size." );
+	}
+
+	private static int littleEndianShort( byte[] buf, int pos ) {
+		return ( buf[ pos ] & 0xff ) | ( ( buf[ pos + 1 ] & 0xff ) << 8 );
+	}
+
+	private static int littleEndianInt( byte[] buf, int pos ) {
+		return littleEndianShort( buf, pos ) | ( littleEndianShort( buf, pos + 2 ) << 16 );
+	}
+
+	private InflatedBlock await( Future<InflatedBlock> future ) throws IOException {
+		try {
+			return future.get();
+		} catch ( InterruptedException ie ) {
+			Thread.currentThread().interrupt();
+			throw new IOException( "Interrupted while inflating " + file, ie );
+		} catch ( ExecutionException ee ) {
+			Throwable cause = ee.getCause();
+			if ( cause instanceof IOException ) {
+				throw (IOException)cause;
+			}
+			throw new IOException( "Failed to inflate " + file, ee );
+		}
+	}
+
+	/** Threads inflating for all streams, made on first use. */
+	private static class SharedInflaters {
+		private static final ExecutorService EXECUTOR = makeExecutor();
+
+		private static ExecutorService makeExecutor() {
+			int threads = Runtime.getRuntime().availableProcessors();
+			ThreadPoolExecutor executor = new ThreadPoolExecutor( threads, threads, IDLE_THREAD_SECONDS, TimeUnit.SECONDS,
+					new LinkedBlockingQueue<Runnable>(), new DaemonThreadFactory( "gff3-inflate" ) );
+			executor.allowCoreThreadTimeOut( true );
+			return executor;
+		}
+	}
+
+	/** Deflated data of one block, with its CRC32 and length trailer. */
+	private class CompressedBlock {
+		private final long offset;
+		private final byte[] data;
+
+		CompressedBlock( long offset, byte[] data ) {
+			this.offset = offset;
+			this.data = data;
+		}
+
+		InflatedBlock inflate() throws IOException {
+			int textLength = littleEndianInt( data, data.length - 4 );
+			byte[] text = new byte[ textLength ];
+			Inflater inflater = new Inflater( true );
+			try {
+				inflater.setInput( data, 0, data.length - TRAILER_SIZE );
+				int count = 0;
+				while ( count < textLength  &&  ! inflater.finished() ) {
+					int inflated = inflater.inflate( text, count, textLength - count );
+					if ( inflated == 0  &&  ( inflater.needsInput()  ||  inflater.needsDictionary() ) ) {
+						break;
+					}
+					count += inflated;
+				}
+				if ( count != textLength ) {
+					throw new IOException( "BGZF block at byte " + offset + " of " + file + " inflates to " + count + " bytes, not " + textLength );
+				}
+			} catch ( DataFormatException dfe ) {
+				throw new IOException( "BGZF block at byte " + offset + " of " + file + " is corrupt.", dfe );
+			} finally {
+				inflater.end();
+			}
+			CRC32 crc = new CRC32();
+			crc.update( text, 0, textLength );
+			if ( (int)crc.getValue() != littleEndianInt( data, data.length - TRAILER_SIZE ) ) {
+				throw new IOException( "BGZF block at byte " + offset + " of " + file + " fails its CRC check." );
+			}
+			return new InflatedBlock( offset, text );
+		}
+	}
+
+	/** Text of one block, and where the block sits in the file. */
+	private static class InflatedBlock {
+		private final long offset;
+		private final byte[] text;
+
+		InflatedBlock( long offset, byte[] text ) {
+			this.offset = offset;
+			this.text = text;
+		}
+	}
+}
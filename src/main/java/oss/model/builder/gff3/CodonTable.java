@@ -0,0 +1,117 @@
+/**
+ *   Copyright Leslie L. Foster, 2011.
+ *
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation; version 2.1 of the License.
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation, Inc.
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+package oss.model.builder.gff3;
+
+import java.util.Arrays;
+
+/**
+ * A genetic code, as numbered by NCBI, for translating coding sequence by table lookup.  Each codon's
+ * three bases are taken as two bits apiece, in NCBI's T, C, A, G order, giving its index among the
+ * 64 amino acids of the table.  Codons holding anything but A, C, G, T or U translate to X.
+ */
+public final class CodonTable {
+	/** The standard code: table 1. */
+	public static final CodonTable STANDARD = new CodonTable( 1,
+			"FFLLSSSSYY**CC*WLLLLPPPPHHQQRRRRIIIMTTTTNNKKSSRRVVVVAAAADDEEGGGG",
+			"---M------**--*----M---------------M----------------------------" );
+	/** Vertebrate mitochondrial: table 2. */
+	public static final CodonTable VERTEBRATE_MITOCHONDRIAL = new CodonTable( 2,
+			"FFLLSSSSYY**CCWWLLLLPPPPHHQQRRRRIIMMTTTTNNKKSS**VVVVAAAADDEEGGGG",
+			"----------**--------------------MMMM----------**---M------------" );
+	/** Mold, protozoan and coelenterate mitochondrial; mycoplasma: table 4. */
+	public static final CodonTable MOLD_MITOCHONDRIAL = new CodonTable( 4,
+			"FFLLSSSSYY**CCWWLLLLPPPPHHQQRRRRIIIMTTTTNNKKSSRRVVVVAAAADDEEGGGG",
+			"--MM------**-------M------------MMMM---------------M------------" );
+	/** Bacterial, archaeal and plant plastid: table 11. */
+	public static final CodonTable BACTERIAL = new CodonTable( 11,
+			"FFLLSSSSYY**CC*WLLLLPPPPHHQQRRRRIIIMTTTTNNKKSSRRVVVVAAAADDEEGGGG",
+			"---M------**--*----M------------MMMM---------------M------------" );
+
+	private static final byte[] BASE_CODES = new byte[ 128 ];
+	static {
+		Arrays.fill( BASE_CODES, (byte)-1 );
+		String bases = "TCAG";
+		for ( int i = 0; i < bases.length(); i++ ) {
+			BASE_CODES[ bases.charAt( i ) ] = (byte)i;
+			BASE_CODES[ Character.toLowerCase( bases.charAt( i ) ) ] = (byte)i;
+		}
+		BASE_CODES[ 'U' ] = BASE_CODES[ 'u' ] = BASE_CODES[ 'T' ];
+	}
+
+	private final int ncbiId;
+	private final char[] aminoAcids;
+	private final boolean[] starts;
+
+	private CodonTable( int ncbiId, String aminoAcids, String starts ) {
+		this.ncbiId = ncbiId;
+		this.aminoAcids = aminoAcids.toCharArray();
+		this.starts = new boolean[ 64 ];
+		for ( int i = 0; i < 64; i++ ) {
+			this.starts[ i ] = starts.charAt( i ) == 'M';
+		}
+	}
+
+	/**
+	 * The table of an NCBI number, as given by a transl_table attribute.
+	 *
+	 * @return table, or null if not one of those held here.
+	 */
+	public static CodonTable forNcbiId( int ncbiId ) {
+		switch ( ncbiId ) {
+			case 1: return STANDARD;
+			case 2: return VERTEBRATE_MITOCHONDRIAL;
+			case 4: return MOLD_MITOCHONDRIAL;
+			case 11: return BACTERIAL;
+			default: return null;
+		}
+	}
+
+	public int getNcbiId() { return ncbiId; }
+
+	/**
+	 * Translate the codons of the sequence from an offset on, leaving off any partial codon at the end.
+	 *
+	 * @param bases coding sequence, 5' to 3'.
+	 * @param from offset of the first codon, as given by the phase of the first coding part.
+	 * @param asStart to give M for the first codon if it is an alternative start codon, as for a
+	 *     complete coding sequence.
+	 * @param protein receives the amino acids, stops as '*'.
+	 */
+	public void translate( CharSequence bases, int from, boolean asStart, StringBuilder protein ) {
+		for ( int i = from; i + 3 <= bases.length(); i += 3 ) {
+			int codon = codonIndex( bases.charAt( i ), bases.charAt( i + 1 ), bases.charAt( i + 2 ) );
+			if ( codon < 0 ) {
+				protein.append( 'X' );
+			}
+			else if ( asStart  &&  i == from  &&  starts[ codon ] ) {
+				protein.append( 'M' );
+			}
+			else {
+				protein.append( aminoAcids[ codon ] );
+			}
+		}
+	}
+
+	private static int codonIndex( char first, char second, char third ) {
+		if ( ( first | second | third ) >= 128 ) {
+			return -1;
+		}
+		int codon = BASE_CODES[ first ] << 4 | BASE_CODES[ second ] << 2 | BASE_CODES[ third ];
+		return ( BASE_CODES[ first ] | BASE_CODES[ second ] | BASE_CODES[ third ] ) < 0 ? -1 : codon;
+	}
+}
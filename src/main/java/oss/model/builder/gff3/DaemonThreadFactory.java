@@ -0,0 +1,40 @@
+/**
+ *   Copyright Leslie L. Foster, 2011.
+ *
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation; version 2.1 of the License.
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation, Inc.
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+package oss.model.builder.gff3;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Named daemon threads, so an abandoned read never holds up exit. */
+class DaemonThreadFactory implements ThreadFactory {
+	private static final AtomicInteger poolNumber = new AtomicInteger( 1 );
+	private final String prefix;
+	private final AtomicInteger threadNumber = new AtomicInteger( 1 );
+
+	/** @param name what the threads do, as in "gff3-parse". */
+	DaemonThreadFactory( String name ) {
+		this.prefix = name + "-" + poolNumber.getAndIncrement() + "-";
+	}
+
+	@Override
+	public Thread newThread( Runnable r ) {
+		Thread thread = new Thread( r, prefix + threadNumber.getAndIncrement() );
+		thread.setDaemon( true );
+		return thread;
+	}
+}
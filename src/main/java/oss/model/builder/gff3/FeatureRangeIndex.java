@@ -0,0 +1,205 @@
+/**
+ *   Copyright Leslie L. Foster, 2011.
+ *
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation; version 2.1 of the License.
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation, Inc.
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+package oss.model.builder.gff3;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Finds the assembled features overlapping a region of a landmark, in O(log n + k).
+ *
+ * Each landmark's features are sorted by start into arrays, and those arrays are read as an implicit
+ * balanced binary tree: the node at index i sits at the level given by its count of trailing one bits.
+ * Every node also carries the greatest end found in its subtree, which lets whole subtrees be passed
+ * over when they end before the query starts.  (This is the layout of Heng Li's cgranges.)
+ *
+ * Coordinates are GFF3's: 1-based, with both start and end included.  Results come back in order of start.
+ */
+public class FeatureRangeIndex {
+	private static final Comparator<ModelTreeNode> BY_START_THEN_END =
+			Comparator.comparingInt( ( ModelTreeNode node ) -> node.getModel().getStart() )
+			          .thenComparingInt( node -> node.getModel().getEnd() );
+
+	private final Map<String,LandmarkIntervals> landmarkVsIntervals = new HashMap<>();
+
+	/** Index the nodes given for each landmark.  Nodes lacking a model or coordinates are left out. */
+	public FeatureRangeIndex( Map<String,? extends Collection<ModelTreeNode>> landmarkVsNodes ) {
+		for ( Map.Entry<String,? extends Collection<ModelTreeNode>> entry: landmarkVsNodes.entrySet() ) {
+			landmarkVsIntervals.put( entry.getKey(), new LandmarkIntervals( entry.getValue() ) );
+		}
+	}
+
+	/** Every feature of the landmark overlapping start..end, inclusive. */
+	public List<ModelTreeNode> query( String landmarkId, int start, int end ) {
+		return query( landmarkId, start, end, null, null );
+	}
+
+	/**
+	 * Features of the landmark overlapping start..end, inclusive, optionally narrowed down.
+	 *
+	 * @param strand only features on this strand; null for any.
+	 * @param types only features whose type is among these; null for any.
+	 */
+	public List<ModelTreeNode> query( String landmarkId, int start, int end,
+			                          Gff3GenericModel.Strand strand, Set<String> types ) {
+		LandmarkIntervals intervals = landmarkVsIntervals.get( landmarkId );
+		if ( intervals == null ) {
+			return Collections.emptyList();
+		}
+		List<ModelTreeNode> found = new ArrayList<>();
+		intervals.query( start, end, strand, types, found );
+		return found;
+	}
+
+	/** Number of features indexed for the landmark. */
+	public int size( String landmarkId ) {
+		LandmarkIntervals intervals = landmarkVsIntervals.get( landmarkId );
+		return intervals == null ? 0 : intervals.nodes.length;
+	}
+
+	/** Sorted intervals of one landmark, with subtree maximum ends. */
+	private static class LandmarkIntervals {
+		private final ModelTreeNode[] nodes;
+		private final int[] starts;
+		private final int[] ends;
+		private final int[] maxEnds;
+		private final int rootLevel;
+
+		LandmarkIntervals( Collection<ModelTreeNode> candidates ) {
+			List<ModelTreeNode> sorted = new ArrayList<>( candidates.size() );
+			for ( ModelTreeNode node: candidates ) {
+				Gff3GenericModel model = node.getModel();
+				if ( model != null  &&  model.getStart() != null  &&  model.getEnd() != null ) {
+					sorted.add( node );
+				}
+			}
+			sorted.sort( BY_START_THEN_END );
+
+			int n = sorted.size();
+			nodes = sorted.toArray( new ModelTreeNode[ n ] );
+			starts = new int[ n ];
+			ends = new int[ n ];
+			maxEnds = new int[ n ];
+			for ( int i = 0; i < n; i++ ) {
+				starts[ i ] = nodes[ i ].getModel().getStart();
+				ends[ i ] = nodes[ i ].getModel().getEnd();
+			}
+			rootLevel = computeMaxEnds();
+		}
+
+		/**
+		 * Fill in the greatest end of each subtree, bottom level up.  Subtrees may hang past the end of
+		 * the arrays; those missing parts take the greatest end seen at the right edge of the level below.
+		 *
+		 * @return level of the root, or -1 if empty.
+		 */
+		private int computeMaxEnds() {
+			int n = starts.length;
+			if ( n == 0 ) {
+				return -1;
+			}
+			int lastIndex = 0;
+			int lastMax = 0;
+			for ( int i = 0; i < n; i += 2 ) {
+				lastIndex = i;
+				lastMax = maxEnds[ i ] = ends[ i ];
+			}
+			int level;
+			for ( level = 1; ( 1L << level ) <= n; level++ ) {
+				int halfSpan = 1 << ( level - 1 );
+				int first = ( halfSpan << 1 ) - 1;
+				int step = halfSpan << 2;
+				for ( int i = first; i < n; i += step ) {
+					int leftMax = maxEnds[ i - halfSpan ];
+					int rightMax = i + halfSpan < n ? maxEnds[ i + halfSpan ] : lastMax;
+					maxEnds[ i ] = Math.max( ends[ i ], Math.max( leftMax, rightMax ) );
+				}
+				// Move to the parent of the right-most node.
+				lastIndex = ( ( lastIndex >> level ) & 1 ) != 0 ? lastIndex - halfSpan : lastIndex + halfSpan;
+				if ( lastIndex < n ) {
+					lastMax = maxEnds[ lastIndex ];
+				}
+			}
+			return level - 1;
+		}
+
+		void query( int start, int end, Gff3GenericModel.Strand strand, Set<String> types, List<ModelTreeNode> found ) {
+			int n = starts.length;
+			if ( n == 0 ) {
+				return;
+			}
+			// Depth-first, in order; each stack entry is a node's level, index, and whether its left side is done.
+			int[] levels = new int[ 64 ];
+			int[] indexes = new int[ 64 ];
+			boolean[] leftDone = new boolean[ 64 ];
+			int top = 0;
+			levels[ top ] = rootLevel;
+			indexes[ top ] = ( 1 << rootLevel ) - 1;
+			leftDone[ top++ ] = false;
+			while ( top > 0 ) {
+				top--;
+				int level = levels[ top ];
+				int index = indexes[ top ];
+				if ( level <= 3 ) {
+					// Small subtree: just scan it.
+					int first = index >> level << level;
+					int last = Math.min( n, first + ( 1 << ( level + 1 ) ) - 1 );
+					for ( int i = first; i < last  &&  starts[ i ] <= end; i++ ) {
+						if ( ends[ i ] >= start ) {
+							accept( i, strand, types, found );
+						}
+					}
+				}
+				else if ( ! leftDone[ top ] ) {
+					int left = index - ( 1 << ( level - 1 ) );
+					leftDone[ top++ ] = true;    // Revisit this node once the left side is done.
+					if ( left >= n  ||  maxEnds[ left ] >= start ) {
+						levels[ top ] = level - 1;
+						indexes[ top ] = left;
+						leftDone[ top++ ] = false;
+					}
+				}
+				else if ( index < n  &&  starts[ index ] <= end ) {
+					if ( ends[ index ] >= start ) {
+						accept( index, strand, types, found );
+					}
+					levels[ top ] = level - 1;
+					indexes[ top ] = index + ( 1 << ( level - 1 ) );
+					leftDone[ top++ ] = false;
+				}
+			}
+		}
+
+		private void accept( int i, Gff3GenericModel.Strand strand, Set<String> types, List<ModelTreeNode> found ) {
+			Gff3GenericModel model = nodes[ i ].getModel();
+			if ( strand != null  &&  strand != model.getStrand() ) {
+				return;
+			}
+			if ( types != null  &&  ! types.contains( model.getType() ) ) {
+				return;
+			}
+			found.add( nodes[ i ] );
+		}
+	}
+}
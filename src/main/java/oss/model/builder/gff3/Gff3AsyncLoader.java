@@ -0,0 +1,207 @@
+/**
+ *   Copyright Leslie L. Foster, 2011.
+ *
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation; version 2.1 of the License.
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation, Inc.
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+package oss.model.builder.gff3;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Assembles models in the background, on a fixed number of threads, handing back CompletableFutures.
+ * Whole files and single landmarks may be asked for.  Work waits its turn by priority, highest first,
+ * then in order of asking, so that the landmark a user is looking at can go ahead of a bulk preload:
+ *
+ * <pre>
+ *     Gff3AsyncLoader loader = new Gff3AsyncLoader();
+ *     CompletableFuture&lt;Map&lt;String,AssembledModels&gt;&gt; all = loader.loadAll( files, Gff3AsyncLoader.PRIORITY_BACKGROUND );
+ *     loader.loadLandmark( file, "chrIV", Gff3AsyncLoader.PRIORITY_VIEWING ).thenAccept( view::show );
+ * </pre>
+ *
+ * Asking again for work that is waiting or running gives the same future; if asked at a higher
+ * priority, waiting work moves up.  Finished work is not kept: ask again, and it is done again.
+ *
+ * Each piece of work has an assembler of its own, from the assembler factory.  A landmark is read by
+ * Gff3DataAssembler.prepareModels(), so an assembler with an index file reads only that landmark's lines.
+ */
+public class Gff3AsyncLoader implements AutoCloseable {
+	/** For the landmark in front of the user. */
+	public static final int PRIORITY_VIEWING = 100;
+	/** For what may soon be wanted. */
+	public static final int PRIORITY_NORMAL = 50;
+	/** For preloading. */
+	public static final int PRIORITY_BACKGROUND = 0;
+
+	private final ThreadPoolExecutor executor;
+	private final AtomicLong sequence = new AtomicLong();
+	private final ConcurrentMap<List<String>,LoadTask<?>> pending = new ConcurrentHashMap<>();
+	private volatile Function<String,Gff3DataAssembler> assemblerFactory = Gff3DataAssembler::new;
+
+	/** Loader with a thread per processor. */
+	public Gff3AsyncLoader() {
+		this( Runtime.getRuntime().availableProcessors() );
+	}
+
+	/** @param threads most pieces of work done at once. */
+	public Gff3AsyncLoader( int threads ) {
+		if ( threads < 1 ) {
+			throw new IllegalArgumentException( "Threads must be at least 1." );
+		}
+		executor = new ThreadPoolExecutor( threads, threads, 0, TimeUnit.MILLISECONDS,
+				new PriorityBlockingQueue<Runnable>(), new DaemonThreadFactory( "gff3-load" ) );
+	}
+
+	/**
+	 * @param assemblerFactory makes the assembler for an input file, configured as wanted: with snapshot,
+	 *     index or metrics listener, say.  Called once per piece of work, on the thread doing it.
+	 */
+	public void setAssemblerFactory( Function<String,Gff3DataAssembler> assemblerFactory ) {
+		this.assemblerFactory = assemblerFactory;
+	}
+
+	public Function<String,Gff3DataAssembler> getAssemblerFactory() { return assemblerFactory; }
+
+	/** All models of a file, as Gff3DataAssembler.assembleAll() gives them. */
+	public CompletableFuture<AssembledModels> loadFile( String inputfile, int priority ) {
+		return submit( Arrays.asList( inputfile, null ), priority,
+				() -> assemblerFactory.apply( inputfile ).assembleAll() );
+	}
+
+	/** Models of many files, loaded side by side.  Fails if any file fails. */
+	public CompletableFuture<Map<String,AssembledModels>> loadAll( Collection<String> inputfiles, int priority ) {
+		final Map<String,CompletableFuture<AssembledModels>> fileVsFuture = new LinkedHashMap<>();
+		for ( String inputfile: inputfiles ) {
+			fileVsFuture.put( inputfile, loadFile( inputfile, priority ) );
+		}
+		return CompletableFuture.allOf( fileVsFuture.values().toArray( new CompletableFuture<?>[ 0 ] ) )
+				.thenApply( ignored -> {
+					Map<String,AssembledModels> fileVsModels = new LinkedHashMap<>();
+					for ( Map.Entry<String,CompletableFuture<AssembledModels>> entry: fileVsFuture.entrySet() ) {
+						fileVsModels.put( entry.getKey(), entry.getValue().join() );
+					}
+					return fileVsModels;
+				} );
+	}
+
+	/** Top-level features of one landmark of a file, as Gff3DataAssembler.prepareModels() gives them. */
+	public CompletableFuture<List<ModelTreeNode>> loadLandmark( String inputfile, String landmarkId, int priority ) {
+		return submit( Arrays.asList( inputfile, landmarkId ), priority, () -> {
+			Gff3DataAssembler assembler = assemblerFactory.apply( inputfile );
+			assembler.prepareModels( landmarkId );
+			return assembler.getTopLevelFeatures();
+		} );
+	}
+
+	/** Pieces of work waiting for a thread. */
+	public int getQueuedCount() {
+		return executor.getQueue().size();
+	}
+
+	/** Stop: work under way is interrupted, and all unfinished futures are cancelled. */
+	@Override
+	public void close() {
+		executor.shutdownNow();
+		for ( LoadTask<?> task: new ArrayList<>( pending.values() ) ) {
+			task.future.cancel( false );
+		}
+	}
+
+	@SuppressWarnings( "unchecked" )
+	private <T> CompletableFuture<T> submit( List<String> key, int priority, Callable<T> work ) {
+		while ( true ) {
+			LoadTask<?> existing = pending.get( key );
+			if ( existing != null ) {
+				existing.raisePriority( priority );
+				return (CompletableFuture<T>)existing.future;
+			}
+			LoadTask<T> task = new LoadTask<>( key, priority, work );
+			if ( pending.putIfAbsent( key, task ) == null ) {
+				try {
+					executor.execute( task );
+				} catch ( RejectedExecutionException ree ) {
+					pending.remove( key, task );
+					task.future.completeExceptionally( new CancellationException( "Loader is closed." ) );
+				}
+				return task.future;
+			}
+		}
+	}
+
+	/** One piece of work, ordered in the queue by priority and then by order of asking. */
+	private class LoadTask<T> implements Runnable, Comparable<LoadTask<?>> {
+		private final List<String> key;
+		private final Callable<T> work;
+		private final CompletableFuture<T> future = new CompletableFuture<>();
+		private final long order = sequence.getAndIncrement();
+		// Changed only while out of the queue, so the queue's order is never upset.
+		private volatile int priority;
+
+		LoadTask( List<String> key, int priority, Callable<T> work ) {
+			this.key = key;
+			this.priority = priority;
+			this.work = work;
+		}
+
+		@Override
+		public void run() {
+			try {
+				if ( ! future.isDone() ) {
+					future.complete( work.call() );
+				}
+			} catch ( Throwable t ) {
+				future.completeExceptionally( t );
+			} finally {
+				pending.remove( key, this );
+			}
+		}
+
+		/** Move up the queue, if still waiting there. */
+		synchronized void raisePriority( int newPriority ) {
+			if ( newPriority > priority  &&  executor.getQueue().remove( this ) ) {
+				priority = newPriority;
+				try {
+					executor.execute( this );
+				} catch ( RejectedExecutionException ree ) {
+					pending.remove( key, this );
+					future.completeExceptionally( new CancellationException( "Loader is closed." ) );
+				}
+			}
+		}
+
+		@Override
+		public int compareTo( LoadTask<?> other ) {
+			if ( priority != other.priority ) {
+				return priority > other.priority ? -1 : 1;
+			}
+			return Long.compare( order, other.order );
+		}
+	}
+}
@@ -0,0 +1,73 @@
+/**
+ *   Copyright Leslie L. Foster, 2011.
+ *
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation; version 2.1 of the License.
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation, Inc.
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+package oss.model.builder.gff3;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * How a GFF3 file is stored, as told by its first bytes rather than its name.
+ */
+enum Gff3Compression {
+	/** Plain text. */
+	NONE,
+	/** Ordinary gzip: one or more members, inflated in order. */
+	GZIP,
+	/** Blocked gzip, as written by bgzip: members of at most 64KB, each of which may be inflated apart. */
+	BGZF;
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	/** Tell how the file is stored.  Files too short to hold a gzip header are plain text. */
+	static Gff3Compression of( File file ) throws IOException {
+		byte[] header = new byte[ BgzfInputStream.HEADER_SIZE ];
+		int count = 0;
+		try ( InputStream in = new FileInputStream( file ) ) {
+			int read;
+			while ( count < header.length  &&  0 < ( read = in.read( header, count, header.length - count ) ) ) {
+				count += read;
+			}
+		}
+		if ( count < 2  ||  ( header[ 0 ] & 0xff ) != 0x1f  ||  ( header[ 1 ] & 0xff ) != 0x8b ) {
+			return NONE;
+		}
+		return count == header.length  &&  BgzfInputStream.isBgzfHeader( header ) ? BGZF : GZIP;
+	}
+
+	/** Open the file for reading its text, inflating as needed. */
+	static InputStream open( File file ) throws IOException {
+		switch ( of( file ) ) {
+		    case GZIP : return new GZIPInputStream( new FileInputStream( file ), BUFFER_SIZE );
+		    case BGZF : return new BgzfInputStream( file, Runtime.getRuntime().availableProcessors() );
+		    default   : return new FileInputStream( file );
+		}
+	}
+
+	/** Tells if the file's bytes are its text, so it may be mapped and cut at line starts. */
+	static boolean isPlainText( File file ) {
+		try {
+			return of( file ) == NONE;
+		} catch ( IOException ioe ) {
+			// Let whoever reads it next report the problem.
+			return true;
+		}
+	}
+}
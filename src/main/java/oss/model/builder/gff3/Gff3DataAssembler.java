@@ -19,8 +19,14 @@ package oss.model.builder.gff3;
 
 import oss.model.builder.gff3.Gff3LineReader.Gff3LineReaderException;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.zip.CRC32;
 
 
 /**
@@ -31,10 +37,22 @@ import java.util.*;
 public class Gff3DataAssembler {
 	private Gff3LineReader rdr;
 	private String inputfile;
-	private Map<String,ModelTreeNode> idVsNode;
-	private List<ModelTreeNode> topLevelFeatures;
+	private LandmarkForest currentForest;
+	private Map<String,LandmarkForest> landmarkVsForest;
+	private List<Gff3GenericModel> axisModels;
+	private FeatureRangeIndex rangeIndex;
+	private File snapshotFile;
+	private Gff3SnapshotFile snapshot;
+	private File indexFile;
+	private Gff3Index index;
+	private Gff3MetricsListener metricsListener;
+	private ReadPosition readPosition;
+	private StringPool readStringPool;
+	private boolean modelsShared;
 	private int nextUnknownId = 1;
 	private boolean multiParentedFeaturesAcceptable;
+	private boolean batchParentResolution;
+	private int assemblyParallelism = 1;
 	
 	/** Construct with the only-ever input file to be run through this assembler. */
 	public Gff3DataAssembler( String inputfile ) {
@@ -57,12 +75,78 @@ public class Gff3DataAssembler {
 	}
 
 	/**
-	 * Get the model objects representing all axes, by light scan. 
+	 * @param batchParentResolution true to link features to their parents only once a whole read is done.
+	 *     Each read first gives every model its node, then makes all links in one pass, so a parent
+	 *     appearing after its children needs no placeholder, and a rejected model is simply passed over.
+	 *     Best for input not sorted parents first.  False, the default, to link each feature as it is read.
+	 */
+	public void setBatchParentResolution( boolean batchParentResolution ) {
+		this.batchParentResolution = batchParentResolution;
+	}
+
+	public boolean isBatchParentResolution() { return batchParentResolution; }
+
+	/**
+	 * @param assemblyParallelism number of threads building landmark forests at once in prepareAllModels().
+	 *     Above 1, the input is read through first, and each landmark's features are then assembled as a
+	 *     task of their own; a landmark is never split, so one holding most features gains little.
+	 *     The metrics listener is then told of placeholders and rejections from those threads.
+	 *     Defaults to 1: each feature is assembled as it is read, on the calling thread.
+	 */
+	public void setAssemblyParallelism( int assemblyParallelism ) {
+		if ( assemblyParallelism < 1 ) {
+			throw new IllegalArgumentException( "Parallelism must be at least 1." );
+		}
+		this.assemblyParallelism = assemblyParallelism;
+	}
+
+	public int getAssemblyParallelism() { return assemblyParallelism; }
+
+	/**
+	 * @param snapshotFile where prepareAllModels() keeps a binary image of what it assembles.  When that
+	 *     image was made from the input as it now stands, with multi-parented features accepted or not
+	 *     as they now are, it is loaded in place of reading the input.  Null, the default, for none.
+	 */
+	public void setSnapshotFile( File snapshotFile ) {
+		this.snapshotFile = snapshotFile;
+	}
+
+	public File getSnapshotFile() { return snapshotFile; }
+
+	/**
+	 * @param indexFile where the sidecar index of the input is kept; see Gff3Index.  With it,
+	 *     prepareModels() reads only the lines of the axis or region asked for.  It is built, by one
+	 *     full read, if missing or stale.  Null, the default, for none.
+	 */
+	public void setIndexFile( File indexFile ) {
+		this.indexFile = indexFile;
+		this.index = null;
+	}
+
+	public File getIndexFile() { return indexFile; }
+
+	/**
+	 * @param metricsListener told of the reading done, of the time taken assembling, and of features
+	 *     renamed, rejected or waiting on their parents.  Null, the default, for none.
+	 */
+	public void setMetricsListener( Gff3MetricsListener metricsListener ) {
+		this.metricsListener = metricsListener;
+	}
+
+	public Gff3MetricsListener getMetricsListener() { return metricsListener; }
+
+
+	/**
+	 * Get the model objects representing all axes, by light scan.  If prepareAllModels() has
+	 * been called, the axes found during that single read are returned instead.
 	 * @return list of models.
 	 */
 	public List<Gff3GenericModel> getAxisModels() {
+		if ( axisModels != null ) {
+			return axisModels;
+		}
 		List<Gff3GenericModel> axisModels = new ArrayList<Gff3GenericModel>();
-		List<String> existingLandmarkIds = new ArrayList<String>();
+		Set<String> existingLandmarkIds = new HashSet<String>();
 		Gff3LineReader rdr = initReader();
 		try {
 			Gff3GenericModel model;
@@ -83,148 +167,493 @@ public class Gff3DataAssembler {
 
 	/**
 	 * Prepare models for use by caller.  Order dependency: call this before calling getTopLevelModels().
+	 * If prepareAllModels() has already been called, no further reading of the input takes place.
 	 * 
 	 * @param axisId models must refer to this as their "landmark" (gff3 term).
 	 */
 	public void prepareModels( String axisId ) {
-		Gff3LineReader rdr = initReader();
+		if ( landmarkVsForest != null ) {
+			currentForest = getForest( axisId );
+			return;
+		}
+		prepareModels( axisId, null, null );
+	}
+
+	/**
+	 * Prepare only the models of an axis which overlap a region.  Features are expected to lie within
+	 * their parents, as the specification has it; a feature whose parent is wholly outside the region
+	 * hangs from a placeholder node, so is not reached from getTopLevelFeatures().  The input is always
+	 * read, for only this region.
+	 *
+	 * @param start first position, 1-based.
+	 * @param end last position, inclusive.
+	 */
+	public void prepareModels( String axisId, int start, int end ) {
+		prepareModels( axisId, Integer.valueOf( start ), Integer.valueOf( end ) );
+	}
+
+	private void prepareModels( String axisId, Integer start, Integer end ) {
+		rangeIndex = null;
+		long began = metricsListener == null ? 0 : System.nanoTime();
+		long unescapesBefore = metricsListener == null ? 0 : Gff3FieldDecoder.unescapeCount();
+		Gff3LineReader rdr = initReader( axisId, start, end );
 		StringBuilder errs = new StringBuilder();
-		Set<String> uniqueIds = new HashSet<>();
 		try {
 			Gff3GenericModel model;
-			idVsNode = new HashMap<>();
-			topLevelFeatures = new ArrayList<>();
+			currentForest = new LandmarkForest( axisId );
+			// The reader gives one instance per distinct landmark, so other landmarks' lines are told by identity.
+			String canonicalAxisId = rdr.getStringPool().intern( axisId );
 			while ( null != ( model = rdr.nextLine() ) ) {
-				if ( ! ( model.getLandmarkId()).equals( axisId ) ) {
+				if ( model.getLandmarkId() != canonicalAxisId ) {
 					continue;						
 				}
-
-				ModelTreeNode nodeForModel = null;
-				try {
-					establishValidModelId( model, uniqueIds );
-					String modelId = model.getId();
-					nodeForModel = getNodeForModel( model, modelId );
-					makeAssociations( nodeForModel );
-				} catch ( BadModelException bme ) {
-					backoutModel(model, nodeForModel);
-					// Add to error messages.
-					errs.append( bme.getMessage() + " " );
+				if ( start != null  &&  ( model.getEnd() < start  ||  model.getStart() > end ) ) {
+					continue;
 				}
+
+				currentForest.add( model, errs );
 			}
+			currentForest.resolvePending( errs );
 		} catch ( Gff3LineReaderException glre ) {
 			throw new RuntimeException( "Failed to read file " + inputfile, glre );
 		} finally {
 			rdr.close();			
 		}
-		if (errs.length() < 0 ) {
-			System.out.println("WARNING: the following problems occurred while reading input file " + inputfile + "\n" );
-			System.out.println("         " + errs.toString() );
-		}
-		
-	}
-	
-	/** Call this after "prepareModels." */
-	public List<ModelTreeNode> getTopLevelFeatures() {
-		return topLevelFeatures; 
+		warnOfProblems( errs );
+		reportAssembly( rdr, began, unescapesBefore, currentForest.ids.size() );
 	}
 
-	/** Convenience method to get rid of a model which has been rejected for some reason. */
-	private void backoutModel( Gff3GenericModel model, ModelTreeNode nodeForModel ) {
-		// Cleanup.
-		idVsNode.remove( model.getId() );
-		topLevelFeatures.remove( nodeForModel );
-
-		if ( nodeForModel != null ) {
-			List<ModelTreeNode> childNodes = nodeForModel.getChildren();
-			if ( childNodes != null ) {
-				for ( ModelTreeNode childNode: childNodes ) {
-					childNode.getParents().remove( nodeForModel );
+	/**
+	 * Prepare models for all landmarks in a single read of the input.  Afterward, models for any
+	 * axis may be had from getTopLevelFeatures(String), or by prepareModels(String) without re-reading.
+	 */
+	public void prepareAllModels() {
+		if ( snapshotFile != null  &&  loadSnapshot() ) {
+			return;
+		}
+		long began = metricsListener == null ? 0 : System.nanoTime();
+		long unescapesBefore = metricsListener == null ? 0 : Gff3FieldDecoder.unescapeCount();
+		// Plain text is checksummed on the way through, so that refresh() can tell an added-to file.  As
+		// by refresh(), it is read only up to its last line end, so that a line still being written is not
+		// taken for a whole one; a last line with no end is looked at separately.
+		ReadPosition.Tracker tracker = null;
+		CRC32 crc = new CRC32();
+		long lastLineEnd = 0;
+		File file = new File( inputfile );
+		if ( Gff3Compression.isPlainText( file ) ) {
+			try {
+				lastLineEnd = ReadPosition.lastLineEnd( file, 0 );
+			} catch ( IOException ioe ) {
+				throw new RuntimeException( "Failed to read file " + inputfile, ioe );
+			}
+			tracker = new ReadPosition.Tracker( new MappedRangeInputStream( file, 0, lastLineEnd ), crc, 0 );
+		}
+		Gff3LineReader rdr = tracker == null ? initReader() : initReader( tracker, 0 );
+		ReadPosition readPosition = null;
+		StringBuilder errs = new StringBuilder();
+		Map<String,LandmarkForest> landmarkVsForest = new LinkedHashMap<>();
+		List<Gff3GenericModel> axisModels = new ArrayList<Gff3GenericModel>();
+		Set<String> existingLandmarkIds = new HashSet<String>();
+		try {
+			Gff3GenericModel model;
+			LandmarkForest forest = null;
+			while ( null != ( model = rdr.nextLine() ) ) {
+				forest = placeModel( model, forest, landmarkVsForest, axisModels, existingLandmarkIds, errs );
+			}
+			if ( tracker != null ) {
+				readPosition = new ReadPosition( file, rdr.getLineEndOffset(), tracker, rdr.getLinesRead(), rdr.isFastaReached() );
+				byte[] unended = rdr.isFastaReached() ? null : ReadPosition.unendedTail( file, lastLineEnd );
+				if ( unended != null ) {
+					// Whole if it reads as a feature line; it is then read again if anything is added to it.
+					ReadPosition.Tracker tailTracker = new ReadPosition.Tracker( new ByteArrayInputStream( unended ), crc, lastLineEnd );
+					Gff3LineReader tailRdr = initReader( tailTracker, rdr.getLinesRead() );
+					tailRdr.setStringPool( rdr.getStringPool() );    // Landmark IDs stay comparable by identity.
+					try {
+						while ( null != ( model = tailRdr.nextLine() ) ) {
+							forest = placeModel( model, forest, landmarkVsForest, axisModels, existingLandmarkIds, errs );
+						}
+						readPosition = new ReadPosition( file, lastLineEnd + unended.length, tailTracker,
+								                         tailRdr.getLinesRead(), tailRdr.isFastaReached() );
+					} catch ( Gff3LineReaderException glre ) {
+						System.out.println( "WARNING: last line of input file " + inputfile + " has no line end, and is not whole; "
+								            + "it is left for a later refresh.  " + glre.getMessage() );
+					} finally {
+						tailRdr.close();
+					}
 				}
-				childNodes.clear();
 			}
-			List<ModelTreeNode> parentNodes = nodeForModel.getParents();
-			if ( parentNodes != null ) {
-				for ( ModelTreeNode parentNode: parentNodes ) {
-					parentNode.getChildren().remove( nodeForModel );
+			if ( assemblyParallelism > 1 ) {
+				assembleDeferred( landmarkVsForest.values(), errs );
+			}
+			else {
+				for ( LandmarkForest landmarkForest: landmarkVsForest.values() ) {
+					landmarkForest.resolvePending( errs );
 				}
-				parentNodes.clear();
 			}
+		} catch ( Gff3LineReaderException glre ) {
+			throw new RuntimeException( "Failed to read file " + inputfile, glre );
+		} catch ( IOException ioe ) {
+			throw new RuntimeException( "Failed to read file " + inputfile, ioe );
+		} finally {
+			rdr.close();
+		}
+		warnOfProblems( errs );
+		if ( metricsListener != null ) {
+			int nodeCount = 0;
+			for ( LandmarkForest forest: landmarkVsForest.values() ) {
+				nodeCount += forest.ids.size();
+			}
+			reportAssembly( rdr, began, unescapesBefore, nodeCount );
 		}
-	}
 
-	/** Make sure that a usable ID exists in the model by return time. */
-	private void establishValidModelId(Gff3GenericModel model, Set<String> uniqueIds) {
-		String modelId = ensureIdGiven( model );
-		model.setId( modelId );
-		if ( uniqueIds.contains( model.getId() ) ) {
-			model.setId( model.getId() + ":" + model.getStart() + ":" + model.getEnd() );
+		this.landmarkVsForest = landmarkVsForest;
+		this.axisModels = axisModels;
+		this.currentForest = null;
+		this.rangeIndex = null;
+		this.snapshot = null;
+		this.readPosition = readPosition;
+		this.readStringPool = rdr.getStringPool();
+		this.modelsShared = false;
+		if ( snapshotFile != null ) {
+			saveSnapshot();
 		}
-		uniqueIds.add( model.getId() );
 	}
 	
-	/** This will make sure the model has an ID, and return it. */
-	private String ensureIdGiven(Gff3GenericModel model) {
-		String nextModelId = model.getId();
-		if ( nextModelId == null ) {
-			model.setId( generateMockId() );
+	/**
+	 * Take a model read by prepareAllModels() into the forest of its landmark.
+	 *
+	 * @param forest that of the model before, or null.
+	 * @return forest the model went to.
+	 */
+	private LandmarkForest placeModel( Gff3GenericModel model, LandmarkForest forest, Map<String,LandmarkForest> landmarkVsForest,
+			                           List<Gff3GenericModel> axisModels, Set<String> existingLandmarkIds, StringBuilder errs ) {
+		// Axis test must see the model before its ID is settled by assembly.
+		if ( isAxis( model, existingLandmarkIds ) ) {
+			existingLandmarkIds.add( model.getLandmarkId() );
+			axisModels.add( model );
+		}
+
+		// Lines for a landmark tend to be contiguous, so avoid a lookup where possible.  Landmark IDs
+		// come canonical from the reader, so identity tells a change of landmark.
+		if ( forest == null  ||  forest.landmarkId != model.getLandmarkId() ) {
+			forest = landmarkVsForest.get( model.getLandmarkId() );
+			if ( forest == null ) {
+				forest = new LandmarkForest( model.getLandmarkId() );
+				landmarkVsForest.put( model.getLandmarkId(), forest );
+			}
+		}
+		if ( assemblyParallelism > 1 ) {
+			// Made-up IDs are numbered in order of input, as when assembling serially.
+			if ( model.getId() == null ) {
+				model.setId( generateMockId() );
+			}
+			forest.defer( model );
 		}
 		else {
-			model.setId( nextModelId );
+			forest.add( model, errs );
 		}
-		return nextModelId;
+		return forest;
 	}
 
-	/** Establish relationships that can be deduced from the model's contained information. */
-	private void makeAssociations( ModelTreeNode newNode ) throws BadModelException {
-		// HERE: settle the relationships among the nodes: parent/child are the only ones as of now.
-		Gff3GenericModel model = newNode.getModel();
-		String[] parentIdArr = model.getParent();
-		if ( parentIdArr == null  ||  parentIdArr.length == 0 ) {
-			// If no parent, this is a top-level features.
-			topLevelFeatures.add( newNode );
-			
+	/**
+	 * Prepare models for all landmarks, as prepareAllModels(), and give them as an unchanging set which
+	 * may be shared among threads.  The nodes are frozen: they may still be read through this
+	 * assembler, but no longer changed.
+	 */
+	public AssembledModels assembleAll() {
+		prepareAllModels();
+		Map<String,NodeIdIndex> landmarkVsIds = new LinkedHashMap<>();
+		Map<String,List<ModelTreeNode>> landmarkVsTopLevelFeatures = new HashMap<>();
+		for ( String landmarkId: new ArrayList<String>( landmarkVsForest.keySet() ) ) {
+			LandmarkForest forest = getForest( landmarkId );
+			landmarkVsIds.put( landmarkId, forest.ids );
+			landmarkVsTopLevelFeatures.put( landmarkId, forest.topLevelFeatures );
 		}
-		else {
-			if ( ! multiParentedFeaturesAcceptable  &&  parentIdArr.length > 1 ) {
-				throw new BadModelException( "Found multiple parent IDs found for " + model.getId() + " and that has been set unacceptable." );
+		modelsShared = true;
+		return new AssembledModels( inputfile, axisModels, landmarkVsIds, landmarkVsTopLevelFeatures );
+	}
+
+	/**
+	 * Bring the models of all landmarks up to date with an input which has been added to since
+	 * prepareAllModels(), reading only the lines added.  New features are linked in among those already
+	 * assembled; those naming a parent that had been referred to before it appeared fill in its placeholder.
+	 * A last line not yet ended is left for the next refresh.
+	 *
+	 * The input is read in full again, as by prepareAllModels(), if what was read before has changed, or
+	 * cannot be checked: when the input is compressed, or the models came from a snapshot or were given
+	 * out by assembleAll(), or the last line read had no line end.
+	 *
+	 * @return count of models added, or -1 if the input was read in full again.
+	 */
+	public int refresh() {
+		checkAllModelsPrepared();
+		File file = new File( inputfile );
+		ReadPosition position = readPosition;
+		CRC32 crc;
+		long end;
+		try {
+			crc = position == null  ||  modelsShared ? null : position.checkPrefix( file );
+			if ( crc == null  ||  ( ! position.endsWithLineEnd()  &&  file.length() > position.getOffset() ) ) {
+				prepareAllModels();
+				return -1;
 			}
-				
-			// Set parentage for all....
-			for ( String nextParentId: parentIdArr ) {
-				ModelTreeNode parentNode = idVsNode.get( nextParentId );
-				if ( parentNode == null ) {
-					parentNode = new ModelTreeNode( nextParentId );
-					idVsNode.put( model.getId(), parentNode );
+			if ( position.isFastaReached() ) {
+				return 0;    // Anything added is sequence.
+			}
+			end = ReadPosition.lastLineEnd( file, position.getOffset() );
+		} catch ( IOException ioe ) {
+			throw new RuntimeException( "Failed to read file " + inputfile, ioe );
+		}
+		if ( end == position.getOffset() ) {
+			return 0;
+		}
+
+		long began = metricsListener == null ? 0 : System.nanoTime();
+		long unescapesBefore = metricsListener == null ? 0 : Gff3FieldDecoder.unescapeCount();
+		ReadPosition.Tracker tracker = new ReadPosition.Tracker(
+				new MappedRangeInputStream( file, position.getOffset(), end ), crc, position.getOffset() );
+		Gff3LineReader rdr = initReader( tracker, position.getLineCount() );
+		rdr.setStringPool( readStringPool );    // Landmark IDs stay comparable by identity.
+		StringBuilder errs = new StringBuilder();
+		Set<String> existingLandmarkIds = new HashSet<String>();
+		for ( Gff3GenericModel axisModel: axisModels ) {
+			existingLandmarkIds.add( axisModel.getLandmarkId() );
+		}
+		int added = 0;
+		try {
+			Gff3GenericModel model;
+			while ( null != ( model = rdr.nextLine() ) ) {
+				if ( isAxis( model, existingLandmarkIds ) ) {
+					existingLandmarkIds.add( model.getLandmarkId() );
+					axisModels.add( model );
 				}
-				parentNode.addChild( newNode );
-				newNode.addParent( parentNode );
+				LandmarkForest forest = landmarkVsForest.get( model.getLandmarkId() );
+				if ( forest == null ) {
+					forest = new LandmarkForest( model.getLandmarkId() );
+					landmarkVsForest.put( model.getLandmarkId(), forest );
+				}
+				forest.add( model, errs );
+				added++;
+			}
+			for ( LandmarkForest forest: landmarkVsForest.values() ) {
+				forest.resolvePending( errs );
 			}
+			readPosition = new ReadPosition( file, position.getOffset() + rdr.getLineEndOffset(), tracker,
+					                         rdr.getLinesRead(), rdr.isFastaReached() );
+		} catch ( Gff3LineReaderException glre ) {
+			throw new RuntimeException( "Failed to read file " + inputfile, glre );
+		} catch ( IOException ioe ) {
+			throw new RuntimeException( "Failed to read file " + inputfile, ioe );
+		} finally {
+			rdr.close();
+		}
+		warnOfProblems( errs );
+		rangeIndex = null;
+		if ( metricsListener != null ) {
+			int nodeCount = 0;
+			for ( LandmarkForest forest: landmarkVsForest.values() ) {
+				nodeCount += forest.ids.size();
+			}
+			reportAssembly( rdr, began, unescapesBefore, nodeCount );
+		}
+		return added;
+	}
 
+	/** Call this after "prepareModels." */
+	public List<ModelTreeNode> getTopLevelFeatures() {
+		return currentForest == null ? null : currentForest.topLevelFeatures; 
+	}
+
+	/**
+	 * Call this after "prepareModels."  Nodes standing for parents never seen, which hold no model; their
+	 * children are not reached from getTopLevelFeatures().
+	 */
+	public List<ModelTreeNode> getPlaceholderRoots() {
+		if ( currentForest == null ) {
+			return null;
+		}
+		List<ModelTreeNode> placeholderRoots = new ArrayList<>();
+		for ( ModelTreeNode node: currentForest.ids.nodes() ) {
+			if ( node.getModel() == null  &&  ( node.getParents() == null  ||  node.getParents().isEmpty() ) ) {
+				placeholderRoots.add( node );
+			}
 		}
+		return placeholderRoots;
 	}
 
-	/** Make sure a node exists for this model.  Could be pre-existing, or may be created. */
-	private ModelTreeNode getNodeForModel( Gff3GenericModel model,
-			                               String nextModelId ) throws BadModelException {
+	/** Call this after "prepareAllModels."  Features for a landmark not found in the input make an empty list. */
+	public List<ModelTreeNode> getTopLevelFeatures( String axisId ) {
+		return getForest( axisId ).topLevelFeatures;
+	}
+
+	/** Call this after "prepareAllModels."  Tells all landmarks seen, in order of first appearance. */
+	public Set<String> getLandmarkIds() {
+		checkAllModelsPrepared();
+		return Collections.unmodifiableSet( landmarkVsForest.keySet() );
+	}
 
-		// HERE: settle the question of creation of the tree node for the model under study.
-		// A model's node may have been specified by a previous addition of one of its children.
-		ModelTreeNode node = idVsNode.get( nextModelId );
-		if ( node != null ) {
-			if ( node.getModel() != null ) {
-				String message = "ID " + nextModelId + " not unique.  Dropping data for ID " + nextModelId;
-				throw new BadModelException( message );
+	/**
+	 * Overlap index of the prepared features: those of all landmarks after "prepareAllModels," or else of
+	 * the one axis from "prepareModels."  Built on first request, and rebuilt after the input is read again.
+	 */
+	public FeatureRangeIndex getRangeIndex() {
+		if ( rangeIndex == null ) {
+			Map<String,Collection<ModelTreeNode>> landmarkVsNodes = new HashMap<>();
+			if ( landmarkVsForest != null ) {
+				for ( String landmarkId: landmarkVsForest.keySet() ) {
+					landmarkVsNodes.put( landmarkId, getForest( landmarkId ).ids.nodes() );
+				}
+			}
+			else if ( currentForest != null ) {
+				landmarkVsNodes.put( currentForest.landmarkId, currentForest.ids.nodes() );
 			}
 			else {
-				node.setModel( model );
+				throw new IllegalStateException( "Call prepareModels() or prepareAllModels() before requesting the range index." );
 			}
+			rangeIndex = new FeatureRangeIndex( landmarkVsNodes );
 		}
-		else {
-			node = new ModelTreeNode( model );
-			idVsNode.put( model.getId(), node );
+		return rangeIndex;
+	}
+
+	/**
+	 * Assemble the features held back by each forest, one fork/join task per forest.  Each task has its
+	 * forest and its own error messages to itself; the messages are gathered in landmark order at the end.
+	 */
+	private void assembleDeferred( Collection<LandmarkForest> forests, StringBuilder errs ) {
+		ForkJoinPool pool = new ForkJoinPool( assemblyParallelism );
+		try {
+			List<ForkJoinTask<StringBuilder>> tasks = new ArrayList<>();
+			for ( LandmarkForest forest: forests ) {
+				tasks.add( pool.submit( () -> {
+					StringBuilder forestErrs = new StringBuilder();
+					forest.assembleDeferred( forestErrs );
+					return forestErrs;
+				} ) );
+			}
+			for ( ForkJoinTask<StringBuilder> task: tasks ) {
+				errs.append( task.join() );
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+	}
 
+	/** Find the forest of a landmark, from the all-landmarks read. */
+	private LandmarkForest getForest( String axisId ) {
+		checkAllModelsPrepared();
+		LandmarkForest forest = landmarkVsForest.get( axisId );
+		if ( forest == null ) {
+			Gff3SnapshotFile.LandmarkNodes nodes = snapshot == null ? null : snapshot.readLandmark( axisId );
+			if ( nodes == null ) {
+				return new LandmarkForest( axisId );
+			}
+			// Landmarks from a snapshot are built on first use.
+			forest = new LandmarkForest( axisId, nodes );
+			landmarkVsForest.put( axisId, forest );
 		}
-		return node;
+		return forest;
+	}
+
+	/**
+	 * Take up the snapshot, if it was made from the input as it now stands.
+	 *
+	 * @return true if loaded.
+	 */
+	private boolean loadSnapshot() {
+		Gff3SnapshotFile snapshot = Gff3SnapshotFile.openIfValid( snapshotFile, new File( inputfile ),
+				Gff3SnapshotFile.settings( multiParentedFeaturesAcceptable ) );
+		if ( snapshot == null ) {
+			return false;
+		}
+		Map<String,LandmarkForest> landmarkVsForest = new LinkedHashMap<>();
+		for ( String landmarkId: snapshot.getLandmarkIds() ) {
+			landmarkVsForest.put( landmarkId, null );
+		}
+		this.landmarkVsForest = landmarkVsForest;
+		this.axisModels = snapshot.getAxisModels();
+		this.snapshot = snapshot;
+		this.currentForest = null;
+		this.rangeIndex = null;
+		this.readPosition = null;    // Where the snapshot's read ended is not known.
+		this.modelsShared = false;
+		return true;
+	}
+
+	/** Keep what was just assembled.  Failing that is no reason to fail the caller, who has their models. */
+	private void saveSnapshot() {
+		Map<String,Gff3SnapshotFile.LandmarkNodes> landmarkVsNodes = new LinkedHashMap<>();
+		for ( LandmarkForest forest: landmarkVsForest.values() ) {
+			landmarkVsNodes.put( forest.landmarkId, new Gff3SnapshotFile.LandmarkNodes( forest.ids.nodes(), forest.topLevelFeatures ) );
+		}
+		try {
+			Gff3SnapshotFile.write( snapshotFile, new File( inputfile ), axisModels, landmarkVsNodes,
+					Gff3SnapshotFile.settings( multiParentedFeaturesAcceptable ) );
+		} catch ( IOException | RuntimeException ex ) {
+			System.out.println( "WARNING: failed to write snapshot " + snapshotFile + " of input file " + inputfile + ": " + ex.getMessage() );
+		}
+	}
+
+	private void checkAllModelsPrepared() {
+		if ( landmarkVsForest == null ) {
+			throw new IllegalStateException( "Call prepareAllModels() before requesting models by landmark." );
+		}
+	}
+
+	/** Tell the listener the time taken assembling, less that of the reading it drove, and the nodes it left. */
+	private void reportAssembly( Gff3LineReader rdr, long began, long unescapesBefore, int nodeCount ) {
+		if ( metricsListener == null ) {
+			return;
+		}
+		long nanos = System.nanoTime() - began - rdr.getReadNanos();
+		long unescapes = Gff3FieldDecoder.unescapeCount() - unescapesBefore - rdr.getUnescapes();
+		metricsListener.phaseCompleted( inputfile, Gff3MetricsListener.Phase.ASSEMBLE, nanos, unescapes );
+		metricsListener.nodesAssembled( inputfile, nodeCount );
+	}
+
+	/** Tell the caller of any models that had to be dropped. */
+	private void warnOfProblems( StringBuilder errs ) {
+		if (errs.length() > 0 ) {
+			System.out.println("WARNING: the following problems occurred while reading input file " + inputfile + "\n" );
+			System.out.println("         " + errs.toString() );
+		}
+	}
+
+	/**
+	 * Prepare means of reading the lines of an axis, or of a region of it, through the index if there
+	 * is one.  Other lines may also be given.
+	 */
+	private Gff3LineReader initReader( String axisId, Integer start, Integer end ) {
+		if ( indexFile != null  &&  index == null ) {
+			try {
+				index = Gff3Index.readOrBuild( new File( inputfile ), indexFile );
+			} catch ( IOException ioe ) {
+				System.out.println( "WARNING: cannot index input file " + inputfile + "; reading all of it.  " + ioe.getMessage() );
+				indexFile = null;
+			}
+		}
+		if ( index == null ) {
+			return initReader();
+		}
+		try {
+			rdr = start == null ? index.openLandmark( new File( inputfile ), axisId )
+					            : index.openRegion( new File( inputfile ), axisId, start, end );
+		} catch ( Gff3LineReaderException glre ) {
+			throw new RuntimeException( glre );
+		}
+		rdr.setMetricsListener( metricsListener );
+		return rdr;
+	}
+
+	/** Prepare means of reading the input from a stream, which may start partway, after the lines given. */
+	private Gff3LineReader initReader( InputStream in, int linesBefore ) {
+		try {
+			rdr = new Gff3LineReader( inputfile, in );
+			rdr.setLinesBefore( linesBefore );
+		} catch ( Gff3LineReaderException glre ) {
+			throw new RuntimeException( glre );
+		}
+		rdr.setMetricsListener( metricsListener );
+		return rdr;
 	}
 
 	/** Prepare means of reading the input, so models can be used. */
@@ -239,11 +668,12 @@ public class Gff3DataAssembler {
 			}
 			throw new RuntimeException( glre );
 		}
+		rdr.setMetricsListener( metricsListener );
 		return rdr;
 	}
 	
 	/** Axes are characterized by having either their ID's equal to their landmark ID's, or their IDs being empty. */
-	private boolean isAxis( Gff3GenericModel model, List<String> existingModelIds ) {
+	private boolean isAxis( Gff3GenericModel model, Set<String> existingModelIds ) {
 		String landmarkId = model.getLandmarkId();
 		String modelId = model.getId();
 		boolean returnVal = false;
@@ -271,6 +701,218 @@ public class Gff3DataAssembler {
 		return "Unknown_Feature_" + nextUnknownId++;
 	}
 	
+	/**
+	 * The nodes assembled for one landmark: its ID-to-node lookup, which also tells the IDs already taken,
+	 * and the features having no parent.  Parent/child relationships never cross landmarks, so each of
+	 * these may be built independently.
+	 */
+	private class LandmarkForest {
+		private final String landmarkId;
+		private final NodeIdIndex ids = new NodeIdIndex();
+		private final List<ModelTreeNode> topLevelFeatures = new ArrayList<>();
+		private final List<Gff3GenericModel> pending = new ArrayList<>();    // Awaiting batch resolution.
+		private List<Gff3GenericModel> deferred;                              // Read, but not yet assembled.
+
+		LandmarkForest( String landmarkId ) {
+			this.landmarkId = landmarkId;
+		}
+
+		/** Forest of nodes already assembled, as read back from a snapshot. */
+		LandmarkForest( String landmarkId, Gff3SnapshotFile.LandmarkNodes nodes ) {
+			this.landmarkId = landmarkId;
+			for ( ModelTreeNode node: nodes.getKeyedNodes() ) {
+				ids.put( node.getId(), node );
+				ids.claim( node.getId() );
+			}
+			topLevelFeatures.addAll( nodes.getTopLevelFeatures() );
+		}
+
+		/**
+		 * Place the model into this forest, or drop it, adding the reason to the error messages.  With batch
+		 * parent resolution, the model only gets its ID here; it is placed by resolvePending().
+		 *
+		 * A model is dropped before anything is linked to it, so either way it leaves the forest as it was:
+		 * children read before it stay with the placeholder for its ID, as if it had never appeared, and
+		 * the earlier holder of a clashing ID keeps it.
+		 */
+		void add( Gff3GenericModel model, StringBuilder errs ) {
+			try {
+				establishValidModelId( model );
+				checkParentCount( model );
+				if ( batchParentResolution ) {
+					pending.add( model );
+					return;
+				}
+				String modelId = model.getId();
+				ModelTreeNode nodeForModel = getNodeForModel( model, modelId );
+				makeAssociations( nodeForModel );
+			} catch ( BadModelException bme ) {
+				reportRejection( bme.getMessage(), errs );
+			}
+		}
+
+		/** Hold the model back, to be assembled by assembleDeferred(). */
+		void defer( Gff3GenericModel model ) {
+			if ( deferred == null ) {
+				deferred = new ArrayList<>();
+			}
+			deferred.add( model );
+		}
+
+		/** Assemble the models held back, in the order given.  Touches nothing shared with other forests. */
+		void assembleDeferred( StringBuilder errs ) {
+			if ( deferred != null ) {
+				for ( Gff3GenericModel model: deferred ) {
+					add( model, errs );
+				}
+				deferred = null;
+			}
+			resolvePending( errs );
+		}
+
+		/**
+		 * Place the models held back for batch resolution, in two passes.  The first gives every model a node,
+		 * filling in any placeholder left by an earlier read; the second links each to its parents.  So only
+		 * parents missing from the whole read get placeholders.  A model whose ID is found taken in the first
+		 * pass is dropped by leaving its node out, and the second pass goes by it.
+		 */
+		void resolvePending( StringBuilder errs ) {
+			int count = pending.size();
+			if ( count == 0 ) {
+				return;
+			}
+			ModelTreeNode[] nodes = new ModelTreeNode[ count ];    // Null where the model was dropped.
+			for ( int i = 0; i < count; i++ ) {
+				Gff3GenericModel model = pending.get( i );
+				ModelTreeNode node = ids.get( model.getId() );
+				if ( node == null ) {
+					node = new ModelTreeNode( model );
+					ids.put( model.getId(), node );
+				}
+				else if ( node.getModel() == null ) {
+					node.setModel( model );
+				}
+				else {
+					reportRejection( "ID " + model.getId() + " not unique.  Dropping data for ID " + model.getId(), errs );
+					continue;
+				}
+				nodes[ i ] = node;
+			}
+
+			for ( int i = 0; i < count; i++ ) {
+				ModelTreeNode node = nodes[ i ];
+				if ( node == null ) {
+					continue;
+				}
+				String[] parentIdArr = pending.get( i ).getParent();
+				if ( parentIdArr == null  ||  parentIdArr.length == 0 ) {
+					topLevelFeatures.add( node );
+					continue;
+				}
+				for ( String nextParentId: parentIdArr ) {
+					linkToParent( node, nextParentId );
+				}
+			}
+			pending.clear();
+		}
+
+		/** Add the rejection of a model to the error messages, and tell the listener. */
+		private void reportRejection( String message, StringBuilder errs ) {
+			errs.append( message + " " );
+			if ( metricsListener != null ) {
+				metricsListener.modelRejected( inputfile, message );
+			}
+		}
+
+		/** Make sure that a usable ID exists in the model by return time. */
+		private void establishValidModelId( Gff3GenericModel model ) {
+			String modelId = ensureIdGiven( model );
+			model.setId( modelId );
+			if ( ! ids.claim( model.getId() ) ) {
+				model.setId( model.getId() + ":" + model.getStart() + ":" + model.getEnd() );
+				if ( metricsListener != null ) {
+					metricsListener.duplicateIdRenamed( inputfile, model.getId() );
+				}
+				ids.claim( model.getId() );
+			}
+		}
+	
+		/** This will make sure the model has an ID, and return it. */
+		private String ensureIdGiven(Gff3GenericModel model) {
+			String nextModelId = model.getId();
+			if ( nextModelId == null ) {
+				nextModelId = generateMockId();
+			}
+			model.setId( nextModelId );
+			return nextModelId;
+		}
+
+		/** Establish relationships that can be deduced from the model's contained information. */
+		private void makeAssociations( ModelTreeNode newNode ) {
+			// HERE: settle the relationships among the nodes: parent/child are the only ones as of now.
+			Gff3GenericModel model = newNode.getModel();
+			String[] parentIdArr = model.getParent();
+			if ( parentIdArr == null  ||  parentIdArr.length == 0 ) {
+				// If no parent, this is a top-level features.
+				topLevelFeatures.add( newNode );
+				
+			}
+			else {
+				// Set parentage for all; the count was checked on the way in.
+				for ( String nextParentId: parentIdArr ) {
+					linkToParent( newNode, nextParentId );
+				}
+
+			}
+		}
+
+		private void checkParentCount( Gff3GenericModel model ) throws BadModelException {
+			String[] parentIdArr = model.getParent();
+			if ( ! multiParentedFeaturesAcceptable  &&  parentIdArr != null  &&  parentIdArr.length > 1 ) {
+				throw new BadModelException( "Found multiple parent IDs found for " + model.getId() + " and that has been set unacceptable." );
+			}
+		}
+
+		/** Link the node under the parent of the ID given, making a placeholder for the parent if it is not yet known. */
+		private void linkToParent( ModelTreeNode node, String parentId ) {
+			ModelTreeNode parentNode = ids.get( parentId );
+			if ( parentNode == null ) {
+				// Placeholder, keyed by the parent's ID, so the parent's model is slotted in when it arrives.
+				parentNode = new ModelTreeNode( parentId );
+				ids.put( parentId, parentNode );
+				if ( metricsListener != null ) {
+					metricsListener.placeholderCreated( inputfile, parentId );
+				}
+			}
+			parentNode.addChild( node );
+			node.addParent( parentNode );
+		}
+
+		/** Make sure a node exists for this model.  Could be pre-existing, or may be created. */
+		private ModelTreeNode getNodeForModel( Gff3GenericModel model,
+				                               String nextModelId ) throws BadModelException {
+
+			// HERE: settle the question of creation of the tree node for the model under study.
+			// A model's node may have been specified by a previous addition of one of its children.
+			ModelTreeNode node = ids.get( nextModelId );
+			if ( node != null ) {
+				if ( node.getModel() != null ) {
+					String message = "ID " + nextModelId + " not unique.  Dropping data for ID " + nextModelId;
+					throw new BadModelException( message );
+				}
+				else {
+					node.setModel( model );
+				}
+			}
+			else {
+				node = new ModelTreeNode( model );
+				ids.put( model.getId(), node );
+
+			}
+			return node;
+		}
+	}
+
 	/** Throw this to indicate that a model should not make it back to the caller, due to flaws. */
 	static class BadModelException extends Exception {
 		public BadModelException( String message ) {
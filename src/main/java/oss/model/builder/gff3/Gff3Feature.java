@@ -0,0 +1,53 @@
+/**
+ *   Copyright Leslie L. Foster, 2011.
+ *
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation; version 2.1 of the License.
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation, Inc.
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+package oss.model.builder.gff3;
+
+import java.util.Map;
+
+/**
+ * What can be read of one feature, whether held as a Gff3GenericModel or as a row of a
+ * Gff3FeatureTable.  Getters are as Gff3GenericModel's; see there for their meaning.
+ */
+public interface Gff3Feature {
+	String getLandmarkId();
+	String getSource();
+	String getType();
+
+	/** SOFA code of the type, for SofaTypes.isA(); or SofaTypes.UNKNOWN_CODE. */
+	int getTypeCode();
+
+	Integer getStart();
+	Integer getEnd();
+	Double getScore();
+	Gff3GenericModel.Strand getStrand();
+	Integer getPhase();
+
+	/** All attributes of column 9, in the order read; or null if none were given. */
+	Map<String,String[]> getAttributes();
+
+	String getId();
+	String getName();
+	String getNonUniqueAlias();
+	String[] getParent();
+	String getTargetOfAlignment();
+	String getGap();
+	String getDerivesFrom();
+	String getNote();
+	String[] getDbxref();
+	String getOntologyTerm();
+}
@@ -0,0 +1,439 @@
+/**
+ *   Copyright Leslie L. Foster, 2011.
+ *
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation; version 2.1 of the License.
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation, Inc.
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+package oss.model.builder.gff3;
+
+import oss.model.builder.gff3.Gff3LineReader.Gff3LineReaderException;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Compact store for many features: one primitive array per column, rather than one object per feature.
+ * Coordinates are ints, strand and phase are bytes, and all text (landmark, source, type, the known
+ * attributes, and every attribute key and value) is held as codes into a shared StringPool.
+ * Multi-valued data sit in one shared int array.
+ *
+ * Rows are read through FeatureView, a Gff3Feature whose getters and setters go to the table.
+ * Views are cheap to make and hold nothing but their row number.  Where a Gff3GenericModel is needed,
+ * FeatureView.toModel() copies a row out into one.
+ */
+public class Gff3FeatureTable {
+	/** Stands for a null Integer in the coordinate columns. */
+	private static final int NULL_INT = Integer.MIN_VALUE;
+	/** Stands for a null in the strand, phase and list-position columns. */
+	private static final byte NULL_BYTE = -1;
+	private static final int NO_LIST = -1;
+	private static final int INITIAL_CAPACITY = 1024;
+	private static final Gff3GenericModel.Strand[] STRANDS = Gff3GenericModel.Strand.values();
+
+	private final StringPool pool;
+	private int size;
+
+	private int[] landmarkCodes;
+	private int[] sourceCodes;
+	private int[] typeCodes;
+	private int[] sofaCodes;       // Follows typeCodes; made again on reading back, not written.
+	private int[] starts;
+	private int[] ends;
+	private double[] scores;       // NaN for null.
+	private byte[] strands;
+	private byte[] phases;
+
+	private int[] idCodes;
+	private int[] nameCodes;
+	private int[] aliasCodes;
+	private int[] targetCodes;
+	private int[] gapCodes;
+	private int[] derivesFromCodes;
+	private int[] noteCodes;
+	private int[] ontologyTermCodes;
+
+	// Positions into 'lists'.  A string list is stored as: count, code...
+	// An attribute map is stored as: entry count, then per entry: key code, value count, value code...
+	private int[] parentListPositions;
+	private int[] dbxrefListPositions;
+	private int[] attributeListPositions;
+	private int[] lists;
+	private int listsSize;
+
+	/** Table with a pool of its own. */
+	public Gff3FeatureTable() {
+		this( new StringPool() );
+	}
+
+	/** Table sharing a pool, perhaps with other tables. */
+	public Gff3FeatureTable( StringPool pool ) {
+		this.pool = pool;
+		allocate( INITIAL_CAPACITY );
+		lists = new int[ INITIAL_CAPACITY * 4 ];
+	}
+
+	/** Build a table from all the models a reader can give. */
+	public static Gff3FeatureTable read( Gff3LineReader rdr ) throws Gff3LineReaderException {
+		Gff3FeatureTable table = new Gff3FeatureTable();
+		Gff3GenericModel model;
+		while ( null != ( model = rdr.nextLine() ) ) {
+			table.add( model );
+		}
+		table.trimToSize();
+		return table;
+	}
+
+	/**
+	 * Copy a model's contents into a new row.  The model itself is not kept.
+	 *
+	 * @return row number of the new feature.
+	 */
+	public int add( Gff3Feature model ) {
+		if ( size == starts.length ) {
+			allocate( size + ( size >> 1 ) );
+		}
+		int row = size++;
+		landmarkCodes[ row ] = pool.codeOf( model.getLandmarkId() );
+		sourceCodes[ row ] = pool.codeOf( model.getSource() );
+		typeCodes[ row ] = pool.codeOf( model.getType() );
+		sofaCodes[ row ] = model.getTypeCode();
+		starts[ row ] = toInt( model.getStart() );
+		ends[ row ] = toInt( model.getEnd() );
+		scores[ row ] = model.getScore() == null ? Double.NaN : model.getScore();
+		strands[ row ] = model.getStrand() == null ? NULL_BYTE : (byte)model.getStrand().ordinal();
+		phases[ row ] = model.getPhase() == null ? NULL_BYTE : model.getPhase().byteValue();
+
+		idCodes[ row ] = pool.codeOf( model.getId() );
+		nameCodes[ row ] = pool.codeOf( model.getName() );
+		aliasCodes[ row ] = pool.codeOf( model.getNonUniqueAlias() );
+		targetCodes[ row ] = pool.codeOf( model.getTargetOfAlignment() );
+		gapCodes[ row ] = pool.codeOf( model.getGap() );
+		derivesFromCodes[ row ] = pool.codeOf( model.getDerivesFrom() );
+		noteCodes[ row ] = pool.codeOf( model.getNote() );
+		ontologyTermCodes[ row ] = pool.codeOf( model.getOntologyTerm() );
+
+		parentListPositions[ row ] = addStringList( model.getParent() );
+		dbxrefListPositions[ row ] = addStringList( model.getDbxref() );
+		attributeListPositions[ row ] = addAttributes( model.getAttributes() );
+		return row;
+	}
+
+	/** Number of features held. */
+	public int size() { return size; }
+
+	/** Pool holding all text of this table. */
+	public StringPool getStringPool() { return pool; }
+
+	/** A feature reading from, and writing to, the row given. */
+	public FeatureView view( int row ) {
+		checkRow( row );
+		return new FeatureView( row );
+	}
+
+	// Primitive access, for scans which should not go through a view.
+	public int getStart( int row ) { return starts[ row ]; }
+	public int getEnd( int row ) { return ends[ row ]; }
+	public int getLandmarkCode( int row ) { return landmarkCodes[ row ]; }
+	public int getTypeCode( int row ) { return typeCodes[ row ]; }
+	public int getSourceCode( int row ) { return sourceCodes[ row ]; }
+	public int getIdCode( int row ) { return idCodes[ row ]; }
+	/** SOFA code of the row's type; see SofaTypes. */
+	public int getSofaCode( int row ) { return sofaCodes[ row ]; }
+
+	/** Let go of spare capacity, once all rows have been added. */
+	public void trimToSize() {
+		allocate( size );
+		lists = Arrays.copyOf( lists, listsSize );
+	}
+
+	/** Write every column, row count first.  The pool is written separately, as it may be shared. */
+	void writeTo( DataOutputStream out ) throws IOException {
+		out.writeInt( size );
+		for ( int[] column: intColumns() ) {
+			for ( int row = 0; row < size; row++ ) {
+				out.writeInt( column[ row ] );
+			}
+		}
+		for ( int row = 0; row < size; row++ ) {
+			out.writeDouble( scores[ row ] );
+		}
+		out.write( strands, 0, size );
+		out.write( phases, 0, size );
+		out.writeInt( listsSize );
+		for ( int i = 0; i < listsSize; i++ ) {
+			out.writeInt( lists[ i ] );
+		}
+	}
+
+	/** Read back a table written by writeTo, whose text is in the pool given. */
+	static Gff3FeatureTable readFrom( ByteBuffer in, StringPool pool ) {
+		Gff3FeatureTable table = new Gff3FeatureTable( pool );
+		int size = in.getInt();
+		table.allocate( size );
+		table.size = size;
+		for ( int[] column: table.intColumns() ) {
+			in.asIntBuffer().get( column, 0, size );
+			in.position( in.position() + size * 4 );
+		}
+		int[] poolCodeVsSofaCode = new int[ pool.size() ];    // Each distinct type looked up once.
+		Arrays.fill( poolCodeVsSofaCode, Integer.MIN_VALUE );
+		for ( int row = 0; row < size; row++ ) {
+			int typeCode = table.typeCodes[ row ];
+			if ( typeCode == StringPool.NULL_CODE ) {
+				table.sofaCodes[ row ] = SofaTypes.UNKNOWN_CODE;
+				continue;
+			}
+			if ( poolCodeVsSofaCode[ typeCode ] == Integer.MIN_VALUE ) {
+				poolCodeVsSofaCode[ typeCode ] = SofaTypes.codeOf( pool.stringAt( typeCode ) );
+			}
+			table.sofaCodes[ row ] = poolCodeVsSofaCode[ typeCode ];
+		}
+		in.asDoubleBuffer().get( table.scores, 0, size );
+		in.position( in.position() + size * 8 );
+		in.get( table.strands, 0, size );
+		in.get( table.phases, 0, size );
+		table.listsSize = in.getInt();
+		table.lists = new int[ Math.max( table.listsSize, 1 ) ];
+		in.asIntBuffer().get( table.lists, 0, table.listsSize );
+		in.position( in.position() + table.listsSize * 4 );
+		return table;
+	}
+
+	/** The int columns, in the order they are written. */
+	private int[][] intColumns() {
+		return new int[][] {
+			landmarkCodes, sourceCodes, typeCodes, starts, ends,
+			idCodes, nameCodes, aliasCodes, targetCodes, gapCodes, derivesFromCodes, noteCodes, ontologyTermCodes,
+			parentListPositions, dbxrefListPositions, attributeListPositions
+		};
+	}
+
+	private void checkRow( int row ) {
+		if ( row < 0  ||  row >= size ) {
+			throw new IndexOutOfBoundsException( "Row " + row + " of " + size );
+		}
+	}
+
+	/** Size every column to the capacity given. */
+	private void allocate( int capacity ) {
+		capacity = Math.max( capacity, 1 );
+		landmarkCodes = resize( landmarkCodes, capacity );
+		sourceCodes = resize( sourceCodes, capacity );
+		typeCodes = resize( typeCodes, capacity );
+		sofaCodes = resize( sofaCodes, capacity );
+		starts = resize( starts, capacity );
+		ends = resize( ends, capacity );
+		scores = scores == null ? new double[ capacity ] : Arrays.copyOf( scores, capacity );
+		strands = strands == null ? new byte[ capacity ] : Arrays.copyOf( strands, capacity );
+		phases = phases == null ? new byte[ capacity ] : Arrays.copyOf( phases, capacity );
+		idCodes = resize( idCodes, capacity );
+		nameCodes = resize( nameCodes, capacity );
+		aliasCodes = resize( aliasCodes, capacity );
+		targetCodes = resize( targetCodes, capacity );
+		gapCodes = resize( gapCodes, capacity );
+		derivesFromCodes = resize( derivesFromCodes, capacity );
+		noteCodes = resize( noteCodes, capacity );
+		ontologyTermCodes = resize( ontologyTermCodes, capacity );
+		parentListPositions = resize( parentListPositions, capacity );
+		dbxrefListPositions = resize( dbxrefListPositions, capacity );
+		attributeListPositions = resize( attributeListPositions, capacity );
+	}
+
+	private static int[] resize( int[] column, int capacity ) {
+		return column == null ? new int[ capacity ] : Arrays.copyOf( column, capacity );
+	}
+
+	private static int toInt( Integer value ) {
+		return value == null ? NULL_INT : value;
+	}
+
+	private static Integer fromInt( int value ) {
+		return value == NULL_INT ? null : value;
+	}
+
+	private void ensureListSpace( int needed ) {
+		if ( listsSize + needed > lists.length ) {
+			lists = Arrays.copyOf( lists, Math.max( lists.length + ( lists.length >> 1 ), listsSize + needed ) );
+		}
+	}
+
+	private int addStringList( String[] values ) {
+		if ( values == null ) {
+			return NO_LIST;
+		}
+		ensureListSpace( values.length + 1 );
+		int position = listsSize;
+		lists[ listsSize++ ] = values.length;
+		for ( String value: values ) {
+			lists[ listsSize++ ] = pool.codeOf( value );
+		}
+		return position;
+	}
+
+	private String[] getStringList( int position ) {
+		if ( position == NO_LIST ) {
+			return null;
+		}
+		String[] values = new String[ lists[ position ] ];
+		for ( int i = 0; i < values.length; i++ ) {
+			values[ i ] = pool.stringAt( lists[ position + 1 + i ] );
+		}
+		return values;
+	}
+
+	private int addAttributes( Map<String,String[]> attributes ) {
+		if ( attributes == null ) {
+			return NO_LIST;
+		}
+		int position = listsSize;
+		ensureListSpace( 1 );
+		lists[ listsSize++ ] = attributes.size();
+		for ( Map.Entry<String,String[]> entry: attributes.entrySet() ) {
+			ensureListSpace( 1 );
+			lists[ listsSize++ ] = pool.codeOf( entry.getKey() );
+			addStringList( entry.getValue() );
+		}
+		return position;
+	}
+
+	private Map<String,String[]> getAttributes( int position ) {
+		if ( position == NO_LIST ) {
+			return null;
+		}
+		int entryCount = lists[ position++ ];
+		Map<String,String[]> attributes = new LinkedHashMap<String,String[]>();    // In the order written.
+		for ( int i = 0; i < entryCount; i++ ) {
+			String key = pool.stringAt( lists[ position++ ] );
+			String[] values = getStringList( position );
+			attributes.put( key, values );
+			position += values == null ? 1 : values.length + 1;
+		}
+		return attributes;
+	}
+
+	/**
+	 * Feature backed by one row of the table, holding nothing else.  Setters write through to the table;
+	 * replaced lists and attribute maps are appended, not overwritten in place.  An attribute map given
+	 * by getAttributes() is a fresh copy: changes to it are not seen by the table unless set back.
+	 * Equal to a Gff3GenericModel as two models are equal: by ID, start, end and landmark.
+	 */
+	public class FeatureView implements Gff3Feature {
+		private int row;
+
+		FeatureView( int row ) {
+			this.row = row;
+		}
+
+		/** Reposition this view onto another row, so one view may walk the whole table. */
+		public FeatureView moveTo( int row ) {
+			checkRow( row );
+			this.row = row;
+			return this;
+		}
+
+		public int getRow() { return row; }
+
+		public Gff3FeatureTable getTable() { return Gff3FeatureTable.this; }
+
+		/** A model holding a copy of the row as it now stands. */
+		public Gff3GenericModel toModel() {
+			Gff3GenericModel model = new Gff3GenericModel();
+			model.setLandmarkId( getLandmarkId() );
+			model.setSource( getSource() );
+			model.setType( getType() );
+			model.setStart( getStart() );
+			model.setEnd( getEnd() );
+			model.setScore( getScore() );
+			model.setStrand( getStrand() );
+			model.setPhase( getPhase() );
+			model.setAttributes( getAttributes() );
+			model.setId( getId() );
+			model.setName( getName() );
+			model.setNonUniqueAlias( getNonUniqueAlias() );
+			model.setParent( getParent() );
+			model.setTargetOfAlignment( getTargetOfAlignment() );
+			model.setGap( getGap() );
+			model.setDerivesFrom( getDerivesFrom() );
+			model.setNote( getNote() );
+			model.setDbxref( getDbxref() );
+			model.setOntologyTerm( getOntologyTerm() );
+			return model;
+		}
+
+		@Override
+		public boolean equals( Object o ) {
+			return o instanceof Gff3Feature  &&  Gff3GenericModel.comparisonString( this ).equals( Gff3GenericModel.comparisonString( (Gff3Feature)o ) );
+		}
+
+		@Override
+		public int hashCode() {
+			return Gff3GenericModel.comparisonString( this ).hashCode();
+		}
+
+		public void setLandmarkId( String landmarkId ) { landmarkCodes[ row ] = pool.codeOf( landmarkId ); }
+		@Override public String getLandmarkId() { return pool.stringAt( landmarkCodes[ row ] ); }
+		public void setType( String type ) {
+			typeCodes[ row ] = pool.codeOf( type );
+			sofaCodes[ row ] = SofaTypes.codeOf( type );
+		}
+		@Override public String getType() { return pool.stringAt( typeCodes[ row ] ); }
+		@Override public int getTypeCode() { return sofaCodes[ row ]; }
+		public void setSource( String source ) { sourceCodes[ row ] = pool.codeOf( source ); }
+		@Override public String getSource() { return pool.stringAt( sourceCodes[ row ] ); }
+		public void setScore( Double score ) { scores[ row ] = score == null ? Double.NaN : score; }
+		@Override public Double getScore() { return Double.isNaN( scores[ row ] ) ? null : scores[ row ]; }
+
+		public void setStrand( Gff3GenericModel.Strand strand ) {
+			strands[ row ] = strand == null ? NULL_BYTE : (byte)strand.ordinal();
+		}
+		@Override public Gff3GenericModel.Strand getStrand() {
+			return strands[ row ] == NULL_BYTE ? null : STRANDS[ strands[ row ] ];
+		}
+
+		public void setStart( Integer start ) { starts[ row ] = toInt( start ); }
+		@Override public Integer getStart() { return fromInt( starts[ row ] ); }
+		public void setEnd( Integer end ) { ends[ row ] = toInt( end ); }
+		@Override public Integer getEnd() { return fromInt( ends[ row ] ); }
+		public void setPhase( Integer phase ) { phases[ row ] = phase == null ? NULL_BYTE : phase.byteValue(); }
+		@Override public Integer getPhase() { return phases[ row ] == NULL_BYTE ? null : (int)phases[ row ]; }
+
+		public void setAttributes( Map<String,String[]> attributes ) { attributeListPositions[ row ] = addAttributes( attributes ); }
+		@Override public Map<String,String[]> getAttributes() { return Gff3FeatureTable.this.getAttributes( attributeListPositions[ row ] ); }
+
+		public void setId( String id ) { idCodes[ row ] = pool.codeOf( id ); }
+		@Override public String getId() { return pool.stringAt( idCodes[ row ] ); }
+		public void setName( String name ) { nameCodes[ row ] = pool.codeOf( name ); }
+		@Override public String getName() { return pool.stringAt( nameCodes[ row ] ); }
+		public void setNonUniqueAlias( String alias ) { aliasCodes[ row ] = pool.codeOf( alias ); }
+		@Override public String getNonUniqueAlias() { return pool.stringAt( aliasCodes[ row ] ); }
+		public void setParent( String[] parents ) { parentListPositions[ row ] = addStringList( parents ); }
+		@Override public String[] getParent() { return getStringList( parentListPositions[ row ] ); }
+		public void setTargetOfAlignment( String target ) { targetCodes[ row ] = pool.codeOf( target ); }
+		@Override public String getTargetOfAlignment() { return pool.stringAt( targetCodes[ row ] ); }
+		public void setGap( String gap ) { gapCodes[ row ] = pool.codeOf( gap ); }
+		@Override public String getGap() { return pool.stringAt( gapCodes[ row ] ); }
+		public void setDerivesFrom( String derivesFrom ) { derivesFromCodes[ row ] = pool.codeOf( derivesFrom ); }
+		@Override public String getDerivesFrom() { return pool.stringAt( derivesFromCodes[ row ] ); }
+		public void setNote( String note ) { noteCodes[ row ] = pool.codeOf( note ); }
+		@Override public String getNote() { return pool.stringAt( noteCodes[ row ] ); }
+		public void setDbxref( String[] dbxref ) { dbxrefListPositions[ row ] = addStringList( dbxref ); }
+		@Override public String[] getDbxref() { return getStringList( dbxrefListPositions[ row ] ); }
+		public void setOntologyTerm( String ontologyTerm ) { ontologyTermCodes[ row ] = pool.codeOf( ontologyTerm ); }
+		@Override public String getOntologyTerm() { return pool.stringAt( ontologyTermCodes[ row ] ); }
+	}
+}
@@ -0,0 +1,353 @@
+/**
+ *   Copyright Leslie L. Foster, 2011.
+ *
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation; version 2.1 of the License.
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation, Inc.
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+package oss.model.builder.gff3;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Turns ranges of raw line bytes into the values of a model: numbers, URL-unescaped text and attributes.
+ * Strings are made only for the values asked for.  Splitting follows what String.split() would have done
+ * with the same delimiters, so that models come out as they did when lines were split into Strings first.
+ */
+class Gff3FieldDecoder {
+	/** Returned by parseInt when the range does not hold an integer. */
+	static final long NOT_AN_INT = Long.MIN_VALUE;
+
+	static final String ID_ATTRIB = "ID";
+	static final String NAME_ATTRIB = "Name";
+	static final String ALIAS_ATTRIB = "Alias";
+	static final String PARENT_ATTRIB = "Parent";
+	static final String TARGET_ATTRIB = "Target";
+	static final String GAP_ATTRIB = "Gap";
+	static final String DERIVEMENT_ATTRIB = "Derives_from";
+	static final String NOTE_ATTRIB = "Note";
+	static final String DBXREF_ATTRIB = "Dbxref";
+	static final String DBXREF_ATTRIB_ALT = "db_xref";  // Deviates from standard; used by NCBI.
+	static final String ONTOLOGY_ATTRIB = "Ontology_term";
+
+	private static final byte ESCAPE = '%';
+	private static final byte ATTRIB_SEPARATOR = ';';
+	private static final byte NAME_VALUE_SEPARATOR = '=';
+	private static final byte VALUE_SEPARATOR = ',';
+	private static final String[] NO_VALUES = new String[ 0 ];
+	/** Keys which every file repeats.  Decoding gives back these instances, rather than a new String each line. */
+	private static final String[] KNOWN_KEYS = {
+		ID_ATTRIB, NAME_ATTRIB, ALIAS_ATTRIB, PARENT_ATTRIB, TARGET_ATTRIB, GAP_ATTRIB, DERIVEMENT_ATTRIB,
+		NOTE_ATTRIB, DBXREF_ATTRIB, DBXREF_ATTRIB.toLowerCase(), DBXREF_ATTRIB_ALT, ONTOLOGY_ATTRIB
+	};
+
+	/** Values unescaped on each thread, so that metrics can tell which phase of work did them.  Escapes are rare enough not to notice the count. */
+	private static final ThreadLocal<long[]> UNESCAPES = ThreadLocal.withInitial( () -> new long[ 1 ] );
+
+	private Gff3FieldDecoder() {}
+
+	/** Values holding escapes which the calling thread has unescaped, ever. */
+	static long unescapeCount() {
+		return UNESCAPES.get()[ 0 ];
+	}
+
+	/** Text of the range as-is. */
+	static String toString( byte[] buf, int from, int to ) {
+		return new String( buf, from, to - from, StandardCharsets.UTF_8 );
+	}
+
+	/** Tells if the range is nothing but whitespace, as String.trim() would see it. */
+	static boolean isBlank( byte[] buf, int from, int to ) {
+		for ( int i = from; i < to; i++ ) {
+			if ( ( buf[ i ] & 0xff ) > ' ' ) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Parse an integer, accepting what Integer.parseInt would for ASCII input.
+	 *
+	 * @return the value, or NOT_AN_INT.
+	 */
+	static long parseInt( byte[] buf, int from, int to ) {
+		if ( from >= to ) {
+			return NOT_AN_INT;
+		}
+		boolean negative = false;
+		int i = from;
+		if ( buf[ i ] == '-'  ||  buf[ i ] == '+' ) {
+			negative = buf[ i ] == '-';
+			if ( ++i == to ) {
+				return NOT_AN_INT;
+			}
+		}
+		long value = 0;
+		for ( ; i < to; i++ ) {
+			int digit = buf[ i ] - '0';
+			if ( digit < 0  ||  digit > 9 ) {
+				return NOT_AN_INT;
+			}
+			value = value * 10 + digit;
+			if ( value > (long)Integer.MAX_VALUE + 1 ) {
+				return NOT_AN_INT;
+			}
+		}
+		if ( negative ) {
+			value = -value;
+		}
+		else if ( value > Integer.MAX_VALUE ) {
+			return NOT_AN_INT;
+		}
+		return value;
+	}
+
+	/**
+	 * Some values can have non-printable characters (or in-value delimiters) which must be escaped.  This
+	 * un-translates them from a range of raw bytes.  Only the one String is made, unless escapes are present.
+	 */
+	static String unescapeUrl( byte[] buf, int from, int to, int lineNo ) {
+		int pos = indexOf( buf, from, to, ESCAPE );
+		if ( pos == -1 ) {
+			return toString( buf, from, to );
+		}
+		UNESCAPES.get()[ 0 ]++;
+		int nextPos = from;
+		StringBuilder builder = new StringBuilder( to - from );
+		do {
+			builder.append( toString( buf, nextPos, pos ) );    // Take care of part before match.
+			if ( pos + 2 > to - 1 ) {
+				String value = toString( buf, from, to );
+				System.out.println(
+				   "WARNING: value " + value + " at line " + lineNo +
+				   " has URL-escape that extends past end-of-string.  Truncating to " +
+				   builder.toString() );
+				return builder.toString();
+			}
+			int high = Character.digit( (char)( buf[ pos + 1 ] & 0xff ), 16 );
+			int low = Character.digit( (char)( buf[ pos + 2 ] & 0xff ), 16 );
+			if ( high < 0  ||  low < 0 ) {
+				throw new NumberFormatException( "For input string: \"" + toString( buf, pos + 1, pos + 3 ) + "\"" );
+			}
+			builder.append( (char)( high * 16 + low ) );
+			nextPos = pos + 3;
+		} while ( -1 != ( pos = indexOf( buf, nextPos, to, ESCAPE ) ) );
+
+		builder.append( toString( buf, nextPos, to ) );         // Take care of part after last match.
+		return builder.toString();
+	}
+
+	/** String version of the unescape, for values already made into Strings. */
+	static String unescapeUrl( String value, int lineNo ) {
+		if ( value != null  &&  value.indexOf( '%' ) != -1 ) {
+			byte[] bytes = value.getBytes( StandardCharsets.UTF_8 );
+			value = unescapeUrl( bytes, 0, bytes.length, lineNo );
+		}
+		return value;
+	}
+
+	/**
+	 * Extract the attributes from column 9, treating special ones differently.
+	 *
+	 * A list of feature attributes in the format tag=value. Multiple tag=value pairs are separated by semicolons. URL escaping rules are used
+	 * for tags or values containing the following characters: ",=;". Spaces are allowed in this field, but tabs must be replaced with the %09
+	 * URL escape. This field is not required.
+	 */
+	static Map<String,String[]> parseAttributes( byte[] buf, int from, int to, int lineNo ) {
+		Map<String,String[]> attributes = new LinkedHashMap<String,String[]>();    // In file order, for writing back.
+		parseSettings( buf, from, to, lineNo, null, attributes );
+		return attributes;
+	}
+
+	/**
+	 * Values of just the attributes named, without decoding the others.  As with parseAttributes, a
+	 * later setting of an attribute replaces an earlier one.
+	 *
+	 * @return values of each key, in the order of the keys, or null for any not present.
+	 */
+	static String[][] findAttributes( byte[] buf, int from, int to, int lineNo, String... keys ) {
+		Map<String,String[]> attributes = new HashMap<String,String[]>( keys.length * 2 );
+		parseSettings( buf, from, to, lineNo, keys, attributes );
+		String[][] found = new String[ keys.length ][];
+		for ( int i = 0; i < keys.length; i++ ) {
+			found[ i ] = attributes.get( keys[ i ] );
+		}
+		return found;
+	}
+
+	/** Walk the settings of column 9, decoding all, or only those whose key is wanted. */
+	private static void parseSettings( byte[] buf, int from, int to, int lineNo, String[] wantedKeys, Map<String,String[]> attributes ) {
+		// Trim, as String.trim() would.
+		while ( from < to  &&  ( buf[ from ] & 0xff ) <= ' ' ) {
+			from++;
+		}
+		while ( to > from  &&  ( buf[ to - 1 ] & 0xff ) <= ' ' ) {
+			to--;
+		}
+		if ( from == to ) {
+			return;
+		}
+
+		int settingsEnd = dropTrailingEmpties( buf, from, to, ATTRIB_SEPARATOR );
+		int settingStart = from;
+		while ( settingStart <= settingsEnd ) {
+			int settingEnd = indexOf( buf, settingStart, settingsEnd, ATTRIB_SEPARATOR );
+			if ( settingEnd == -1 ) {
+				settingEnd = settingsEnd;
+			}
+			parseSetting( buf, settingStart, settingEnd, lineNo, wantedKeys, attributes );
+			settingStart = settingEnd + 1;
+		}
+	}
+
+	/** One tag=value, or tag=value1,value2... setting. */
+	private static void parseSetting( byte[] buf, int from, int to, int lineNo, String[] wantedKeys, Map<String,String[]> attributes ) {
+		int keyEnd = indexOf( buf, from, to, NAME_VALUE_SEPARATOR );
+		if ( keyEnd == -1 ) {
+			keyEnd = to;
+		}
+		String key;
+		if ( wantedKeys == null ) {
+			key = indexOf( buf, from, keyEnd, ESCAPE ) == -1 ? wantedKey( buf, from, keyEnd, lineNo, KNOWN_KEYS ) : null;
+			if ( key == null ) {
+				key = unescapeUrl( buf, from, keyEnd, lineNo );
+			}
+		}
+		else if ( null == ( key = wantedKey( buf, from, keyEnd, lineNo, wantedKeys ) ) ) {
+			return;
+		}
+
+		// As split("=") would: only the part between the first and any second '=' is the value,
+		// and a value is only present if something non-empty follows the first '='.
+		int valueStart = keyEnd + 1;
+		int valueEnd = valueStart > to ? to : indexOf( buf, valueStart, to, NAME_VALUE_SEPARATOR );
+		if ( valueEnd == -1 ) {
+			valueEnd = to;
+		}
+		boolean hasValue = keyEnd < to  &&  hasNonEmptyPart( buf, valueStart, to, NAME_VALUE_SEPARATOR );
+
+		if ( ! hasValue ) {
+			attributes.put( key, NO_VALUES );
+			//System.out.println("WARNING: malformed attribute setting /" + setting + "/");
+		}
+		else if ( key.equals( NOTE_ATTRIB ) ) {
+			// For NOTE, which is free text, cutting up by comma makes no sense.
+			attributes.put( key, new String[] { unescapeUrl( buf, valueStart, valueEnd, lineNo ) } );
+		}
+		else {
+			// NOTE: for target attribute, need the URL-escape characters in place.
+			boolean unescape = ! key.equals( TARGET_ATTRIB );
+			int valuesEnd = dropTrailingEmpties( buf, valueStart, valueEnd, VALUE_SEPARATOR );
+			String[] values = new String[ countParts( buf, valueStart, valuesEnd, VALUE_SEPARATOR ) ];
+			int partStart = valueStart;
+			for ( int i = 0; i < values.length; i++ ) {
+				int partEnd = indexOf( buf, partStart, valuesEnd, VALUE_SEPARATOR );
+				if ( partEnd == -1 ) {
+					partEnd = valuesEnd;
+				}
+				values[ i ] = unescape ? unescapeUrl( buf, partStart, partEnd, lineNo ) : toString( buf, partStart, partEnd );
+				partStart = partEnd + 1;
+			}
+			attributes.put( key, values );
+		}
+	}
+
+	/** The wanted key which the range spells, or null.  Plain keys are compared without making a String. */
+	private static String wantedKey( byte[] buf, int from, int to, int lineNo, String[] wantedKeys ) {
+		if ( indexOf( buf, from, to, ESCAPE ) != -1 ) {
+			String key = unescapeUrl( buf, from, to, lineNo );
+			for ( String wantedKey: wantedKeys ) {
+				if ( wantedKey.equals( key ) ) {
+					return wantedKey;
+				}
+			}
+			return null;
+		}
+		for ( String wantedKey: wantedKeys ) {
+			if ( spells( buf, from, to, wantedKey ) ) {
+				return wantedKey;
+			}
+		}
+		return null;
+	}
+
+	/** Tells if the range holds exactly the ASCII text given. */
+	private static boolean spells( byte[] buf, int from, int to, String text ) {
+		if ( to - from != text.length() ) {
+			return false;
+		}
+		for ( int i = 0; i < text.length(); i++ ) {
+			if ( buf[ from + i ] != text.charAt( i ) ) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * End of the range once trailing empty parts are dropped, as split() does.  When there is no separator,
+	 * the whole range stays, empty or not.  When every part is empty, the result precedes 'from'.
+	 */
+	private static int dropTrailingEmpties( byte[] buf, int from, int to, byte separator ) {
+		if ( indexOf( buf, from, to, separator ) == -1 ) {
+			return to;
+		}
+		int end = to;
+		while ( end > from  &&  buf[ end - 1 ] == separator ) {
+			end--;
+		}
+		return end == from ? from - 1 : end;
+	}
+
+	/** Number of separated parts in a range already stripped of trailing empties. */
+	private static int countParts( byte[] buf, int from, int to, byte separator ) {
+		if ( to < from ) {
+			return 0;
+		}
+		int count = 1;
+		for ( int i = from; i < to; i++ ) {
+			if ( buf[ i ] == separator ) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/** Tells if anything other than separators is in the range. */
+	private static boolean hasNonEmptyPart( byte[] buf, int from, int to, byte separator ) {
+		for ( int i = from; i < to; i++ ) {
+			if ( buf[ i ] != separator ) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/** Tells if a range of raw bytes holds any URL escape. */
+	static boolean hasEscape( byte[] buf, int from, int to ) {
+		return indexOf( buf, from, to, ESCAPE ) != -1;
+	}
+
+	private static int indexOf( byte[] buf, int from, int to, byte b ) {
+		for ( int i = from; i < to; i++ ) {
+			if ( buf[ i ] == b ) {
+				return i;
+			}
+		}
+		return -1;
+	}
+}
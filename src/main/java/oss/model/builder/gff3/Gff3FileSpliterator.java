@@ -0,0 +1,293 @@
+/**
+ *   Copyright Leslie L. Foster, 2011.
+ *
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation; version 2.1 of the License.
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation, Inc.
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+package oss.model.builder.gff3;
+
+import oss.model.builder.gff3.Gff3LineReader.Gff3LineReaderException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Spliterator;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Spliterator over the models of a byte range of a GFF3 file.  Splitting cuts the range at a line
+ * start, so a parallel stream parses the file on as many threads as it has parts.  Each part reads
+ * through memory-mapped windows, and is opened only when first advanced.
+ *
+ * No part may read sequence as though it were features, so once split, each part makes sure, when
+ * first advanced, that no ##FASTA directive comes before it.  It scans its own range for one, and
+ * records the range as clean if none is found; then it takes in the clean ranges recorded before it,
+ * scanning only the gaps between them.  The parts scan in parallel, and mostly each its own range.
+ * A directive found sets a cutoff shared by all parts: the part holding it stops there, and those
+ * after it read nothing.  An unsplit range needs no scan: its reader stops at the directive.
+ *
+ * The same scans count line ends, and each range recorded as clean keeps its count.  So a part knows,
+ * once it has taken in the ranges before it, how many lines precede it; line numbers in its messages
+ * and models are those of the file.
+ */
+class Gff3FileSpliterator implements Spliterator<Gff3GenericModel> {
+	private static final byte[] FASTA_DIRECTIVE = "##FASTA".getBytes( StandardCharsets.US_ASCII );
+
+	private final File gffFile;
+	private final int minSplitSize;
+	private final Queue<Gff3LineReader> openReaders;
+	private long start;
+	private long end;
+	private Gff3LineReader rdr;
+	private int linesBefore;
+	private Gff3MetricsListener metricsListener;
+	private boolean done;
+	private final FastaCutoff fastaCutoff;
+
+	/**
+	 * @param gffFile to read.
+	 * @param start offset of a line start.
+	 * @param end offset just past a line end, or the file size.
+	 * @param minSplitSize parts are not cut smaller than this many bytes.
+	 * @param openReaders every reader opened is put here, so that all may be closed with the stream.
+	 */
+	Gff3FileSpliterator( File gffFile, long start, long end, int minSplitSize, Queue<Gff3LineReader> openReaders ) {
+		this.gffFile = gffFile;
+		this.start = start;
+		this.end = end;
+		this.minSplitSize = minSplitSize;
+		this.openReaders = openReaders;
+		this.fastaCutoff = new FastaCutoff();
+	}
+
+	private Gff3FileSpliterator( Gff3FileSpliterator whole, long start, long end ) {
+		this.gffFile = whole.gffFile;
+		this.start = start;
+		this.end = end;
+		this.minSplitSize = whole.minSplitSize;
+		this.openReaders = whole.openReaders;
+		this.fastaCutoff = whole.fastaCutoff;
+		this.metricsListener = whole.metricsListener;
+	}
+
+	/** Given to the reader of each part. */
+	void setMetricsListener( Gff3MetricsListener metricsListener ) {
+		this.metricsListener = metricsListener;
+	}
+
+	@Override
+	public boolean tryAdvance( Consumer<? super Gff3GenericModel> action ) {
+		if ( done ) {
+			return false;
+		}
+		Gff3GenericModel model;
+		try {
+			if ( rdr == null ) {
+				if ( fastaCutoff.split  &&  ! excludeFasta() ) {
+					finish();
+					return false;
+				}
+				rdr = new Gff3LineReader( gffFile + "@" + start, new MappedRangeInputStream( gffFile, start, end ) );
+				rdr.setMetricsListener( metricsListener );
+				openReaders.add( rdr );
+				rdr.setLinesBefore( linesBefore );
+			}
+			model = rdr.nextLine();
+		} catch ( Gff3LineReaderException glre ) {
+			finish();
+			throw new RuntimeException( "Failed reading range starting at byte " + start + " of " + gffFile, glre );
+		} catch ( IOException ioe ) {
+			finish();
+			throw new RuntimeException( "Failed to read file " + gffFile, ioe );
+		}
+		if ( model == null ) {
+			finish();
+			return false;
+		}
+		action.accept( model );
+		return true;
+	}
+
+	/** Give away the front half of the range, if not yet started and big enough to be worth it. */
+	@Override
+	public Spliterator<Gff3GenericModel> trySplit() {
+		if ( rdr != null  ||  done  ||  end - start < 2L * minSplitSize ) {
+			return null;
+		}
+		long middle;
+		try ( FileChannel channel = FileChannel.open( gffFile.toPath(), StandardOpenOption.READ ) ) {
+			middle = Gff3ParallelReader.alignToLineStart( channel, start + ( end - start ) / 2, end );
+		} catch ( IOException ioe ) {
+			// Not being able to split is no failure; the whole range is read as one.
+			return null;
+		}
+		if ( middle <= start  ||  middle >= end ) {
+			return null;
+		}
+		fastaCutoff.split = true;
+		Gff3FileSpliterator front = new Gff3FileSpliterator( this, start, middle );
+		start = middle;
+		return front;
+	}
+
+	/**
+	 * Cut this part short at any ##FASTA directive within it, after making sure none comes before it.
+	 * Counts the lines before the part on the way.
+	 *
+	 * @return false if the part lies wholly after a directive, so has nothing to read.
+	 */
+	private boolean excludeFasta() throws IOException {
+		if ( start >= fastaCutoff.get() ) {
+			return false;
+		}
+		ScannedRange own = scanRange( gffFile, start, end );
+		if ( own.end < end ) {
+			fastaCutoff.cutAt( own.end );
+			end = own.end;
+		}
+		else {
+			fastaCutoff.cleanRanges.merge( start, own, ScannedRange::longer );
+		}
+
+		Map.Entry<Long,Integer> prefix = fastaCutoff.cleanPrefixes.floorEntry( start );
+		long position = prefix.getKey();
+		int lineEnds = prefix.getValue();
+		while ( position < start  &&  position < fastaCutoff.get() ) {
+			// Only a range starting just here, and ending by this part, adds its count to that of the prefix.
+			ScannedRange clean = fastaCutoff.cleanRanges.get( position );
+			if ( clean != null  &&  clean.end <= start ) {
+				position = clean.end;
+				lineEnds += clean.lineEnds;
+				continue;
+			}
+			Long nextClean = fastaCutoff.cleanRanges.higherKey( position );
+			long gapEnd = nextClean == null ? start : Math.min( start, nextClean );
+			ScannedRange gap = scanRange( gffFile, position, gapEnd );
+			if ( gap.end < gapEnd ) {
+				fastaCutoff.cutAt( gap.end );
+				break;
+			}
+			fastaCutoff.cleanRanges.merge( position, gap, ScannedRange::longer );
+			position = gapEnd;
+			lineEnds += gap.lineEnds;
+		}
+		if ( position >= start ) {
+			fastaCutoff.cleanPrefixes.put( start, lineEnds );
+			linesBefore = lineEnds;
+		}
+		return start < fastaCutoff.get();
+	}
+
+	/** Bytes left, being all that is known before reading. */
+	@Override
+	public long estimateSize() {
+		return done ? 0 : end - start;
+	}
+
+	@Override
+	public int characteristics() {
+		return ORDERED | NONNULL;
+	}
+
+	/**
+	 * Look for the ##FASTA directive in a range, counting line ends as Gff3LineTokenizer does on the way.
+	 *
+	 * @return up to the line holding the directive, or the end given if there is none.
+	 */
+	static ScannedRange scanRange( File gffFile, long start, long end ) throws IOException {
+		byte[] block = new byte[ 64 * 1024 ];
+		long blockStart = start;
+		boolean atLineStart = true;
+		boolean afterCr = false;
+		int matched = 0;
+		int lineEnds = 0;
+		long lineStart = start;
+		try ( InputStream in = new MappedRangeInputStream( gffFile, start, end ) ) {
+			int count;
+			while ( 0 < ( count = in.read( block, 0, block.length ) ) ) {
+				for ( int i = 0; i < count; i++ ) {
+					byte b = block[ i ];
+					if ( matched > 0 ) {
+						matched = b == FASTA_DIRECTIVE[ matched ] ? matched + 1 : 0;
+						if ( matched == FASTA_DIRECTIVE.length ) {
+							return new ScannedRange( lineStart, lineEnds );
+						}
+					}
+					else if ( atLineStart  &&  b == FASTA_DIRECTIVE[ 0 ] ) {
+						lineStart = blockStart + i;
+						matched = 1;
+					}
+					atLineStart = b == '\n'  ||  b == '\r';
+					if ( b == '\r'  ||  ( b == '\n'  &&  ! afterCr ) ) {
+						lineEnds++;
+					}
+					afterCr = b == '\r';
+				}
+				blockStart += count;
+			}
+		}
+		return new ScannedRange( end, lineEnds );
+	}
+
+	/** A range from some start up to the end given, scanned and found to hold no ##FASTA directive. */
+	static class ScannedRange {
+		final long end;
+		final int lineEnds;    // Within the range.
+
+		ScannedRange( long end, int lineEnds ) {
+			this.end = end;
+			this.lineEnds = lineEnds;
+		}
+
+		/** Of two scans from the same start, the one reaching further. */
+		static ScannedRange longer( ScannedRange a, ScannedRange b ) {
+			return a.end >= b.end ? a : b;
+		}
+	}
+
+	/** What the parts of one file have learned of where its ##FASTA directive is, or is not. */
+	private static class FastaCutoff {
+		private final AtomicLong cutoff = new AtomicLong( Long.MAX_VALUE );    // Line start of the directive.
+		// Ends of prefixes known to hold no directive, with the lines in each.
+		private final ConcurrentSkipListMap<Long,Integer> cleanPrefixes = new ConcurrentSkipListMap<>();
+		private final ConcurrentSkipListMap<Long,ScannedRange> cleanRanges = new ConcurrentSkipListMap<>();
+		private volatile boolean split;
+
+		FastaCutoff() {
+			cleanPrefixes.put( 0L, 0 );
+		}
+
+		long get() { return cutoff.get(); }
+
+		void cutAt( long directiveOffset ) {
+			cutoff.accumulateAndGet( directiveOffset, Math::min );
+		}
+	}
+
+	private void finish() {
+		done = true;
+		if ( rdr != null ) {
+			rdr.close();
+			openReaders.remove( rdr );
+			rdr = null;
+		}
+	}
+}
@@ -23,11 +23,12 @@ import java.util.Map;
  * Bag-o-data, interpreted per http://www.eu-sol.net/science/bioinformatics/standards-documents/gff3-format-description
  * @author Leslie L Foster
  */
-public class Gff3GenericModel {
+public class Gff3GenericModel implements Gff3Feature {
 	public enum Strand { positive, negative, none, unknown, misSpecified }
 	
 	private String landmarkId;
 	private String type;
+	private int typeCode = SofaTypes.UNKNOWN_CODE;
 	private String source;
 	private Double score;
 	private Strand strand;
@@ -49,6 +50,11 @@ public class Gff3GenericModel {
 	private String[] dbxref;
 	private String ontologyTerm;
 
+	// Column 9 as read, kept until an attribute other than ID or Parent is asked for.  Then it is
+	// decoded once, into the fields above, and let go.
+	private volatile byte[] rawAttributes;
+	private int rawAttributesLineNo;
+
 	/**
 	 * @param landmarkId the landmarkId to set
 	 */
@@ -66,6 +72,7 @@ public class Gff3GenericModel {
 	 */
 	public void setType(String type) {
 		this.type = type;
+		this.typeCode = SofaTypes.codeOf( type );
 	}
 	/**
 	 * @return the type
@@ -73,6 +80,12 @@ public class Gff3GenericModel {
 	public String getType() {
 		return type;
 	}
+	/**
+	 * @return SOFA code of the type, set along with it, for SofaTypes.isA(); or SofaTypes.UNKNOWN_CODE.
+	 */
+	public int getTypeCode() {
+		return typeCode;
+	}
 	/**
 	 * @param source the source to set
 	 */
@@ -146,15 +159,20 @@ public class Gff3GenericModel {
 		return phase;
 	}
 	/**
+	 * Replaces column 9 as read, if not yet decoded, without decoding it; the fields decoded from it,
+	 * such as name and note, are then left unset.
+	 *
 	 * @param attributes the attributes to set
 	 */
-	public void setAttributes(Map<String,String[]> attributes) {
+	public synchronized void setAttributes(Map<String,String[]> attributes) {
 		this.attributes = attributes;
+		rawAttributes = null;
 	}
 	/**
 	 * @return the attributes
 	 */
 	public Map<String,String[]> getAttributes() {
+		ensureAttributesDecoded();
 		return attributes;
 	}
 	/**
@@ -173,24 +191,28 @@ public class Gff3GenericModel {
 	 * @param name the name to set
 	 */
 	public void setName(String name) {
+		ensureAttributesDecoded();
 		this.name = name;
 	}
 	/**
 	 * @return the name
 	 */
 	public String getName() {
+		ensureAttributesDecoded();
 		return name;
 	}
 	/**
 	 * @param nonUniqueAlias the nonUniqueAlias to set
 	 */
 	public void setNonUniqueAlias(String nonUniqueAlias) {
+		ensureAttributesDecoded();
 		this.nonUniqueAlias = nonUniqueAlias;
 	}
 	/**
 	 * @return the nonUniqueAlias
 	 */
 	public String getNonUniqueAlias() {
+		ensureAttributesDecoded();
 		return nonUniqueAlias;
 	}
 	/**
@@ -209,91 +231,172 @@ public class Gff3GenericModel {
 	 * @param targetOfAlignment the targetOfAlignment to set
 	 */
 	public void setTargetOfAlignment(String targetOfAlignment) {
+		ensureAttributesDecoded();
 		this.targetOfAlignment = targetOfAlignment;
 	}
 	/**
 	 * @return the targetOfAlignment
 	 */
 	public String getTargetOfAlignment() {
+		ensureAttributesDecoded();
 		return targetOfAlignment;
 	}
 	/**
 	 * @param gap the gap to set
 	 */
 	public void setGap(String gap) {
+		ensureAttributesDecoded();
 		this.gap = gap;
 	}
 	/**
 	 * @return the gap
 	 */
 	public String getGap() {
+		ensureAttributesDecoded();
 		return gap;
 	}
 	/**
 	 * @param derivesFrom the derivesFrom to set
 	 */
 	public void setDerivesFrom(String derivesFrom) {
+		ensureAttributesDecoded();
 		this.derivesFrom = derivesFrom;
 	}
 	/**
 	 * @return the derivesFrom
 	 */
 	public String getDerivesFrom() {
+		ensureAttributesDecoded();
 		return derivesFrom;
 	}
 	/**
 	 * @param note the note to set
 	 */
 	public void setNote(String note) {
+		ensureAttributesDecoded();
 		this.note = note;
 	}
 	/**
 	 * @return the note
 	 */
 	public String getNote() {
+		ensureAttributesDecoded();
 		return note;
 	}
 	/**
 	 * @param dbxref the dbxref to set
 	 */
 	public void setDbxref(String[] dbxref) {
+		ensureAttributesDecoded();
 		this.dbxref = dbxref;
 	}
 	/**
 	 * @return the dbxref
 	 */
 	public String[] getDbxref() {
+		ensureAttributesDecoded();
 		return dbxref;
 	}
 	/**
 	 * @param ontologyTerm the ontologyTerm to set
 	 */
 	public void setOntologyTerm(String ontologyTerm) {
+		ensureAttributesDecoded();
 		this.ontologyTerm = ontologyTerm;
 	}
 	/**
 	 * @return the ontologyTerm
 	 */
 	public String getOntologyTerm() {
+		ensureAttributesDecoded();
 		return ontologyTerm;
 	}
 	
+	/**
+	 * Hold column 9 undecoded.  Attributes are decoded from it when first asked for, except for ID and
+	 * Parent, which the reader sets at once.
+	 *
+	 * @param rawAttributes bytes of the column, not to be changed after this call.
+	 * @param lineNo where the column was read, for messages.
+	 */
+	void setRawAttributes( byte[] rawAttributes, int lineNo ) {
+		this.rawAttributesLineNo = lineNo;
+		this.rawAttributes = rawAttributes;
+	}
+
+	/** Column 9 as read, or null once decoded, or if the model was not read from a file. */
+	byte[] getRawAttributes() {
+		return rawAttributes;
+	}
+
+	/** Decode the raw column now, rather than at first use; see setRawAttributes(). */
+	void decodeRawAttributes() {
+		ensureAttributesDecoded();
+	}
+
+	private void ensureAttributesDecoded() {
+		if ( rawAttributes != null ) {
+			decodeAttributes();
+		}
+	}
+
+	/** Fill in the attribute fields from the raw column.  Done once; later calls find nothing to do. */
+	private synchronized void decodeAttributes() {
+		byte[] raw = rawAttributes;
+		if ( raw == null ) {
+			return;
+		}
+		try {
+			Map<String,String[]> attributes = Gff3FieldDecoder.parseAttributes( raw, 0, raw.length, rawAttributesLineNo );
+			this.attributes = attributes;
+
+			derivesFrom = getFirstAttribOrNull( attributes, Gff3FieldDecoder.DERIVEMENT_ATTRIB );
+			targetOfAlignment = getFirstAttribOrNull( attributes, Gff3FieldDecoder.TARGET_ATTRIB );
+			gap = getFirstAttribOrNull( attributes, Gff3FieldDecoder.GAP_ATTRIB );
+			name = Gff3FieldDecoder.unescapeUrl( getFirstAttribOrNull( attributes, Gff3FieldDecoder.NAME_ATTRIB ), rawAttributesLineNo );
+			nonUniqueAlias = getFirstAttribOrNull( attributes, Gff3FieldDecoder.ALIAS_ATTRIB );
+			note = getFirstAttribOrNull( attributes, Gff3FieldDecoder.NOTE_ATTRIB );
+			ontologyTerm = getFirstAttribOrNull( attributes, Gff3FieldDecoder.ONTOLOGY_ATTRIB );
+
+			dbxref = attributes.get( Gff3FieldDecoder.DBXREF_ATTRIB );
+			if ( dbxref == null ) {
+				dbxref = attributes.get( Gff3FieldDecoder.DBXREF_ATTRIB.toLowerCase() ); // settling for what Saccharomyces cerevisiae S288C genome has.
+				if ( dbxref == null ) {
+					dbxref = attributes.get( Gff3FieldDecoder.DBXREF_ATTRIB_ALT );  // settling for NCBI's version.
+				}
+			}
+		} catch ( RuntimeException ex ) {
+			throw new IllegalArgumentException( "Failed to decode attributes at line " + rawAttributesLineNo, ex );
+		}
+		rawAttributes = null;
+	}
+
+	private static String getFirstAttribOrNull( Map<String,String[]> attributes, String attribName ) {
+		String[] values = attributes.get( attribName );
+		if ( values != null  &&  values.length > 0 ) {
+			return values[ 0 ];
+		}
+		else {
+			return null;
+		}
+	}
+
 	@Override
 	public boolean equals( Object o ) {
 		boolean rtnVal = false;
-		if (  o instanceof Gff3GenericModel ) {
-			Gff3GenericModel model = (Gff3GenericModel)o;
-			return model.makeComparisonString().equals( makeComparisonString() );
+		if (  o instanceof Gff3Feature ) {
+			return comparisonString( (Gff3Feature)o ).equals( comparisonString( this ) );
 		}
 		return rtnVal; 
 	}
 
 	@Override
 	public int hashCode() {
-		return makeComparisonString().hashCode();
+		return comparisonString( this ).hashCode();
 	}
 	
-	private String makeComparisonString() {
-		return getId() + "__" + getStart() + "__" + getEnd() + "__" + getLandmarkId();
+	/** What equality of features goes by, shared with Gff3FeatureTable's views. */
+	static String comparisonString( Gff3Feature feature ) {
+		return feature.getId() + "__" + feature.getStart() + "__" + feature.getEnd() + "__" + feature.getLandmarkId();
 	}
 }
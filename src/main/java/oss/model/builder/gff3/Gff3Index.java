@@ -0,0 +1,475 @@
+/**
+ *   Copyright Leslie L. Foster, 2011.
+ *
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation; version 2.1 of the License.
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation, Inc.
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+package oss.model.builder.gff3;
+
+import oss.model.builder.gff3.Gff3LineReader.Gff3LineReaderException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Sidecar index of a GFF3 file, after tabix: for each landmark, the ranges of the file holding its
+ * lines, and within a landmark, a binning of its features by coordinate.  With it, the lines of one
+ * landmark, or of one region of it, are read without reading the rest of the file.
+ *
+ * Offsets are byte offsets for plain text, and virtual offsets for BGZF (see BgzfInputStream).  Plain
+ * gzip cannot be read from the middle, so cannot be indexed; recompress such files with bgzip.
+ *
+ * Unlike tabix, the file need not be sorted.  Bins use the UCSC scheme of tabix: six levels, the
+ * smallest 16kb wide.  The linear index holds, for each 16kb window, the least offset of any feature
+ * overlapping it.
+ */
+public class Gff3Index {
+	private static final int MAGIC = 0x47334958;   // "G3IX"
+	private static final int VERSION = 1;
+	private static final int LINEAR_SHIFT = 14;
+	private static final int MAX_COORDINATE = 1 << 29;
+	private static final int SMALL_RANGE = 16 * 65536;   // Ranges of compressed bytes shorter than this are inflated on the calling thread.
+
+	private final Gff3Compression compression;
+	private final long sourceSize;
+	private final long sourceMtime;
+	private final long sourceCrc;
+	private final Map<String,LandmarkEntry> landmarkVsEntry;
+
+	private Gff3Index( Gff3Compression compression, long sourceSize, long sourceMtime, long sourceCrc,
+			           Map<String,LandmarkEntry> landmarkVsEntry ) {
+		this.compression = compression;
+		this.sourceSize = sourceSize;
+		this.sourceMtime = sourceMtime;
+		this.sourceCrc = sourceCrc;
+		this.landmarkVsEntry = landmarkVsEntry;
+	}
+
+	/**
+	 * Index a file by reading it through once.
+	 *
+	 * @throws IOException if unreadable, or compressed with plain gzip.
+	 */
+	public static Gff3Index build( File gffFile ) throws IOException {
+		Gff3Compression compression = Gff3Compression.of( gffFile );
+		if ( compression == Gff3Compression.GZIP ) {
+			throw new IOException( gffFile + " is gzip compressed, so cannot be read from the middle.  Recompress it with bgzip to index it." );
+		}
+		long sourceSize = gffFile.length();
+		long sourceMtime = gffFile.lastModified();
+		long sourceCrc = Gff3SnapshotFile.crc32( gffFile );
+
+		BgzfInputStream bgzf = null;
+		InputStream text;
+		if ( compression == Gff3Compression.BGZF ) {
+			bgzf = new BgzfInputStream( gffFile, Runtime.getRuntime().availableProcessors() );
+			bgzf.recordBlocks();
+			text = bgzf;
+		}
+		else {
+			text = new FileInputStream( gffFile );
+		}
+
+		Map<String,LandmarkEntry> landmarkVsEntry = new LinkedHashMap<>();
+		Gff3LineReader rdr = null;
+		try {
+			rdr = new Gff3LineReader( gffFile.toString(), text );
+			Gff3GenericModel model;
+			LandmarkEntry entry = null;
+			while ( null != ( model = rdr.nextLine() ) ) {
+				LandmarkEntry previousEntry = entry;
+				if ( entry == null  ||  entry.landmarkId != model.getLandmarkId() ) {
+					entry = landmarkVsEntry.get( model.getLandmarkId() );
+					if ( entry == null ) {
+						entry = new LandmarkEntry( model.getLandmarkId() );
+						landmarkVsEntry.put( model.getLandmarkId(), entry );
+					}
+				}
+				long begin = rdr.getLineOffset();
+				long end = rdr.getLineEndOffset();
+				if ( bgzf != null ) {
+					begin = bgzf.virtualOffsetOf( begin );
+					end = bgzf.virtualOffsetOf( end );
+				}
+				// Lines between two features of one landmark are comments or blank, so may be taken in with them.
+				entry.add( model.getStart(), model.getEnd(), begin, end, entry == previousEntry );
+			}
+		} catch ( Gff3LineReaderException glre ) {
+			throw new IOException( "Failed to read file " + gffFile, glre );
+		} finally {
+			if ( rdr != null ) {
+				rdr.close();
+			}
+			text.close();
+		}
+		for ( LandmarkEntry entry: landmarkVsEntry.values() ) {
+			entry.trimToSize();
+		}
+		return new Gff3Index( compression, sourceSize, sourceMtime, sourceCrc, landmarkVsEntry );
+	}
+
+	/**
+	 * Read the index if it was made from the file as it now stands.  Otherwise build it again, and try
+	 * to keep it for next time.
+	 */
+	public static Gff3Index readOrBuild( File gffFile, File indexFile ) throws IOException {
+		if ( indexFile.isFile() ) {
+			try {
+				Gff3Index index = read( indexFile );
+				if ( index.isValidFor( gffFile ) ) {
+					return index;
+				}
+			} catch ( IOException ioe ) {
+				// Damaged or foreign; build it afresh.
+			}
+		}
+		Gff3Index index = build( gffFile );
+		try {
+			index.write( indexFile );
+		} catch ( IOException ioe ) {
+			System.out.println( "WARNING: failed to write index " + indexFile + " of input file " + gffFile + ": " + ioe.getMessage() );
+		}
+		return index;
+	}
+
+	/** Read an index written by write(). */
+	public static Gff3Index read( File indexFile ) throws IOException {
+		try ( DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( indexFile ), 64 * 1024 ) ) ) {
+			if ( in.readInt() != MAGIC  ||  in.readInt() != VERSION ) {
+				throw new IOException( indexFile + " is not a GFF3 index of this version." );
+			}
+			Gff3Compression compression = Gff3Compression.values()[ in.readByte() ];
+			long sourceSize = in.readLong();
+			long sourceMtime = in.readLong();
+			long sourceCrc = in.readLong();
+			int landmarkCount = in.readInt();
+			Map<String,LandmarkEntry> landmarkVsEntry = new LinkedHashMap<>();
+			for ( int i = 0; i < landmarkCount; i++ ) {
+				LandmarkEntry entry = LandmarkEntry.readFrom( in );
+				landmarkVsEntry.put( entry.landmarkId, entry );
+			}
+			return new Gff3Index( compression, sourceSize, sourceMtime, sourceCrc, landmarkVsEntry );
+		}
+	}
+
+	/** Write the index, aside and then moved into place, so that readers never see a partial one. */
+	public void write( File indexFile ) throws IOException {
+		File tempFile = File.createTempFile( indexFile.getName(), ".tmp", indexFile.getAbsoluteFile().getParentFile() );
+		try {
+			try ( DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( tempFile ), 64 * 1024 ) ) ) {
+				out.writeInt( MAGIC );
+				out.writeInt( VERSION );
+				out.writeByte( compression.ordinal() );
+				out.writeLong( sourceSize );
+				out.writeLong( sourceMtime );
+				out.writeLong( sourceCrc );
+				out.writeInt( landmarkVsEntry.size() );
+				for ( LandmarkEntry entry: landmarkVsEntry.values() ) {
+					entry.writeTo( out );
+				}
+			}
+			try {
+				Files.move( tempFile.toPath(), indexFile.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING );
+			} catch ( AtomicMoveNotSupportedException amnse ) {
+				Files.move( tempFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING );
+			}
+		} finally {
+			Files.deleteIfExists( tempFile.toPath() );
+		}
+	}
+
+	/** Tells if the index was made from the file as it now stands: same size, and same time or checksum. */
+	public boolean isValidFor( File gffFile ) throws IOException {
+		if ( gffFile.length() != sourceSize ) {
+			return false;
+		}
+		return gffFile.lastModified() == sourceMtime  ||  Gff3SnapshotFile.crc32( gffFile ) == sourceCrc;
+	}
+
+	/** All landmarks having features, in order of first appearance. */
+	public Set<String> getLandmarkIds() {
+		return Collections.unmodifiableSet( landmarkVsEntry.keySet() );
+	}
+
+	/** Reader of every feature line of one landmark, and nothing else.  Reads nothing if the landmark is unknown. */
+	public Gff3LineReader openLandmark( File gffFile, String landmarkId ) throws Gff3LineReaderException {
+		LandmarkEntry entry = landmarkVsEntry.get( landmarkId );
+		return openRanges( gffFile, landmarkId, entry == null ? new long[ 0 ] : entry.getRuns() );
+	}
+
+	/**
+	 * Reader of the lines which may hold features of the landmark overlapping start..end (1-based,
+	 * inclusive).  Others may come with them; callers must still test each model.
+	 */
+	public Gff3LineReader openRegion( File gffFile, String landmarkId, int start, int end ) throws Gff3LineReaderException {
+		LandmarkEntry entry = landmarkVsEntry.get( landmarkId );
+		return openRanges( gffFile, landmarkId + ":" + start + "-" + end, entry == null ? new long[ 0 ] : entry.regionRanges( start, end ) );
+	}
+
+	/** Number of file ranges holding the landmark's lines: 1 when they are all together. */
+	public int getRunCount( String landmarkId ) {
+		LandmarkEntry entry = landmarkVsEntry.get( landmarkId );
+		return entry == null ? 0 : entry.getRuns().length / 2;
+	}
+
+	/** Reader of the concatenated ranges, each given by begin and end offsets. */
+	private Gff3LineReader openRanges( File gffFile, String what, long[] ranges ) throws Gff3LineReaderException {
+		Enumeration<InputStream> streams = new Enumeration<InputStream>() {
+			private int next;
+
+			@Override
+			public boolean hasMoreElements() {
+				return next < ranges.length;
+			}
+
+			@Override
+			public InputStream nextElement() {
+				long begin = ranges[ next++ ];
+				long end = ranges[ next++ ];
+				try {
+					return openRange( gffFile, begin, end );
+				} catch ( IOException ioe ) {
+					throw new RuntimeException( "Failed to read file " + gffFile, ioe );
+				}
+			}
+		};
+		return new Gff3LineReader( gffFile + "[" + what + "]", new SequenceInputStream( streams ) );
+	}
+
+	private InputStream openRange( File gffFile, long begin, long end ) throws IOException {
+		if ( compression == Gff3Compression.BGZF ) {
+			long compressedSpan = ( end >>> 16 ) - ( begin >>> 16 );
+			int threads = compressedSpan < SMALL_RANGE ? 1 : Runtime.getRuntime().availableProcessors();
+			return new BgzfInputStream( gffFile, threads, begin, end );
+		}
+		return new MappedRangeInputStream( gffFile, begin, end );
+	}
+
+	/** UCSC bin of a 0-based, half-open range, as tabix has it. */
+	static int regionToBin( int begin, int end ) {
+		--end;
+		if ( begin >> 14 == end >> 14 ) return ( ( 1 << 15 ) - 1 ) / 7 + ( begin >> 14 );
+		if ( begin >> 17 == end >> 17 ) return ( ( 1 << 12 ) - 1 ) / 7 + ( begin >> 17 );
+		if ( begin >> 20 == end >> 20 ) return ( ( 1 << 9 ) - 1 ) / 7 + ( begin >> 20 );
+		if ( begin >> 23 == end >> 23 ) return ( ( 1 << 6 ) - 1 ) / 7 + ( begin >> 23 );
+		if ( begin >> 26 == end >> 26 ) return ( ( 1 << 3 ) - 1 ) / 7 + ( begin >> 26 );
+		return 0;
+	}
+
+	/** All bins which may hold features overlapping a 0-based, half-open range. */
+	static List<Integer> regionToBins( int begin, int end ) {
+		List<Integer> bins = new ArrayList<>();
+		--end;
+		bins.add( 0 );
+		int[] firstBins = { 1, 9, 73, 585, 4681 };
+		int[] shifts = { 26, 23, 20, 17, 14 };
+		for ( int level = 0; level < firstBins.length; level++ ) {
+			for ( int k = firstBins[ level ] + ( begin >> shifts[ level ] ); k <= firstBins[ level ] + ( end >> shifts[ level ] ); k++ ) {
+				bins.add( k );
+			}
+		}
+		return bins;
+	}
+
+	/** 0-based, half-open range of a feature, kept within what the bins can hold. */
+	private static int[] toBinRange( Integer start, Integer end ) {
+		int begin = start == null ? 0 : Math.max( 0, Math.min( start - 1, MAX_COORDINATE - 1 ) );
+		int stop = end == null ? begin + 1 : Math.max( begin + 1, Math.min( end, MAX_COORDINATE ) );
+		return new int[] { begin, stop };
+	}
+
+	/** Begin, end pairs of offsets, in the order added, with each range merged into the last if it follows straight on. */
+	private static class RangeList {
+		private long[] pairs = new long[ 2 ];
+		private int size;
+
+		RangeList() {}
+
+		RangeList( long[] pairs ) {
+			this.pairs = pairs;
+			this.size = pairs.length;
+		}
+
+		/** @param followsLast true if nothing but non-feature lines lie between the last range and this one. */
+		void add( long begin, long end, boolean followsLast ) {
+			if ( size > 0  &&  ( followsLast  ||  pairs[ size - 1 ] == begin ) ) {
+				pairs[ size - 1 ] = end;
+				return;
+			}
+			if ( size + 2 > pairs.length ) {
+				pairs = Arrays.copyOf( pairs, Math.max( 2, pairs.length * 2 ) );
+			}
+			pairs[ size++ ] = begin;
+			pairs[ size++ ] = end;
+		}
+
+		long[] toArray() {
+			return size == pairs.length ? pairs : Arrays.copyOf( pairs, size );
+		}
+	}
+
+	/** What is known of one landmark: its runs of lines, bins and linear index. */
+	private static class LandmarkEntry {
+		private final String landmarkId;
+		private RangeList runs = new RangeList();
+		private final Map<Integer,RangeList> binVsChunks = new HashMap<>();
+		private long[] linear = new long[ 0 ];
+		private int lastBin = -1;
+
+		LandmarkEntry( String landmarkId ) {
+			this.landmarkId = landmarkId;
+		}
+
+		/**
+		 * Take in one feature line.
+		 *
+		 * @param followsLast true if the feature line before this one in the file was also of this landmark.
+		 */
+		void add( Integer start, Integer end, long lineBegin, long lineEnd, boolean followsLast ) {
+			runs.add( lineBegin, lineEnd, followsLast );
+
+			int[] range = toBinRange( start, end );
+			int bin = regionToBin( range[ 0 ], range[ 1 ] );
+			binVsChunks.computeIfAbsent( bin, newBin -> new RangeList() ).add( lineBegin, lineEnd, followsLast  &&  bin == lastBin );
+			lastBin = bin;
+
+			int lastWindow = ( range[ 1 ] - 1 ) >> LINEAR_SHIFT;
+			if ( lastWindow >= linear.length ) {
+				int oldLength = linear.length;
+				linear = Arrays.copyOf( linear, Math.max( lastWindow + 1, oldLength * 2 ) );
+				Arrays.fill( linear, oldLength, linear.length, Long.MAX_VALUE );
+			}
+			for ( int window = range[ 0 ] >> LINEAR_SHIFT; window <= lastWindow; window++ ) {
+				linear[ window ] = Math.min( linear[ window ], lineBegin );
+			}
+		}
+
+		/** All of the landmark's lines, as begin, end pairs. */
+		long[] getRuns() {
+			return runs.toArray();
+		}
+
+		void trimToSize() {
+			runs = new RangeList( runs.toArray() );
+			for ( Map.Entry<Integer,RangeList> entry: binVsChunks.entrySet() ) {
+				entry.setValue( new RangeList( entry.getValue().toArray() ) );
+			}
+			int used = linear.length;
+			while ( used > 0  &&  linear[ used - 1 ] == Long.MAX_VALUE ) {
+				used--;
+			}
+			linear = Arrays.copyOf( linear, used );
+		}
+
+		/** Ranges which may hold features overlapping start..end (1-based, inclusive), in file order, merged. */
+		long[] regionRanges( int start, int end ) {
+			int[] range = toBinRange( start, end );
+			// Any overlapping feature overlaps some window of the region, so lies at or after the least of their offsets.
+			long minOffset = Long.MAX_VALUE;
+			int lastWindow = Math.min( ( range[ 1 ] - 1 ) >> LINEAR_SHIFT, linear.length - 1 );
+			for ( int window = range[ 0 ] >> LINEAR_SHIFT; window <= lastWindow; window++ ) {
+				minOffset = Math.min( minOffset, linear[ window ] );
+			}
+			if ( minOffset == Long.MAX_VALUE ) {
+				return new long[ 0 ];
+			}
+
+			List<long[]> found = new ArrayList<>();
+			for ( int bin: regionToBins( range[ 0 ], range[ 1 ] ) ) {
+				RangeList binChunks = binVsChunks.get( bin );
+				if ( binChunks == null ) {
+					continue;
+				}
+				long[] chunks = binChunks.toArray();
+				for ( int i = 0; i < chunks.length; i += 2 ) {
+					if ( chunks[ i + 1 ] > minOffset ) {
+						found.add( new long[] { Math.max( chunks[ i ], minOffset ), chunks[ i + 1 ] } );
+					}
+				}
+			}
+			found.sort( ( a, b ) -> Long.compare( a[ 0 ], b[ 0 ] ) );
+			long[] merged = new long[ found.size() * 2 ];
+			int size = 0;
+			for ( long[] chunk: found ) {
+				if ( size > 0  &&  chunk[ 0 ] <= merged[ size - 1 ] ) {
+					merged[ size - 1 ] = Math.max( merged[ size - 1 ], chunk[ 1 ] );
+				}
+				else {
+					merged[ size++ ] = chunk[ 0 ];
+					merged[ size++ ] = chunk[ 1 ];
+				}
+			}
+			return Arrays.copyOf( merged, size );
+		}
+
+		void writeTo( DataOutputStream out ) throws IOException {
+			out.writeUTF( landmarkId );
+			writeLongs( out, runs.toArray() );
+			out.writeInt( binVsChunks.size() );
+			for ( Map.Entry<Integer,RangeList> entry: binVsChunks.entrySet() ) {
+				out.writeInt( entry.getKey() );
+				writeLongs( out, entry.getValue().toArray() );
+			}
+			writeLongs( out, linear );
+		}
+
+		static LandmarkEntry readFrom( DataInputStream in ) throws IOException {
+			LandmarkEntry entry = new LandmarkEntry( in.readUTF() );
+			entry.runs = new RangeList( readLongs( in ) );
+			int binCount = in.readInt();
+			for ( int i = 0; i < binCount; i++ ) {
+				int bin = in.readInt();
+				entry.binVsChunks.put( bin, new RangeList( readLongs( in ) ) );
+			}
+			entry.linear = readLongs( in );
+			return entry;
+		}
+
+		private static void writeLongs( DataOutputStream out, long[] values ) throws IOException {
+			out.writeInt( values.length );
+			for ( long value: values ) {
+				out.writeLong( value );
+			}
+		}
+
+		private static long[] readLongs( DataInputStream in ) throws IOException {
+			long[] values = new long[ in.readInt() ];
+			for ( int i = 0; i < values.length; i++ ) {
+				values[ i ] = in.readLong();
+			}
+			return values;
+		}
+	}
+}
@@ -17,40 +17,51 @@
  */
 package oss.model.builder.gff3;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Reads the input file, one line at a time, and returns the next model
- * it created from it, in "iterator-like" fashion.
+ * it created from it, in "iterator-like" fashion.  The models may also be had
+ * through an Iterator, or a Stream; a Stream over a file may be run in parallel.
  * 
  * @author Leslie L Foster
  */
-public class Gff3LineReader {
-	private static final String ID_ATTRIB = "ID";
-	private static final String NAME_ATTRIB = "Name";
-	private static final String ALIAS_ATTRIB = "Alias";
-	private static final String PARENT_ATTRIB = "Parent";
-	private static final String TARGET_ATTRIB = "Target";
-	private static final String GAP_ATTRIB = "Gap";
-	private static final String DERIVEMENT_ATTRIB = "Derives_from";
-	private static final String NOTE_ATTRIB = "Note";
-	private static final String DBXREF_ATTRIB = "Dbxref";
-	private static final String DBXREF_ATTRIB_ALT = "db_xref";  // Deviates from standard; used by NCBI.
-	private static final String ONTOLOGY_ATTRIB = "Ontology_term";
+public class Gff3LineReader implements Iterable<Gff3GenericModel>, AutoCloseable {
+	private static final String ID_ATTRIB = Gff3FieldDecoder.ID_ATTRIB;
+	private static final String PARENT_ATTRIB = Gff3FieldDecoder.PARENT_ATTRIB;
+	private static final String FASTA_DIRECTIVE = "##FASTA";
+	private static final int DEFAULT_MIN_SPLIT_SIZE = 1024 * 1024;
 	
 	private File gffFile;
 	private String sourceName;
-	private BufferedReader rdr;
+	private Gff3LineTokenizer tokenizer;
 	private int lineNo;
+	private boolean fastaReached;
+	private long fastaOffset = -1;
+	private int minSplitSize = DEFAULT_MIN_SPLIT_SIZE;
+	private StringPool stringPool;
+	private Gff3MetricsListener metricsListener;
+	// Counted for metrics.
+	private long featureLines;
+	private long commentLines;
+	private long fastaLines;
+	private long readNanos;
+	private long unescapes;
+	private boolean metricsReported;
+	private final Queue<Gff3LineReader> splitReaders = new ConcurrentLinkedQueue<>();
 	
-	/** Configure with file-to-handle on construction. */
+	/** Configure with file-to-handle on construction.  The file may be plain, gzip or BGZF (bgzip) compressed. */
 	public Gff3LineReader( File gffFile ) throws Gff3LineReaderException {
 		this.gffFile = gffFile;
 		this.sourceName = gffFile.toString();
@@ -60,62 +71,223 @@ public class Gff3LineReader {
 		try {
 			this.sourceName = sourceName;
 			
-			rdr = new BufferedReader( new InputStreamReader( is ) );
+			tokenizer = new Gff3LineTokenizer( is );
 
 		} catch ( Exception ex ) {
 			throw new Gff3LineReaderException( ex );
 		}
 	}
 	
-	/** Call this when closed. */
+	/** Call this when closed.  Also closes whatever was opened by the parts of a stream(). */
+	@Override
 	public void close() {
+		reportMetrics();
 		try {
-			if ( rdr != null )
-				rdr.close();
-			rdr = null;
+			if ( tokenizer != null )
+				tokenizer.close();
+			tokenizer = null;
 		} catch ( IOException ex ) {
 			// nothing.
 		}
-		
+		Gff3LineReader splitReader;
+		while ( null != ( splitReader = splitReaders.poll() ) ) {
+			splitReader.close();
+		}
+	}
+
+	/**
+	 * @param metricsListener told of the lines read and time taken, at end of input or on close.  Null, the
+	 *     default, for none; reading is then not timed.  The parts of a stream() tell it separately.
+	 */
+	public void setMetricsListener( Gff3MetricsListener metricsListener ) {
+		this.metricsListener = metricsListener;
+	}
+
+	public Gff3MetricsListener getMetricsListener() { return metricsListener; }
+
+	/**
+	 * @param stringPool landmark, source and type of each model are canonical instances from this pool, so
+	 *     that models from one pool may be compared on these by identity.  Pools are not thread-safe: share
+	 *     one only among readers used on one thread.  By default each reader has a pool of its own.
+	 */
+	public void setStringPool( StringPool stringPool ) {
+		this.stringPool = stringPool;
+	}
+
+	public StringPool getStringPool() {
+		if ( stringPool == null ) {
+			stringPool = new StringPool();
+		}
+		return stringPool;
+	}
+
+	/** @param minSplitSize a parallel stream() does not cut the file into parts smaller than this many bytes. */
+	public void setMinSplitSize( int minSplitSize ) {
+		if ( minSplitSize < 1 ) {
+			throw new IllegalArgumentException( "Split size must be at least 1." );
+		}
+		this.minSplitSize = minSplitSize;
+	}
+
+	public int getMinSplitSize() { return minSplitSize; }
+
+	/**
+	 * Models not yet read, one per call to next().  The reader is closed once all have been given.
+	 * Read failures are thrown as RuntimeException, with the Gff3LineReaderException as cause.
+	 */
+	@Override
+	public Iterator<Gff3GenericModel> iterator() {
+		return new Iterator<Gff3GenericModel>() {
+			private Gff3GenericModel next;
+			private boolean nextRead;
+
+			@Override
+			public boolean hasNext() {
+				if ( ! nextRead ) {
+					try {
+						next = nextLine();
+					} catch ( Gff3LineReaderException glre ) {
+						close();
+						throw new RuntimeException( "Failed to read file " + sourceName, glre );
+					}
+					nextRead = true;
+					if ( next == null ) {
+						close();
+					}
+				}
+				return next != null;
+			}
+
+			@Override
+			public Gff3GenericModel next() {
+				if ( ! hasNext() ) {
+					throw new NoSuchElementException();
+				}
+				nextRead = false;
+				return next;
+			}
+		};
+	}
+
+	/**
+	 * Models not yet read, as a Stream which closes this reader when closed; use it in try-with-resources.
+	 * When reading a plain-text file not yet begun on, the stream splits the file by byte offset, so that
+	 * parallel() parses on many threads at once.  Otherwise, as for compressed files, it is read in order.
+	 * Read failures are thrown as RuntimeException, with the Gff3LineReaderException as cause.
+	 */
+	public Stream<Gff3GenericModel> stream() {
+		Spliterator<Gff3GenericModel> spliterator;
+		if ( tokenizer == null  &&  gffFile != null  &&  Gff3Compression.isPlainText( gffFile ) ) {
+			Gff3FileSpliterator fileSpliterator = new Gff3FileSpliterator( gffFile, 0, gffFile.length(), minSplitSize, splitReaders );
+			fileSpliterator.setMetricsListener( metricsListener );
+			spliterator = fileSpliterator;
+		}
+		else {
+			spliterator = Spliterators.spliteratorUnknownSize( iterator(), Spliterator.ORDERED | Spliterator.NONNULL );
+		}
+		return StreamSupport.stream( spliterator, false ).onClose( this::close );
 	}
 	
 	/** Tell what file this reader is working on. */
 	public String getSourceName() { return sourceName; }
 
+	/** Offset in the input of the line the last model came from. */
+	long getLineOffset() { return tokenizer.getLineOffset(); }
+
+	/** Offset in the input just past the line the last model came from. */
+	long getLineEndOffset() { return tokenizer.getLineEndOffset(); }
+
+	/** Lines read so far, comments and all.  Package access, for picking up where a read left off. */
+	int getLinesRead() { return tokenizer == null ? 0 : tokenizer.getLineNo(); }
+
+	/**
+	 * Number lines, in messages and models, as though this many came before the input given on
+	 * construction.  Call before reading.
+	 */
+	void setLinesBefore( int lineCount ) throws Gff3LineReaderException {
+		prepareReader();
+		tokenizer.setLineNo( lineCount );
+	}
+
+	/**
+	 * Offset in the input just past the ##FASTA directive, where the sequences begin; see
+	 * Gff3SequenceStore.  For compressed input, an offset into the inflated text.
+	 *
+	 * @return offset, or -1 if the directive has not been reached.
+	 */
+	public long getFastaOffset() { return fastaOffset; }
+
+	/** Tells if reading stopped at the ##FASTA directive, rather than at end of input. */
+	public boolean isFastaReached() { return fastaReached; }
+
 	/** One line of the input is worth one feature's model, or null if e-o-file. */
 	public Gff3GenericModel nextLine() throws Gff3LineReaderException {
-		lineNo  ++;   // For error messages.  First line is line 1.
-		
+		if ( metricsListener == null ) {
+			return readLine();
+		}
+		long began = System.nanoTime();
+		long unescapesBefore = Gff3FieldDecoder.unescapeCount();
+		Gff3GenericModel model = readLine();
+		readNanos += System.nanoTime() - began;
+		unescapes += Gff3FieldDecoder.unescapeCount() - unescapesBefore;
+		if ( model == null ) {
+			reportMetrics();
+		}
+		return model;
+	}
+
+	/** Time spent inside nextLine(), if timed.  Package access for the assembler, to tell its own time apart. */
+	long getReadNanos() { return readNanos; }
+
+	/** Values unescaped inside nextLine(), if counted. */
+	long getUnescapes() { return unescapes; }
+
+	private Gff3GenericModel readLine() throws Gff3LineReaderException {
 		Gff3GenericModel rtnVal = null;
 		prepareReader();  // Lazily-open.
 		try {
 			boolean done = false;
-			String[] fields = null;
 			do {
-				String inputLine = rdr.readLine();
-				if ( inputLine == null ) {
+				if ( fastaReached  ||  ! tokenizer.nextLine() ) {
+					done = true;
+					rtnVal = null;
+				}
+				else if ( tokenizer.lineStartsWith( FASTA_DIRECTIVE ) ) {
+					// Everything after this is sequence, not features.
+					commentLines++;
+					fastaReached = true;
+					fastaOffset = tokenizer.getLineEndOffset();
 					done = true;
 					rtnVal = null;
 				}
-				else if ( inputLine.startsWith( "#" )  ||  inputLine.startsWith( ">" ) ) {
+				else if ( tokenizer.lineStartsWith( '#' ) ) {
+					commentLines++;
+					done = false;
+				}
+				else if ( tokenizer.lineStartsWith( '>' ) ) {
+					fastaLines++;
 					done = false;
 
 				}
 				else {
-					// Parse up the columns.
-					fields = inputLine.split( "\t" );
+					lineNo = tokenizer.getLineNo();   // For error messages.  First line is line 1.
+
+					// Find the columns.
+					int fieldCount = tokenizer.splitColumns();
 
-					if ( fields.length <= 1 ) {
+					if ( fieldCount <= 1 ) {
 						// Only one field implies this could be FASTA content to be skipped.  (sigh!)
+						fastaLines++;
 						done = false;
 					}
-					else if ( fields.length < 8 ) {
+					else if ( fieldCount < 8 ) {
 						// 2-8 implies good intentions/bad results.
-						throw new Gff3LineReaderException( "Line " + lineNo + " has only " + fields.length + " fields.  8-9 expected." );
+						throw new Gff3LineReaderException( "Line " + lineNo + " has only " + fieldCount + " fields.  8-9 expected." );
 					}
 					else {
 						// Next to parse the line as needed.
-						rtnVal = convert( fields );
+						rtnVal = convert( tokenizer.getBuffer(), fieldCount );
+						featureLines++;
 						done = true;
 					}
 
@@ -123,19 +295,30 @@ public class Gff3LineReader {
 
 			} while ( ! done );
 
-		} catch ( Exception ex ) {
+		} catch ( IOException ex ) {
 			throw new Gff3LineReaderException( ex );
 		}
 		return rtnVal;
 	}
 
 	//----------------------------HELPER METHODS
+	/** Tell the listener, once, what was read. */
+	private void reportMetrics() {
+		if ( metricsListener == null  ||  metricsReported ) {
+			return;
+		}
+		metricsReported = true;
+		long bytesRead = tokenizer == null ? 0 : tokenizer.getLineEndOffset();
+		metricsListener.linesRead( sourceName, featureLines, commentLines, fastaLines, bytesRead );
+		metricsListener.phaseCompleted( sourceName, Gff3MetricsListener.Phase.READ, readNanos, unescapes );
+	}
+
 	/** Ensure the reader has been opened. */
 	private void prepareReader() throws Gff3LineReaderException {
-		if ( rdr == null  &&  gffFile != null ) {
+		if ( tokenizer == null  &&  gffFile != null ) {
 			try {
-				rdr = new BufferedReader(
-						new FileReader( gffFile )
+				tokenizer = new Gff3LineTokenizer(
+						Gff3Compression.open( gffFile )    // Gzip and BGZF are inflated on the way in.
 				);
 			} catch ( Exception ex ) {
 				throw new Gff3LineReaderException( ex );
@@ -230,69 +413,51 @@ public class Gff3LineReader {
 		
 		Ontology_term: A cross reference to an ontology term. See the GFF3 specification for more information. 
 	 */
-	private Gff3GenericModel convert( String[] fields ) throws Gff3LineReaderException {
+	private Gff3GenericModel convert( byte[] line, int fieldCount ) throws Gff3LineReaderException {
 		Gff3GenericModel model = new Gff3GenericModel();
+		StringPool pool = getStringPool();
 		try {
-			model.setLandmarkId( unescapeUrl( fields[ 0 ] ) );
+			model.setLandmarkId( internUnescaped( pool, line, start( 0 ), end( 0 ) ) );
 
-			model.setSource( unescapeUrl( fields[ 1 ] ) );
-			String modelType = fields[ 2 ];
-			if ( modelType == null ) {
-				modelType = "Unknown";
-System.out.println("Model at line " + lineNo + " has odd model type /" + modelType + "/");
-			}
-			model.setType( modelType );   //todo compare with the SOFA.
+			model.setSource( internUnescaped( pool, line, start( 1 ), end( 1 ) ) );
+			model.setType( pool.intern( line, start( 2 ), end( 2 ) ) );   // Stamps the SOFA type code, too.
 			
-			String startStr = fields[ 3 ];
-			String endStr = fields[ 4 ];
-			try {
-				model.setStart( Integer.parseInt( startStr ) );
-				model.setEnd( Integer.parseInt( endStr ) );
-			} catch ( NumberFormatException nfe ) {
+			long startVal = Gff3FieldDecoder.parseInt( line, start( 3 ), end( 3 ) );
+			long endVal = Gff3FieldDecoder.parseInt( line, start( 4 ), end( 4 ) );
+			if ( startVal != Gff3FieldDecoder.NOT_AN_INT  &&  endVal != Gff3FieldDecoder.NOT_AN_INT ) {
+				model.setStart( (int)startVal );
+				model.setEnd( (int)endVal );
+			}
+			else {
 				System.out.println(
-						"WARNING: start or end not an integer. Forcing to 0,0. Start = " + startStr + ", End = " + endStr + " see line " + lineNo );
+						"WARNING: start or end not an integer. Forcing to 0,0. Start = " + Gff3FieldDecoder.toString( line, start( 3 ), end( 3 ) ) +
+						", End = " + Gff3FieldDecoder.toString( line, start( 4 ), end( 4 ) ) + " see line " + lineNo );
 				model.setStart( 0 );
 				model.setEnd( 0 );
 			}
 			
-			String score = fields[ 5 ];
-			if ( score.trim().length() > 0  &&  score.charAt( 0 ) != '.' )
-				model.setScore( Double.parseDouble( score ) );
+			if ( ! Gff3FieldDecoder.isBlank( line, start( 5 ), end( 5 ) )  &&  line[ start( 5 ) ] != '.' )
+				model.setScore( Double.parseDouble( Gff3FieldDecoder.toString( line, start( 5 ), end( 5 ) ) ) );
 			else
 				model.setScore( 0.0 );
 			
-			model.setStrand( decodeStrand( fields[ 6 ] ) );
+			model.setStrand( decodeStrand( line, start( 6 ), end( 6 ) ) );
 			
-			model.setPhase( interpretPhase( fields[ 7 ] ) );
-
-			// Maintenance note: of the attributes which may be used, several are "known" to the specification, and have
-			// special purposes.  Of these, they may not have the same ,-to-multiple cardinality as user attributes.
-			// Also, some may require different treatment of URL-escape (%-hex-value) characters.  These exceptions
-			// have been applied where know.  However, if more cases should arise, follow the patterns used below
-			// to correct them.
-			if ( fields.length >= 9 ) {
-				Map<String,String[]> attributes = parseAttributes( fields[ 8  ] );
-				model.setAttributes( attributes );
-
-				model.setDerivesFrom( getFirstAttribOrNull( attributes, DERIVEMENT_ATTRIB ));
-				model.setTargetOfAlignment( getFirstAttribOrNull( attributes, TARGET_ATTRIB) );
-				model.setGap( getFirstAttribOrNull( attributes, GAP_ATTRIB) );
-				model.setId( getFirstAttribOrNull( attributes, ID_ATTRIB) );
-				model.setName( unescapeUrl( getFirstAttribOrNull( attributes, NAME_ATTRIB) ) );
-				model.setNonUniqueAlias( getFirstAttribOrNull( attributes, ALIAS_ATTRIB) );
-				model.setNote( getFirstAttribOrNull( attributes, NOTE_ATTRIB) );
-				model.setOntologyTerm( getFirstAttribOrNull( attributes, ONTOLOGY_ATTRIB) );
-
-				// Known multiple cardinality.
-				model.setParent( attributes.get( PARENT_ATTRIB ) );
-				model.setDbxref( attributes.get( DBXREF_ATTRIB ) );
-				if ( model.getDbxref() == null ) {
-					model.setDbxref( attributes.get( DBXREF_ATTRIB.toLowerCase() )); // settling for what Saccharomyces cerevisiae S288C genome has.
-					if ( model.getDbxref() == null ) {
-						model.setDbxref( attributes.get( DBXREF_ATTRIB_ALT ) );  // settling for NCBI's version.
-					}
+			model.setPhase( interpretPhase( line, start( 7 ), end( 7 ) ) );
+
+			// ID and Parent are wanted by nearly every consumer, so are decoded now.  The rest of column 9
+			// is kept raw and decoded by the model only if asked for; see Gff3GenericModel.decodeAttributes()
+			// for the special treatment of the attributes known to the specification.  A column holding
+			// escapes is decoded at once, so that a bad one fails here, on its line, rather than at first use.
+			if ( fieldCount >= 9 ) {
+				String[][] idAndParent = Gff3FieldDecoder.findAttributes( line, start( 8 ), end( 8 ), lineNo, ID_ATTRIB, PARENT_ATTRIB );
+				String[] ids = idAndParent[ 0 ];
+				model.setId( ids != null  &&  ids.length > 0 ? ids[ 0 ] : null );
+				model.setParent( idAndParent[ 1 ] );
+				model.setRawAttributes( Arrays.copyOfRange( line, start( 8 ), end( 8 ) ), lineNo );
+				if ( Gff3FieldDecoder.hasEscape( line, start( 8 ), end( 8 ) ) ) {
+					model.decodeRawAttributes();
 				}
-				
 			}
 		} catch ( Exception ex ) {
 			throw new Gff3LineReaderException( ex );
@@ -300,67 +465,33 @@ System.out.println("Model at line " + lineNo + " has odd model type /" + modelTy
 		
 		return model;
 	}
-	
-	private String getFirstAttribOrNull( Map<String,String[]> attributes, String attribName ) {
-		String[] values = attributes.get( attribName );
-		if ( values != null  &&  values.length > 0 ) {
-			return values[ 0 ];
-		}
-		else {
-			return null;
+
+	/** Canonical instance of an escaped value.  Values seldom hold escapes, so are mostly pooled straight from the bytes. */
+	private String internUnescaped( StringPool pool, byte[] line, int from, int to ) {
+		for ( int i = from; i < to; i++ ) {
+			if ( line[ i ] == '%' ) {
+				return pool.intern( Gff3FieldDecoder.unescapeUrl( line, from, to, lineNo ) );
+			}
 		}
+		return pool.intern( line, from, to );
 	}
 
-	/** Extract the attributes, treating special ones differently. */
-	private Map<String,String[]> parseAttributes( String combinedAttributes ) {
-		Map<String,String[]> attributes = new HashMap<String,String[]>();
-		//A list of feature attributes in the format tag=value. Multiple tag=value pairs are separated by semicolons. URL escaping rules are used 
-		// for tags or values containing the following characters: ",=;". Spaces are allowed in this field, but tabs must be replaced with the %09 
-		// URL escape. This field is not required.
-		String trimmedAttributes = combinedAttributes.trim();
-		if ( trimmedAttributes.length() > 0 ) {
-			String[] settings = trimmedAttributes.split( ";" );
-			for ( String setting: settings ) {
-				String[] nameValuePair = setting.split( "=" );
-				String key = unescapeUrl( nameValuePair[ 0 ] );
-
-				// For NOTE, which is free text, cutting up by comma makes no sense.
-				if ( key.equals( NOTE_ATTRIB ) ) {
-
-					attributes.put( key, new String[] { unescapeUrl( nameValuePair[ 1 ] ) } );
-
-				}
-				else {
-					if ( nameValuePair.length < 2 ) {
-						attributes.put( key, new String[ 0 ] );
-						//System.out.println("WARNING: malformed attribute setting /" + setting + "/");
-					}
-					else {
-						String[] values = nameValuePair[ 1 ].split( "," );
-						for ( int i = 0; i < values.length; i++ ) {
-							// NOTE: for target attribute, need the URL-escape characters in place.
-							if ( ! key.equals( TARGET_ATTRIB ) ) {
-								values[ i ] = unescapeUrl( values[ i ] );
-							}
-						}
-						
-						attributes.put( key, values );
-						
-					}
+	/** Where a column of the current line begins. */
+	private int start( int column ) {
+		return tokenizer.getColumnStart( column );
+	}
 
-				}
-				
-			}
-		}
-		return attributes;
+	/** Where a column of the current line ends (exclusive). */
+	private int end( int column ) {
+		return tokenizer.getColumnEnd( column );
 	}
 	
 	/** Put strand into its standard enum form. */
-	private Gff3GenericModel.Strand decodeStrand( String strandStr ) {
-		if ( strandStr == null  ||  strandStr.length() == 0 ) {
+	private Gff3GenericModel.Strand decodeStrand( byte[] line, int from, int to ) {
+		if ( from >= to ) {
 			return Gff3GenericModel.Strand.misSpecified;
 		}
-		switch ( strandStr.charAt( 0 ) ) {
+		switch ( line[ from ] ) {
 		    case '+' : return Gff3GenericModel.Strand.positive;
 		    case '-' : return Gff3GenericModel.Strand.negative;
 		    case '.' : return Gff3GenericModel.Strand.none;
@@ -370,62 +501,21 @@ System.out.println("Model at line " + lineNo + " has odd model type /" + modelTy
 	}
 	
 	/** Decide what kind of phase we deal with. */
-	private Integer interpretPhase( String phaseStr ) {
+	private Integer interpretPhase( byte[] line, int from, int to ) {
 		Integer rtnVal = null;
-		if ( phaseStr != null  &&  phaseStr.length() > 0 ) {
-			if ( phaseStr.trim().length() > 0 ) {
-				try {
-					int phaseInt = Integer.parseInt( phaseStr );
-					if ( phaseInt >= 0  &&  phaseInt <= 3 ) {
-						rtnVal = phaseInt;
-					}
-					else {
-						rtnVal = null;
-					}
-				} catch ( NumberFormatException nfe ) {
-					rtnVal = null;
-				}
-			}
-			
+		long phase = Gff3FieldDecoder.parseInt( line, from, to );
+		if ( phase >= 0  &&  phase <= 3 ) {
+			rtnVal = (int)phase;
 		}
 		
 		return rtnVal;
 	}
 	
-	/** Some values can have non-printable characters (or in-value delimiters) which must be escaped.  This method un-translates them. */
-	private String unescapeUrl( String value ) {
-		// Here, look for URL-like "escape sequences", starting with percent-sign, and followed by two hex characters.
-		if ( value != null  &&  value.contains( "%" ) ) {
-			int nextPos = 0;
-			int pos = 0;
-			StringBuilder builder = new StringBuilder();
-			while ( -1 != ( pos = value.indexOf( '%', nextPos ) ) ) {
-				builder.append( value.substring( nextPos,  pos ) );    // Take care of part before match.
-				if ( pos + 2 > value.length() - 1 ) {
-					System.out.println(
-					   "WARNING: value " + value + " at line " + lineNo + 
-					   " has URL-escape that extends past end-of-string.  Truncating to " +
-					   builder.toString() );
-					return builder.toString();
-				}
-				
-				String hexPart = value.substring( pos + 1, pos + 3 );
-				builder.append( (char)Integer.parseInt( hexPart, 16 ) );
-				
-				nextPos = pos + 3;
-			}
-			
-			builder.append( value.substring( nextPos ) );              // Take care of part after last match.
-			
-			value = builder.toString();
-		}
-		return value;
-	}
-	
 	/** Exception for any failures in this line read. */
 	static public class Gff3LineReaderException extends Exception {
 		public Gff3LineReaderException( Exception ex) { super( ex ); }
 		public Gff3LineReaderException( String message ) { super( message ); }
+		public Gff3LineReaderException( String message, Exception ex ) { super( message, ex ); }
 	}
 }
 
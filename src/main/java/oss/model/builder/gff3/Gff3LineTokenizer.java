@@ -0,0 +1,224 @@
+/**
+ *   Copyright Leslie L. Foster, 2011.
+ *
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation; version 2.1 of the License.
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation, Inc.
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+package oss.model.builder.gff3;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Splits raw input bytes into lines, and lines into tab-separated columns, by offset only.  No
+ * Strings are made here; the line stays in a reusable buffer, and callers decode the columns they need.
+ *
+ * Line ends are as for BufferedReader.readLine(): LF, CR or CR-LF.  Column counting is as for
+ * String.split("\t"): trailing empty columns are not counted.
+ */
+class Gff3LineTokenizer {
+	/** Column bounds are kept for this many columns; GFF3 has nine. */
+	static final int MAX_COLUMNS = 9;
+	private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+	private static final byte TAB = '\t';
+	private static final byte LF = '\n';
+	private static final byte CR = '\r';
+
+	private InputStream is;
+	private byte[] buf;
+	private int bufLen;       // Count of valid bytes in the buffer.
+	private int pos;          // Next unread byte in the buffer.
+	private boolean eof;
+	private long bufferOffset;   // Offset in the input of buf[ 0 ].
+
+	private int lineStart;
+	private int lineEnd;
+	private int lineNo;
+
+	private final int[] columnStarts = new int[ MAX_COLUMNS ];
+	private final int[] columnEnds = new int[ MAX_COLUMNS ];
+	private int columnCount;
+
+	Gff3LineTokenizer( InputStream is ) {
+		this( is, DEFAULT_BUFFER_SIZE );
+	}
+
+	Gff3LineTokenizer( InputStream is, int bufferSize ) {
+		this.is = is;
+		this.buf = new byte[ bufferSize ];
+	}
+
+	/**
+	 * Advance to the next line of input.
+	 *
+	 * @return false at end of input.
+	 */
+	boolean nextLine() throws IOException {
+		columnCount = -1;
+		int scanPos = pos;
+		while ( true ) {
+			for ( int i = scanPos; i < bufLen; i++ ) {
+				byte b = buf[ i ];
+				if ( b == LF  ||  b == CR ) {
+					lineStart = pos;
+					lineEnd = i;
+					pos = i + 1;
+					if ( b == CR ) {
+						// A directly-following LF belongs to this line; make sure it has been read, to tell.
+						if ( pos == bufLen  &&  ! eof ) {
+							readMore();
+						}
+						if ( pos < bufLen  &&  buf[ pos ] == LF ) {
+							pos++;
+						}
+					}
+					lineNo++;
+					return true;
+				}
+			}
+			if ( eof ) {
+				if ( pos < bufLen ) {
+					// Last line had no terminator.
+					lineStart = pos;
+					lineEnd = bufLen;
+					pos = bufLen;
+					lineNo++;
+					return true;
+				}
+				return false;
+			}
+			scanPos = bufLen - pos;
+			fill();
+		}
+	}
+
+	/** Keep the partial line, and read more behind it. */
+	private void fill() throws IOException {
+		int partial = bufLen - pos;
+		if ( partial == buf.length ) {
+			byte[] bigger = new byte[ buf.length * 2 ];
+			System.arraycopy( buf, pos, bigger, 0, partial );
+			buf = bigger;
+		}
+		else if ( pos > 0 ) {
+			System.arraycopy( buf, pos, buf, 0, partial );
+		}
+		bufferOffset += pos;
+		pos = 0;
+		bufLen = partial;
+		int count = is.read( buf, bufLen, buf.length - bufLen );
+		if ( count < 0 ) {
+			eof = true;
+		}
+		else {
+			bufLen += count;
+		}
+	}
+
+	/** Read more behind what is held, moving nothing, so that offsets into the buffer stay good. */
+	private void readMore() throws IOException {
+		if ( bufLen == buf.length ) {
+			byte[] bigger = new byte[ buf.length * 2 ];
+			System.arraycopy( buf, 0, bigger, 0, bufLen );
+			buf = bigger;
+		}
+		int count = is.read( buf, bufLen, buf.length - bufLen );
+		if ( count < 0 ) {
+			eof = true;
+		}
+		else {
+			bufLen += count;
+		}
+	}
+
+	/** Buffer holding the current line.  Contents change with the next call to nextLine(). */
+	byte[] getBuffer() { return buf; }
+	int getLineStart() { return lineStart; }
+	int getLineEnd() { return lineEnd; }
+
+	/** Offset in the input of the current line's first byte. */
+	long getLineOffset() { return bufferOffset + lineStart; }
+
+	/** Offset in the input just past the current line's terminator, the whole of it for CR-LF. */
+	long getLineEndOffset() { return bufferOffset + pos; }
+
+	/** Line number of the current line.  First line is line 1. */
+	int getLineNo() { return lineNo; }
+
+	/** Number the lines to come as though this many had been read before them. */
+	void setLineNo( int lineNo ) { this.lineNo = lineNo; }
+
+	/** Tells if the current line begins with the character given. */
+	boolean lineStartsWith( char c ) {
+		return lineEnd > lineStart  &&  buf[ lineStart ] == c;
+	}
+
+	/** Tells if the current line begins with the (ASCII) text given. */
+	boolean lineStartsWith( String prefix ) {
+		int len = prefix.length();
+		if ( lineEnd - lineStart < len ) {
+			return false;
+		}
+		for ( int i = 0; i < len; i++ ) {
+			if ( buf[ lineStart + i ] != prefix.charAt( i ) ) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Find the tab-separated columns of the current line.  Count is as String.split("\t") would give:
+	 * a line with no tabs is one column, and trailing empty columns do not count.
+	 *
+	 * @return number of columns.
+	 */
+	int splitColumns() {
+		if ( columnCount >= 0 ) {
+			return columnCount;
+		}
+		int column = 0;
+		int lastNonEmpty = -1;
+		int start = lineStart;
+		for ( int i = lineStart; i <= lineEnd; i++ ) {
+			if ( i == lineEnd  ||  buf[ i ] == TAB ) {
+				if ( column < MAX_COLUMNS ) {
+					columnStarts[ column ] = start;
+					columnEnds[ column ] = i;
+				}
+				if ( i > start ) {
+					lastNonEmpty = column;
+				}
+				column++;
+				start = i + 1;
+			}
+		}
+		columnCount = ( column == 1 ) ? 1 : lastNonEmpty + 1;
+		return columnCount;
+	}
+
+	/** Start offset in the buffer of a column, among the first MAX_COLUMNS.  Call splitColumns() first. */
+	int getColumnStart( int column ) { return columnStarts[ column ]; }
+
+	/** End offset (exclusive) in the buffer of a column, among the first MAX_COLUMNS.  Call splitColumns() first. */
+	int getColumnEnd( int column ) { return columnEnds[ column ]; }
+
+	/** Release the input. */
+	void close() throws IOException {
+		if ( is != null ) {
+			is.close();
+			is = null;
+		}
+	}
+}
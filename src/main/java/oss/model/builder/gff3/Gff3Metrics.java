@@ -0,0 +1,193 @@
+/**
+ *   Copyright Leslie L. Foster, 2011.
+ *
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation; version 2.1 of the License.
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation, Inc.
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+package oss.model.builder.gff3;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Listener which adds up all it is told, across any number of readers and assemblers, on any threads.
+ * Read the figures through snapshot(), or through JMX once registered.
+ *
+ * <pre>
+ *     Gff3Metrics metrics = new Gff3Metrics();
+ *     metrics.registerMBean( "genome-service" );
+ *     assembler.setMetricsListener( metrics );
+ * </pre>
+ */
+public class Gff3Metrics implements Gff3MetricsListener, Gff3MetricsMXBean {
+	/** Domain of the names MBeans are registered under. */
+	public static final String JMX_DOMAIN = "oss.model.builder.gff3";
+
+	private static final Phase[] PHASES = Phase.values();
+
+	private final LongAdder featureLines = new LongAdder();
+	private final LongAdder commentLines = new LongAdder();
+	private final LongAdder fastaLines = new LongAdder();
+	private final LongAdder bytesRead = new LongAdder();
+	private final LongAdder[] phaseNanos = newAdders( PHASES.length );
+	private final LongAdder[] phaseUnescapes = newAdders( PHASES.length );
+	private final LongAdder placeholdersCreated = new LongAdder();
+	private final LongAdder duplicateIdsRenamed = new LongAdder();
+	private final LongAdder modelsRejected = new LongAdder();
+	private final LongAccumulator peakNodeCount = new LongAccumulator( Math::max, 0 );
+
+	@Override
+	public void linesRead( String sourceName, long featureLines, long commentLines, long fastaLines, long bytes ) {
+		this.featureLines.add( featureLines );
+		this.commentLines.add( commentLines );
+		this.fastaLines.add( fastaLines );
+		this.bytesRead.add( bytes );
+	}
+
+	@Override
+	public void phaseCompleted( String sourceName, Phase phase, long nanos, long unescapes ) {
+		phaseNanos[ phase.ordinal() ].add( nanos );
+		phaseUnescapes[ phase.ordinal() ].add( unescapes );
+	}
+
+	@Override
+	public void placeholderCreated( String sourceName, String parentId ) { placeholdersCreated.increment(); }
+
+	@Override
+	public void duplicateIdRenamed( String sourceName, String newId ) { duplicateIdsRenamed.increment(); }
+
+	@Override
+	public void modelRejected( String sourceName, String reason ) { modelsRejected.increment(); }
+
+	@Override
+	public void nodesAssembled( String sourceName, int nodeCount ) { peakNodeCount.accumulate( nodeCount ); }
+
+	@Override public long getFeatureLines() { return featureLines.sum(); }
+	@Override public long getCommentLines() { return commentLines.sum(); }
+	@Override public long getFastaLines() { return fastaLines.sum(); }
+	@Override public long getBytesRead() { return bytesRead.sum(); }
+	@Override public long getReadNanos() { return getNanos( Phase.READ ); }
+	@Override public long getReadUnescapes() { return getUnescapes( Phase.READ ); }
+	@Override public long getAssembleNanos() { return getNanos( Phase.ASSEMBLE ); }
+	@Override public long getAssembleUnescapes() { return getUnescapes( Phase.ASSEMBLE ); }
+	@Override public long getPlaceholdersCreated() { return placeholdersCreated.sum(); }
+	@Override public long getDuplicateIdsRenamed() { return duplicateIdsRenamed.sum(); }
+	@Override public long getModelsRejected() { return modelsRejected.sum(); }
+	@Override public long getPeakNodeCount() { return peakNodeCount.get(); }
+
+	public long getNanos( Phase phase ) { return phaseNanos[ phase.ordinal() ].sum(); }
+	public long getUnescapes( Phase phase ) { return phaseUnescapes[ phase.ordinal() ].sum(); }
+
+	/** Start all figures again from zero.  Figures told while resetting may be lost. */
+	@Override
+	public void reset() {
+		for ( LongAdder adder: new LongAdder[] { featureLines, commentLines, fastaLines, bytesRead,
+				                                  placeholdersCreated, duplicateIdsRenamed, modelsRejected } ) {
+			adder.reset();
+		}
+		for ( int i = 0; i < PHASES.length; i++ ) {
+			phaseNanos[ i ].reset();
+			phaseUnescapes[ i ].reset();
+		}
+		peakNodeCount.reset();
+	}
+
+	/** The figures as they stand.  Each is read separately, so figures changing meanwhile may not agree exactly. */
+	public Snapshot snapshot() {
+		return new Snapshot( this );
+	}
+
+	/**
+	 * Register with the platform MBean server, as JMX_DOMAIN:type=Gff3Metrics,name=[name].
+	 *
+	 * @return name registered under, for unregistering.
+	 */
+	public ObjectName registerMBean( String name ) throws JMException {
+		ObjectName objectName = new ObjectName( JMX_DOMAIN + ":type=Gff3Metrics,name=" + ObjectName.quote( name ) );
+		ManagementFactory.getPlatformMBeanServer().registerMBean( this, objectName );
+		return objectName;
+	}
+
+	/** Remove a registration made by registerMBean(). */
+	public static void unregisterMBean( ObjectName objectName ) throws JMException {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		if ( server.isRegistered( objectName ) ) {
+			server.unregisterMBean( objectName );
+		}
+	}
+
+	private static LongAdder[] newAdders( int count ) {
+		LongAdder[] adders = new LongAdder[ count ];
+		for ( int i = 0; i < count; i++ ) {
+			adders[ i ] = new LongAdder();
+		}
+		return adders;
+	}
+
+	/** Unchanging copy of the figures. */
+	public static class Snapshot {
+		private final long featureLines;
+		private final long commentLines;
+		private final long fastaLines;
+		private final long bytesRead;
+		private final long[] phaseNanos = new long[ PHASES.length ];
+		private final long[] phaseUnescapes = new long[ PHASES.length ];
+		private final long placeholdersCreated;
+		private final long duplicateIdsRenamed;
+		private final long modelsRejected;
+		private final long peakNodeCount;
+
+		Snapshot( Gff3Metrics metrics ) {
+			featureLines = metrics.getFeatureLines();
+			commentLines = metrics.getCommentLines();
+			fastaLines = metrics.getFastaLines();
+			bytesRead = metrics.getBytesRead();
+			for ( Phase phase: PHASES ) {
+				phaseNanos[ phase.ordinal() ] = metrics.getNanos( phase );
+				phaseUnescapes[ phase.ordinal() ] = metrics.getUnescapes( phase );
+			}
+			placeholdersCreated = metrics.getPlaceholdersCreated();
+			duplicateIdsRenamed = metrics.getDuplicateIdsRenamed();
+			modelsRejected = metrics.getModelsRejected();
+			peakNodeCount = metrics.getPeakNodeCount();
+		}
+
+		public long getFeatureLines() { return featureLines; }
+		public long getCommentLines() { return commentLines; }
+		public long getFastaLines() { return fastaLines; }
+		public long getBytesRead() { return bytesRead; }
+		public long getNanos( Phase phase ) { return phaseNanos[ phase.ordinal() ]; }
+		public long getUnescapes( Phase phase ) { return phaseUnescapes[ phase.ordinal() ]; }
+		public long getPlaceholdersCreated() { return placeholdersCreated; }
+		public long getDuplicateIdsRenamed() { return duplicateIdsRenamed; }
+		public long getModelsRejected() { return modelsRejected; }
+		public long getPeakNodeCount() { return peakNodeCount; }
+
+		@Override
+		public String toString() {
+			return "featureLines=" + featureLines + ", commentLines=" + commentLines + ", fastaLines=" + fastaLines +
+				   ", bytesRead=" + bytesRead +
+				   ", readMillis=" + phaseNanos[ Phase.READ.ordinal() ] / 1000000 +
+				   ", readUnescapes=" + phaseUnescapes[ Phase.READ.ordinal() ] +
+				   ", assembleMillis=" + phaseNanos[ Phase.ASSEMBLE.ordinal() ] / 1000000 +
+				   ", assembleUnescapes=" + phaseUnescapes[ Phase.ASSEMBLE.ordinal() ] +
+				   ", placeholdersCreated=" + placeholdersCreated + ", duplicateIdsRenamed=" + duplicateIdsRenamed +
+				   ", modelsRejected=" + modelsRejected + ", peakNodeCount=" + peakNodeCount;
+		}
+	}
+}
@@ -0,0 +1,65 @@
+/**
+ *   Copyright Leslie L. Foster, 2011.
+ *
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation; version 2.1 of the License.
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation, Inc.
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+package oss.model.builder.gff3;
+
+/**
+ * Told how reading and assembly went, for monitoring.  Give one to Gff3LineReader, Gff3ParallelReader
+ * or Gff3DataAssembler; with none given, which is the default, nothing is timed or reported.
+ *
+ * Counts of lines read are told once per reader, when it reaches the end of its input or is closed.
+ * Readers working in parallel tell from their own threads, so implementations must be thread-safe.
+ * Gff3Metrics is one such, which adds everything up.  All methods do nothing by default.
+ */
+public interface Gff3MetricsListener {
+	/** The stages that are timed. */
+	enum Phase {
+		/** Reading and tokenizing lines into models, inside Gff3LineReader. */
+		READ,
+		/** Linking models into trees, inside Gff3DataAssembler, less the reading it drove. */
+		ASSEMBLE
+	}
+
+	/**
+	 * What a reader went through.
+	 *
+	 * @param featureLines lines made into models.
+	 * @param commentLines comment and directive lines skipped.
+	 * @param fastaLines FASTA header and sequence lines skipped, short of those following ##FASTA, which are not read.
+	 * @param bytes of text read, after any decompression.
+	 */
+	default void linesRead( String sourceName, long featureLines, long commentLines, long fastaLines, long bytes ) {}
+
+	/**
+	 * Time spent in a phase of work on the source.
+	 *
+	 * @param unescapes values found holding URL escapes, and decoded, during the phase.
+	 */
+	default void phaseCompleted( String sourceName, Phase phase, long nanos, long unescapes ) {}
+
+	/** A feature named a parent not yet seen, so a placeholder node stands in for the parent until it arrives. */
+	default void placeholderCreated( String sourceName, String parentId ) {}
+
+	/** A feature had the ID of one before it, and was given the one shown. */
+	default void duplicateIdRenamed( String sourceName, String newId ) {}
+
+	/** A feature was left out of assembly, for the reason given. */
+	default void modelRejected( String sourceName, String reason ) {}
+
+	/** Nodes held once assembly finished: those of one axis after prepareModels(), or of all after prepareAllModels(). */
+	default void nodesAssembled( String sourceName, int nodeCount ) {}
+}
@@ -0,0 +1,39 @@
+/**
+ *   Copyright Leslie L. Foster, 2011.
+ *
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation; version 2.1 of the License.
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation, Inc.
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+package oss.model.builder.gff3;
+
+/**
+ * Management view of Gff3Metrics, for JMX.  Every figure is a running total since creation or the
+ * last reset, but for the peak.
+ */
+public interface Gff3MetricsMXBean {
+	long getFeatureLines();
+	long getCommentLines();
+	long getFastaLines();
+	long getBytesRead();
+	long getReadNanos();
+	long getReadUnescapes();
+	long getAssembleNanos();
+	long getAssembleUnescapes();
+	long getPlaceholdersCreated();
+	long getDuplicateIdsRenamed();
+	long getModelsRejected();
+	/** Most nodes held at the end of any one assembly. */
+	long getPeakNodeCount();
+	void reset();
+}
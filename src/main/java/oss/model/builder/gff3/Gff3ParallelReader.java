@@ -0,0 +1,322 @@
+/**
+ *   Copyright Leslie L. Foster, 2011.
+ *
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation; version 2.1 of the License.
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation, Inc.
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+package oss.model.builder.gff3;
+
+import oss.model.builder.gff3.Gff3LineReader.Gff3LineReaderException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * Reads a whole GFF3 file using all cores.  The file is memory-mapped and cut into line-aligned
+ * chunks; each chunk is parsed on its own thread by a Gff3LineReader, and the models are handed
+ * back in file order.  Only a bounded number of chunks are in flight at once.
+ *
+ * Gzip and BGZF files are read by one Gff3LineReader, as only plain text can be cut into chunks.
+ *
+ * Comment and directive lines are skipped as by Gff3LineReader.  Reading stops at the ##FASTA
+ * directive: chunks which follow the one holding it are discarded.
+ *
+ * Line numbers in messages and models are those of the file.  Each chunk counts its own line ends
+ * before parsing, and hands the running total on to the chunk after it.
+ */
+public class Gff3ParallelReader {
+	private static final int DEFAULT_CHUNK_SIZE = 16 * 1024 * 1024;
+	private static final int CHUNKS_IN_FLIGHT_PER_THREAD = 2;
+
+	private final File gffFile;
+	private int parallelism = Runtime.getRuntime().availableProcessors();
+	private int chunkSize = DEFAULT_CHUNK_SIZE;
+	private StringPool stringPool = new StringPool();
+	private Gff3MetricsListener metricsListener;
+
+	/** Configure with file-to-handle on construction. */
+	public Gff3ParallelReader( File gffFile ) {
+		this.gffFile = gffFile;
+	}
+
+	/** @param parallelism number of threads parsing at once.  Defaults to the number of processors. */
+	public void setParallelism( int parallelism ) {
+		if ( parallelism < 1 ) {
+			throw new IllegalArgumentException( "Parallelism must be at least 1." );
+		}
+		this.parallelism = parallelism;
+	}
+
+	public int getParallelism() { return parallelism; }
+
+	/** @param chunkSize approximate bytes of input given to each parse task. */
+	public void setChunkSize( int chunkSize ) {
+		if ( chunkSize < 1 ) {
+			throw new IllegalArgumentException( "Chunk size must be at least 1." );
+		}
+		this.chunkSize = chunkSize;
+	}
+
+	public int getChunkSize() { return chunkSize; }
+
+	/**
+	 * @param stringPool landmark, source and type of each model come canonical from this pool.  It is
+	 *     used only on the thread calling forEachModel() or readAll().
+	 */
+	public void setStringPool( StringPool stringPool ) {
+		this.stringPool = stringPool;
+	}
+
+	public StringPool getStringPool() { return stringPool; }
+
+	/** @param metricsListener told of each chunk read, from the thread which parsed it.  Null, the default, for none. */
+	public void setMetricsListener( Gff3MetricsListener metricsListener ) {
+		this.metricsListener = metricsListener;
+	}
+
+	public Gff3MetricsListener getMetricsListener() { return metricsListener; }
+
+	/** Tell what file this reader is working on. */
+	public String getSourceName() { return gffFile.toString(); }
+
+	/** All models of the file, in file order. */
+	public List<Gff3GenericModel> readAll() throws Gff3LineReaderException {
+		List<Gff3GenericModel> models = new ArrayList<>();
+		forEachModel( models::add );
+		return models;
+	}
+
+	/**
+	 * Hand every model of the file to the consumer, in file order, on the calling thread.
+	 *
+	 * @param consumer receives each model.
+	 */
+	public void forEachModel( Consumer<Gff3GenericModel> consumer ) throws Gff3LineReaderException {
+		if ( parallelism == 1  ||  ! Gff3Compression.isPlainText( gffFile ) ) {
+			// Nothing to overlap; skip the hand-off between threads.  Compressed input cannot be cut at line
+			// starts, but its reader inflates BGZF blocks on many threads of its own.
+			readSequentially( consumer );
+			return;
+		}
+		ExecutorService executor = Executors.newFixedThreadPool( parallelism, new DaemonThreadFactory( "gff3-parse" ) );
+		Deque<Future<ChunkResult>> inFlight = new ArrayDeque<>();
+		try ( FileChannel channel = FileChannel.open( gffFile.toPath(), StandardOpenOption.READ ) ) {
+			long fileSize = channel.size();
+			long nextChunkStart = 0;
+			int maxInFlight = parallelism * CHUNKS_IN_FLIGHT_PER_THREAD;
+			boolean fastaReached = false;
+			CompletableFuture<Integer> linesBefore = CompletableFuture.completedFuture( 0 );
+			while ( ! fastaReached  &&  ( nextChunkStart < fileSize  ||  ! inFlight.isEmpty() ) ) {
+				while ( nextChunkStart < fileSize  &&  inFlight.size() < maxInFlight ) {
+					long chunkEnd = alignToLineStart( channel, nextChunkStart + chunkSize, fileSize );
+					CompletableFuture<Integer> linesAfter = new CompletableFuture<>();
+					inFlight.add( executor.submit( new ChunkParser( nextChunkStart, chunkEnd, linesBefore, linesAfter ) ) );
+					nextChunkStart = chunkEnd;
+					linesBefore = linesAfter;
+				}
+				ChunkResult result = awaitChunk( inFlight.poll() );
+				for ( Gff3GenericModel model: result.models ) {
+					// Each chunk pooled its own strings; make them canonical across the file.
+					model.setLandmarkId( stringPool.intern( model.getLandmarkId() ) );
+					model.setSource( stringPool.intern( model.getSource() ) );
+					model.setType( stringPool.intern( model.getType() ) );
+					consumer.accept( model );
+				}
+				fastaReached = result.fastaReached;
+			}
+		} catch ( IOException ioe ) {
+			throw new Gff3LineReaderException( "Failed to read file " + gffFile, ioe );
+		} finally {
+			for ( Future<ChunkResult> abandoned: inFlight ) {
+				abandoned.cancel( true );
+			}
+			executor.shutdownNow();
+		}
+	}
+
+	private void readSequentially( Consumer<Gff3GenericModel> consumer ) throws Gff3LineReaderException {
+		Gff3LineReader rdr = new Gff3LineReader( gffFile );
+		rdr.setStringPool( stringPool );
+		rdr.setMetricsListener( metricsListener );
+		try {
+			Gff3GenericModel model;
+			while ( null != ( model = rdr.nextLine() ) ) {
+				consumer.accept( model );
+			}
+		} finally {
+			rdr.close();
+		}
+	}
+
+	/**
+	 * Find the start of the first line at or after the position given.
+	 *
+	 * @return offset following the next line end, or the file size if there is none.  A CR LF pair is
+	 *     one line end, and is never cut in two.
+	 */
+	static long alignToLineStart( FileChannel channel, long position, long fileSize ) throws IOException {
+		if ( position >= fileSize ) {
+			return fileSize;
+		}
+		ByteBuffer probe = ByteBuffer.allocate( 8 * 1024 );
+		long scanPos = position - 1;   // A line end just before the position makes the position itself a line start.
+		while ( scanPos < fileSize ) {
+			probe.clear();
+			int count = channel.read( probe, scanPos );
+			if ( count <= 0 ) {
+				break;
+			}
+			for ( int i = 0; i < count; i++ ) {
+				byte b = probe.get( i );
+				if ( b == '\n'  ||  b == '\r' ) {
+					long lineStart = scanPos + i + 1;
+					if ( b == '\r'  &&  lineStart < fileSize  &&  '\n' == ( i + 1 < count ? probe.get( i + 1 ) : byteAt( channel, lineStart ) ) ) {
+						lineStart++;
+					}
+					return lineStart;
+				}
+			}
+			scanPos += count;
+		}
+		return fileSize;
+	}
+
+	private static byte byteAt( FileChannel channel, long position ) throws IOException {
+		ByteBuffer one = ByteBuffer.allocate( 1 );
+		return channel.read( one, position ) == 1 ? one.get( 0 ) : 0;
+	}
+
+	/**
+	 * Count the line ends in a range of the file, as Gff3LineTokenizer counts them: LF, CR, or CR LF.
+	 * The range should not cut a CR LF pair in two; see alignToLineStart().
+	 */
+	static int countLineEnds( File gffFile, long start, long end ) throws IOException {
+		byte[] block = new byte[ 64 * 1024 ];
+		int lineEnds = 0;
+		boolean afterCr = false;
+		try ( InputStream in = new MappedRangeInputStream( gffFile, start, end ) ) {
+			int count;
+			while ( 0 < ( count = in.read( block, 0, block.length ) ) ) {
+				for ( int i = 0; i < count; i++ ) {
+					byte b = block[ i ];
+					if ( b == '\r'  ||  ( b == '\n'  &&  ! afterCr ) ) {
+						lineEnds++;
+					}
+					afterCr = b == '\r';
+				}
+			}
+		}
+		return lineEnds;
+	}
+
+	private ChunkResult awaitChunk( Future<ChunkResult> future ) throws Gff3LineReaderException {
+		try {
+			return future.get();
+		} catch ( InterruptedException ie ) {
+			Thread.currentThread().interrupt();
+			throw new Gff3LineReaderException( "Interrupted while reading " + gffFile, ie );
+		} catch ( ExecutionException ee ) {
+			Throwable cause = ee.getCause();
+			if ( cause instanceof Gff3LineReaderException ) {
+				throw (Gff3LineReaderException)cause;
+			}
+			throw new Gff3LineReaderException( "Failed to read file " + gffFile, ee );
+		}
+	}
+
+	/** Models of one chunk, and whether the ##FASTA directive cut it short. */
+	private static class ChunkResult {
+		private final List<Gff3GenericModel> models;
+		private final boolean fastaReached;
+
+		ChunkResult( List<Gff3GenericModel> models, boolean fastaReached ) {
+			this.models = models;
+			this.fastaReached = fastaReached;
+		}
+	}
+
+	/**
+	 * Parse one line-aligned range of the file.  Chunks are started in file order, so the one before
+	 * has always begun, and will pass on its line count without waiting on any chunk after it.
+	 */
+	private class ChunkParser implements Callable<ChunkResult> {
+		private final long start;
+		private final long end;
+		private final CompletableFuture<Integer> linesBefore;
+		private final CompletableFuture<Integer> linesAfter;
+
+		/**
+		 * @param linesBefore completed with the number of lines in the file before this chunk.
+		 * @param linesAfter to complete with the number of lines up to the end of this chunk.
+		 */
+		ChunkParser( long start, long end, CompletableFuture<Integer> linesBefore, CompletableFuture<Integer> linesAfter ) {
+			this.start = start;
+			this.end = end;
+			this.linesBefore = linesBefore;
+			this.linesAfter = linesAfter;
+		}
+
+		@Override
+		public ChunkResult call() throws Gff3LineReaderException {
+			List<Gff3GenericModel> models = new ArrayList<>();
+			Gff3LineReader rdr = new Gff3LineReader(
+					gffFile + "@" + start, new MappedRangeInputStream( gffFile, start, end ) );
+			rdr.setMetricsListener( metricsListener );
+			try {
+				rdr.setLinesBefore( countLinesBefore() );
+				Gff3GenericModel model;
+				while ( null != ( model = rdr.nextLine() ) ) {
+					models.add( model );
+				}
+				return new ChunkResult( models, rdr.isFastaReached() );
+			} catch ( Gff3LineReaderException glre ) {
+				throw new Gff3LineReaderException( "Failed reading chunk starting at byte " + start + " of " + gffFile, glre );
+			} finally {
+				rdr.close();
+			}
+		}
+
+		/** Count this chunk's lines, and pass the total so far on to the next chunk. */
+		private int countLinesBefore() throws Gff3LineReaderException {
+			try {
+				int lineEnds = countLineEnds( gffFile, start, end );
+				int before = linesBefore.get();
+				linesAfter.complete( before + lineEnds );
+				return before;
+			} catch ( InterruptedException ie ) {
+				Thread.currentThread().interrupt();
+				linesAfter.completeExceptionally( ie );
+				throw new Gff3LineReaderException( "Interrupted while reading " + gffFile, ie );
+			} catch ( IOException | ExecutionException ex ) {
+				linesAfter.completeExceptionally( ex );
+				throw new Gff3LineReaderException( "Failed to count lines before byte " + end + " of " + gffFile, ex );
+			}
+		}
+	}
+}
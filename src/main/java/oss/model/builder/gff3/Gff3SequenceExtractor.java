@@ -0,0 +1,298 @@
+/**
+ *   Copyright Leslie L. Foster, 2011.
+ *
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation; version 2.1 of the License.
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation, Inc.
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+package oss.model.builder.gff3;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Writes the spliced sequence of each transcript, and the translation of its coding parts, as FASTA.
+ * A transcript is any node with exon or CDS children: an mRNA under its gene, or a prokaryote's gene
+ * holding its CDS directly.  Its parts are put in order along its strand, from the sequence store,
+ * reverse complemented on the negative strand.  Transcripts lacking exons are given their joined CDS.
+ * Exons and CDS lacking a parent belong to no transcript, and are left out.  A transcript whose gene
+ * was never seen hangs under a placeholder root; given AssembledModels, those roots are walked too.
+ *
+ * Translation starts past the phase of the first coding part, by the codon table of its transl_table
+ * attribute if any, or else the extractor's own.  A trailing stop is left off.
+ *
+ * Top-level features are handed out in batches to a pool of threads; output is written in the order
+ * of the features given, with only a bounded number of batches held at once.  Given all landmarks,
+ * one pool serves the call, and a batch may run on from one landmark into the next, so that many small
+ * scaffolds are shared out as well as a few large chromosomes.
+ */
+public class Gff3SequenceExtractor {
+	private static final String EXON_TYPE = "exon";
+	private static final String CDS_TYPE = "CDS";
+	private static final String TRANSLATION_TABLE_ATTRIBUTE = "transl_table";
+	private static final int BATCH_SIZE = 64;
+	private static final int BATCHES_IN_FLIGHT_PER_THREAD = 2;
+	private static final Comparator<ModelTreeNode> BY_START =
+			Comparator.comparingInt( ( ModelTreeNode node ) -> node.getModel().getStart() );
+
+	private final Gff3SequenceStore store;
+	private int parallelism = Runtime.getRuntime().availableProcessors();
+	private int lineWidth = 60;
+	private CodonTable codonTable = CodonTable.STANDARD;
+
+	/** Configure with the sequences of the features' landmarks on construction. */
+	public Gff3SequenceExtractor( Gff3SequenceStore store ) {
+		this.store = store;
+	}
+
+	/** @param parallelism number of threads extracting at once.  Defaults to the number of processors. */
+	public void setParallelism( int parallelism ) {
+		if ( parallelism < 1 ) {
+			throw new IllegalArgumentException( "Parallelism must be at least 1." );
+		}
+		this.parallelism = parallelism;
+	}
+
+	public int getParallelism() { return parallelism; }
+
+	/** @param lineWidth residues per line of FASTA output.  Defaults to 60. */
+	public void setLineWidth( int lineWidth ) {
+		if ( lineWidth < 1 ) {
+			throw new IllegalArgumentException( "Line width must be at least 1." );
+		}
+		this.lineWidth = lineWidth;
+	}
+
+	public int getLineWidth() { return lineWidth; }
+
+	/** @param codonTable for coding parts lacking a transl_table attribute.  Defaults to the standard code. */
+	public void setCodonTable( CodonTable codonTable ) {
+		this.codonTable = codonTable;
+	}
+
+	public CodonTable getCodonTable() { return codonTable; }
+
+	/**
+	 * Extract from every landmark of the models, written landmark by landmark: the transcripts under its
+	 * top-level features, then those under its placeholder roots.
+	 */
+	public int extract( AssembledModels models, Writer transcripts, Writer proteins ) throws IOException {
+		List<ModelTreeNode> features = new ArrayList<>();
+		for ( String landmarkId: models.getLandmarkIds() ) {
+			features.addAll( models.getTopLevelFeatures( landmarkId ) );
+			features.addAll( models.getPlaceholderRoots( landmarkId ) );
+		}
+		return extractFeatures( features, transcripts, proteins );
+	}
+
+	/**
+	 * Extract the transcripts found under the features given.
+	 *
+	 * @param topLevelFeatures as from Gff3DataAssembler.getTopLevelFeatures(), with getPlaceholderRoots()
+	 *     added to reach transcripts whose gene was never seen.
+	 * @param transcripts receives spliced transcript sequences; null for none.
+	 * @param proteins receives translations of transcripts having coding parts; null for none.
+	 * @return number of transcripts found.
+	 */
+	public int extract( Collection<ModelTreeNode> topLevelFeatures, Writer transcripts, Writer proteins ) throws IOException {
+		return extractFeatures( new ArrayList<>( topLevelFeatures ), transcripts, proteins );
+	}
+
+	private int extractFeatures( List<ModelTreeNode> features, Writer transcripts, Writer proteins ) throws IOException {
+		Set<String> missingLandmarks = ConcurrentHashMap.newKeySet();
+		int count = 0;
+		if ( parallelism == 1 ) {
+			for ( int start = 0; start < features.size(); start += BATCH_SIZE ) {
+				count += write( new BatchExtractor( features, start, missingLandmarks ).call(), transcripts, proteins );
+			}
+		}
+		else {
+			ExecutorService executor = Executors.newFixedThreadPool( parallelism, new DaemonThreadFactory( "gff3-extract" ) );
+			Deque<Future<BatchResult>> inFlight = new ArrayDeque<>();
+			try {
+				int nextStart = 0;
+				int maxInFlight = parallelism * BATCHES_IN_FLIGHT_PER_THREAD;
+				while ( nextStart < features.size()  ||  ! inFlight.isEmpty() ) {
+					while ( nextStart < features.size()  &&  inFlight.size() < maxInFlight ) {
+						inFlight.add( executor.submit( new BatchExtractor( features, nextStart, missingLandmarks ) ) );
+						nextStart += BATCH_SIZE;
+					}
+					count += write( awaitBatch( inFlight.poll() ), transcripts, proteins );
+				}
+			} finally {
+				for ( Future<BatchResult> abandoned: inFlight ) {
+					abandoned.cancel( true );
+				}
+				executor.shutdownNow();
+			}
+		}
+		if ( ! missingLandmarks.isEmpty() ) {
+			System.out.println( "WARNING: no sequence for landmarks " + new TreeSet<>( missingLandmarks ) + " in " + store.getFile() + "; their transcripts were skipped." );
+		}
+		return count;
+	}
+
+	private int write( BatchResult result, Writer transcripts, Writer proteins ) throws IOException {
+		if ( transcripts != null ) {
+			transcripts.append( result.transcripts );
+		}
+		if ( proteins != null ) {
+			proteins.append( result.proteins );
+		}
+		return result.count;
+	}
+
+	private BatchResult awaitBatch( Future<BatchResult> future ) throws IOException {
+		try {
+			return future.get();
+		} catch ( InterruptedException ie ) {
+			Thread.currentThread().interrupt();
+			throw new IOException( "Interrupted while extracting sequences from " + store.getFile(), ie );
+		} catch ( ExecutionException ee ) {
+			Throwable cause = ee.getCause();
+			if ( cause instanceof RuntimeException ) {
+				throw (RuntimeException)cause;
+			}
+			throw new IOException( "Failed to extract sequences from " + store.getFile(), ee );
+		}
+	}
+
+	/** FASTA text of one batch of features. */
+	private static class BatchResult {
+		private final StringBuilder transcripts = new StringBuilder();
+		private final StringBuilder proteins = new StringBuilder();
+		private int count;
+	}
+
+	/** Extract the transcripts under a run of top-level features. */
+	private class BatchExtractor implements Callable<BatchResult> {
+		private final List<ModelTreeNode> features;
+		private final int start;
+		private final Set<String> missingLandmarks;
+
+		BatchExtractor( List<ModelTreeNode> features, int start, Set<String> missingLandmarks ) {
+			this.features = features;
+			this.start = start;
+			this.missingLandmarks = missingLandmarks;
+		}
+
+		@Override
+		public BatchResult call() {
+			BatchResult result = new BatchResult();
+			int end = Math.min( features.size(), start + BATCH_SIZE );
+			for ( int i = start; i < end; i++ ) {
+				ModelTreeNode feature = features.get( i );
+				extractUnder( feature, feature, result );
+			}
+			return result;
+		}
+
+		private void extractUnder( ModelTreeNode node, ModelTreeNode topLevel, BatchResult result ) {
+			if ( node.getChildren() == null ) {
+				return;
+			}
+			List<ModelTreeNode> exons = new ArrayList<>();
+			List<ModelTreeNode> cdsParts = new ArrayList<>();
+			for ( ModelTreeNode child: node.getChildren() ) {
+				Gff3GenericModel model = child.getModel();
+				if ( model == null  ||  model.getStart() == null  ||  model.getEnd() == null ) {
+					continue;
+				}
+				if ( EXON_TYPE.equals( model.getType() ) ) {
+					exons.add( child );
+				}
+				else if ( CDS_TYPE.equals( model.getType() ) ) {
+					cdsParts.add( child );
+				}
+				else {
+					extractUnder( child, topLevel, result );
+				}
+			}
+			if ( exons.isEmpty()  &&  cdsParts.isEmpty() ) {
+				return;
+			}
+			Gff3GenericModel transcript = node.getModel() != null ? node.getModel() : ( exons.isEmpty() ? cdsParts : exons ).get( 0 ).getModel();
+			if ( ! store.hasSequence( transcript.getLandmarkId() ) ) {
+				missingLandmarks.add( transcript.getLandmarkId() );
+				return;
+			}
+			boolean negative = transcript.getStrand() == Gff3GenericModel.Strand.negative;
+			String header = node == topLevel ? node.getId() : node.getId() + " gene=" + topLevel.getId();
+			sortAlongStrand( exons, negative );
+			sortAlongStrand( cdsParts, negative );
+			result.count++;
+
+			StringBuilder coding = join( cdsParts, negative );
+			writeFasta( header, exons.isEmpty() ? coding : join( exons, negative ), result.transcripts );
+			if ( coding.length() > 0 ) {
+				Gff3GenericModel firstPart = cdsParts.get( 0 ).getModel();
+				int phase = firstPart.getPhase() == null ? 0 : firstPart.getPhase();
+				StringBuilder protein = new StringBuilder( coding.length() / 3 + 1 );
+				codonTableOf( firstPart ).translate( coding, phase, phase == 0, protein );
+				if ( protein.length() > 0  &&  protein.charAt( protein.length() - 1 ) == '*' ) {
+					protein.setLength( protein.length() - 1 );
+				}
+				writeFasta( header, protein, result.proteins );
+			}
+		}
+
+		private void sortAlongStrand( List<ModelTreeNode> parts, boolean negative ) {
+			parts.sort( negative ? BY_START.reversed() : BY_START );
+		}
+
+		private StringBuilder join( List<ModelTreeNode> parts, boolean negative ) {
+			StringBuilder bases = new StringBuilder();
+			for ( ModelTreeNode part: parts ) {
+				Gff3GenericModel model = part.getModel();
+				bases.append( store.getSequence( model.getLandmarkId(), model.getStart(), model.getEnd(), negative ) );
+			}
+			return bases;
+		}
+
+		private CodonTable codonTableOf( Gff3GenericModel cds ) {
+			String[] values = cds.getAttributes() == null ? null : cds.getAttributes().get( TRANSLATION_TABLE_ATTRIBUTE );
+			if ( values != null  &&  values.length > 0 ) {
+				try {
+					CodonTable table = CodonTable.forNcbiId( Integer.parseInt( values[ 0 ].trim() ) );
+					if ( table != null ) {
+						return table;
+					}
+				} catch ( NumberFormatException nfe ) {
+					// Fall back on the extractor's own.
+				}
+			}
+			return codonTable;
+		}
+
+		private void writeFasta( String header, CharSequence residues, StringBuilder out ) {
+			out.append( '>' ).append( header ).append( '\n' );
+			for ( int from = 0; from < residues.length(); from += lineWidth ) {
+				out.append( residues, from, Math.min( residues.length(), from + lineWidth ) ).append( '\n' );
+			}
+		}
+	}
+}
@@ -0,0 +1,480 @@
+/**
+ *   Copyright Leslie L. Foster, 2011.
+ *
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation; version 2.1 of the License.
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation, Inc.
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+package oss.model.builder.gff3;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Sequences of FASTA records, whether following the ##FASTA directive of a GFF3 file, or in a FASTA file
+ * of their own, read straight from the memory-mapped file.  Nothing of the sequence is held in memory:
+ * each record is indexed as samtools faidx would (length, offset of the first base, bases and bytes per
+ * line), and any base is found from that by arithmetic.  The index can be kept in a .fai file.
+ *
+ * Sequences are given as CharSequence views of the mapping.  Make them into Strings only as needed.
+ *
+ * Records are known by the first word of their header line.  For NCBI-style headers, as in
+ * ">gi|53723370|ref|NC_006348.1| ...", each identifier following a database tag, as "NC_006348.1"
+ * does "ref", is known as well, so long as it belongs to one record only.
+ *
+ * As with .fai, all lines of a record but its last must be of one length.  Files must be plain text,
+ * and each record no more than 2GB, as it is mapped as one buffer.
+ */
+public class Gff3SequenceStore {
+	private static final String FAI_SUFFIX = ".fai";
+	private static final char[] COMPLEMENTS = new char[ 128 ];
+	static {
+		for ( int i = 0; i < COMPLEMENTS.length; i++ ) {
+			COMPLEMENTS[ i ] = (char)i;
+		}
+		String pairs = "ATTAUACGGCRYYRKMMKBVVBDHHDNNSSWW";
+		for ( int i = 0; i < pairs.length(); i += 2 ) {
+			COMPLEMENTS[ pairs.charAt( i ) ] = pairs.charAt( i + 1 );
+			COMPLEMENTS[ Character.toLowerCase( pairs.charAt( i ) ) ] = Character.toLowerCase( pairs.charAt( i + 1 ) );
+		}
+	}
+
+	private final File file;
+	private final Map<String,Record> idVsRecord;
+	private final Map<String,Record> aliasVsRecord = new HashMap<>();
+
+	private Gff3SequenceStore( File file, Map<String,Record> idVsRecord ) {
+		this.file = file;
+		this.idVsRecord = idVsRecord;
+		Set<String> ambiguous = new HashSet<>();
+		for ( Record record: idVsRecord.values() ) {
+			String[] parts = record.id.split( "\\|" );
+			for ( int i = 1; i < parts.length; i += 2 ) {    // Database tags and identifiers alternate.
+				String part = parts[ i ];
+				if ( part.isEmpty()  ||  idVsRecord.containsKey( part ) ) {
+					continue;
+				}
+				if ( aliasVsRecord.containsKey( part )  &&  aliasVsRecord.get( part ) != record ) {
+					ambiguous.add( part );
+				}
+				aliasVsRecord.put( part, record );
+			}
+		}
+		aliasVsRecord.keySet().removeAll( ambiguous );
+	}
+
+	/** Index every FASTA record of the file, whether a FASTA file or a GFF3 file with its sequences. */
+	public static Gff3SequenceStore open( File file ) throws IOException {
+		return open( file, 0 );
+	}
+
+	/**
+	 * Index the FASTA records from an offset on, as from Gff3LineReader.getFastaOffset(), so that
+	 * the features before need not be scanned again.
+	 */
+	public static Gff3SequenceStore open( File file, long fromOffset ) throws IOException {
+		if ( ! Gff3Compression.isPlainText( file ) ) {
+			throw new IOException( "Sequences of compressed file " + file + " cannot be mapped; decompress it first." );
+		}
+		return new Gff3SequenceStore( file, scan( file, fromOffset ) );
+	}
+
+	/**
+	 * Open with the index kept in a .fai file, which is read if newer than the file and if every record
+	 * it gives lies within the file, just after a line end.  Otherwise the index is made by indexing
+	 * the whole file, and written.
+	 */
+	public static Gff3SequenceStore open( File file, File faiFile ) throws IOException {
+		if ( faiFile.isFile()  &&  faiFile.lastModified() >= file.lastModified() ) {
+			Map<String,Record> idVsRecord = readFai( faiFile );
+			if ( fitsFile( file, idVsRecord ) ) {
+				return new Gff3SequenceStore( file, idVsRecord );
+			}
+		}
+		Gff3SequenceStore store = open( file );
+		store.writeFai( faiFile );
+		return store;
+	}
+
+	/** Where open(File,File) looks for the index by default: beside the file, with .fai added. */
+	public static File defaultFaiFile( File file ) {
+		return new File( file.getPath() + FAI_SUFFIX );
+	}
+
+	/** Write the index in samtools' .fai layout. */
+	public void writeFai( File faiFile ) throws IOException {
+		File tempFile = File.createTempFile( faiFile.getName(), ".tmp", faiFile.getAbsoluteFile().getParentFile() );
+		try {
+			try ( Writer out = Files.newBufferedWriter( tempFile.toPath(), StandardCharsets.UTF_8 ) ) {
+				PrintWriter printer = new PrintWriter( out );
+				for ( Record record: idVsRecord.values() ) {
+					printer.print( record.id + "\t" + record.length + "\t" + record.offset + "\t" + record.lineBases + "\t" + record.lineWidth + "\n" );
+				}
+				printer.flush();
+			}
+			try {
+				Files.move( tempFile.toPath(), faiFile.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING );
+			} catch ( AtomicMoveNotSupportedException amnse ) {
+				Files.move( tempFile.toPath(), faiFile.toPath(), StandardCopyOption.REPLACE_EXISTING );
+			}
+		} finally {
+			tempFile.delete();
+		}
+	}
+
+	/** Tell what file the sequences are in. */
+	public File getFile() { return file; }
+
+	/** Names of all records, in file order. */
+	public Set<String> getSequenceIds() {
+		return Collections.unmodifiableSet( idVsRecord.keySet() );
+	}
+
+	/** Tells if there is a record of this name, or alias. */
+	public boolean hasSequence( String id ) {
+		return findRecord( id ) != null;
+	}
+
+	/** Count of bases in the record. */
+	public long getLength( String id ) {
+		return record( id ).length;
+	}
+
+	/** All of a record's sequence. */
+	public CharSequence getSequence( String id ) {
+		Record record = record( id );
+		return getSequence( record, 1, record.length, false );
+	}
+
+	/**
+	 * Part of a record's sequence.
+	 *
+	 * @param start first base, 1-based.
+	 * @param end last base, inclusive.
+	 * @param reverseComplement to give the other strand, read 5' to 3'.
+	 */
+	public CharSequence getSequence( String id, long start, long end, boolean reverseComplement ) {
+		return getSequence( record( id ), start, end, reverseComplement );
+	}
+
+	/** Sequence of a feature, on its own strand: reverse complemented for the negative strand. */
+	public CharSequence getSequence( Gff3GenericModel feature ) {
+		return getSequence( feature.getLandmarkId(), feature.getStart(), feature.getEnd(),
+				            feature.getStrand() == Gff3GenericModel.Strand.negative );
+	}
+
+	private CharSequence getSequence( Record record, long start, long end, boolean reverseComplement ) {
+		if ( start < 1  ||  end > record.length  ||  end < start - 1 ) {
+			throw new IndexOutOfBoundsException(
+					"Range " + start + ".." + end + " is outside sequence " + record.id + " of length " + record.length );
+		}
+		if ( end - start + 1 > Integer.MAX_VALUE ) {
+			throw new IllegalArgumentException( "Range " + start + ".." + end + " is too long for one CharSequence." );
+		}
+		return new SequenceView( record, record.map( file ), start - 1, (int)( end - start + 1 ), reverseComplement );
+	}
+
+	private Record record( String id ) {
+		Record record = findRecord( id );
+		if ( record == null ) {
+			throw new IllegalArgumentException( "No sequence " + id + " in " + file );
+		}
+		return record;
+	}
+
+	private Record findRecord( String id ) {
+		Record record = idVsRecord.get( id );
+		return record != null ? record : aliasVsRecord.get( id );
+	}
+
+	/** Find the records, and check their lines, by one pass over the file. */
+	private static Map<String,Record> scan( File file, long fromOffset ) throws IOException {
+		Map<String,Record> idVsRecord = new LinkedHashMap<>();
+		Gff3LineTokenizer tokenizer = new Gff3LineTokenizer( new MappedRangeInputStream( file, fromOffset, file.length() ) );
+		try {
+			RecordBuilder current = null;
+			while ( tokenizer.nextLine() ) {
+				long lineOffset = fromOffset + tokenizer.getLineOffset();
+				int lineLength = tokenizer.getLineEnd() - tokenizer.getLineStart();
+				if ( tokenizer.lineStartsWith( '>' ) ) {
+					current = finish( current, idVsRecord );
+					int from = tokenizer.getLineStart() + 1;
+					int to = from;
+					byte[] buf = tokenizer.getBuffer();
+					while ( to < tokenizer.getLineEnd()  &&  buf[ to ] != ' '  &&  buf[ to ] != '\t' ) {
+						to++;
+					}
+					current = new RecordBuilder( Gff3FieldDecoder.toString( buf, from, to ), fromOffset + tokenizer.getLineEndOffset() );
+				}
+				else if ( current != null ) {
+					if ( tokenizer.lineStartsWith( '#' )  ||  isFeatureLine( tokenizer ) ) {
+						current = finish( current, idVsRecord );    // Back to features, in a file lacking ##FASTA.
+					}
+					else {
+						current.addLine( lineOffset, fromOffset + tokenizer.getLineEndOffset(), lineLength, tokenizer.getLineNo() );
+					}
+				}
+			}
+			finish( current, idVsRecord );
+		} finally {
+			tokenizer.close();
+		}
+		return idVsRecord;
+	}
+
+	private static boolean isFeatureLine( Gff3LineTokenizer tokenizer ) {
+		byte[] buf = tokenizer.getBuffer();
+		for ( int i = tokenizer.getLineStart(); i < tokenizer.getLineEnd(); i++ ) {
+			if ( buf[ i ] == '\t' ) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static RecordBuilder finish( RecordBuilder builder, Map<String,Record> idVsRecord ) throws IOException {
+		if ( builder != null ) {
+			Record record = builder.build();
+			if ( idVsRecord.put( record.id, record ) != null ) {
+				throw new IOException( "Sequence " + record.id + " appears more than once." );
+			}
+		}
+		return null;
+	}
+
+	private static Map<String,Record> readFai( File faiFile ) throws IOException {
+		Map<String,Record> idVsRecord = new LinkedHashMap<>();
+		try ( BufferedReader in = new BufferedReader( new InputStreamReader( Files.newInputStream( faiFile.toPath() ), StandardCharsets.UTF_8 ) ) ) {
+			String line;
+			while ( null != ( line = in.readLine() ) ) {
+				String[] fields = line.split( "\t" );
+				if ( fields.length < 5 ) {
+					throw new IOException( "Malformed index line in " + faiFile + ": " + line );
+				}
+				idVsRecord.put( fields[ 0 ], new Record( fields[ 0 ], Long.parseLong( fields[ 1 ] ), Long.parseLong( fields[ 2 ] ),
+						                                 Integer.parseInt( fields[ 3 ] ), Integer.parseInt( fields[ 4 ] ) ) );
+			}
+		}
+		return idVsRecord;
+	}
+
+	/**
+	 * Tells if each record of an index read from a .fai lies within the file, beginning just after the
+	 * end of its header line.  A file replaced by an older copy keeps its old mtime, so is otherwise
+	 * taken for the one indexed.
+	 */
+	private static boolean fitsFile( File file, Map<String,Record> idVsRecord ) throws IOException {
+		long fileLength = file.length();
+		ByteBuffer before = ByteBuffer.allocate( 1 );
+		try ( FileChannel channel = FileChannel.open( file.toPath(), StandardOpenOption.READ ) ) {
+			for ( Record record: idVsRecord.values() ) {
+				if ( record.offset < 1  ||  record.offset + record.extent() > fileLength ) {
+					return false;
+				}
+				before.clear();
+				if ( channel.read( before, record.offset - 1 ) != 1  ||  before.get( 0 ) != '\n' ) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/** Placement of one record's bases in the file. */
+	private static final class Record {
+		private final String id;
+		private final long length;
+		private final long offset;
+		private final int lineBases;
+		private final int lineWidth;
+		private volatile ByteBuffer mapped;
+
+		Record( String id, long length, long offset, int lineBases, int lineWidth ) {
+			this.id = id;
+			this.length = length;
+			this.offset = offset;
+			this.lineBases = lineBases;
+			this.lineWidth = lineWidth;
+		}
+
+		/** Offset from the first base to the base given, 0-based. */
+		long positionOf( long base ) {
+			return lineBases == 0 ? 0 : ( base / lineBases ) * lineWidth + base % lineBases;
+		}
+
+		/** Count of bytes from the first base to the last. */
+		long extent() {
+			return length == 0 ? 0 : positionOf( length - 1 ) + 1;
+		}
+
+		/** The record's bytes, mapped on first use.  Racing threads may each map; either mapping serves. */
+		ByteBuffer map( File file ) {
+			ByteBuffer buffer = mapped;
+			if ( buffer == null ) {
+				long size = extent();
+				if ( size > Integer.MAX_VALUE ) {
+					throw new IllegalStateException( "Sequence " + id + " is too large to map as one buffer." );
+				}
+				try ( FileChannel channel = FileChannel.open( file.toPath(), StandardOpenOption.READ ) ) {
+					buffer = channel.map( FileChannel.MapMode.READ_ONLY, offset, size );
+				} catch ( IOException ioe ) {
+					throw new RuntimeException( "Failed to read file " + file, ioe );
+				}
+				mapped = buffer;
+			}
+			return buffer;
+		}
+	}
+
+	/** Gathers the lines of a record while scanning, checking them as .fai requires. */
+	private static final class RecordBuilder {
+		private final String id;
+		private final long offset;
+		private long length;
+		private int lineBases = -1;
+		private int lineWidth = -1;
+		private long lastLineOffset = -1;
+		private int lastLineBases;
+		private int firstLineWidth = -1;
+		private int blankLineNo;
+
+		RecordBuilder( String id, long offset ) {
+			this.id = id;
+			this.offset = offset;
+		}
+
+		void addLine( long lineOffset, long lineEndOffset, int bases, int lineNo ) throws IOException {
+			if ( bases == 0 ) {
+				blankLineNo = lineNo;    // Blank lines may only end a record.
+				return;
+			}
+			if ( blankLineNo != 0 ) {
+				throw new IOException( "Sequence " + id + " has a blank line at line " + blankLineNo + "." );
+			}
+			if ( lineBases < 0 ) {
+				lineBases = bases;
+				firstLineWidth = (int)( lineEndOffset - lineOffset );    // Counts the CR of a CR-LF, if any.
+			}
+			else {
+				long width = lineOffset - lastLineOffset;
+				if ( lineWidth < 0 ) {
+					lineWidth = (int)width;
+				}
+				if ( lastLineBases != lineBases  ||  width != lineWidth ) {
+					throw new IOException( "Sequence " + id + " has lines of uneven length, before line " + lineNo + "." );
+				}
+				if ( bases > lineBases ) {
+					// Only the last line may differ, and then only by being shorter.
+					throw new IOException( "Sequence " + id + " has lines of uneven length, at line " + lineNo + "." );
+				}
+			}
+			lastLineOffset = lineOffset;
+			lastLineBases = bases;
+			length += bases;
+		}
+
+		Record build() {
+			int bases = Math.max( lineBases, 0 );
+			if ( lineWidth < 0 ) {
+				return new Record( id, length, offset, bases, firstLineWidth > bases ? firstLineWidth : bases + 1 );
+			}
+			return new Record( id, length, offset, bases, lineWidth );
+		}
+	}
+
+	/** Bases of a record, read from its mapping as asked for. */
+	private static final class SequenceView implements CharSequence {
+		private final Record record;
+		private final ByteBuffer bytes;
+		private final long first;
+		private final int length;
+		private final boolean reverseComplement;
+
+		SequenceView( Record record, ByteBuffer bytes, long first, int length, boolean reverseComplement ) {
+			this.record = record;
+			this.bytes = bytes;
+			this.first = first;
+			this.length = length;
+			this.reverseComplement = reverseComplement;
+		}
+
+		@Override
+		public int length() {
+			return length;
+		}
+
+		@Override
+		public char charAt( int index ) {
+			if ( index < 0  ||  index >= length ) {
+				throw new IndexOutOfBoundsException( "Index " + index + " of " + length );
+			}
+			if ( reverseComplement ) {
+				char base = (char)( bytes.get( (int)record.positionOf( first + length - 1 - index ) ) & 0x7f );
+				return COMPLEMENTS[ base ];
+			}
+			return (char)( bytes.get( (int)record.positionOf( first + index ) ) & 0xff );
+		}
+
+		@Override
+		public CharSequence subSequence( int start, int end ) {
+			if ( start < 0  ||  end > length  ||  start > end ) {
+				throw new IndexOutOfBoundsException( "Range " + start + ".." + end + " of " + length );
+			}
+			long subFirst = reverseComplement ? first + length - end : first + start;
+			return new SequenceView( record, bytes, subFirst, end - start, reverseComplement );
+		}
+
+		/** Copy out the bases, a line's worth at a time. */
+		@Override
+		public String toString() {
+			char[] chars = new char[ length ];
+			if ( reverseComplement ) {
+				for ( int i = 0; i < length; i++ ) {
+					chars[ i ] = charAt( i );
+				}
+				return new String( chars );
+			}
+			ByteBuffer source = bytes.duplicate();
+			int filled = 0;
+			long base = first;
+			while ( filled < length ) {
+				int run = record.lineBases == 0 ? length - filled
+						                        : (int)Math.min( length - filled, record.lineBases - base % record.lineBases );
+				int position = (int)record.positionOf( base );
+				for ( int i = 0; i < run; i++ ) {
+					chars[ filled + i ] = (char)( source.get( position + i ) & 0xff );
+				}
+				filled += run;
+				base += run;
+			}
+			return new String( chars );
+		}
+	}
+}
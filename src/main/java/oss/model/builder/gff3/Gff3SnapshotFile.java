@@ -0,0 +1,406 @@
+/**
+ *   Copyright Leslie L. Foster, 2011.
+ *
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation; version 2.1 of the License.
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation, Inc.
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+package oss.model.builder.gff3;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * Binary image of an assembled GFF3 file: its features, the parent/child edges among them, and their
+ * grouping by landmark.  It is tied to the source it was made from by that file's size, modification
+ * time and CRC32, and is of no use once the source changes.  It is tied as well to the assembler
+ * settings that decide which features make the tree; batch parent resolution is not among them, as
+ * it builds the same tree either way.
+ *
+ * Layout, all big-endian:
+ * <pre>
+ *   header:     "GFF3SNAP", int version, int settings, long source size, long source mtime, long source CRC32
+ *   body:       StringPool, then Gff3FeatureTable
+ *   per landmark:  int node count; per node: int row (-1 for a placeholder), int ID code, byte keyed;
+ *               then per node: child count, child indexes; then per node: parent count, parent indexes;
+ *               then top-level count, top-level indexes
+ *   directory:  int axis count, axis rows; int landmark count; per landmark: int code, long offset
+ *   trailer:    long offset of the directory
+ * </pre>
+ *
+ * The file is read by memory mapping, so is limited to 2GB.  The nodes and models of a landmark are
+ * made, and their strings decoded, only when that landmark is first asked for.
+ */
+class Gff3SnapshotFile {
+	private static final byte[] MAGIC = "GFF3SNAP".getBytes( StandardCharsets.US_ASCII );
+	private static final int VERSION = 2;
+	private static final int HEADER_SIZE = MAGIC.length + 4 + 4 + 8 * 3;
+	private static final int NO_ROW = -1;
+
+	/** Bit of the settings word: features with several parents were kept, not rejected. */
+	private static final int MULTI_PARENTED_ACCEPTED = 1;
+
+	private final Gff3FeatureTable table;
+	private final ByteBuffer buffer;
+	private final List<Gff3GenericModel> axisModels;
+	private final Map<Integer,Gff3GenericModel> rowVsAxisModel = new HashMap<>();
+	private final Map<String,Long> landmarkVsOffset = new LinkedHashMap<>();
+
+	private Gff3SnapshotFile( ByteBuffer buffer ) {
+		this.buffer = buffer;
+		buffer.position( HEADER_SIZE );
+		StringPool pool = StringPool.readFrom( buffer );
+		table = Gff3FeatureTable.readFrom( buffer, pool );
+
+		buffer.position( (int)buffer.getLong( buffer.limit() - 8 ) );
+		int axisCount = buffer.getInt();
+		List<Gff3GenericModel> axisModels = new ArrayList<>( axisCount );
+		for ( int i = 0; i < axisCount; i++ ) {
+			int row = buffer.getInt();
+			Gff3GenericModel model = table.view( row ).toModel();
+			rowVsAxisModel.put( row, model );
+			axisModels.add( model );
+		}
+		this.axisModels = Collections.unmodifiableList( axisModels );
+		int landmarkCount = buffer.getInt();
+		for ( int i = 0; i < landmarkCount; i++ ) {
+			String landmarkId = pool.stringAt( buffer.getInt() );
+			landmarkVsOffset.put( landmarkId, buffer.getLong() );
+		}
+	}
+
+	/** Settings word for the header, from those of the assembler that change the tree. */
+	static int settings( boolean multiParentedFeaturesAcceptable ) {
+		return multiParentedFeaturesAcceptable ? MULTI_PARENTED_ACCEPTED : 0;
+	}
+
+	/**
+	 * Map the snapshot, if it exists and was made from the source as it now stands, with the settings given.
+	 *
+	 * @param settings as from settings(); a snapshot made under others is stale.
+	 * @return the snapshot, or null if missing, unreadable or stale.
+	 */
+	static Gff3SnapshotFile openIfValid( File snapshotFile, File sourceFile, int settings ) {
+		if ( ! snapshotFile.isFile() ) {
+			return null;
+		}
+		try ( FileChannel channel = FileChannel.open( snapshotFile.toPath(), StandardOpenOption.READ ) ) {
+			if ( channel.size() < HEADER_SIZE + 8  ||  channel.size() > Integer.MAX_VALUE ) {
+				return null;
+			}
+			MappedByteBuffer buffer = channel.map( FileChannel.MapMode.READ_ONLY, 0, channel.size() );
+			byte[] magic = new byte[ MAGIC.length ];
+			buffer.get( magic );
+			if ( ! Arrays.equals( MAGIC, magic )  ||  buffer.getInt() != VERSION  ||  buffer.getInt() != settings ) {
+				return null;
+			}
+			long sourceSize = buffer.getLong();
+			long sourceMtime = buffer.getLong();
+			long sourceCrc = buffer.getLong();
+			if ( sourceSize != sourceFile.length() ) {
+				return null;
+			}
+			// A touched but unchanged source is still good; only then is the checksum worth its cost.
+			if ( sourceMtime != sourceFile.lastModified()  &&  sourceCrc != crc32( sourceFile ) ) {
+				return null;
+			}
+			return new Gff3SnapshotFile( buffer );
+		} catch ( IOException | RuntimeException ex ) {
+			// Damaged or foreign file: treat as absent, so it is rebuilt.
+			return null;
+		}
+	}
+
+	/**
+	 * Write a snapshot of assembled models.  The file is written aside and moved into place, so that
+	 * readers never see a partial one.
+	 *
+	 * @param axisModels as found when assembling.
+	 * @param landmarkVsNodes nodes of each landmark, in the order the landmarks should be given back.
+	 * @param settings as from settings(), for those the nodes were assembled under.
+	 */
+	static void write( File snapshotFile, File sourceFile, List<Gff3GenericModel> axisModels,
+			           Map<String,LandmarkNodes> landmarkVsNodes, int settings ) throws IOException {
+		long sourceSize = sourceFile.length();
+		long sourceMtime = sourceFile.lastModified();
+		long sourceCrc = crc32( sourceFile );
+
+		// Lay out the rows: every node's model, then any axis model that did not make it into a node.
+		Gff3FeatureTable table = new Gff3FeatureTable();
+		Map<Gff3GenericModel,Integer> modelVsRow = new IdentityHashMap<>();
+		Map<String,List<ModelTreeNode>> landmarkVsOrderedNodes = new LinkedHashMap<>();
+		for ( Map.Entry<String,LandmarkNodes> entry: landmarkVsNodes.entrySet() ) {
+			List<ModelTreeNode> nodes = reachableNodes( entry.getValue() );
+			for ( ModelTreeNode node: nodes ) {
+				addRow( table, modelVsRow, node.getModel() );
+			}
+			landmarkVsOrderedNodes.put( entry.getKey(), nodes );
+		}
+		for ( Gff3GenericModel axisModel: axisModels ) {
+			addRow( table, modelVsRow, axisModel );
+		}
+		table.trimToSize();
+		StringPool pool = table.getStringPool();
+		// Every string coded after this is looked up in the pool as written, so must be in it beforehand.
+		for ( Map.Entry<String,List<ModelTreeNode>> entry: landmarkVsOrderedNodes.entrySet() ) {
+			pool.codeOf( entry.getKey() );
+			for ( ModelTreeNode node: entry.getValue() ) {
+				pool.codeOf( node.getId() );
+			}
+		}
+
+		File tempFile = File.createTempFile( snapshotFile.getName(), ".tmp", snapshotFile.getAbsoluteFile().getParentFile() );
+		try {
+			try ( DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( tempFile ), 64 * 1024 ) ) ) {
+				out.write( MAGIC );
+				out.writeInt( VERSION );
+				out.writeInt( settings );
+				out.writeLong( sourceSize );
+				out.writeLong( sourceMtime );
+				out.writeLong( sourceCrc );
+				pool.writeTo( out );
+				table.writeTo( out );
+
+				Map<String,Long> landmarkVsOffset = new LinkedHashMap<>();
+				for ( Map.Entry<String,List<ModelTreeNode>> entry: landmarkVsOrderedNodes.entrySet() ) {
+					landmarkVsOffset.put( entry.getKey(), (long)out.size() );
+					writeLandmark( out, pool, modelVsRow, entry.getValue(), landmarkVsNodes.get( entry.getKey() ) );
+				}
+
+				long directoryOffset = out.size();
+				out.writeInt( axisModels.size() );
+				for ( Gff3GenericModel axisModel: axisModels ) {
+					out.writeInt( modelVsRow.get( axisModel ) );
+				}
+				out.writeInt( landmarkVsOffset.size() );
+				for ( Map.Entry<String,Long> entry: landmarkVsOffset.entrySet() ) {
+					out.writeInt( writtenCode( pool, entry.getKey() ) );
+					out.writeLong( entry.getValue() );
+				}
+				out.writeLong( directoryOffset );
+				if ( out.size() == Integer.MAX_VALUE ) {
+					// DataOutputStream's count stops here, so offsets can no longer be trusted.
+					throw new IOException( "Snapshot of " + sourceFile + " would exceed 2GB." );
+				}
+			}
+			try {
+				Files.move( tempFile.toPath(), snapshotFile.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING );
+			} catch ( AtomicMoveNotSupportedException amnse ) {
+				Files.move( tempFile.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING );
+			}
+		} finally {
+			Files.deleteIfExists( tempFile.toPath() );
+		}
+	}
+
+	/** Models of axes, as found when the snapshot was made. */
+	List<Gff3GenericModel> getAxisModels() { return axisModels; }
+
+	/** All landmarks, in the order they were written. */
+	Set<String> getLandmarkIds() { return Collections.unmodifiableSet( landmarkVsOffset.keySet() ); }
+
+	/** Table holding every feature of the snapshot. */
+	Gff3FeatureTable getTable() { return table; }
+
+	/**
+	 * Make the nodes of one landmark, with models copied out of the table's rows.
+	 *
+	 * @return nodes, or null if the landmark was not in the source.
+	 */
+	LandmarkNodes readLandmark( String landmarkId ) {
+		Long offset = landmarkVsOffset.get( landmarkId );
+		if ( offset == null ) {
+			return null;
+		}
+		ByteBuffer in = buffer.duplicate();
+		in.position( (int)offset.longValue() );
+		StringPool pool = table.getStringPool();
+
+		int nodeCount = in.getInt();
+		ModelTreeNode[] nodes = new ModelTreeNode[ nodeCount ];
+		List<ModelTreeNode> keyedNodes = new ArrayList<>( nodeCount );
+		for ( int i = 0; i < nodeCount; i++ ) {
+			int row = in.getInt();
+			nodes[ i ] = new ModelTreeNode( pool.stringAt( in.getInt() ) );
+			if ( row != NO_ROW ) {
+				// Share the axis models, so that a model is the same object from either route.
+				Gff3GenericModel model = rowVsAxisModel.get( row );
+				nodes[ i ].setModel( model == null ? table.view( row ).toModel() : model );
+			}
+			if ( in.get() != 0 ) {
+				keyedNodes.add( nodes[ i ] );
+			}
+		}
+		for ( ModelTreeNode node: nodes ) {
+			int childCount = in.getInt();
+			for ( int i = 0; i < childCount; i++ ) {
+				node.addChild( nodes[ in.getInt() ] );
+			}
+		}
+		for ( ModelTreeNode node: nodes ) {
+			int parentCount = in.getInt();
+			for ( int i = 0; i < parentCount; i++ ) {
+				node.addParent( nodes[ in.getInt() ] );
+			}
+		}
+		int topLevelCount = in.getInt();
+		List<ModelTreeNode> topLevelFeatures = new ArrayList<>( topLevelCount );
+		for ( int i = 0; i < topLevelCount; i++ ) {
+			topLevelFeatures.add( nodes[ in.getInt() ] );
+		}
+		return new LandmarkNodes( keyedNodes, topLevelFeatures );
+	}
+
+	/** CRC32 of a whole file. */
+	static long crc32( File file ) throws IOException {
+		CRC32 crc = new CRC32();
+		try ( FileChannel channel = FileChannel.open( file.toPath(), StandardOpenOption.READ ) ) {
+			ByteBuffer block = ByteBuffer.allocateDirect( 1024 * 1024 );
+			while ( channel.read( block ) > 0 ) {
+				block.flip();
+				crc.update( block );
+				block.clear();
+			}
+		}
+		return crc.getValue();
+	}
+
+	/**
+	 * The keyed nodes of a landmark first, in their given order, then any node reachable from those
+	 * by an edge or by being top-level, but no longer keyed by its ID.
+	 */
+	private static List<ModelTreeNode> reachableNodes( LandmarkNodes landmarkNodes ) {
+		Map<ModelTreeNode,Boolean> seen = new IdentityHashMap<>();
+		List<ModelTreeNode> ordered = new ArrayList<>( landmarkNodes.keyedNodes );
+		Deque<ModelTreeNode> toVisit = new ArrayDeque<>();
+		for ( ModelTreeNode node: ordered ) {
+			seen.put( node, Boolean.TRUE );
+			toVisit.add( node );
+		}
+		for ( ModelTreeNode node: landmarkNodes.topLevelFeatures ) {
+			visit( node, seen, ordered, toVisit );
+		}
+		while ( ! toVisit.isEmpty() ) {
+			ModelTreeNode node = toVisit.poll();
+			if ( node.getChildren() != null ) {
+				for ( ModelTreeNode child: node.getChildren() ) {
+					visit( child, seen, ordered, toVisit );
+				}
+			}
+			if ( node.getParents() != null ) {
+				for ( ModelTreeNode parent: node.getParents() ) {
+					visit( parent, seen, ordered, toVisit );
+				}
+			}
+		}
+		return ordered;
+	}
+
+	private static void visit( ModelTreeNode node, Map<ModelTreeNode,Boolean> seen, List<ModelTreeNode> ordered, Deque<ModelTreeNode> toVisit ) {
+		if ( seen.put( node, Boolean.TRUE ) == null ) {
+			ordered.add( node );
+			toVisit.add( node );
+		}
+	}
+
+	private static void addRow( Gff3FeatureTable table, Map<Gff3GenericModel,Integer> modelVsRow, Gff3GenericModel model ) {
+		if ( model != null  &&  ! modelVsRow.containsKey( model ) ) {
+			modelVsRow.put( model, table.add( model ) );
+		}
+	}
+
+	private static void writeLandmark( DataOutputStream out, StringPool pool, Map<Gff3GenericModel,Integer> modelVsRow,
+			                           List<ModelTreeNode> nodes, LandmarkNodes landmarkNodes ) throws IOException {
+		Map<ModelTreeNode,Integer> nodeVsIndex = new IdentityHashMap<>();
+		for ( ModelTreeNode node: nodes ) {
+			nodeVsIndex.put( node, nodeVsIndex.size() );
+		}
+		Map<ModelTreeNode,Boolean> keyed = new IdentityHashMap<>();
+		for ( ModelTreeNode node: landmarkNodes.keyedNodes ) {
+			keyed.put( node, Boolean.TRUE );
+		}
+
+		out.writeInt( nodes.size() );
+		for ( ModelTreeNode node: nodes ) {
+			out.writeInt( node.getModel() == null ? NO_ROW : modelVsRow.get( node.getModel() ) );
+			out.writeInt( writtenCode( pool, node.getId() ) );
+			out.writeByte( keyed.containsKey( node ) ? 1 : 0 );
+		}
+		for ( ModelTreeNode node: nodes ) {
+			writeIndexes( out, nodeVsIndex, node.getChildren() );
+		}
+		for ( ModelTreeNode node: nodes ) {
+			writeIndexes( out, nodeVsIndex, node.getParents() );
+		}
+		writeIndexes( out, nodeVsIndex, landmarkNodes.topLevelFeatures );
+	}
+
+	/** Code of a string in the pool already written; a string missing from it could not be read back. */
+	private static int writtenCode( StringPool pool, String value ) throws IOException {
+		int code = pool.findCode( value );
+		if ( code == StringPool.NULL_CODE  &&  value != null ) {
+			throw new IOException( "String " + value + " was not pooled before the pool was written." );
+		}
+		return code;
+	}
+
+	private static void writeIndexes( DataOutputStream out, Map<ModelTreeNode,Integer> nodeVsIndex,
+			                          Collection<ModelTreeNode> nodes ) throws IOException {
+		if ( nodes == null ) {
+			out.writeInt( 0 );
+			return;
+		}
+		out.writeInt( nodes.size() );
+		for ( ModelTreeNode node: nodes ) {
+			out.writeInt( nodeVsIndex.get( node ) );
+		}
+	}
+
+	/** The nodes of one landmark: those keyed by ID, and those having no parent. */
+	static class LandmarkNodes {
+		private final Collection<ModelTreeNode> keyedNodes;
+		private final List<ModelTreeNode> topLevelFeatures;
+
+		LandmarkNodes( Collection<ModelTreeNode> keyedNodes, List<ModelTreeNode> topLevelFeatures ) {
+			this.keyedNodes = keyedNodes;
+			this.topLevelFeatures = topLevelFeatures;
+		}
+
+		Collection<ModelTreeNode> getKeyedNodes() { return keyedNodes; }
+		List<ModelTreeNode> getTopLevelFeatures() { return topLevelFeatures; }
+	}
+}
@@ -0,0 +1,566 @@
+/**
+ *   Copyright Leslie L. Foster, 2011.
+ *
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation; version 2.1 of the License.
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation, Inc.
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+package oss.model.builder.gff3;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+/**
+ * Writes models back out as GFF3, the reverse of Gff3LineReader.  Lines are encoded straight into one
+ * large buffer, which is handed to the output channel only when full.
+ *
+ * ID and Parent in column 9 are written from the model's fields, so that IDs made up by the
+ * assembler or changed since are written as they now stand; they keep their place among the other
+ * settings, or come first if the line had none.  The other settings of a model read from a file,
+ * whose attributes were never asked for, are copied as read.  Otherwise they are written from the
+ * attribute map, in the order read, with each tag and value URL-escaped as the reader will
+ * unescape it.  Target values are kept escaped by the reader, so are written as they are.  For a model
+ * made by hand, without an attribute map, the attributes known to the specification are written from
+ * its fields.
+ *
+ * The reader gives a score of 0 for ".", so a file read and written back has "0" in its place.
+ *
+ * Not thread-safe.  To write many landmarks at once, see writeLandmarks().
+ */
+public class Gff3Writer implements Closeable {
+	private static final int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+	private static final String VERSION_DIRECTIVE = "##gff-version 3";
+
+	// Escaped, beyond control characters and '%': ';', '=', '&' and ',' in column 9, and anything
+	// outside [a-zA-Z0-9.:^*$@!+_?-|] in the landmark ID, as the specification asks.
+	private static final boolean[] ESCAPED_IN_COLUMN = escapeTable( "" );
+	private static final boolean[] ESCAPED_IN_ATTRIBUTE = escapeTable( ";=&," );
+	private static final boolean[] ESCAPED_IN_LANDMARK = landmarkEscapeTable();
+	private static final byte[] HEX = "0123456789ABCDEF".getBytes( StandardCharsets.US_ASCII );
+
+	// Kinds of column 9 key, as bits, for the keys written from the model's fields.
+	private static final int OTHER_KEY = 0;
+	private static final int ID_KEY = 1;
+	private static final int PARENT_KEY = 2;
+
+	private final WritableByteChannel channel;
+	private final byte[] buffer;
+	private int length;
+	private int settingsOnLine;
+
+	/** Write to the file, replacing anything already in it. */
+	public Gff3Writer( File file ) throws IOException {
+		this( FileChannel.open( file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING ),
+			  DEFAULT_BUFFER_SIZE );
+	}
+
+	/** Write to the stream, which is closed along with this writer. */
+	public Gff3Writer( OutputStream out ) {
+		this( Channels.newChannel( out ), DEFAULT_BUFFER_SIZE );
+	}
+
+	Gff3Writer( WritableByteChannel channel, int bufferSize ) {
+		this.channel = channel;
+		this.buffer = new byte[ bufferSize ];
+	}
+
+	/** Write "##gff-version 3", which should come first. */
+	public void writeVersion() throws IOException {
+		writeDirective( VERSION_DIRECTIVE );
+	}
+
+	/** Write a comment or directive line, as given; the leading '#' or "##" is the caller's. */
+	public void writeDirective( String line ) throws IOException {
+		putText( line, null );
+		putByte( '\n' );
+	}
+
+	/** Write one feature line. */
+	public void writeModel( Gff3GenericModel model ) throws IOException {
+		putText( model.getLandmarkId(), ESCAPED_IN_LANDMARK );
+		putByte( '\t' );
+		putText( model.getSource(), ESCAPED_IN_COLUMN );
+		putByte( '\t' );
+		putText( model.getType(), null );    // Types are not unescaped by the reader.
+		putByte( '\t' );
+		putNumber( model.getStart() );
+		putByte( '\t' );
+		putNumber( model.getEnd() );
+		putByte( '\t' );
+		putScore( model.getScore() );
+		putByte( '\t' );
+		putByte( strandChar( model.getStrand() ) );
+		putByte( '\t' );
+		putNumber( model.getPhase() );
+		putByte( '\t' );
+		putAttributes( model );
+		putByte( '\n' );
+	}
+
+	/**
+	 * Write every model of the trees, each parent before its children.  A child of several parents
+	 * follows the last of them, and is written once.  Should a parent never be written, not being
+	 * reached from the roots given or being its own descendant, the child is written after all else,
+	 * rather than lost.  A root lacking a model, standing for a parent never seen, is not written,
+	 * though its children are; pass AssembledModels.getPlaceholderRoots() along with the top-level
+	 * features to have every feature written.
+	 */
+	public void writeTrees( Collection<ModelTreeNode> roots ) throws IOException {
+		Set<ModelTreeNode> written = Collections.newSetFromMap( new IdentityHashMap<>() );
+		List<ModelTreeNode> waiting = new ArrayList<>();
+		for ( ModelTreeNode node: roots ) {
+			writeTree( node, false, written, waiting );
+		}
+		for ( int i = 0; i < waiting.size(); i++ ) {    // Grows as the trees below are written.
+			writeTree( waiting.get( i ), true, written, waiting );
+		}
+	}
+
+	/** Hand all that is buffered to the output. */
+	public void flush() throws IOException {
+		ByteBuffer pending = ByteBuffer.wrap( buffer, 0, length );
+		while ( pending.hasRemaining() ) {
+			channel.write( pending );
+		}
+		length = 0;
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			flush();
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Write each landmark of the models to a file of its own, several at once.
+	 *
+	 * @param fileOfLandmark where to write each landmark's features.
+	 * @param parallelism number of files written at once.
+	 * @return the file written for each landmark.
+	 */
+	public static Map<String,File> writeLandmarks( AssembledModels models, Function<String,File> fileOfLandmark, int parallelism ) throws IOException {
+		if ( parallelism < 1 ) {
+			throw new IllegalArgumentException( "Parallelism must be at least 1." );
+		}
+		Map<String,File> landmarkVsFile = new LinkedHashMap<>();
+		for ( String landmarkId: models.getLandmarkIds() ) {
+			landmarkVsFile.put( landmarkId, fileOfLandmark.apply( landmarkId ) );
+		}
+		ExecutorService executor = Executors.newFixedThreadPool( parallelism, new DaemonThreadFactory( "gff3-write" ) );
+		try {
+			List<Future<Void>> writes = new ArrayList<>();
+			for ( Map.Entry<String,File> entry: landmarkVsFile.entrySet() ) {
+				List<ModelTreeNode> roots = new ArrayList<>( models.getTopLevelFeatures( entry.getKey() ) );
+				roots.addAll( models.getPlaceholderRoots( entry.getKey() ) );    // Else orphans would go unwritten.
+				writes.add( executor.submit( new LandmarkWriter( roots, entry.getValue() ) ) );
+			}
+			for ( Future<Void> write: writes ) {
+				awaitWrite( write );
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		return landmarkVsFile;
+	}
+
+	private static void awaitWrite( Future<Void> write ) throws IOException {
+		try {
+			write.get();
+		} catch ( InterruptedException ie ) {
+			Thread.currentThread().interrupt();
+			throw new IOException( "Interrupted while writing landmarks", ie );
+		} catch ( ExecutionException ee ) {
+			Throwable cause = ee.getCause();
+			if ( cause instanceof IOException ) {
+				throw (IOException)cause;
+			}
+			if ( cause instanceof RuntimeException ) {
+				throw (RuntimeException)cause;
+			}
+			throw new IOException( "Failed to write landmarks", ee );
+		}
+	}
+
+	/** Write one landmark's trees to one file. */
+	private static class LandmarkWriter implements Callable<Void> {
+		private final Collection<ModelTreeNode> roots;
+		private final File file;
+
+		LandmarkWriter( Collection<ModelTreeNode> roots, File file ) {
+			this.roots = roots;
+			this.file = file;
+		}
+
+		@Override
+		public Void call() throws IOException {
+			try ( Gff3Writer writer = new Gff3Writer( file ) ) {
+				writer.writeVersion();
+				writer.writeTrees( roots );
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * @param unwrittenParentsAllowed whether to write the node even if some parent has not been.
+	 * @param waiting where to add nodes left for a parent not yet written.
+	 */
+	private void writeTree( ModelTreeNode node, boolean unwrittenParentsAllowed, Set<ModelTreeNode> written, List<ModelTreeNode> waiting ) throws IOException {
+		if ( written.contains( node ) ) {
+			return;
+		}
+		List<ModelTreeNode> parents = node.getParents();
+		if ( parents != null  &&  ! unwrittenParentsAllowed ) {
+			for ( ModelTreeNode parent: parents ) {
+				if ( ! written.contains( parent ) ) {
+					waiting.add( node );    // The last parent written comes back for it, if any does.
+					return;
+				}
+			}
+		}
+		written.add( node );
+		if ( node.getModel() != null ) {
+			writeModel( node.getModel() );
+		}
+		List<ModelTreeNode> children = node.getChildren();
+		if ( children != null ) {
+			for ( ModelTreeNode child: children ) {
+				writeTree( child, false, written, waiting );
+			}
+		}
+	}
+
+	private void putAttributes( Gff3GenericModel model ) throws IOException {
+		settingsOnLine = 0;
+		byte[] raw = model.getRawAttributes();
+		if ( raw != null ) {
+			putRawSettings( model, raw );
+		}
+		else if ( model.getAttributes() != null ) {
+			Map<String,String[]> attributes = model.getAttributes();
+			String[] id = model.getId() != null ? new String[] { model.getId() } : attributes.get( Gff3FieldDecoder.ID_ATTRIB );
+			String[] parents = model.getParent() != null ? model.getParent() : attributes.get( Gff3FieldDecoder.PARENT_ATTRIB );
+			if ( ! attributes.containsKey( Gff3FieldDecoder.ID_ATTRIB ) ) {
+				putSetting( Gff3FieldDecoder.ID_ATTRIB, id );
+			}
+			if ( ! attributes.containsKey( Gff3FieldDecoder.PARENT_ATTRIB ) ) {
+				putSetting( Gff3FieldDecoder.PARENT_ATTRIB, parents );
+			}
+			for ( Map.Entry<String,String[]> entry: attributes.entrySet() ) {
+				switch ( keyKind( entry.getKey() ) ) {
+					case ID_KEY:     putSetting( entry.getKey(), id ); break;
+					case PARENT_KEY: putSetting( entry.getKey(), parents ); break;
+					default:         putSetting( entry.getKey(), entry.getValue() ); break;
+				}
+			}
+		}
+		else {
+			putSetting( Gff3FieldDecoder.ID_ATTRIB, model.getId() );
+			putSetting( Gff3FieldDecoder.NAME_ATTRIB, model.getName() );
+			putSetting( Gff3FieldDecoder.ALIAS_ATTRIB, model.getNonUniqueAlias() );
+			putSetting( Gff3FieldDecoder.PARENT_ATTRIB, model.getParent() );
+			putSetting( Gff3FieldDecoder.TARGET_ATTRIB, model.getTargetOfAlignment() );
+			putSetting( Gff3FieldDecoder.GAP_ATTRIB, model.getGap() );
+			putSetting( Gff3FieldDecoder.DERIVEMENT_ATTRIB, model.getDerivesFrom() );
+			putSetting( Gff3FieldDecoder.NOTE_ATTRIB, model.getNote() );
+			putSetting( Gff3FieldDecoder.DBXREF_ATTRIB, model.getDbxref() );
+			putSetting( Gff3FieldDecoder.ONTOLOGY_ATTRIB, model.getOntologyTerm() );
+		}
+		if ( settingsOnLine == 0 ) {
+			putByte( '.' );
+		}
+	}
+
+	/**
+	 * Settings of column 9 as read, already escaped, but for ID and Parent, which are written from the
+	 * model in their place, or first if the column had none.  As in the reader, the column is trimmed
+	 * as a whole, and each key is taken exactly as written.
+	 */
+	private void putRawSettings( Gff3GenericModel model, byte[] raw ) throws IOException {
+		int from = 0;
+		int to = raw.length;
+		while ( from < to  &&  ( raw[ from ] & 0xff ) <= ' ' ) {
+			from++;
+		}
+		while ( to > from  &&  ( raw[ to - 1 ] & 0xff ) <= ' ' ) {
+			to--;
+		}
+		int keysPresent = 0;
+		for ( int settingStart = from; settingStart < to; settingStart = settingEnd( raw, settingStart, to ) + 1 ) {
+			keysPresent |= keyKind( raw, settingStart, settingEnd( raw, settingStart, to ) );
+		}
+		int keysToWrite = keysPresent;
+		if ( ( keysPresent & ID_KEY ) == 0 ) {
+			putSetting( Gff3FieldDecoder.ID_ATTRIB, model.getId() );
+		}
+		if ( ( keysPresent & PARENT_KEY ) == 0 ) {
+			putSetting( Gff3FieldDecoder.PARENT_ATTRIB, model.getParent() );
+		}
+		for ( int settingStart = from; settingStart < to; ) {
+			int settingEnd = settingEnd( raw, settingStart, to );
+			int kind = keyKind( raw, settingStart, settingEnd );
+			if ( kind == ID_KEY  &&  ( keysToWrite & ID_KEY ) != 0 ) {
+				putSetting( Gff3FieldDecoder.ID_ATTRIB, model.getId() );
+			}
+			else if ( kind == PARENT_KEY  &&  ( keysToWrite & PARENT_KEY ) != 0 ) {
+				putSetting( Gff3FieldDecoder.PARENT_ATTRIB, model.getParent() );
+			}
+			else if ( kind == OTHER_KEY  &&  settingEnd > settingStart ) {
+				if ( settingsOnLine++ > 0 ) {
+					putByte( ';' );
+				}
+				putBytes( raw, settingStart, settingEnd - settingStart );
+			}
+			keysToWrite &= ~kind;    // A key set twice is written once.
+			settingStart = settingEnd + 1;
+		}
+	}
+
+	private static int settingEnd( byte[] raw, int settingStart, int to ) {
+		int settingEnd = settingStart;
+		while ( settingEnd < to  &&  raw[ settingEnd ] != ';' ) {
+			settingEnd++;
+		}
+		return settingEnd;
+	}
+
+	private static int keyKind( String key ) {
+		if ( Gff3FieldDecoder.ID_ATTRIB.equals( key ) ) {
+			return ID_KEY;
+		}
+		return Gff3FieldDecoder.PARENT_ATTRIB.equals( key ) ? PARENT_KEY : OTHER_KEY;
+	}
+
+	/** Whether the setting's key, byte for byte as the reader takes it, is ID, Parent or another. */
+	private static int keyKind( byte[] raw, int from, int to ) {
+		int keyEnd = from;
+		while ( keyEnd < to  &&  raw[ keyEnd ] != '=' ) {
+			keyEnd++;
+		}
+		if ( spells( raw, from, keyEnd, Gff3FieldDecoder.ID_ATTRIB ) ) {
+			return ID_KEY;
+		}
+		return spells( raw, from, keyEnd, Gff3FieldDecoder.PARENT_ATTRIB ) ? PARENT_KEY : OTHER_KEY;
+	}
+
+	private static boolean spells( byte[] raw, int from, int to, String text ) {
+		if ( to - from != text.length() ) {
+			return false;
+		}
+		for ( int i = 0; i < text.length(); i++ ) {
+			if ( raw[ from + i ] != text.charAt( i ) ) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void putSetting( String key, String value ) throws IOException {
+		if ( value != null ) {
+			putSetting( key, new String[] { value } );
+		}
+	}
+
+	/** One tag=value1,value2 setting, preceded by ';' unless first on the line. */
+	private void putSetting( String key, String[] values ) throws IOException {
+		if ( values == null ) {
+			return;
+		}
+		if ( settingsOnLine++ > 0 ) {
+			putByte( ';' );
+		}
+		putText( key, ESCAPED_IN_ATTRIBUTE );
+		putByte( '=' );
+		boolean[] escaped = Gff3FieldDecoder.TARGET_ATTRIB.equals( key ) ? null : ESCAPED_IN_ATTRIBUTE;
+		for ( int i = 0; i < values.length; i++ ) {
+			if ( i > 0 ) {
+				putByte( ',' );
+			}
+			putText( values[ i ], escaped );
+		}
+	}
+
+	/**
+	 * Text as UTF-8, with characters flagged in the table given written as %XX.
+	 *
+	 * @param escaped which ASCII characters to escape, or null to write the text as it is.
+	 */
+	private void putText( String text, boolean[] escaped ) throws IOException {
+		if ( text == null ) {
+			putByte( '.' );
+			return;
+		}
+		int count = text.length();
+		for ( int i = 0; i < count; i++ ) {
+			if ( buffer.length - length < 4 ) {
+				flush();
+			}
+			char c = text.charAt( i );
+			if ( c < 128 ) {
+				if ( escaped != null  &&  escaped[ c ] ) {
+					buffer[ length++ ] = '%';
+					buffer[ length++ ] = HEX[ c >> 4 ];
+					buffer[ length++ ] = HEX[ c & 0xf ];
+				}
+				else {
+					buffer[ length++ ] = (byte)c;
+				}
+			}
+			else {
+				int codePoint = text.codePointAt( i );
+				i += Character.charCount( codePoint ) - 1;
+				putUtf8( codePoint );
+			}
+		}
+	}
+
+	/** One character beyond ASCII, in two to four bytes; room for four must be there. */
+	private void putUtf8( int codePoint ) {
+		if ( codePoint < 0x800 ) {
+			buffer[ length++ ] = (byte)( 0xc0 | codePoint >> 6 );
+		}
+		else {
+			if ( codePoint < 0x10000 ) {
+				buffer[ length++ ] = (byte)( 0xe0 | codePoint >> 12 );
+			}
+			else {
+				buffer[ length++ ] = (byte)( 0xf0 | codePoint >> 18 );
+				buffer[ length++ ] = (byte)( 0x80 | ( codePoint >> 12 & 0x3f ) );
+			}
+			buffer[ length++ ] = (byte)( 0x80 | ( codePoint >> 6 & 0x3f ) );
+		}
+		buffer[ length++ ] = (byte)( 0x80 | ( codePoint & 0x3f ) );
+	}
+
+	/** Bytes as they are; any too many for the buffer go straight out. */
+	private void putBytes( byte[] bytes, int from, int count ) throws IOException {
+		ensureRoom( count );
+		if ( count > buffer.length ) {
+			ByteBuffer direct = ByteBuffer.wrap( bytes, from, count );
+			while ( direct.hasRemaining() ) {
+				channel.write( direct );
+			}
+			return;
+		}
+		System.arraycopy( bytes, from, buffer, length, count );
+		length += count;
+	}
+
+	/** Decimal digits of the number, or "." for null. */
+	private void putNumber( Integer number ) throws IOException {
+		if ( number == null ) {
+			putByte( '.' );
+			return;
+		}
+		ensureRoom( 11 );
+		long value = number;
+		if ( value < 0 ) {
+			buffer[ length++ ] = '-';
+			value = -value;
+		}
+		int digits = 1;
+		for ( long bound = 10; bound <= value; bound *= 10 ) {
+			digits++;
+		}
+		for ( int i = length + digits - 1; i >= length; i-- ) {
+			buffer[ i ] = (byte)( '0' + value % 10 );
+			value /= 10;
+		}
+		length += digits;
+	}
+
+	private void putScore( Double score ) throws IOException {
+		if ( score == null ) {
+			putByte( '.' );
+		}
+		else if ( score == Math.rint( score )  &&  Math.abs( score ) < Integer.MAX_VALUE ) {
+			putNumber( score.intValue() );
+		}
+		else {
+			putText( score.toString(), null );
+		}
+	}
+
+	private void putByte( char c ) throws IOException {
+		if ( length == buffer.length ) {
+			flush();
+		}
+		buffer[ length++ ] = (byte)c;
+	}
+
+	/** Flush, if need be, so that the count of bytes given fits. */
+	private void ensureRoom( int count ) throws IOException {
+		if ( length + count > buffer.length ) {
+			flush();
+		}
+	}
+
+	private static char strandChar( Gff3GenericModel.Strand strand ) {
+		if ( strand == null ) {
+			return '.';
+		}
+		switch ( strand ) {
+			case positive: return '+';
+			case negative: return '-';
+			case unknown:  return '?';
+			default:       return '.';
+		}
+	}
+
+	private static boolean[] escapeTable( String reserved ) {
+		boolean[] escaped = new boolean[ 128 ];
+		for ( int c = 0; c < ' '; c++ ) {
+			escaped[ c ] = true;
+		}
+		escaped[ 127 ] = true;
+		escaped[ '%' ] = true;
+		for ( char c: reserved.toCharArray() ) {
+			escaped[ c ] = true;
+		}
+		return escaped;
+	}
+
+	private static boolean[] landmarkEscapeTable() {
+		boolean[] escaped = new boolean[ 128 ];
+		String allowed = ".:^*$@!+_?-|";
+		for ( int c = 0; c < 128; c++ ) {
+			escaped[ c ] = ! ( Character.isLetterOrDigit( c )  ||  allowed.indexOf( c ) >= 0 );
+		}
+		return escaped;
+	}
+}
@@ -0,0 +1,97 @@
+/**
+ *   Copyright Leslie L. Foster, 2011.
+ *
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation; version 2.1 of the License.
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation, Inc.
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+package oss.model.builder.gff3;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Streams a range of a file's bytes through memory mappings, one window at a time.  The file is
+ * open only while a window is being mapped, so an abandoned stream holds no file handle.
+ */
+class MappedRangeInputStream extends InputStream {
+	private static final int WINDOW_SIZE = 64 * 1024 * 1024;
+
+	private final File file;
+	private final long end;
+	private long nextWindowStart;
+	private MappedByteBuffer window;
+
+	/**
+	 * @param file to read.
+	 * @param start offset of first byte to read.
+	 * @param end offset just past the last byte to read.
+	 */
+	MappedRangeInputStream( File file, long start, long end ) {
+		this.file = file;
+		this.nextWindowStart = start;
+		this.end = end;
+	}
+
+	@Override
+	public int read() throws IOException {
+		if ( ! ensureWindow() ) {
+			return -1;
+		}
+		return window.get() & 0xff;
+	}
+
+	@Override
+	public int read( byte[] b, int off, int len ) throws IOException {
+		if ( len == 0 ) {
+			return 0;
+		}
+		if ( ! ensureWindow() ) {
+			return -1;
+		}
+		int count = Math.min( len, window.remaining() );
+		window.get( b, off, count );
+		return count;
+	}
+
+	@Override
+	public int available() {
+		return window == null ? 0 : window.remaining();
+	}
+
+	@Override
+	public void close() {
+		window = null;
+		nextWindowStart = end;
+	}
+
+	/** Make sure there is something left in the current window, mapping the next one as needed. */
+	private boolean ensureWindow() throws IOException {
+		if ( window != null  &&  window.hasRemaining() ) {
+			return true;
+		}
+		if ( nextWindowStart >= end ) {
+			return false;
+		}
+		long size = Math.min( WINDOW_SIZE, end - nextWindowStart );
+		try ( FileChannel channel = FileChannel.open( file.toPath(), StandardOpenOption.READ ) ) {
+			window = channel.map( FileChannel.MapMode.READ_ONLY, nextWindowStart, size );
+		}
+		nextWindowStart += size;
+		return true;
+	}
+}
@@ -0,0 +1,323 @@
+/**
+ *   Copyright Leslie L. Foster, 2011.
+ *
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation; version 2.1 of the License.
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation, Inc.
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+package oss.model.builder.gff3;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Unchanging copy of an assembled forest, held in arrays rather than in one node object per feature.
+ * Features are numbered densely, depth-first from the top level and then from any placeholder roots,
+ * so that a walk reads the arrays nearly in order.  Links are kept in compressed sparse row form: the
+ * children of feature i are childIdx[ childOffsets[ i ] ] up to childIdx[ childOffsets[ i + 1 ] ], and
+ * parents likewise.  Each feature's parents are copied from its node's own getParents(), and a parent
+ * not reached from the roots given is taken in along with all below it, so every parent of a
+ * multi-parent feature is kept.
+ *
+ * For code written against ModelTreeNode, getNode() gives a frozen node backed by the graph.  One such
+ * node is made per feature, when first asked for, so that nodes may be compared by identity.
+ *
+ * Safe to read from many threads.
+ */
+public final class ModelGraph {
+	/** Told of each feature in a walk. */
+	public interface Visitor {
+		/**
+		 * @param feature index of the feature.
+		 * @param depth 0 for the feature the walk began at.
+		 * @return false to pass over the feature's children.
+		 */
+		boolean visit( int feature, int depth );
+	}
+
+	private final Gff3GenericModel[] models;
+	private final String[] ids;
+	private final int[] childOffsets;
+	private final int[] childIdx;
+	private final int[] parentOffsets;
+	private final int[] parentIdx;
+	private final int[] topLevel;
+	private final int[] placeholders;
+	private final int[] idSlots;     // Open-addressed; holds index + 1, so that 0 marks an empty slot.
+	private final AtomicReferenceArray<GraphNode> facades;
+	private final List<ModelTreeNode> topLevelFeatures;
+	private final List<ModelTreeNode> placeholderRoots;
+
+	/** Copy the forest below the top-level nodes given.  The nodes themselves are not kept. */
+	public ModelGraph( Collection<ModelTreeNode> topLevelNodes ) {
+		this( topLevelNodes, Collections.<ModelTreeNode>emptyList() );
+	}
+
+	/**
+	 * Copy the forest below the top-level nodes and the placeholder roots given, so that features whose
+	 * parents were never seen are kept too.  Placeholders are numbered after all of the top level.
+	 */
+	public ModelGraph( Collection<ModelTreeNode> topLevelNodes, Collection<ModelTreeNode> placeholderRootNodes ) {
+		// Number every node reachable, in depth-first order.  Parents are queued ahead of children, so
+		// that one not yet numbered is taken only after the subtree being walked.
+		Map<ModelTreeNode,Integer> nodeVsIndex = new IdentityHashMap<>();
+		List<ModelTreeNode> ordered = new ArrayList<>();
+		List<ModelTreeNode> pending = new ArrayList<>();
+		List<ModelTreeNode> seeds = new ArrayList<>( topLevelNodes );
+		seeds.addAll( placeholderRootNodes );
+		int childEdgeCount = 0;
+		int parentEdgeCount = 0;
+		for ( ModelTreeNode root: seeds ) {
+			pending.add( root );
+			while ( ! pending.isEmpty() ) {
+				ModelTreeNode next = pending.remove( pending.size() - 1 );
+				if ( nodeVsIndex.containsKey( next ) ) {
+					continue;
+				}
+				nodeVsIndex.put( next, ordered.size() );
+				ordered.add( next );
+				List<ModelTreeNode> parents = next.getParents();
+				if ( parents != null ) {
+					parentEdgeCount += parents.size();
+					pending.addAll( parents );
+				}
+				List<ModelTreeNode> children = next.getChildren();
+				if ( children != null ) {
+					childEdgeCount += children.size();
+					for ( int i = children.size() - 1; i >= 0; i-- ) {
+						pending.add( children.get( i ) );
+					}
+				}
+			}
+		}
+
+		int size = ordered.size();
+		models = new Gff3GenericModel[ size ];
+		ids = new String[ size ];
+		childOffsets = new int[ size + 1 ];
+		childIdx = new int[ childEdgeCount ];
+		parentOffsets = new int[ size + 1 ];
+		parentIdx = new int[ parentEdgeCount ];
+		int childEdge = 0;
+		int parentEdge = 0;
+		for ( int i = 0; i < size; i++ ) {
+			ModelTreeNode node = ordered.get( i );
+			models[ i ] = node.getModel();
+			ids[ i ] = node.getId();
+			childOffsets[ i ] = childEdge;
+			List<ModelTreeNode> children = node.getChildren();
+			if ( children != null ) {
+				for ( ModelTreeNode child: children ) {
+					childIdx[ childEdge++ ] = nodeVsIndex.get( child );
+				}
+			}
+			parentOffsets[ i ] = parentEdge;
+			List<ModelTreeNode> parents = node.getParents();
+			if ( parents != null ) {
+				for ( ModelTreeNode parent: parents ) {
+					parentIdx[ parentEdge++ ] = nodeVsIndex.get( parent );
+				}
+			}
+		}
+		childOffsets[ size ] = childEdge;
+		parentOffsets[ size ] = parentEdge;
+
+		topLevel = indexesOf( topLevelNodes, nodeVsIndex );
+		placeholders = indexesOf( placeholderRootNodes, nodeVsIndex );
+
+		idSlots = new int[ Math.max( 2, Integer.highestOneBit( Math.max( size, 1 ) ) * 4 ) ];
+		int mask = idSlots.length - 1;
+		for ( int i = 0; i < size; i++ ) {
+			if ( ids[ i ] == null ) {
+				continue;
+			}
+			int slot = StringPool.mix( ids[ i ].hashCode() ) & mask;
+			while ( idSlots[ slot ] != 0 ) {
+				slot = ( slot + 1 ) & mask;
+			}
+			idSlots[ slot ] = i + 1;
+		}
+
+		facades = new AtomicReferenceArray<>( size );
+		topLevelFeatures = new NodeList( topLevel, 0, topLevel.length );
+		placeholderRoots = new NodeList( placeholders, 0, placeholders.length );
+	}
+
+	private static int[] indexesOf( Collection<ModelTreeNode> nodes, Map<ModelTreeNode,Integer> nodeVsIndex ) {
+		int[] indexes = new int[ nodes.size() ];
+		int count = 0;
+		for ( ModelTreeNode node: nodes ) {
+			indexes[ count++ ] = nodeVsIndex.get( node );
+		}
+		return indexes;
+	}
+
+	/** Number of features. */
+	public int size() { return models.length; }
+
+	public Gff3GenericModel getModel( int feature ) { return models[ feature ]; }
+
+	public String getId( int feature ) { return ids[ feature ]; }
+
+	public int getChildCount( int feature ) { return childOffsets[ feature + 1 ] - childOffsets[ feature ]; }
+
+	/** @param n which child, from 0 to getChildCount() - 1. */
+	public int getChild( int feature, int n ) { return childIdx[ childOffsets[ feature ] + n ]; }
+
+	public int getParentCount( int feature ) { return parentOffsets[ feature + 1 ] - parentOffsets[ feature ]; }
+
+	/** @param n which parent, from 0 to getParentCount() - 1. */
+	public int getParent( int feature, int n ) { return parentIdx[ parentOffsets[ feature ] + n ]; }
+
+	public int getTopLevelCount() { return topLevel.length; }
+
+	public int getTopLevel( int n ) { return topLevel[ n ]; }
+
+	public int getPlaceholderRootCount() { return placeholders.length; }
+
+	public int getPlaceholderRoot( int n ) { return placeholders[ n ]; }
+
+	/**
+	 * Index of the feature with the ID.  Where an ID was held by more than one node, the first in the
+	 * graph's order is given.
+	 *
+	 * @return index, or -1 if no feature has the ID.
+	 */
+	public int indexOf( String id ) {
+		int mask = idSlots.length - 1;
+		int slot = StringPool.mix( id.hashCode() ) & mask;
+		int entry;
+		int found = -1;
+		while ( 0 != ( entry = idSlots[ slot ] ) ) {
+			int feature = entry - 1;
+			if ( ids[ feature ].equals( id )  &&  ( found == -1  ||  feature < found ) ) {
+				found = feature;
+			}
+			slot = ( slot + 1 ) & mask;
+		}
+		return found;
+	}
+
+	/** Top-level features, as nodes backed by this graph. */
+	public List<ModelTreeNode> getTopLevelFeatures() { return topLevelFeatures; }
+
+	/** Placeholders for parents never seen, holding no model, as nodes backed by this graph. */
+	public List<ModelTreeNode> getPlaceholderRoots() { return placeholderRoots; }
+
+	/** The frozen node standing for the feature; the same node each time. */
+	public ModelTreeNode getNode( int feature ) {
+		GraphNode node = facades.get( feature );
+		if ( node == null ) {
+			facades.compareAndSet( feature, null, new GraphNode( feature ) );
+			node = facades.get( feature );
+		}
+		return node;
+	}
+
+	/**
+	 * Visit the feature and all below it, depth-first, parents before children.  A feature having
+	 * several parents on the way down is visited once under each.  Nothing is allocated per feature.
+	 */
+	public void walk( int root, Visitor visitor ) {
+		int[] features = new int[ 16 ];
+		int[] nextEdges = new int[ 16 ];
+		int depth = 0;
+		if ( ! visitor.visit( root, 0 ) ) {
+			return;
+		}
+		features[ 0 ] = root;
+		nextEdges[ 0 ] = childOffsets[ root ];
+		while ( depth >= 0 ) {
+			int feature = features[ depth ];
+			if ( nextEdges[ depth ] == childOffsets[ feature + 1 ] ) {
+				depth--;
+				continue;
+			}
+			int child = childIdx[ nextEdges[ depth ]++ ];
+			if ( visitor.visit( child, depth + 1 ) ) {
+				if ( ++depth == features.length ) {
+					features = Arrays.copyOf( features, depth * 2 );
+					nextEdges = Arrays.copyOf( nextEdges, depth * 2 );
+				}
+				features[ depth ] = child;
+				nextEdges[ depth ] = childOffsets[ child ];
+			}
+		}
+	}
+
+	/** Walk below every top-level feature in turn. */
+	public void walkAll( Visitor visitor ) {
+		for ( int root: topLevel ) {
+			walk( root, visitor );
+		}
+	}
+
+	/** Nodes for a run of feature indexes; made only as asked for. */
+	private class NodeList extends AbstractList<ModelTreeNode> {
+		private final int[] indexes;
+		private final int from;
+		private final int to;
+
+		NodeList( int[] indexes, int from, int to ) {
+			this.indexes = indexes;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		public ModelTreeNode get( int n ) {
+			if ( n < 0  ||  n >= to - from ) {
+				throw new IndexOutOfBoundsException( "Index " + n + " of " + ( to - from ) );
+			}
+			return getNode( indexes[ from + n ] );
+		}
+
+		@Override
+		public int size() { return to - from; }
+	}
+
+	/** Node reading its links from the graph.  Frozen from the start; as with other nodes, empty links are null. */
+	private class GraphNode extends ModelTreeNode {
+		private final int feature;
+
+		GraphNode( int feature ) {
+			super( ids[ feature ] );
+			this.feature = feature;
+			freeze();
+		}
+
+		@Override
+		public Gff3GenericModel getModel() { return models[ feature ]; }
+
+		@Override
+		public List<ModelTreeNode> getChildren() {
+			int from = childOffsets[ feature ];
+			int to = childOffsets[ feature + 1 ];
+			return from == to ? null : new NodeList( childIdx, from, to );
+		}
+
+		@Override
+		public List<ModelTreeNode> getParents() {
+			int from = parentOffsets[ feature ];
+			int to = parentOffsets[ feature + 1 ];
+			return from == to ? null : new NodeList( parentIdx, from, to );
+		}
+	}
+}
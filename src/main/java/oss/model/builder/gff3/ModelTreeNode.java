@@ -1,6 +1,7 @@
 package oss.model.builder.gff3;
 
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.ArrayList;
 
@@ -14,6 +15,7 @@ public class ModelTreeNode {
 	private String id;
 	private List<ModelTreeNode> parents;
 	private List<ModelTreeNode> children;
+	private boolean frozen;
 	
 	/** This variant is needed, because sometimes the relationship to a model can be seen before the actual model's data. */
 	public ModelTreeNode( String id ) {
@@ -33,6 +35,7 @@ public class ModelTreeNode {
 	 * @param childNode some node whose model calls this one parent.
 	 */
 	public void addChild( ModelTreeNode childNode ) {
+		checkNotFrozen();
 		if ( children == null ) {
 			children = new ArrayList<ModelTreeNode>();
 		}
@@ -45,6 +48,7 @@ public class ModelTreeNode {
 	 * @param childNode some node whose model calls this one parent.
 	 */
 	public boolean removeChild( ModelTreeNode childNode ) {
+		checkNotFrozen();
 		boolean foundNode = false;
 		if ( children != null ) {
 			foundNode = children.remove( childNode );
@@ -61,26 +65,76 @@ public class ModelTreeNode {
 	 * @param parentNode some node called parent by this one's model.
 	 */
 	public void addParent( ModelTreeNode parentNode ) {
+		checkNotFrozen();
 		if ( parents == null ) {
 			parents = new ArrayList<ModelTreeNode>();
-			parents.add( parentNode );
 		}
+		parents.add( parentNode );
 	}
 	
 	/** 
-	 * Set parents.  Do not add new ones.
+	 * Set parents, in place of any held.  More may be added afterwards by addParent().
 	 * 
-	 * @param parents to add
+	 * @param parents all nodes called parent by this one's model, in order.
 	 */
 	public void setParents( ModelTreeNode[] parents ) {
-		this.parents = Arrays.asList(parents);
+		checkNotFrozen();
+		this.parents = new ArrayList<ModelTreeNode>( Arrays.asList(parents) );
 	}
 	
 	public List<ModelTreeNode> getParents() { return parents; }
 	
 	/** This is what this node represents. */
 	public Gff3GenericModel getModel() { return model; }
-	public void setModel( Gff3GenericModel model ) { this.model = model; }
+	public void setModel( Gff3GenericModel model ) {
+		checkNotFrozen();
+		this.model = model;
+	}
 	
 	public String getId() { return id; }
+
+	/** Tells if links of this node can no longer be changed; see AssembledModels. */
+	public boolean isFrozen() { return frozen; }
+
+	/** Fix the links of this node as they stand, so that it may be read from many threads. */
+	void freeze() {
+		if ( ! frozen ) {
+			children = children == null ? null : Collections.unmodifiableList( new ArrayList<ModelTreeNode>( children ) );
+			parents = parents == null ? null : Collections.unmodifiableList( new ArrayList<ModelTreeNode>( parents ) );
+			frozen = true;
+		}
+	}
+
+	/**
+	 * Freeze a node and every node linked to it, above or below.  Nodes may be reached more than once,
+	 * through several parents.
+	 *
+	 * @return count of nodes newly frozen.
+	 */
+	static int freezeReachable( ModelTreeNode node ) {
+		int count = 0;
+		List<ModelTreeNode> pending = new ArrayList<ModelTreeNode>();
+		pending.add( node );
+		while ( ! pending.isEmpty() ) {
+			ModelTreeNode next = pending.remove( pending.size() - 1 );
+			if ( next.frozen ) {
+				continue;
+			}
+			next.freeze();
+			count++;
+			if ( next.children != null ) {
+				pending.addAll( next.children );
+			}
+			if ( next.parents != null ) {
+				pending.addAll( next.parents );
+			}
+		}
+		return count;
+	}
+
+	private void checkNotFrozen() {
+		if ( frozen ) {
+			throw new IllegalStateException( "Node " + id + " belongs to assembled models, and cannot be changed." );
+		}
+	}
 }
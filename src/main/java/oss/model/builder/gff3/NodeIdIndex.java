@@ -0,0 +1,198 @@
+/**
+ *   Copyright Leslie L. Foster, 2011.
+ *
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation; version 2.1 of the License.
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation, Inc.
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+package oss.model.builder.gff3;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The nodes of one landmark, by feature ID, in a single open-addressed table.  Each slot holds an ID,
+ * its hash, and the index of its node in a dense array; nodes are numbered in order of addition.
+ *
+ * An ID may also be claimed, as taken by a model.  Duplicate IDs are found by claims, which outlive
+ * the removal of the ID's node, so that an ID once used stays used.  Placeholders for parents not yet
+ * seen hold their ID's node without claiming it, until their model arrives.
+ *
+ * Slots are never emptied, so no tombstones are needed.  Not thread-safe.
+ */
+final class NodeIdIndex {
+	static final int NO_NODE = -1;
+
+	private static final int INITIAL_SLOTS = 64;
+
+	private String[] keys;
+	private int[] hashes;
+	private int[] nodeIndexes;
+	private long[] claims;
+	private int keyCount;
+
+	private ModelTreeNode[] nodes;
+	private int nodeCount;      // Numbers given out, including those of removed nodes.
+	private int mappedCount;
+
+	NodeIdIndex() {
+		allocateSlots( INITIAL_SLOTS );
+		nodes = new ModelTreeNode[ INITIAL_SLOTS / 2 ];
+	}
+
+	/** @return index of the ID's node, or NO_NODE. */
+	int indexOf( String id ) {
+		int slot = find( id, id.hashCode() );
+		return keys[ slot ] == null ? NO_NODE : nodeIndexes[ slot ];
+	}
+
+	/** @return the ID's node, or null. */
+	ModelTreeNode get( String id ) {
+		int index = indexOf( id );
+		return index == NO_NODE ? null : nodes[ index ];
+	}
+
+	/** Map the ID to the node, in place of any node it had. */
+	void put( String id, ModelTreeNode node ) {
+		int slot = slotFor( id );
+		if ( nodeIndexes[ slot ] != NO_NODE ) {
+			nodes[ nodeIndexes[ slot ] ] = null;
+			mappedCount--;
+		}
+		if ( nodeCount == nodes.length ) {
+			nodes = Arrays.copyOf( nodes, nodeCount * 2 );
+		}
+		nodes[ nodeCount ] = node;
+		nodeIndexes[ slot ] = nodeCount++;
+		mappedCount++;
+	}
+
+	/** Unmap the ID's node, leaving any claim on the ID. */
+	void remove( String id ) {
+		int slot = find( id, id.hashCode() );
+		if ( keys[ slot ] != null  &&  nodeIndexes[ slot ] != NO_NODE ) {
+			nodes[ nodeIndexes[ slot ] ] = null;
+			nodeIndexes[ slot ] = NO_NODE;
+			mappedCount--;
+		}
+	}
+
+	/**
+	 * Claim the ID for a model.
+	 *
+	 * @return false if it was already claimed.
+	 */
+	boolean claim( String id ) {
+		int slot = slotFor( id );
+		long bit = 1L << slot;
+		if ( ( claims[ slot >>> 6 ] & bit ) != 0 ) {
+			return false;
+		}
+		claims[ slot >>> 6 ] |= bit;
+		return true;
+	}
+
+	/** Number of IDs mapped to nodes. */
+	int size() { return mappedCount; }
+
+	/** Nodes mapped, in order of addition. */
+	List<ModelTreeNode> nodes() {
+		List<ModelTreeNode> mapped = new ArrayList<>( mappedCount );
+		for ( int i = 0; i < nodeCount; i++ ) {
+			if ( nodes[ i ] != null ) {
+				mapped.add( nodes[ i ] );
+			}
+		}
+		return mapped;
+	}
+
+	/** An index of the same IDs and nodes, changed independently of this one. */
+	NodeIdIndex copy() {
+		return new NodeIdIndex( this );
+	}
+
+	private NodeIdIndex( NodeIdIndex other ) {
+		keys = other.keys.clone();
+		hashes = other.hashes.clone();
+		nodeIndexes = other.nodeIndexes.clone();
+		claims = other.claims.clone();
+		keyCount = other.keyCount;
+		nodes = Arrays.copyOf( other.nodes, other.nodeCount );
+		nodeCount = other.nodeCount;
+		mappedCount = other.mappedCount;
+	}
+
+	/** Slot of the ID, adding it, unmapped and unclaimed, if not there. */
+	private int slotFor( String id ) {
+		int hash = id.hashCode();
+		int slot = find( id, hash );
+		if ( keys[ slot ] == null ) {
+			if ( ( keyCount + 1 ) * 2 > keys.length ) {
+				grow();
+				slot = find( id, hash );
+			}
+			keys[ slot ] = id;
+			hashes[ slot ] = hash;
+			nodeIndexes[ slot ] = NO_NODE;
+			keyCount++;
+		}
+		return slot;
+	}
+
+	/** Slot holding the ID, or the empty slot where it would go. */
+	private int find( String id, int hash ) {
+		int mask = keys.length - 1;
+		int slot = StringPool.mix( hash ) & mask;
+		String key;
+		while ( null != ( key = keys[ slot ] ) ) {
+			if ( hashes[ slot ] == hash  &&  key.equals( id ) ) {
+				return slot;
+			}
+			slot = ( slot + 1 ) & mask;
+		}
+		return slot;
+	}
+
+	/** Keep the table no more than half full. */
+	private void grow() {
+		String[] oldKeys = keys;
+		int[] oldHashes = hashes;
+		int[] oldNodeIndexes = nodeIndexes;
+		long[] oldClaims = claims;
+		allocateSlots( oldKeys.length * 2 );
+		int mask = keys.length - 1;
+		for ( int oldSlot = 0; oldSlot < oldKeys.length; oldSlot++ ) {
+			if ( oldKeys[ oldSlot ] == null ) {
+				continue;
+			}
+			int slot = StringPool.mix( oldHashes[ oldSlot ] ) & mask;
+			while ( keys[ slot ] != null ) {
+				slot = ( slot + 1 ) & mask;
+			}
+			keys[ slot ] = oldKeys[ oldSlot ];
+			hashes[ slot ] = oldHashes[ oldSlot ];
+			nodeIndexes[ slot ] = oldNodeIndexes[ oldSlot ];
+			if ( ( oldClaims[ oldSlot >>> 6 ] & ( 1L << oldSlot ) ) != 0 ) {
+				claims[ slot >>> 6 ] |= 1L << slot;
+			}
+		}
+	}
+
+	private void allocateSlots( int slotCount ) {
+		keys = new String[ slotCount ];
+		hashes = new int[ slotCount ];
+		nodeIndexes = new int[ slotCount ];
+		claims = new long[ ( slotCount + 63 ) >>> 6 ];
+	}
+}
@@ -0,0 +1,209 @@
+/**
+ *   Copyright Leslie L. Foster, 2011.
+ *
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation; version 2.1 of the License.
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation, Inc.
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+package oss.model.builder.gff3;
+
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * How far a read of a plain-text file got, with a checksum of the bytes it went through.  A later read
+ * checks those bytes again: if unchanged, the file has only been added to, and reading may pick up
+ * where this one stopped.
+ */
+final class ReadPosition {
+	/** Longest last line with no end that is looked at; a longer one is left for a later read. */
+	private static final int MAX_UNENDED_LINE = 1024 * 1024;
+
+	private final long offset;
+	private final long checkedLength;
+	private final long crc;
+	private final int lineCount;
+	private final boolean fastaReached;
+	private final boolean endsWithLineEnd;
+
+	/**
+	 * @param offset just past the last line read.
+	 * @param tracker stream the lines were read through, having checked all bytes it gave.
+	 * @param lineCount lines read, comments included.
+	 */
+	ReadPosition( File file, long offset, Tracker tracker, int lineCount, boolean fastaReached ) throws IOException {
+		this.offset = offset;
+		this.checkedLength = tracker.count;
+		this.crc = tracker.crc.getValue();
+		this.lineCount = lineCount;
+		this.fastaReached = fastaReached;
+		this.endsWithLineEnd = offset == 0  ||  isLineEnd( byteAt( file, offset - 1 ) );
+	}
+
+	long getOffset() { return offset; }
+
+	int getLineCount() { return lineCount; }
+
+	/** Tells if reading stopped at ##FASTA, so that nothing added can be features. */
+	boolean isFastaReached() { return fastaReached; }
+
+	/** Tells if the last line read was whole; if not, text added may belong to it. */
+	boolean endsWithLineEnd() { return endsWithLineEnd; }
+
+	/**
+	 * Check the bytes read before against the file as it now stands.
+	 *
+	 * @return checksum of those bytes, ready to be carried on over what follows; null if they have changed.
+	 */
+	CRC32 checkPrefix( File file ) throws IOException {
+		if ( file.length() < checkedLength ) {
+			return null;
+		}
+		CRC32 check = new CRC32();
+		try ( FileChannel channel = FileChannel.open( file.toPath(), StandardOpenOption.READ ) ) {
+			ByteBuffer block = ByteBuffer.allocate( 64 * 1024 );
+			long position = 0;
+			while ( position < checkedLength ) {
+				block.clear();
+				block.limit( (int)Math.min( block.capacity(), checkedLength - position ) );
+				int count = channel.read( block, position );
+				if ( count <= 0 ) {
+					return null;
+				}
+				check.update( block.array(), 0, count );
+				position += count;
+			}
+		}
+		return check.getValue() == crc ? check : null;
+	}
+
+	/**
+	 * Offset just past the last line end at or after the offset given, so that a line still being
+	 * written is left for later.
+	 *
+	 * @return the offset given, if no line end follows it.
+	 */
+	static long lastLineEnd( File file, long from ) throws IOException {
+		try ( FileChannel channel = FileChannel.open( file.toPath(), StandardOpenOption.READ ) ) {
+			ByteBuffer block = ByteBuffer.allocate( 8 * 1024 );
+			long blockEnd = channel.size();
+			while ( blockEnd > from ) {
+				long blockStart = Math.max( from, blockEnd - block.capacity() );
+				block.clear();
+				block.limit( (int)( blockEnd - blockStart ) );
+				while ( block.hasRemaining()  &&  channel.read( block, blockStart + block.position() ) > 0 ) {
+					// Fill the block.
+				}
+				for ( int i = block.position() - 1; i >= 0; i-- ) {
+					if ( isLineEnd( block.get( i ) ) ) {
+						return blockStart + i + 1;
+					}
+				}
+				blockEnd = blockStart;
+			}
+			return from;
+		}
+	}
+
+	/**
+	 * Bytes following the offset, if they are a last line with no line end: a line still being
+	 * written, or the last of a file not ended by a line end.
+	 *
+	 * @param from offset just past a line end, or 0.
+	 * @return null if there are none, or if a line end has since been added.
+	 */
+	static byte[] unendedTail( File file, long from ) throws IOException {
+		try ( FileChannel channel = FileChannel.open( file.toPath(), StandardOpenOption.READ ) ) {
+			long length = channel.size() - from;
+			if ( length <= 0  ||  length > MAX_UNENDED_LINE ) {
+				return null;
+			}
+			ByteBuffer tail = ByteBuffer.allocate( (int)length );
+			while ( tail.hasRemaining()  &&  channel.read( tail, from + tail.position() ) > 0 ) {
+				// Fill the buffer.
+			}
+			byte[] bytes = Arrays.copyOf( tail.array(), tail.position() );
+			for ( byte b: bytes ) {
+				if ( isLineEnd( b ) ) {
+					return null;
+				}
+			}
+			return bytes.length == 0 ? null : bytes;
+		}
+	}
+
+	private static byte byteAt( File file, long position ) throws IOException {
+		try ( FileChannel channel = FileChannel.open( file.toPath(), StandardOpenOption.READ ) ) {
+			ByteBuffer one = ByteBuffer.allocate( 1 );
+			return channel.read( one, position ) == 1 ? one.get( 0 ) : 0;
+		}
+	}
+
+	private static boolean isLineEnd( byte b ) {
+		return b == '\n'  ||  b == '\r';
+	}
+
+	/** Keeps a checksum and count of all bytes read through it. */
+	static final class Tracker extends FilterInputStream {
+		private final CRC32 crc;
+		private long count;
+
+		/**
+		 * @param crc checksum to carry on, holding that of all bytes before the stream's first.
+		 * @param countBefore bytes before the stream's first.
+		 */
+		Tracker( InputStream in, CRC32 crc, long countBefore ) {
+			super( in );
+			this.crc = crc;
+			this.count = countBefore;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if ( b >= 0 ) {
+				crc.update( b );
+				count++;
+			}
+			return b;
+		}
+
+		@Override
+		public int read( byte[] b, int off, int len ) throws IOException {
+			int read = super.read( b, off, len );
+			if ( read > 0 ) {
+				crc.update( b, off, read );
+				count += read;
+			}
+			return read;
+		}
+
+		/** Nothing is skipped, as skipped bytes would go unchecked. */
+		@Override
+		public long skip( long n ) {
+			return 0;
+		}
+
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+	}
+}
@@ -16,67 +16,196 @@
  *
  */
 package oss.model.builder.gff3;
-import java.util.Map;
-import java.util.HashMap;
 
 import java.io.BufferedReader;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Can help tell the category for a SOFA type; or tell the SOFA type for a category (or, here GFF3 data type).
  *
+ * Each SOFA term has a dense integer code, which the reader stamps onto every model it makes (see
+ * Gff3GenericModel.getTypeCode()).  Every code carries a bitset of the codes of all it is_a, itself
+ * included, so that telling whether a type is, say, some kind of transcript is one bit test:
+ *
+ * <pre>
+ *     int transcript = SofaTypes.codeOf( "transcript" );
+ *     if ( SofaTypes.isA( model.getTypeCode(), transcript ) ) ...
+ * </pre>
+ *
+ * The terms are read once, from SOFA.txt, when first needed.  That file holds every SOFA term with all
+ * its is_a parents.  The copy shipped was transcribed by hand; the build's sofaTable task writes it
+ * afresh from sofa.obo, and should be run to replace it.  A type may also be
+ * given by accession, or by an exact synonym or INSDC feature key, as "misc_feature" for region.
+ *
  * @author Leslie L Foster
  */
 public class SofaTypes {
+	/** Code of a type not among the SOFA terms. */
+	public static final int UNKNOWN_CODE = -1;
+
 	private static final String MAPPING_FILE_NAME = "SOFA.txt";
-	
-	private Map<String,String> sofaToCategory;
-	private Map<String,String> categoryToSofa;
-	
+	private static final String NO_PARENTS = "-";
+
 	public SofaTypes() throws Exception {
-		init();
+		Table.get();
 	}
 	
 	public boolean isSofa( String type ) {
-		return categoryToSofa.containsKey( type );
+		return Table.get().findName( type ) != StringPool.NULL_CODE;
 	}
 	
 	public String getCategoryForSofa( String type ) {
-		return categoryToSofa.get( type );
+		int code = Table.get().findName( type );
+		return code == StringPool.NULL_CODE ? null : accessionOf( code );
 	}
 	
 	public String getSofaForCategory( String sofa ) {
-		return sofaToCategory.get( sofa );
+		int code = Table.get().accessions.findCode( sofa );
+		return code == StringPool.NULL_CODE ? null : nameOf( code );
 	}
-	
-	private void init() throws Exception {
-		sofaToCategory = new HashMap<String,String>();
-		categoryToSofa = new HashMap<String,String>();
-		
-		InputStream is = this.getClass().getResourceAsStream( getMappingLocation() );
-		BufferedReader br = new BufferedReader( new InputStreamReader( is ) );
-		String inline = null;
-		
-		while( null != ( inline = br.readLine() )) {
-			if ( inline.startsWith( "#" ) ) {
-				continue;
-			}
-			
-			int firstSpacePos = inline.indexOf( ' ' );
-			String sofaId = inline.substring( 0, firstSpacePos );
-			String category = inline.substring( firstSpacePos + 1 );
-			
-			sofaToCategory.put( sofaId, category );
-			categoryToSofa.put( category, sofaId );
+
+	/**
+	 * Code of a SOFA term.
+	 *
+	 * @param type name, as "mRNA", synonym, as "misc_RNA", or accession, as "SO:0000234".
+	 * @return code, or UNKNOWN_CODE.
+	 */
+	public static int codeOf( String type ) {
+		if ( type == null ) {
+			return UNKNOWN_CODE;
 		}
+		Table table = Table.get();
+		int code = table.findName( type );
+		if ( code == StringPool.NULL_CODE ) {
+			code = table.accessions.findCode( type );
+		}
+		return code == StringPool.NULL_CODE ? UNKNOWN_CODE : code;
+	}
 
-		br.close();
+	/** Number of terms, all of whose codes are below it. */
+	public static int termCount() {
+		return Table.get().names.size();
 	}
-	
-	private String getMappingLocation() {
-		String thisPackageName = getClass().getPackage().getName();
-		thisPackageName = thisPackageName.replaceAll( "[.]", "/" );
-		return thisPackageName + "/" + MAPPING_FILE_NAME;
+
+	public static String nameOf( int code ) {
+		return Table.get().names.stringAt( code );
+	}
+
+	public static String accessionOf( int code ) {
+		return Table.get().accessions.stringAt( code );
+	}
+
+	/**
+	 * Tells if a term is the other, or one of its descendants.
+	 *
+	 * @return false if either is UNKNOWN_CODE, or any other code not of a term.
+	 */
+	public static boolean isA( int code, int ancestorCode ) {
+		long[][] ancestry = Table.get().ancestry;
+		if ( code < 0  ||  ancestorCode < 0  ||  code >= ancestry.length  ||  ancestorCode >= ancestry.length ) {
+			return false;
+		}
+		return ( ancestry[ code ][ ancestorCode >>> 6 ] & ( 1L << ancestorCode ) ) != 0;
+	}
+
+	/** As isA for codes, taking names or accessions. */
+	public static boolean isA( String type, String ancestorType ) {
+		return isA( codeOf( type ), codeOf( ancestorType ) );
+	}
+
+	/** The terms, read on first use by any thread. */
+	private static final class Table {
+		private static final Table INSTANCE = load();
+
+		private final StringPool names = new StringPool();
+		private final StringPool accessions = new StringPool();
+		private final StringPool synonyms = new StringPool();
+		private final List<Integer> synonymCodes = new ArrayList<>();    // Term code of each synonym's code.
+		private long[][] ancestry;
+
+		static Table get() {
+			return INSTANCE;
+		}
+
+		private static Table load() {
+			Table table = new Table();
+			List<String[]> parentAccessions = new ArrayList<>();
+			try ( InputStream is = SofaTypes.class.getResourceAsStream( MAPPING_FILE_NAME ) ) {
+				if ( is == null ) {
+					throw new IOException( "No resource " + MAPPING_FILE_NAME );
+				}
+				BufferedReader br = new BufferedReader( new InputStreamReader( is, StandardCharsets.UTF_8 ) );
+				String inline;
+				while ( null != ( inline = br.readLine() ) ) {
+					if ( inline.startsWith( "#" )  ||  inline.trim().isEmpty() ) {
+						continue;
+					}
+					String[] fields = inline.split( "\t" );
+					// Names and accessions are added in step, so a term has the same code in both pools.
+					table.accessions.codeOf( fields[ 0 ] );
+					table.names.codeOf( fields[ 1 ] );
+					parentAccessions.add( fields.length < 3  ||  NO_PARENTS.equals( fields[ 2 ] ) ? new String[ 0 ] : fields[ 2 ].split( "," ) );
+					if ( fields.length > 3 ) {
+						for ( String synonym: fields[ 3 ].split( "," ) ) {
+							if ( table.synonyms.findCode( synonym ) == StringPool.NULL_CODE ) {
+								table.synonyms.codeOf( synonym );
+								table.synonymCodes.add( parentAccessions.size() - 1 );
+							}
+						}
+					}
+				}
+			} catch ( IOException ioe ) {
+				throw new RuntimeException( "Failed to read file " + MAPPING_FILE_NAME, ioe );
+			}
+
+			int count = parentAccessions.size();
+			int[][] parents = new int[ count ][];
+			for ( int code = 0; code < count; code++ ) {
+				String[] accessions = parentAccessions.get( code );
+				parents[ code ] = new int[ accessions.length ];
+				for ( int i = 0; i < accessions.length; i++ ) {
+					parents[ code ][ i ] = table.accessions.findCode( accessions[ i ] );
+					if ( parents[ code ][ i ] == StringPool.NULL_CODE ) {
+						throw new IllegalStateException( "Parent " + accessions[ i ] + " of " + table.accessions.stringAt( code ) + " is not in " + MAPPING_FILE_NAME );
+					}
+				}
+			}
+			table.ancestry = new long[ count ][];
+			for ( int code = 0; code < count; code++ ) {
+				table.fillAncestry( code, parents, ( count + 63 ) >>> 6 );
+			}
+			return table;
+		}
+
+		/** Code of the term having this name or synonym, or StringPool.NULL_CODE. */
+		int findName( String type ) {
+			int code = names.findCode( type );
+			if ( code == StringPool.NULL_CODE ) {
+				int synonymCode = synonyms.findCode( type );
+				code = synonymCode == StringPool.NULL_CODE ? StringPool.NULL_CODE : synonymCodes.get( synonymCode );
+			}
+			return code;
+		}
+
+		/** A term's bits are its own, and those of each of its parents. */
+		private long[] fillAncestry( int code, int[][] parents, int words ) {
+			if ( ancestry[ code ] == null ) {
+				long[] bits = new long[ words ];
+				bits[ code >>> 6 ] |= 1L << code;
+				for ( int parent: parents[ code ] ) {
+					long[] parentBits = fillAncestry( parent, parents, words );
+					for ( int i = 0; i < words; i++ ) {
+						bits[ i ] |= parentBits[ i ];
+					}
+				}
+				ancestry[ code ] = bits;
+			}
+			return ancestry[ code ];
+		}
 	}
 }
@@ -0,0 +1,248 @@
+/**
+ *   Copyright Leslie L. Foster, 2011.
+ *
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation; version 2.1 of the License.
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation, Inc.
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+package oss.model.builder.gff3;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Dictionary of distinct strings, each given a small dense integer code in order of first appearance.
+ * Holding the code in place of the string lets many features share one copy of repeated text.
+ *
+ * Not thread-safe: confine a pool to one thread while it is being added to.
+ */
+public class StringPool {
+	/** Code standing for a null string. */
+	public static final int NULL_CODE = -1;
+
+	private static final int INITIAL_CAPACITY = 256;
+
+	private String[] strings;
+	private int[] hashes;
+	private int size;
+	private int[] slots;   // Open-addressed; holds code + 1, so that 0 marks an empty slot.
+
+	// Pools read back from a snapshot decode their strings only when first needed.
+	private ByteBuffer encoded;
+	private int[] encodedPositions;
+
+	public StringPool() {
+		strings = new String[ INITIAL_CAPACITY ];
+		hashes = new int[ INITIAL_CAPACITY ];
+		slots = new int[ INITIAL_CAPACITY * 2 ];
+	}
+
+	/**
+	 * Code for the string, adding it to the pool if not already present.
+	 *
+	 * @return code, or NULL_CODE for null.
+	 */
+	public int codeOf( String value ) {
+		if ( value == null ) {
+			return NULL_CODE;
+		}
+		int hash = value.hashCode();
+		int mask = slots.length - 1;
+		int slot = mix( hash ) & mask;
+		int entry;
+		while ( 0 != ( entry = slots[ slot ] ) ) {
+			int code = entry - 1;
+			if ( hashes[ code ] == hash  &&  string( code ).equals( value ) ) {
+				return code;
+			}
+			slot = ( slot + 1 ) & mask;
+		}
+		return add( value, hash, slot );
+	}
+
+	/** @return code of the string if present, else NULL_CODE. */
+	public int findCode( String value ) {
+		if ( value == null ) {
+			return NULL_CODE;
+		}
+		int hash = value.hashCode();
+		int mask = slots.length - 1;
+		int slot = mix( hash ) & mask;
+		int entry;
+		while ( 0 != ( entry = slots[ slot ] ) ) {
+			int code = entry - 1;
+			if ( hashes[ code ] == hash  &&  string( code ).equals( value ) ) {
+				return code;
+			}
+			slot = ( slot + 1 ) & mask;
+		}
+		return NULL_CODE;
+	}
+
+	/** The pool's own copy of the string, so that equal strings become the same instance. */
+	public String intern( String value ) {
+		return value == null ? null : string( codeOf( value ) );
+	}
+
+	/**
+	 * The pool's copy of the UTF-8 text in the range, adding it if not already present.  When the text
+	 * is ASCII and already pooled, as repeated column values nearly always are, no String is made.
+	 */
+	public String intern( byte[] buf, int from, int to ) {
+		int hash = 0;
+		for ( int i = from; i < to; i++ ) {
+			byte b = buf[ i ];
+			if ( b < 0 ) {
+				return intern( new String( buf, from, to - from, StandardCharsets.UTF_8 ) );
+			}
+			hash = 31 * hash + b;    // As String.hashCode() would have it, for ASCII.
+		}
+		int mask = slots.length - 1;
+		int slot = mix( hash ) & mask;
+		int entry;
+		while ( 0 != ( entry = slots[ slot ] ) ) {
+			int code = entry - 1;
+			if ( hashes[ code ] == hash  &&  spells( string( code ), buf, from, to ) ) {
+				return string( code );
+			}
+			slot = ( slot + 1 ) & mask;
+		}
+		String value = new String( buf, from, to - from, StandardCharsets.US_ASCII );
+		return string( add( value, hash, slot ) );
+	}
+
+	/** @return string for the code, or null for NULL_CODE. */
+	public String stringAt( int code ) {
+		if ( code == NULL_CODE ) {
+			return null;
+		}
+		if ( code < 0  ||  code >= size ) {
+			throw new IndexOutOfBoundsException( "No string with code " + code );
+		}
+		return string( code );
+	}
+
+	/** Number of distinct strings held. */
+	public int size() { return size; }
+
+	/**
+	 * Write the pool: its size, the hash of each string, then each string as a byte count and UTF-8 bytes.
+	 * Codes are kept, so that anything holding them stays valid when read back.
+	 */
+	void writeTo( DataOutputStream out ) throws IOException {
+		out.writeInt( size );
+		for ( int code = 0; code < size; code++ ) {
+			out.writeInt( hashes[ code ] );
+		}
+		for ( int code = 0; code < size; code++ ) {
+			byte[] bytes = string( code ).getBytes( StandardCharsets.UTF_8 );
+			out.writeInt( bytes.length );
+			out.write( bytes );
+		}
+	}
+
+	/**
+	 * Read back a pool written by writeTo, leaving the buffer positioned just after it.  Strings are
+	 * decoded from the buffer only as they are asked for, so the buffer must stay valid for the pool's life.
+	 */
+	static StringPool readFrom( ByteBuffer in ) {
+		int count = in.getInt();
+		StringPool pool = new StringPool();
+		int capacity = Math.max( INITIAL_CAPACITY, Integer.highestOneBit( Math.max( count, 1 ) ) * 2 );
+		pool.strings = new String[ capacity ];
+		pool.hashes = new int[ capacity ];
+		in.asIntBuffer().get( pool.hashes, 0, count );
+		in.position( in.position() + count * 4 );
+		pool.encoded = in.duplicate();
+		pool.encodedPositions = new int[ count ];
+		for ( int code = 0; code < count; code++ ) {
+			pool.encodedPositions[ code ] = in.position();
+			in.position( in.position() + 4 + in.getInt( in.position() ) );
+		}
+		pool.size = count;
+		pool.slots = new int[ capacity * 2 ];
+		pool.rehash();
+		return pool;
+	}
+
+	/** String of a known code, decoding it if read back and not yet asked for. */
+	private String string( int code ) {
+		String value = strings[ code ];
+		if ( value == null ) {
+			// Racing threads may both decode; either result is a correct, immutable String.
+			int position = encodedPositions[ code ];
+			int length = encoded.getInt( position );
+			byte[] bytes = new byte[ length ];
+			ByteBuffer source = encoded.duplicate();
+			source.position( position + 4 );
+			source.get( bytes );
+			value = new String( bytes, StandardCharsets.UTF_8 );
+			strings[ code ] = value;
+		}
+		return value;
+	}
+
+	private int add( String value, int hash, int slot ) {
+		if ( size == strings.length ) {
+			strings = Arrays.copyOf( strings, size * 2 );
+			hashes = Arrays.copyOf( hashes, size * 2 );
+		}
+		int code = size++;
+		strings[ code ] = value;
+		hashes[ code ] = hash;
+		slots[ slot ] = code + 1;
+		if ( size * 2 > slots.length ) {
+			grow();
+		}
+		return code;
+	}
+
+	/** Keep the table no more than half full. */
+	private void grow() {
+		slots = new int[ slots.length * 2 ];
+		rehash();
+	}
+
+	/** Place every code into the slot table. */
+	private void rehash() {
+		int mask = slots.length - 1;
+		for ( int code = 0; code < size; code++ ) {
+			int slot = mix( hashes[ code ] ) & mask;
+			while ( slots[ slot ] != 0 ) {
+				slot = ( slot + 1 ) & mask;
+			}
+			slots[ slot ] = code + 1;
+		}
+	}
+
+	private static boolean spells( String value, byte[] buf, int from, int to ) {
+		if ( value.length() != to - from ) {
+			return false;
+		}
+		for ( int i = 0; i < value.length(); i++ ) {
+			if ( value.charAt( i ) != buf[ from + i ] ) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/** Spread String hash bits, which cluster for similar short strings. */
+	static int mix( int hash ) {
+		hash *= 0x9E3779B9;
+		return hash ^ ( hash >>> 16 );
+	}
+}
@@ -0,0 +1,270 @@
+/**
+ *   Copyright Leslie L. Foster, 2011.
+ *
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation; version 2.1 of the License.
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation, Inc.
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+package common.input.gff3;
+
+import org.junit.Test;
+import oss.model.builder.gff3.AxisCache;
+import oss.model.builder.gff3.Gff3DataAssembler;
+import oss.model.builder.gff3.Gff3GenericModel;
+import oss.model.builder.gff3.ModelGraph;
+import oss.model.builder.gff3.ModelTreeNode;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AxisCacheTest {
+	private static String TEST_FILE_3 = "/scerevisiae_regulatory.gff";
+
+	@Test
+	public void concurrentMissesAssembleOnce() {
+		ExecutorService executor = Executors.newFixedThreadPool( 4 );
+		try {
+			String source = TestUtils.resolveToPath(TEST_FILE_3);
+			AtomicInteger assemblies = new AtomicInteger();
+			CountDownLatch start = new CountDownLatch( 1 );
+			AxisCache cache = new AxisCache( Long.MAX_VALUE );
+			cache.setAssemblerFactory( inputfile -> {
+				assemblies.incrementAndGet();
+				return new Gff3DataAssembler( inputfile );
+			} );
+			List<Future<List<ModelTreeNode>>> requests = new ArrayList<>();
+			for ( int i = 0; i < 8; i++ ) {
+				requests.add( executor.submit( () -> {
+					start.await();
+					return cache.get( source, "chrIV" );
+				} ) );
+			}
+			start.countDown();
+			List<ModelTreeNode> first = requests.get( 0 ).get();
+			for ( Future<List<ModelTreeNode>> request: requests ) {
+				assertSame( first, request.get() );
+			}
+			assertEquals( "Assemblies", 1, assemblies.get() );
+			assertEquals( "Misses", 1, cache.stats().getMisses() );
+			assertEquals( "Hits", 7, cache.stats().getHits() );
+
+			Gff3DataAssembler assembler = new Gff3DataAssembler( source );
+			assembler.prepareModels( "chrIV" );
+			assertEquals( modelsOf( assembler.getTopLevelFeatures() ), modelsOf( first ) );
+		} catch ( Exception ex ) {
+			ex.printStackTrace();
+			fail(ex.getMessage());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void leastRecentlyUsedGoFirst() {
+		try {
+			String source = TestUtils.resolveToPath(TEST_FILE_3);
+			AxisCache sizing = new AxisCache( Long.MAX_VALUE );
+			sizing.get( source, "chrV" );
+			sizing.get( source, "chrVII" );
+			long budget = sizing.stats().getWeightedBytes();
+
+			// chrI is small: adding it puts the cache over by less than chrVII takes, but more than chrV.
+			AxisCache cache = new AxisCache( budget );
+			cache.get( source, "chrV" );
+			cache.get( source, "chrVII" );
+			cache.get( source, "chrV" );     // chrVII is now least recently used.
+			cache.get( source, "chrI" );
+			assertNull( "chrVII kept", cache.getIfPresent( source, "chrVII" ) );
+			if ( cache.getIfPresent( source, "chrV" ) == null  ||  cache.getIfPresent( source, "chrI" ) == null )
+				fail("Recently used axis evicted: " + cache.stats());
+			assertEquals( "Evictions", 1, cache.stats().getEvictions() );
+			if ( cache.stats().getWeightedBytes() > budget )
+				fail("Over budget: " + cache.stats());
+			cache.invalidateFile( source );
+			assertEquals( 0, cache.stats().getWeightedBytes() );
+		} catch ( Exception ex ) {
+			ex.printStackTrace();
+			fail(ex.getMessage());
+		}
+	}
+
+	@Test
+	public void graphWalksAsTheNodesDo() {
+		try {
+			String source = TestUtils.resolveToPath(TEST_FILE_3);
+			AxisCache cache = new AxisCache( Long.MAX_VALUE );
+			ModelGraph graph = cache.getGraph( source, "chrIV" );
+			assertSame( graph.getTopLevelFeatures(), cache.get( source, "chrIV" ) );
+
+			Gff3DataAssembler assembler = new Gff3DataAssembler( source );
+			assembler.prepareModels( "chrIV" );
+			List<Gff3GenericModel> expected = new ArrayList<>();
+			for ( ModelTreeNode node: assembler.getTopLevelFeatures() ) {
+				addDepthFirst( node, expected );
+			}
+			List<Gff3GenericModel> walked = new ArrayList<>();
+			graph.walkAll( ( feature, depth ) -> walked.add( graph.getModel( feature ) ) );
+			assertEquals( expected, walked );
+			List<Gff3GenericModel> viaNodes = new ArrayList<>();
+			for ( ModelTreeNode node: graph.getTopLevelFeatures() ) {
+				addDepthFirst( node, viaNodes );
+			}
+			assertEquals( expected, viaNodes );
+
+			for ( int feature = 0; feature < graph.size(); feature++ ) {
+				ModelTreeNode node = graph.getNode( feature );
+				assertSame( node, graph.getNode( feature ) );
+				assertTrue( node.isFrozen() );
+				for ( int n = 0; n < graph.getChildCount( feature ); n++ ) {
+					ModelTreeNode child = node.getChildren().get( n );
+					assertSame( graph.getNode( graph.getChild( feature, n ) ), child );
+					assertTrue( "Child knows parent", child.getParents().contains( node ) );
+				}
+				if ( graph.getId( feature ) != null ) {
+					assertEquals( graph.getId( feature ), graph.getId( graph.indexOf( graph.getId( feature ) ) ) );
+				}
+			}
+			assertEquals( -1, graph.indexOf( "no such feature" ) );
+		} catch ( Exception ex ) {
+			ex.printStackTrace();
+			fail(ex.getMessage());
+		}
+	}
+
+	@Test
+	public void orphansKeptUnderPlaceholders() {
+		try {
+			File input = File.createTempFile( "orphans", ".gff" );
+			input.deleteOnExit();
+			try ( FileWriter writer = new FileWriter( input ) ) {
+				writer.write( "c1\tt\tgene\t1\t90\t.\t+\t.\tID=g\n" );
+				writer.write( "c1\tt\texon\t1\t20\t.\t+\t.\tID=e;Parent=missing\n" );
+			}
+			AxisCache cache = new AxisCache( Long.MAX_VALUE );
+			cache.getGraph( input.getAbsolutePath(), "c1" );
+			ModelGraph graph = cache.getGraph( input.getAbsolutePath(), "c1" );
+			assertEquals( "Hits", 1, cache.stats().getHits() );
+			assertEquals( 3, graph.size() );
+			assertEquals( 1, graph.getTopLevelFeatures().size() );
+			assertEquals( 1, graph.getPlaceholderRoots().size() );
+			ModelTreeNode placeholder = graph.getPlaceholderRoots().get( 0 );
+			assertEquals( "missing", placeholder.getId() );
+			assertNull( placeholder.getModel() );
+			ModelTreeNode orphan = placeholder.getChildren().get( 0 );
+			assertEquals( "e", orphan.getModel().getId() );
+			assertSame( orphan, graph.getNode( graph.indexOf( "e" ) ) );
+		} catch ( Exception ex ) {
+			ex.printStackTrace();
+			fail(ex.getMessage());
+		}
+	}
+
+	@Test
+	public void graphParentsAsTheNodesHave() {
+		try {
+			// Gene b is not among the roots given, but is a parent of t.
+			ModelTreeNode a = node( "a" );
+			ModelTreeNode b = node( "b" );
+			ModelTreeNode t = node( "t" );
+			ModelTreeNode e = node( "e" );
+			a.addChild( t );
+			b.addChild( t );
+			b.addChild( e );
+			t.setParents( new ModelTreeNode[] { a, b } );
+			e.setParents( new ModelTreeNode[] { b } );
+			ModelGraph graph = new ModelGraph( Arrays.asList( a ) );
+			assertEquals( 4, graph.size() );
+			assertEquals( 1, graph.getTopLevelFeatures().size() );
+
+			ModelTreeNode copied = graph.getNode( graph.indexOf( "t" ) );
+			assertEquals( 2, copied.getParents().size() );
+			assertEquals( "a", copied.getParents().get( 0 ).getId() );
+			assertEquals( "b", copied.getParents().get( 1 ).getId() );
+			ModelTreeNode copiedB = graph.getNode( graph.indexOf( "b" ) );
+			assertNull( copiedB.getParents() );
+			assertEquals( 2, copiedB.getChildren().size() );
+			assertSame( copied, copiedB.getChildren().get( 0 ) );
+			assertSame( copiedB, graph.getNode( graph.indexOf( "e" ) ).getParents().get( 0 ) );
+		} catch ( Exception ex ) {
+			ex.printStackTrace();
+			fail(ex.getMessage());
+		}
+	}
+
+	@Test
+	public void graphKeepsEveryAssembledParent() {
+		try {
+			File input = File.createTempFile( "multiParent", ".gff" );
+			input.deleteOnExit();
+			try ( FileWriter writer = new FileWriter( input ) ) {
+				writer.write( "c1\tt\tgene\t1\t90\t.\t+\t.\tID=g\n" );
+				writer.write( "c1\tt\tmRNA\t1\t90\t.\t+\t.\tID=m1;Parent=g\n" );
+				writer.write( "c1\tt\tmRNA\t1\t90\t.\t+\t.\tID=m2;Parent=g\n" );
+				writer.write( "c1\tt\texon\t1\t20\t.\t+\t.\tID=e;Parent=m1,m2\n" );
+			}
+			Gff3DataAssembler assembler = new Gff3DataAssembler( input.getAbsolutePath() );
+			assembler.setMultiParentedFeaturesAcceptable( true );
+			ModelGraph graph = new ModelGraph( assembler.assembleAll().getTopLevelFeatures( "c1" ) );
+			assertEquals( 4, graph.size() );
+			int exon = graph.indexOf( "e" );
+			assertEquals( 2, graph.getParentCount( exon ) );
+			assertEquals( "m1", graph.getId( graph.getParent( exon, 0 ) ) );
+			assertEquals( "m2", graph.getId( graph.getParent( exon, 1 ) ) );
+			assertEquals( 2, graph.getNode( exon ).getParents().size() );
+		} catch ( Exception ex ) {
+			ex.printStackTrace();
+			fail(ex.getMessage());
+		}
+	}
+
+	private static ModelTreeNode node( String id ) {
+		Gff3GenericModel model = new Gff3GenericModel();
+		model.setLandmarkId( "c1" );
+		model.setType( "gene" );
+		model.setStart( 1 );
+		model.setEnd( 10 );
+		model.setId( id );
+		return new ModelTreeNode( model );
+	}
+
+	private void addDepthFirst( ModelTreeNode node, List<Gff3GenericModel> models ) {
+		models.add( node.getModel() );
+		if ( node.getChildren() != null ) {
+			for ( ModelTreeNode child: node.getChildren() ) {
+				addDepthFirst( child, models );
+			}
+		}
+	}
+
+	private List<Gff3GenericModel> modelsOf( List<ModelTreeNode> nodes ) {
+		List<Gff3GenericModel> models = new ArrayList<>();
+		for ( ModelTreeNode node: nodes ) {
+			models.add( node.getModel() );
+		}
+		return models;
+	}
+}
@@ -0,0 +1,98 @@
+/**
+ *   Copyright Leslie L. Foster, 2011.
+ *
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation; version 2.1 of the License.
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation, Inc.
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+package common.input.gff3;
+
+import org.junit.Test;
+import oss.model.builder.gff3.AssembledModels;
+import oss.model.builder.gff3.Gff3AsyncLoader;
+import oss.model.builder.gff3.Gff3DataAssembler;
+import oss.model.builder.gff3.Gff3GenericModel;
+import oss.model.builder.gff3.ModelTreeNode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class Gff3AsyncLoaderTest {
+	private static String TEST_FILE_2 = "/discoidium_chr_1.gff";
+	private static String TEST_FILE_3 = "/scerevisiae_regulatory.gff";
+
+	@Test
+	public void viewedLandmarkGoesFirst() {
+		try ( Gff3AsyncLoader loader = new Gff3AsyncLoader( 1 ) ) {
+			String file2 = TestUtils.resolveToPath(TEST_FILE_2);
+			String file3 = TestUtils.resolveToPath(TEST_FILE_3);
+
+			// Hold the only thread, so that all else queues behind it.
+			CountDownLatch release = new CountDownLatch( 1 );
+			AtomicBoolean held = new AtomicBoolean();
+			loader.setAssemblerFactory( inputfile -> {
+				if ( held.compareAndSet( false, true ) ) {
+					try {
+						release.await();
+					} catch ( InterruptedException ie ) {
+						throw new RuntimeException( ie );
+					}
+				}
+				return new Gff3DataAssembler( inputfile );
+			} );
+			CompletableFuture<AssembledModels> blocker = loader.loadFile( file2, Gff3AsyncLoader.PRIORITY_BACKGROUND );
+			while ( ! held.get() ) {
+				Thread.sleep( 1 );
+			}
+
+			List<String> finished = Collections.synchronizedList( new ArrayList<String>() );
+			CompletableFuture<Map<String,AssembledModels>> all = loader.loadAll( Arrays.asList( file3 ), Gff3AsyncLoader.PRIORITY_BACKGROUND );
+			all.thenRun( () -> finished.add( "all" ) );
+			CompletableFuture<List<ModelTreeNode>> landmark = loader.loadLandmark( file3, "chrIV", Gff3AsyncLoader.PRIORITY_NORMAL );
+			landmark.thenRun( () -> finished.add( "chrIV" ) );
+			if ( loader.loadLandmark( file3, "chrIV", Gff3AsyncLoader.PRIORITY_VIEWING ) != landmark )
+				fail("Repeated request was not shared.");
+			release.countDown();
+
+			Map<String,AssembledModels> fileVsModels = all.get( 60, TimeUnit.SECONDS );
+			blocker.get( 60, TimeUnit.SECONDS );
+			assertEquals( Arrays.asList( "chrIV", "all" ), finished );
+			assertEquals( modelsOf( fileVsModels.get( file3 ).getTopLevelFeatures( "chrIV" ) ), modelsOf( landmark.get() ) );
+
+			Gff3DataAssembler assembler = new Gff3DataAssembler( file3 );
+			assembler.prepareModels( "chrIV" );
+			assertEquals( modelsOf( assembler.getTopLevelFeatures() ), modelsOf( landmark.get() ) );
+		} catch ( Exception ex ) {
+			ex.printStackTrace();
+			fail(ex.getMessage());
+		}
+	}
+
+	private List<Gff3GenericModel> modelsOf( List<ModelTreeNode> nodes ) {
+		List<Gff3GenericModel> models = new ArrayList<>();
+		for ( ModelTreeNode node: nodes ) {
+			models.add( node.getModel() );
+		}
+		return models;
+	}
+}
@@ -18,17 +18,39 @@
 package common.input.gff3;
 
 import org.junit.Test;
+import oss.model.builder.gff3.AssembledModels;
+import oss.model.builder.gff3.AssembledModelsHolder;
+import oss.model.builder.gff3.FeatureRangeIndex;
 import oss.model.builder.gff3.Gff3DataAssembler;
 import oss.model.builder.gff3.Gff3GenericModel;
+import oss.model.builder.gff3.Gff3LineReader;
+import oss.model.builder.gff3.Gff3Metrics;
+import oss.model.builder.gff3.Gff3MetricsListener;
 import oss.model.builder.gff3.ModelTreeNode;
 
+import java.io.File;
+import java.io.FileWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.management.ObjectName;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.fail;
 
 public class Gff3DataAssemblerTest {
 	private static String TEST_FILE = "/A_fumigatus_Af293.gff";
 	private static String TEST_FILE_2 = "/discoidium_chr_1.gff";
+	private static String TEST_FILE_3 = "/scerevisiae_regulatory.gff";
 	
 	@Test
 	public void digest() {
@@ -86,6 +108,613 @@ public class Gff3DataAssemblerTest {
 		}
 	}
 
+	@Test
+	public void singlePassAllAxes() {
+		try {
+			Gff3DataAssembler perAxis = new Gff3DataAssembler( TestUtils.resolveToPath(TEST_FILE_3) );
+			Gff3DataAssembler allAxes = new Gff3DataAssembler( TestUtils.resolveToPath(TEST_FILE_3) );
+			allAxes.prepareAllModels();
+
+			List<Gff3GenericModel> axisModels = perAxis.getAxisModels();
+			if ( axisModels.size() != allAxes.getAxisModels().size() )
+				fail("Single pass found " + allAxes.getAxisModels().size() + " axes; expected " + axisModels.size());
+
+			for ( Gff3GenericModel axis: axisModels ) {
+				perAxis.prepareModels( axis.getLandmarkId() );
+				List<ModelTreeNode> expected = perAxis.getTopLevelFeatures();
+				List<ModelTreeNode> actual = allAxes.getTopLevelFeatures( axis.getLandmarkId() );
+				if ( expected.size() != actual.size() )
+					fail("Top level feature counts differ for " + axis.getLandmarkId());
+				for ( int i = 0; i < expected.size(); i++ ) {
+					if ( ! expected.get( i ).getModel().equals( actual.get( i ).getModel() ) )
+						fail("Feature " + i + " differs for " + axis.getLandmarkId());
+				}
+			}
+
+		} catch ( Exception ex ) {
+			ex.printStackTrace();
+			fail(ex.getMessage());
+		}
+	}
+
+	@Test
+	public void rangeQueriesMatchScan() {
+		try {
+			Gff3DataAssembler assembler = new Gff3DataAssembler( TestUtils.resolveToPath(TEST_FILE_2) );
+			assembler.prepareModels( "DDB0232428" );
+			FeatureRangeIndex index = assembler.getRangeIndex();
+
+			List<Gff3GenericModel> allModels = new ArrayList<>();
+			collectModels( assembler.getTopLevelFeatures(), allModels );
+			Random random = new Random( 17 );
+			for ( int i = 0; i < 200; i++ ) {
+				int start = random.nextInt( 400000 );
+				int end = start + random.nextInt( i % 2 == 0 ? 100 : 20000 );
+				Set<Gff3GenericModel> expected = new HashSet<>();
+				for ( Gff3GenericModel model: allModels ) {
+					if ( model.getStart() <= end  &&  model.getEnd() >= start  &&  "exon".equals( model.getType() ) ) {
+						expected.add( model );
+					}
+				}
+				Set<Gff3GenericModel> actual = new HashSet<>();
+				for ( ModelTreeNode node: index.query( "DDB0232428", start, end, null, Collections.singleton( "exon" ) ) ) {
+					actual.add( node.getModel() );
+				}
+				assertEquals( "Query " + start + ".." + end, expected, actual );
+			}
+		} catch ( Exception ex ) {
+			ex.printStackTrace();
+			fail(ex.getMessage());
+		}
+	}
+
+	@Test
+	public void snapshotRoundTrip() {
+		try {
+			File dir = Files.createTempDirectory( "gff3snap" ).toFile();
+			File source = new File( dir, "input.gff" );
+			Files.copy( new File( TestUtils.resolveToPath(TEST_FILE_3) ).toPath(), source.toPath() );
+			File snapshotFile = new File( dir, "input.gff.snap" );
+
+			Gff3DataAssembler parsed = new Gff3DataAssembler( source.getAbsolutePath() );
+			parsed.setSnapshotFile( snapshotFile );
+			parsed.prepareAllModels();
+			if ( ! snapshotFile.isFile() )
+				fail("No snapshot written.");
+
+			Gff3DataAssembler loaded = new Gff3DataAssembler( source.getAbsolutePath() );
+			loaded.setSnapshotFile( snapshotFile );
+			loaded.prepareAllModels();
+			assertEquals( new ArrayList<>( parsed.getLandmarkIds() ), new ArrayList<>( loaded.getLandmarkIds() ) );
+			assertEquals( parsed.getAxisModels(), loaded.getAxisModels() );
+			for ( String landmarkId: parsed.getLandmarkIds() ) {
+				List<Gff3GenericModel> expected = new ArrayList<>();
+				collectModels( parsed.getTopLevelFeatures( landmarkId ), expected );
+				List<Gff3GenericModel> actual = new ArrayList<>();
+				collectModels( loaded.getTopLevelFeatures( landmarkId ), actual );
+				assertEquals( landmarkId, expected, actual );
+				for ( int i = 0; i < expected.size(); i++ ) {
+					assertEquals( expected.get( i ).getType(), actual.get( i ).getType() );
+					assertEquals( expected.get( i ).getStrand(), actual.get( i ).getStrand() );
+				}
+				assertEquals( parsed.getRangeIndex().size( landmarkId ), loaded.getRangeIndex().size( landmarkId ) );
+			}
+
+			// A changed source must be read again, not answered from the stale snapshot.
+			FileWriter writer = new FileWriter( source, true );
+			writer.write( "chrNew\tSGD\tchromosome\t1\t100\t.\t.\t.\tID=chrNew\n" );
+			writer.close();
+			Gff3DataAssembler reread = new Gff3DataAssembler( source.getAbsolutePath() );
+			reread.setSnapshotFile( snapshotFile );
+			reread.prepareAllModels();
+			if ( ! reread.getLandmarkIds().contains( "chrNew" ) )
+				fail("Stale snapshot was used.");
+		} catch ( Exception ex ) {
+			ex.printStackTrace();
+			fail(ex.getMessage());
+		}
+	}
+
+	@Test
+	public void indexedReadsMatchFullScan() {
+		try {
+			File dir = Files.createTempDirectory( "gff3index" ).toFile();
+			File source = new File( TestUtils.resolveToPath(TEST_FILE_3) );
+			File bgzf = new File( dir, "input.gff3.gz" );
+			TestUtils.writeBgzf( Files.readAllBytes( source.toPath() ), bgzf, 5000 );
+
+			for ( File input: new File[] { source, bgzf } ) {
+				Gff3DataAssembler scanning = new Gff3DataAssembler( input.getAbsolutePath() );
+				Gff3DataAssembler indexed = new Gff3DataAssembler( input.getAbsolutePath() );
+				indexed.setIndexFile( new File( dir, input.getName() + ".g3i" ) );
+				for ( Gff3GenericModel axis: scanning.getAxisModels() ) {
+					String axisId = axis.getLandmarkId();
+					scanning.prepareModels( axisId );
+					indexed.prepareModels( axisId );
+					assertModelsEqual( axisId, scanning.getTopLevelFeatures(), indexed.getTopLevelFeatures() );
+
+					scanning.prepareModels( axisId, 20000, 60000 );
+					indexed.prepareModels( axisId, 20000, 60000 );
+					assertModelsEqual( axisId + " region", scanning.getTopLevelFeatures(), indexed.getTopLevelFeatures() );
+				}
+			}
+			if ( ! new File( dir, "input.gff3.gz.g3i" ).isFile() )
+				fail("No index written.");
+		} catch ( Exception ex ) {
+			ex.printStackTrace();
+			fail(ex.getMessage());
+		}
+	}
+
+	@Test
+	public void metricsTellWhatWasDone() {
+		try {
+			File source = new File( TestUtils.resolveToPath(TEST_FILE_3) );
+			int lineCount = 0;
+			int commentCount = 0;
+			for ( String line: Files.readAllLines( source.toPath() ) ) {
+				if ( line.startsWith( "#" ) )
+					commentCount++;
+				else if ( ! line.isEmpty() )
+					lineCount++;
+			}
+
+			Gff3Metrics metrics = new Gff3Metrics();
+			ObjectName name = metrics.registerMBean( "metricsTellWhatWasDone" );
+			try {
+				Gff3DataAssembler assembler = new Gff3DataAssembler( source.getAbsolutePath() );
+				assembler.setMetricsListener( metrics );
+				assembler.prepareAllModels();
+				int nodeCount = 0;
+				for ( String landmarkId: assembler.getLandmarkIds() ) {
+					nodeCount += assembler.getRangeIndex().size( landmarkId );
+				}
+
+				Gff3Metrics.Snapshot snapshot = metrics.snapshot();
+				assertEquals( "Feature lines", lineCount, snapshot.getFeatureLines() );
+				assertEquals( "Comment lines", commentCount, snapshot.getCommentLines() );
+				assertEquals( "Bytes read", source.length(), snapshot.getBytesRead() );
+				assertEquals( "Peak nodes", nodeCount, snapshot.getPeakNodeCount() );
+				if ( snapshot.getNanos( Gff3MetricsListener.Phase.READ ) <= 0  ||  snapshot.getNanos( Gff3MetricsListener.Phase.ASSEMBLE ) <= 0 )
+					fail("Phases not timed: " + snapshot);
+				Object viaJmx = ManagementFactory.getPlatformMBeanServer().getAttribute( name, "FeatureLines" );
+				assertEquals( "Feature lines through JMX", Long.valueOf( lineCount ), viaJmx );
+			} finally {
+				Gff3Metrics.unregisterMBean( name );
+			}
+
+			// A reader closed early still tells what it read.
+			metrics.reset();
+			Gff3LineReader rdr = new Gff3LineReader( source );
+			rdr.setMetricsListener( metrics );
+			for ( int i = 0; i < 10; i++ ) {
+				rdr.nextLine();
+			}
+			rdr.close();
+			assertEquals( "Feature lines read before close", 10, metrics.getFeatureLines() );
+		} catch ( Exception ex ) {
+			ex.printStackTrace();
+			fail(ex.getMessage());
+		}
+	}
+
+	@Test
+	public void idsResolvedAcrossDuplicatesAndPlaceholders() {
+		try {
+			File source = File.createTempFile( "ids", ".gff" );
+			source.deleteOnExit();
+			StringBuilder text = new StringBuilder( "##gff-version 3\n" );
+			text.append( "c1\tt\texon\t1\t20\t.\t+\t.\tID=e1;Parent=m1\n" );      // Ahead of its parent.
+			text.append( "c1\tt\tmRNA\t1\t90\t.\t+\t.\tID=m1;Parent=g1\n" );
+			text.append( "c1\tt\tgene\t1\t90\t.\t+\t.\tID=g1\n" );
+			text.append( "c1\tt\tCDS\t5\t20\t.\t+\t0\tID=c1;Parent=m1\n" );
+			text.append( "c1\tt\tCDS\t30\t40\t.\t+\t2\tID=c1;Parent=m1\n" );
+			text.append( "c1\tt\tgene\t100\t200\t.\t+\t.\tID=g1\n" );
+			int generated = 5000;    // Enough to grow the lookup several times.
+			for ( int i = 0; i < generated; i++ ) {
+				text.append( "c1\tt\tgene\t" + ( 300 + i ) + "\t" + ( 400 + i ) + "\t.\t+\t.\tID=gen" + i + "\n" );
+			}
+			Files.write( source.toPath(), text.toString().getBytes( "UTF-8" ) );
+
+			AssembledModels models = new Gff3DataAssembler( source.getAbsolutePath() ).assembleAll();
+			ModelTreeNode mRna = models.getNode( "c1", "m1" );
+			assertEquals( "mRNA", mRna.getModel().getType() );
+			assertEquals( "Placeholder filled in", "g1", mRna.getParents().get( 0 ).getId() );
+			assertEquals( Integer.valueOf( 1 ), models.getNode( "c1", "g1" ).getModel().getStart() );
+			assertEquals( Integer.valueOf( 100 ), models.getNode( "c1", "g1:100:200" ).getModel().getStart() );
+			assertEquals( Integer.valueOf( 5 ), models.getNode( "c1", "c1" ).getModel().getStart() );
+			assertEquals( Integer.valueOf( 30 ), models.getNode( "c1", "c1:30:40" ).getModel().getStart() );
+			assertEquals( 3, mRna.getChildren().size() );
+			assertEquals( 2 + generated, models.getTopLevelFeatures( "c1" ).size() );
+			for ( int i = 0; i < generated; i++ ) {
+				assertEquals( Integer.valueOf( 300 + i ), models.getNode( "c1", "gen" + i ).getModel().getStart() );
+			}
+			assertEquals( null, models.getNode( "c1", "gen" + generated ) );
+		} catch ( Exception ex ) {
+			ex.printStackTrace();
+			fail(ex.getMessage());
+		}
+	}
+
+	@Test
+	public void batchResolutionLinksUnsortedInputAlike() {
+		try {
+			// Children ahead of their parents throughout.
+			List<String> lines = new ArrayList<>();
+			for ( String line: Files.readAllLines( new File( TestUtils.resolveToPath(TEST_FILE_2) ).toPath() ) ) {
+				if ( ! line.startsWith( "#" ) )
+					lines.add( line );
+			}
+			Collections.reverse( lines );
+			lines.add( "DDB0232428\tt\tmRNA\t1\t90\t.\t+\t.\tID=orphan;Parent=missing" );
+			lines.add( "DDB0232428\tt\tmRNA\t1\t90\t.\t+\t.\tID=m2;Parent=a,b" );
+			File unsorted = File.createTempFile( "unsorted", ".gff" );
+			unsorted.deleteOnExit();
+			writeLines( unsorted, lines, false );
+
+			Gff3Metrics immediateMetrics = new Gff3Metrics();
+			Gff3DataAssembler immediate = new Gff3DataAssembler( unsorted.getAbsolutePath() );
+			immediate.setMetricsListener( immediateMetrics );
+			immediate.prepareAllModels();
+			Gff3Metrics batchMetrics = new Gff3Metrics();
+			Gff3DataAssembler batch = new Gff3DataAssembler( unsorted.getAbsolutePath() );
+			batch.setBatchParentResolution( true );
+			batch.setMetricsListener( batchMetrics );
+			batch.prepareAllModels();
+
+			assertEquals( immediate.getLandmarkIds(), batch.getLandmarkIds() );
+			for ( String landmarkId: immediate.getLandmarkIds() ) {
+				assertModelsEqual( landmarkId, immediate.getTopLevelFeatures( landmarkId ), batch.getTopLevelFeatures( landmarkId ) );
+				assertEquals( immediate.getRangeIndex().size( landmarkId ), batch.getRangeIndex().size( landmarkId ) );
+			}
+			if ( immediateMetrics.getPlaceholdersCreated() < 100 )
+				fail("Input not unsorted enough: " + immediateMetrics.getPlaceholdersCreated() + " placeholders");
+			assertEquals( "Placeholders only for parents never seen", 1, batchMetrics.getPlaceholdersCreated() );
+			assertEquals( "Multi-parented rejected", 1, batchMetrics.getModelsRejected() );
+			assertEquals( immediateMetrics.getModelsRejected(), batchMetrics.getModelsRejected() );
+
+			batch.prepareModels( "DDB0232428", 1, 1000000 );
+			immediate.prepareModels( "DDB0232428", 1, 1000000 );
+			assertModelsEqual( "Region", immediate.getTopLevelFeatures(), batch.getTopLevelFeatures() );
+		} catch ( Exception ex ) {
+			ex.printStackTrace();
+			fail(ex.getMessage());
+		}
+	}
+
+	@Test
+	public void rejectedModelsLeaveTreesAlike() {
+		try {
+			List<String> lines = new ArrayList<>();
+			lines.add( "c1\tt\texon\t1\t20\t.\t+\t.\tID=kid;Parent=p" );     // Ahead of a parent to be rejected.
+			lines.add( "c1\tt\tmRNA\t1\t90\t.\t+\t.\tID=p;Parent=a,b" );      // Multi-parented, so rejected.
+			lines.add( "c1\tt\tgene\t1\t90\t.\t+\t.\tID=g" );
+			lines.add( "c1\tt\tgene\t1\t90\t.\t+\t.\tID=g" );                 // Renamed g:1:90.
+			lines.add( "c1\tt\tgene\t1\t90\t.\t+\t.\tID=g" );                 // Clashes even renamed, so rejected.
+			lines.add( "c1\tt\tmRNA\t1\t90\t.\t+\t.\tID=m;Parent=g:1:90" );
+			File input = File.createTempFile( "rejects", ".gff" );
+			input.deleteOnExit();
+			writeLines( input, lines, false );
+
+			List<String> trees = new ArrayList<>();
+			for ( boolean batchParentResolution: new boolean[] { false, true } ) {
+				Gff3Metrics metrics = new Gff3Metrics();
+				Gff3DataAssembler assembler = new Gff3DataAssembler( input.getAbsolutePath() );
+				assembler.setBatchParentResolution( batchParentResolution );
+				assembler.setMetricsListener( metrics );
+				AssembledModels models = assembler.assembleAll();
+				assertEquals( 2, metrics.getModelsRejected() );
+
+				StringBuilder tree = new StringBuilder();
+				List<ModelTreeNode> roots = new ArrayList<>( models.getTopLevelFeatures( "c1" ) );
+				roots.addAll( models.getPlaceholderRoots( "c1" ) );
+				for ( ModelTreeNode root: roots ) {
+					describe( root, tree );
+				}
+				trees.add( tree.toString() );
+			}
+			assertEquals( "g[] g:1:90[m[] ] p?[kid[] ]", trees.get( 0 ).trim() );
+			assertEquals( "Batch as immediate", trees.get( 0 ), trees.get( 1 ) );
+		} catch ( Exception ex ) {
+			ex.printStackTrace();
+			fail(ex.getMessage());
+		}
+	}
+
+	@Test
+	public void badEscapeFailsTheRead() {
+		try {
+			List<String> lines = new ArrayList<>();
+			lines.add( "c1\tt\tgene\t1\t90\t.\t+\t.\tID=g;Note=50%25 of reads" );
+			lines.add( "c1\tt\tmRNA\t1\t90\t.\t+\t.\tID=m;Parent=g;Note=bad %zz escape" );
+			File dir = Files.createTempDirectory( "gff3snap" ).toFile();
+			File input = new File( dir, "input.gff" );
+			writeLines( input, lines, false );
+			File snapshotFile = new File( dir, "input.gff.snap" );
+
+			Gff3DataAssembler assembler = new Gff3DataAssembler( input.getAbsolutePath() );
+			assembler.setSnapshotFile( snapshotFile );
+			try {
+				assembler.prepareAllModels();
+				fail("Bad escape was not found while reading.");
+			} catch ( RuntimeException expected ) {
+				assertEquals( "Failed to read file " + input.getAbsolutePath(), expected.getMessage() );
+			}
+			if ( snapshotFile.isFile() )
+				fail("Snapshot written of a file that failed to read.");
+			input.delete();
+			dir.delete();
+		} catch ( Exception ex ) {
+			ex.printStackTrace();
+			fail(ex.getMessage());
+		}
+	}
+
+	@Test
+	public void snapshotNotTakenUnderOtherSettings() {
+		try {
+			List<String> lines = new ArrayList<>();
+			lines.add( "c1\tt\tgene\t1\t90\t.\t+\t.\tID=g" );
+			lines.add( "c1\tt\tgene\t1\t90\t.\t+\t.\tID=h" );
+			lines.add( "c1\tt\tmRNA\t1\t90\t.\t+\t.\tID=m;Parent=g,h" );
+			File dir = Files.createTempDirectory( "gff3snap" ).toFile();
+			File input = new File( dir, "input.gff" );
+			writeLines( input, lines, false );
+			File snapshotFile = new File( dir, "input.gff.snap" );
+
+			List<String> trees = new ArrayList<>();
+			for ( boolean multiParentedFeaturesAcceptable: new boolean[] { true, false, true } ) {
+				Gff3DataAssembler assembler = new Gff3DataAssembler( input.getAbsolutePath() );
+				assembler.setMultiParentedFeaturesAcceptable( multiParentedFeaturesAcceptable );
+				assembler.setSnapshotFile( snapshotFile );
+				StringBuilder tree = new StringBuilder();
+				for ( ModelTreeNode root: assembler.assembleAll().getTopLevelFeatures( "c1" ) ) {
+					describe( root, tree );
+				}
+				trees.add( tree.toString().trim() );
+				if ( ! snapshotFile.isFile() )
+					fail("No snapshot written.");
+			}
+			assertEquals( "g[m[] ] h[m[] ]", trees.get( 0 ) );
+			assertEquals( "Multi-parented rejected", "g[] h[]", trees.get( 1 ) );
+			assertEquals( trees.get( 0 ), trees.get( 2 ) );
+			snapshotFile.delete();
+			input.delete();
+			dir.delete();
+		} catch ( Exception ex ) {
+			ex.printStackTrace();
+			fail(ex.getMessage());
+		}
+	}
+
+	/** ID, with ? for a placeholder, then the children in brackets. */
+	private static void describe( ModelTreeNode node, StringBuilder tree ) {
+		tree.append( node.getId() ).append( node.getModel() == null ? "?" : "" ).append( '[' );
+		if ( node.getChildren() != null ) {
+			for ( ModelTreeNode child: node.getChildren() ) {
+				describe( child, tree );
+			}
+		}
+		tree.append( "] " );
+	}
+
+	@Test
+	public void landmarksAssembledInParallelAlike() {
+		try {
+			// Two inputs' landmarks interleaved, with features lacking IDs here and there.
+			List<String> first = new ArrayList<>();
+			List<String> second = new ArrayList<>();
+			for ( String line: Files.readAllLines( new File( TestUtils.resolveToPath(TEST_FILE_3) ).toPath() ) ) {
+				if ( ! line.startsWith( "#" ) )
+					first.add( line );
+			}
+			for ( String line: Files.readAllLines( new File( TestUtils.resolveToPath(TEST_FILE_2) ).toPath() ) ) {
+				if ( ! line.startsWith( "#" ) )
+					second.add( line );
+			}
+			List<String> lines = new ArrayList<>();
+			for ( int i = 0; i < Math.max( first.size(), second.size() ); i++ ) {
+				if ( i < first.size() )
+					lines.add( first.get( i ) );
+				if ( i < second.size() )
+					lines.add( second.get( i ) );
+				if ( i % 500 == 0 )
+					lines.add( "chrIV\tt\trepeat_region\t" + ( i + 1 ) + "\t" + ( i + 10 ) + "\t.\t+\t.\tNote=no ID" );
+			}
+			File mixed = File.createTempFile( "mixed", ".gff" );
+			mixed.deleteOnExit();
+			writeLines( mixed, lines, false );
+
+			Gff3DataAssembler serial = new Gff3DataAssembler( mixed.getAbsolutePath() );
+			serial.prepareAllModels();
+			for ( boolean batch: new boolean[] { false, true } ) {
+				Gff3DataAssembler parallel = new Gff3DataAssembler( mixed.getAbsolutePath() );
+				parallel.setAssemblyParallelism( 4 );
+				parallel.setBatchParentResolution( batch );
+				parallel.prepareAllModels();
+				assertEquals( new ArrayList<String>( serial.getLandmarkIds() ), new ArrayList<String>( parallel.getLandmarkIds() ) );
+				for ( String landmarkId: serial.getLandmarkIds() ) {
+					assertModelsEqual( landmarkId, serial.getTopLevelFeatures( landmarkId ), parallel.getTopLevelFeatures( landmarkId ) );
+					assertEquals( serial.getRangeIndex().size( landmarkId ), parallel.getRangeIndex().size( landmarkId ) );
+				}
+			}
+		} catch ( Exception ex ) {
+			ex.printStackTrace();
+			fail(ex.getMessage());
+		}
+	}
+
+	@Test
+	public void sharedModelsServeReadersThroughReloads() {
+		ExecutorService executor = Executors.newFixedThreadPool( 4 );
+		try {
+			String source = TestUtils.resolveToPath(TEST_FILE_3);
+			Gff3DataAssembler assembler = new Gff3DataAssembler( source );
+			AssembledModels expected = assembler.assembleAll();
+			for ( String landmarkId: expected.getLandmarkIds() ) {
+				assertEquals( landmarkId, assembler.getTopLevelFeatures( landmarkId ), expected.getTopLevelFeatures( landmarkId ) );
+			}
+			try {
+				expected.getTopLevelFeatures( expected.getLandmarkIds().iterator().next() ).get( 0 ).addChild( new ModelTreeNode( "x" ) );
+				fail("Assembled node was changed.");
+			} catch ( IllegalStateException expectedException ) {
+				// As it should be.
+			}
+
+			// Readers query throughout, while the models are swapped under them.
+			String landmarkId = expected.getLandmarkIds().iterator().next();
+			int expectedCount = expected.getRangeIndex().query( landmarkId, 1, Integer.MAX_VALUE ).size();
+			AssembledModelsHolder holder = new AssembledModelsHolder( source );
+			AtomicBoolean reloading = new AtomicBoolean( true );
+			List<Future<Integer>> readers = new ArrayList<>();
+			for ( int i = 0; i < 4; i++ ) {
+				readers.add( executor.submit( () -> {
+					int queries = 0;
+					do {
+						AssembledModels models = holder.get();
+						assertEquals( expectedCount, models.getRangeIndex().query( landmarkId, 1, Integer.MAX_VALUE ).size() );
+						queries++;
+					} while ( reloading.get() );
+					return queries;
+				} ) );
+			}
+			AssembledModels previous = holder.get();
+			for ( int i = 0; i < 3; i++ ) {
+				AssembledModels reloaded = holder.reload();
+				if ( reloaded == previous  ||  holder.get() != reloaded )
+					fail("Reload did not swap in new models.");
+				previous = reloaded;
+			}
+			reloading.set( false );
+			for ( Future<Integer> reader: readers ) {
+				reader.get();
+			}
+		} catch ( Exception ex ) {
+			ex.printStackTrace();
+			fail(ex.getMessage());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void refreshReadsOnlyAddedLines() {
+		try {
+			File dir = Files.createTempDirectory( "gff3refresh" ).toFile();
+			File growing = new File( dir, "growing.gff3" );
+			List<String> lines = new ArrayList<>( Files.readAllLines( new File( TestUtils.resolveToPath(TEST_FILE_2) ).toPath() ) );
+			// Move a child ahead of its parent, to just before the cut, so that the refresh fills in a placeholder.
+			int childLine = lines.size() / 2;
+			while ( ! lines.get( childLine ).contains( "Parent=" ) ) {
+				childLine++;
+			}
+			String child = lines.remove( childLine );
+			String parentId = child.replaceAll( ".*Parent=([^;,]*).*", "$1" );
+			int cut = 0;
+			while ( ! lines.get( cut ).contains( "ID=" + parentId + ";" ) ) {
+				cut++;
+			}
+			lines.add( cut++, child );
+			writeLines( growing, lines.subList( 0, cut ), false );
+
+			Gff3Metrics metrics = new Gff3Metrics();
+			Gff3DataAssembler assembler = new Gff3DataAssembler( growing.getAbsolutePath() );
+			assembler.setMetricsListener( metrics );
+			assembler.prepareAllModels();
+
+			// A half-written line waits for its end.
+			String rest = String.join( "\n", lines.subList( cut, lines.size() ) ) + "\n";
+			int split = rest.indexOf( '\t', rest.indexOf( '\n' ) + 1 );
+			appendText( growing, rest.substring( 0, split ) );
+			metrics.reset();
+			int firstAdded = assembler.refresh();
+			appendText( growing, rest.substring( split ) );
+			int secondAdded = assembler.refresh();
+			assertEquals( "Lines read by refreshing", firstAdded + secondAdded, metrics.getFeatureLines() );
+			assertEquals( "Nothing added", 0, assembler.refresh() );
+
+			File whole = new File( dir, "whole.gff3" );
+			writeLines( whole, lines, false );
+			Gff3DataAssembler expected = new Gff3DataAssembler( whole.getAbsolutePath() );
+			expected.prepareAllModels();
+			assertEquals( expected.getLandmarkIds(), assembler.getLandmarkIds() );
+			for ( String landmarkId: expected.getLandmarkIds() ) {
+				assertModelsEqual( landmarkId, expected.getTopLevelFeatures( landmarkId ), assembler.getTopLevelFeatures( landmarkId ) );
+			}
+
+			// Any change to what was read means reading it all again.
+			lines.set( 0, lines.get( 0 ) + " " );
+			writeLines( growing, lines, false );
+			assertEquals( "Changed file read again", -1, assembler.refresh() );
+		} catch ( Exception ex ) {
+			ex.printStackTrace();
+			fail(ex.getMessage());
+		}
+	}
+
+	@Test
+	public void halfWrittenLastLineWaits() {
+		try {
+			File growing = File.createTempFile( "growing", ".gff3" );
+			growing.deleteOnExit();
+			appendText( growing, "c1\tt\tgene\t1\t90\t.\t+\t.\tID=g1\nc1\tt\tmRNA\t1" );
+			Gff3DataAssembler assembler = new Gff3DataAssembler( growing.getAbsolutePath() );
+			assembler.prepareAllModels();
+			assertEquals( 1, assembler.getTopLevelFeatures( "c1" ).size() );
+			assertEquals( null, assembler.getTopLevelFeatures( "c1" ).get( 0 ).getChildren() );
+
+			appendText( growing, "\t90\t.\t+\t.\tID=m1;Parent=g1\n" );
+			assertEquals( 1, assembler.refresh() );
+			assertEquals( "m1", assembler.getTopLevelFeatures( "c1" ).get( 0 ).getChildren().get( 0 ).getId() );
+
+			// A whole last line lacking only its end is still read.
+			File unended = File.createTempFile( "unended", ".gff3" );
+			unended.deleteOnExit();
+			appendText( unended, "c1\tt\tgene\t1\t90\t.\t+\t.\tID=g1\nc1\tt\tgene\t100\t190\t.\t+\t.\tID=g2" );
+			assembler = new Gff3DataAssembler( unended.getAbsolutePath() );
+			assembler.prepareAllModels();
+			assertEquals( 2, assembler.getTopLevelFeatures( "c1" ).size() );
+			appendText( unended, ";Name=two\n" );
+			assertEquals( "Line added to read again", -1, assembler.refresh() );
+			assertEquals( "two", assembler.getTopLevelFeatures( "c1" ).get( 1 ).getModel().getName() );
+		} catch ( Exception ex ) {
+			ex.printStackTrace();
+			fail(ex.getMessage());
+		}
+	}
+
+	private void writeLines( File file, List<String> lines, boolean append ) throws Exception {
+		try ( FileWriter writer = new FileWriter( file, append ) ) {
+			for ( String line: lines ) {
+				writer.write( line );
+				writer.write( '\n' );
+			}
+		}
+	}
+
+	private void appendText( File file, String text ) throws Exception {
+		try ( FileWriter writer = new FileWriter( file, true ) ) {
+			writer.write( text );
+		}
+	}
+
+	private void assertModelsEqual( String message, List<ModelTreeNode> expectedNodes, List<ModelTreeNode> actualNodes ) {
+		List<Gff3GenericModel> expected = new ArrayList<>();
+		collectModels( expectedNodes, expected );
+		List<Gff3GenericModel> actual = new ArrayList<>();
+		collectModels( actualNodes, actual );
+		assertEquals( message, expected, actual );
+	}
+
+	private void collectModels( List<ModelTreeNode> nodes, List<Gff3GenericModel> models ) {
+		if ( nodes == null )
+			return;
+		for ( ModelTreeNode node: nodes ) {
+			models.add( node.getModel() );
+			collectModels( node.getChildren(), models );
+		}
+	}
+
 	private void dumpAxes(Gff3DataAssembler assembler) {
 		List<Gff3GenericModel> axisModels = assembler.getAxisModels();
 		for ( Gff3GenericModel axis: axisModels ) {
@@ -0,0 +1,88 @@
+/**
+ *   Copyright Leslie L. Foster, 2011.
+ *
+ * This is free software; you can redistribute it and/or modify it under the 
+ * terms of the GNU Lesser General Public License as published by the 
+ * Free Software Foundation; version 2.1 of the License.
+ * 
+ * This software is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. 
+ * See the GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License 
+ * along with this software; if not, write to the Free Software Foundation, Inc.
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA 
+ *
+ */
+package common.input.gff3;
+
+import org.junit.Test;
+import oss.model.builder.gff3.Gff3FeatureTable;
+import oss.model.builder.gff3.Gff3GenericModel;
+import oss.model.builder.gff3.Gff3LineReader;
+import oss.model.builder.gff3.SofaTypes;
+
+import java.util.ArrayList;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class Gff3FeatureTableTest {
+	private static final String TEST_FILE = "/burkholderia/ATCC_23344_NC_006348.gff.short";
+
+	@Test
+	public void viewsMatchModels() {
+		try {
+			Gff3FeatureTable table = new Gff3FeatureTable();
+			Gff3LineReader rdr = new Gff3LineReader( TestUtils.resolveFileLoc( TEST_FILE ) );
+			Gff3GenericModel model;
+			while ( null != ( model = rdr.nextLine() ) ) {
+				Gff3FeatureTable.FeatureView view = table.view( table.add( model ) );
+				assertEquals( model, view );
+				assertEquals( model.getType(), view.getType() );
+				assertEquals( model.getTypeCode(), view.getTypeCode() );
+				assertEquals( model.getSource(), view.getSource() );
+				assertEquals( model.getScore(), view.getScore() );
+				assertEquals( model.getStrand(), view.getStrand() );
+				assertEquals( model.getPhase(), view.getPhase() );
+				assertEquals( model.getName(), view.getName() );
+				assertEquals( model.getNote(), view.getNote() );
+				assertArrayEquals( model.getParent(), view.getParent() );
+				assertArrayEquals( model.getDbxref(), view.getDbxref() );
+				Map<String,String[]> attributes = view.getAttributes();
+				assertEquals( "Tags in file order", new ArrayList<String>( model.getAttributes().keySet() ), new ArrayList<String>( attributes.keySet() ) );
+				for ( String key: attributes.keySet() ) {
+					assertArrayEquals( key, model.getAttributes().get( key ), attributes.get( key ) );
+				}
+			}
+			rdr.close();
+
+			// Repeated text is held once.
+			if ( table.getStringPool().size() >= table.size() )
+				fail( "Expected fewer distinct strings than features." );
+
+			Gff3FeatureTable.FeatureView view = table.view( 0 );
+			view.setId( "renamed" );
+			assertEquals( "renamed", table.view( 0 ).getId() );
+			view.setType( "CDS" );
+			assertEquals( SofaTypes.codeOf( "CDS" ), table.view( 0 ).getTypeCode() );
+			assertEquals( SofaTypes.codeOf( "CDS" ), table.getSofaCode( 0 ) );
+
+			// A row copied out is a model of its own.
+			Gff3GenericModel copy = view.toModel();
+			assertEquals( view, copy );
+			assertEquals( copy, view );
+			assertEquals( "CDS", copy.getType() );
+			assertEquals( view.getTypeCode(), copy.getTypeCode() );
+			assertEquals( new ArrayList<String>( view.getAttributes().keySet() ), new ArrayList<String>( copy.getAttributes().keySet() ) );
+			copy.setId( "copied" );
+			assertEquals( "renamed", view.getId() );
+		} catch ( Exception ex ) {
+			ex.printStackTrace();
+			fail( ex.getMessage() );
+		}
+	}
+}
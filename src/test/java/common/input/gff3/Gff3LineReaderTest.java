@@ -19,11 +19,29 @@ package common.input.gff3;
 import org.junit.Test;
 import oss.model.builder.gff3.Gff3GenericModel;
 import oss.model.builder.gff3.Gff3LineReader;
+import oss.model.builder.gff3.SofaTypes;
+import oss.model.builder.gff3.StringPool;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 public class Gff3LineReaderTest {
@@ -107,6 +125,222 @@ public class Gff3LineReaderTest {
 		}
 	}
 	
+	@Test
+	public void readEscapesAndLineEnds() {
+		String input =
+				"##gff-version 3\r\n" +
+				"c%3E1\tsrc\tgene\t1\t10\t.\t+\t.\tID=g%201;Note=a,b%3Bc;Parent=p1,p2,;Target=t%20x 1 5\r\n" +
+				">seq\n" +
+				"ACGT\n" +
+				"c2\t.\tCDS\t5\t9\t1.5\t-\t2\t\t\r" +
+				"c3\t.\tCDS\t5\t9\t.\t?\t.\tID=last";
+		try {
+			Gff3LineReader rdr = new Gff3LineReader( "inline", new ByteArrayInputStream( input.getBytes( StandardCharsets.UTF_8 ) ) );
+			Gff3GenericModel first = rdr.nextLine();
+			assertEquals( "c>1", first.getLandmarkId() );
+			assertEquals( "g 1", first.getId() );
+			assertEquals( "a,b;c", first.getNote() );
+			assertArrayEquals( new String[] { "p1", "p2" }, first.getParent() );
+			assertEquals( "t%20x 1 5", first.getTargetOfAlignment() );
+
+			Gff3GenericModel second = rdr.nextLine();
+			assertEquals( Double.valueOf( 1.5 ), second.getScore() );
+			assertEquals( Gff3GenericModel.Strand.negative, second.getStrand() );
+			assertEquals( Integer.valueOf( 2 ), second.getPhase() );
+			assertNull( second.getAttributes() );
+
+			Gff3GenericModel third = rdr.nextLine();
+			assertEquals( "last", third.getId() );
+			assertNull( third.getPhase() );
+			assertNull( rdr.nextLine() );
+			rdr.close();
+		} catch ( Exception ex ) {
+			ex.printStackTrace();
+			fail( ex.getMessage() );
+		}
+	}
+
+	@Test
+	public void offsetsTakeInWholeCrLf() {
+		String input = "##gff-version 3\r\nc1\tt\tgene\t1\t90\t.\t+\t.\tID=g1\r\n##FASTA\r\n>c1\r\nACGT\r\n";
+		byte[] bytes = input.getBytes( StandardCharsets.US_ASCII );
+		try {
+			// Also a byte at a time, so that each CR ends what has been read.
+			InputStream trickle = new ByteArrayInputStream( bytes ) {
+				@Override
+				public synchronized int read( byte[] b, int off, int len ) {
+					return super.read( b, off, Math.min( len, 1 ) );
+				}
+			};
+			for ( InputStream in: new InputStream[] { new ByteArrayInputStream( bytes ), trickle } ) {
+				Gff3LineReader rdr = new Gff3LineReader( "inline", in );
+				assertEquals( "g1", rdr.nextLine().getId() );
+				assertNull( rdr.nextLine() );
+				assertEquals( "Sequence starts past the LF", input.indexOf( '>' ), rdr.getFastaOffset() );
+				rdr.close();
+			}
+		} catch ( Exception ex ) {
+			ex.printStackTrace();
+			fail( ex.getMessage() );
+		}
+	}
+
+	@Test
+	public void lazyAttributesKeepSetValues() {
+		String input = "c1\tsrc\tmRNA\t1\t10\t.\t+\t.\tID=a;Name=n%2531;ID=b;Parent=g1;Dbxref=x:1,y:2;Note=free text\n";
+		try {
+			Gff3LineReader rdr = new Gff3LineReader( "inline", new ByteArrayInputStream( input.getBytes( StandardCharsets.UTF_8 ) ) );
+			Gff3GenericModel model = rdr.nextLine();
+			rdr.close();
+			// A later setting replaces an earlier one, as it always has.
+			assertEquals( "b", model.getId() );
+
+			// Values set before decoding must survive it.
+			model.setId( "renamed" );
+			model.setNote( "replaced" );
+			assertEquals( "n1", model.getName() );
+			assertEquals( "renamed", model.getId() );
+			assertEquals( "replaced", model.getNote() );
+			assertArrayEquals( new String[] { "g1" }, model.getParent() );
+			assertArrayEquals( new String[] { "x:1", "y:2" }, model.getDbxref() );
+			assertArrayEquals( new String[] { "free text" }, model.getAttributes().get( "Note" ) );
+		} catch ( Exception ex ) {
+			ex.printStackTrace();
+			fail( ex.getMessage() );
+		}
+	}
+
+	@Test
+	public void attributesReplacedUndecoded() {
+		String input = "c1\tsrc\tmRNA\t1\t10\t.\t+\t.\tID=a;Name=read\n"
+				+ "c1\tsrc\tmRNA\t1\t10\t.\t+\t.\tID=b;Name=bad%ZZ\n";
+		try {
+			Gff3LineReader rdr = new Gff3LineReader( "inline", new ByteArrayInputStream( input.getBytes( StandardCharsets.UTF_8 ) ) );
+			Gff3GenericModel model = rdr.nextLine();
+			// The column read is dropped undecoded, so its Name is not kept.
+			Map<String,String[]> attributes = new HashMap<>();
+			attributes.put( "Note", new String[] { "set" } );
+			model.setAttributes( attributes );
+			assertSame( attributes, model.getAttributes() );
+			assertNull( model.getName() );
+			assertEquals( "a", model.getId() );
+
+			// A malformed escape is found on its own line, not at first use.
+			try {
+				rdr.nextLine();
+				fail( "Bad escape read without complaint." );
+			} catch ( Gff3LineReader.Gff3LineReaderException expected ) {
+				// As wanted.
+			}
+			rdr.close();
+		} catch ( Exception ex ) {
+			ex.printStackTrace();
+			fail( ex.getMessage() );
+		}
+	}
+
+	@Test
+	public void typesStampedWithSofaCodes() {
+		String input =
+				"c1\tsrc\tgene\t1\t90\t.\t+\t.\tID=g1\n" +
+				"c1\tsrc\tmRNA\t1\t90\t.\t+\t.\tID=m1;Parent=g1\n" +
+				"c1\tsrc\tfive_prime_UTR\t1\t9\t.\t+\t.\tParent=m1\n" +
+				"c1\tsrc\tEST_match\t1\t50\t.\t+\t.\tID=e1\n" +
+				"c1\tsrc\tSO:0000253\t1\t50\t.\t+\t.\tID=t1\n" +
+				"c1\tsrc\tmy_lab_feature\t1\t50\t.\t+\t.\tID=x1\n" +
+				"c1\tsrc\tmisc_feature\t1\t50\t.\t+\t.\tID=x2\n";
+		try {
+			Gff3LineReader rdr = new Gff3LineReader( "inline", new ByteArrayInputStream( input.getBytes( StandardCharsets.UTF_8 ) ) );
+			List<Gff3GenericModel> models = new ArrayList<>();
+			Gff3GenericModel model;
+			while ( null != ( model = rdr.nextLine() ) ) {
+				models.add( model );
+			}
+			rdr.close();
+			int transcript = SofaTypes.codeOf( "transcript" );
+			int match = SofaTypes.codeOf( "match" );
+			assertEquals( SofaTypes.codeOf( "gene" ), models.get( 0 ).getTypeCode() );
+			assertFalse( SofaTypes.isA( models.get( 0 ).getTypeCode(), transcript ) );
+			assertTrue( SofaTypes.isA( models.get( 1 ).getTypeCode(), transcript ) );
+			assertTrue( SofaTypes.isA( models.get( 2 ).getTypeCode(), SofaTypes.codeOf( "UTR" ) ) );
+			assertFalse( SofaTypes.isA( models.get( 2 ).getTypeCode(), transcript ) );
+			assertTrue( SofaTypes.isA( models.get( 3 ).getTypeCode(), match ) );
+			assertTrue( "By accession", SofaTypes.isA( models.get( 4 ).getTypeCode(), transcript ) );
+			assertEquals( "tRNA", SofaTypes.nameOf( models.get( 4 ).getTypeCode() ) );
+			assertEquals( SofaTypes.UNKNOWN_CODE, models.get( 5 ).getTypeCode() );
+			assertFalse( SofaTypes.isA( models.get( 5 ).getTypeCode(), match ) );
+			assertEquals( "SO:0000234", new SofaTypes().getCategoryForSofa( "mRNA" ) );
+
+			// Synonyms and INSDC keys, as the fixtures use.
+			assertEquals( "region", SofaTypes.nameOf( models.get( 6 ).getTypeCode() ) );
+			assertTrue( SofaTypes.isA( "mobile_element", "mobile_genetic_element" ) );
+			assertTrue( SofaTypes.isA( "uORF", "mRNA_region" ) );
+			assertTrue( SofaTypes.isA( "TSS", "SO:0000833" ) );
+			assertTrue( SofaTypes.isA( "transposable_element", "biological_region" ) );
+			assertTrue( SofaTypes.isA( "match_part", "experimental_feature" ) );
+			assertFalse( "Not a result region", SofaTypes.isA( "match", "experimental_result_region" ) );
+			assertFalse( SofaTypes.isA( SofaTypes.termCount(), transcript ) );
+			assertFalse( SofaTypes.isA( transcript, Integer.MAX_VALUE ) );
+			assertFalse( SofaTypes.isA( -7, transcript ) );
+		} catch ( Exception ex ) {
+			ex.printStackTrace();
+			fail( ex.getMessage() );
+		}
+	}
+
+	@Test
+	public void repeatedColumnsShareInstances() {
+		try {
+			Gff3LineReader rdr = new Gff3LineReader( TestUtils.resolveFileLoc( TEST_FILE ) );
+			StringPool pool = new StringPool();
+			rdr.setStringPool( pool );
+			Gff3GenericModel first = rdr.nextLine();
+			Gff3GenericModel second = rdr.nextLine();
+			rdr.close();
+			assertSame( first.getLandmarkId(), second.getLandmarkId() );
+			assertSame( first.getSource(), pool.intern( "SGD" ) );
+			assertSame( pool.intern( first.getType() ), first.getType() );
+		} catch ( Exception ex ) {
+			ex.printStackTrace();
+			fail( ex.getMessage() );
+		}
+	}
+
+	@Test
+	public void readCompressed() {
+		try {
+			File plain = TestUtils.resolveFileLoc( "/discoidium_chr_1.gff" );
+			byte[] text = Files.readAllBytes( plain.toPath() );
+			List<Gff3GenericModel> expected = readAll( plain );
+
+			File gzip = File.createTempFile( "plain", ".gff3.gz" );
+			gzip.deleteOnExit();
+			try ( OutputStream out = new GZIPOutputStream( new FileOutputStream( gzip ) ) ) {
+				out.write( text );
+			}
+			assertEquals( expected, readAll( gzip ) );
+
+			File bgzf = File.createTempFile( "blocked", ".gff3.gz" );
+			bgzf.deleteOnExit();
+			TestUtils.writeBgzf( text, bgzf, 1000 );   // Small blocks, so that lines straddle them.
+			List<Gff3GenericModel> actual = readAll( bgzf );
+			assertEquals( expected, actual );
+			assertEquals( expected.get( 7 ).getNote(), actual.get( 7 ).getNote() );
+		} catch ( Exception ex ) {
+			ex.printStackTrace();
+			fail( ex.getMessage() );
+		}
+	}
+
+	private List<Gff3GenericModel> readAll( File gffFile ) throws Exception {
+		List<Gff3GenericModel> models = new ArrayList<>();
+		Gff3LineReader rdr = new Gff3LineReader( gffFile );
+		for ( Gff3GenericModel model: rdr ) {
+			models.add( model );
+		}
+		return models;
+	}
+
 	private boolean isEqualIfNull( String x, String y ) {
 		if ( x == null ) {
 			return true;
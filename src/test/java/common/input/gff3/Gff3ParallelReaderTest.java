@@ -0,0 +1,202 @@
+/**
+ *   Copyright Leslie L. Foster, 2011.
+ *
+ * This is free software; you can redistribute it and/or modify it under the 
+ * terms of the GNU Lesser General Public License as published by the 
+ * Free Software Foundation; version 2.1 of the License.
+ * 
+ * This software is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. 
+ * See the GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License 
+ * along with this software; if not, write to the Free Software Foundation, Inc.
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA 
+ *
+ */
+package common.input.gff3;
+
+import org.junit.Test;
+import oss.model.builder.gff3.Gff3GenericModel;
+import oss.model.builder.gff3.Gff3LineReader;
+import oss.model.builder.gff3.Gff3ParallelReader;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class Gff3ParallelReaderTest {
+	private static final String TEST_FILE = "/discoidium_chr_1.gff";
+
+	@Test
+	public void chunksMatchSequentialRead() {
+		try {
+			File gffFile = TestUtils.resolveFileLoc( TEST_FILE );
+			List<Gff3GenericModel> expected = readSequentially( gffFile );
+
+			Gff3ParallelReader rdr = new Gff3ParallelReader( gffFile );
+			rdr.setParallelism( 4 );
+			rdr.setChunkSize( 4096 );   // Many chunks, from a small file.
+			List<Gff3GenericModel> actual = rdr.readAll();
+
+			assertEquals( expected.size(), actual.size() );
+			for ( int i = 0; i < expected.size(); i++ ) {
+				assertEquals( "Model " + i, expected.get( i ), actual.get( i ) );
+				assertEquals( "Model " + i, expected.get( i ).getType(), actual.get( i ).getType() );
+			}
+		} catch ( Exception ex ) {
+			ex.printStackTrace();
+			fail( ex.getMessage() );
+		}
+	}
+
+	@Test
+	public void stopsAtFasta() {
+		try {
+			File gffFile = File.createTempFile( "fasta", ".gff3" );
+			gffFile.deleteOnExit();
+			try ( Writer writer = new FileWriter( gffFile ) ) {
+				writer.write( "##gff-version 3\n" );
+				for ( int i = 0; i < 200; i++ ) {
+					writer.write( "ctg1\tsrc\tgene\t" + ( i * 10 + 1 ) + "\t" + ( i * 10 + 9 ) + "\t.\t+\t.\tID=gene" + i + "\n" );
+				}
+				writer.write( "##FASTA\n>ctg1\n" );
+				for ( int i = 0; i < 200; i++ ) {
+					writer.write( "ACGTACGTAC\tnot\ta\tfeature\tline\t.\t.\t.\n" );
+				}
+			}
+
+			Gff3ParallelReader rdr = new Gff3ParallelReader( gffFile );
+			rdr.setChunkSize( 512 );
+			List<Gff3GenericModel> models = rdr.readAll();
+			assertEquals( 200, models.size() );
+			assertEquals( "gene199", models.get( 199 ).getId() );
+
+			// Parts learn of the directive as they go; try enough times for them to race.
+			for ( int attempt = 0; attempt < 20; attempt++ ) {
+				Gff3LineReader lineReader = new Gff3LineReader( gffFile );
+				lineReader.setMinSplitSize( 256 );
+				try ( Stream<Gff3GenericModel> stream = lineReader.stream() ) {
+					List<Gff3GenericModel> streamed = stream.parallel().collect( Collectors.toList() );
+					assertEquals( 200, streamed.size() );
+					assertEquals( "gene199", streamed.get( 199 ).getId() );
+				}
+			}
+			Files.delete( gffFile.toPath() );
+		} catch ( Exception ex ) {
+			ex.printStackTrace();
+			fail( ex.getMessage() );
+		}
+	}
+
+	@Test
+	public void linesNumberedAsInFile() {
+		try {
+			File gffFile = File.createTempFile( "lineEnds", ".gff3" );
+			gffFile.deleteOnExit();
+			String[] lineEnds = { "\r\n", "\n", "\r" };
+			try ( Writer writer = new FileWriter( gffFile ) ) {
+				for ( int i = 1; i < 300; i++ ) {
+					String line = i % 7 == 0 ? "# comment " + i
+							: "ctg1\tsrc\tgene\t" + i + "\t" + ( i + 9 ) + "\t.\t+\t.\tID=gene" + i;
+					writer.write( line + lineEnds[ i % lineEnds.length ] );
+				}
+				writer.write( "ctg1\tsrc\tgene\t1\n" );
+			}
+			String expected = "Line 300 has only";
+			assertEquals( expected, failureOf( () -> readSequentially( gffFile ) ).substring( 0, expected.length() ) );
+
+			// Chunks of many sizes, so that some are cut between CR and LF.
+			for ( int chunkSize = 500; chunkSize < 532; chunkSize++ ) {
+				Gff3ParallelReader rdr = new Gff3ParallelReader( gffFile );
+				rdr.setParallelism( 4 );
+				rdr.setChunkSize( chunkSize );
+				assertEquals( "Chunk size " + chunkSize, expected, failureOf( rdr::readAll ).substring( 0, expected.length() ) );
+			}
+			for ( int attempt = 0; attempt < 20; attempt++ ) {
+				Gff3LineReader lineReader = new Gff3LineReader( gffFile );
+				lineReader.setMinSplitSize( 256 + attempt );
+				String failure = failureOf( () -> {
+					try ( Stream<Gff3GenericModel> stream = lineReader.stream() ) {
+						return stream.parallel().collect( Collectors.toList() );
+					}
+				} );
+				assertEquals( "Split size " + ( 256 + attempt ), expected, failure.substring( 0, expected.length() ) );
+			}
+			Files.delete( gffFile.toPath() );
+		} catch ( Exception ex ) {
+			ex.printStackTrace();
+			fail( ex.getMessage() );
+		}
+	}
+
+	@Test
+	public void parallelStreamMatchesSequentialRead() {
+		try {
+			File gffFile = TestUtils.resolveFileLoc( TEST_FILE );
+			List<Gff3GenericModel> expected = readSequentially( gffFile );
+
+			Gff3LineReader rdr = new Gff3LineReader( gffFile );
+			rdr.setMinSplitSize( 4096 );
+			List<Gff3GenericModel> actual;
+			try ( Stream<Gff3GenericModel> stream = rdr.stream() ) {
+				actual = stream.parallel().collect( Collectors.toList() );
+			}
+			assertEquals( expected, actual );
+
+			rdr = new Gff3LineReader( gffFile );
+			rdr.setMinSplitSize( 4096 );
+			try ( Stream<Gff3GenericModel> stream = rdr.stream() ) {
+				long exons = stream.parallel().filter( model -> "exon".equals( model.getType() ) ).count();
+				assertEquals( expected.stream().filter( model -> "exon".equals( model.getType() ) ).count(), exons );
+			}
+
+			int count = 0;
+			Iterator<Gff3GenericModel> iterator = new Gff3LineReader( gffFile ).iterator();
+			while ( iterator.hasNext() ) {
+				assertEquals( expected.get( count++ ), iterator.next() );
+			}
+			assertEquals( expected.size(), count );
+		} catch ( Exception ex ) {
+			ex.printStackTrace();
+			fail( ex.getMessage() );
+		}
+	}
+
+	/** Message of the first cause of the failure, being what the line reader said. */
+	private String failureOf( Callable<?> read ) {
+		try {
+			read.call();
+		} catch ( Exception ex ) {
+			Throwable cause = ex;
+			while ( cause.getCause() != null ) {
+				cause = cause.getCause();
+			}
+			return cause.getMessage();
+		}
+		fail( "Read did not fail." );
+		return null;
+	}
+
+	private List<Gff3GenericModel> readSequentially( File gffFile ) throws Exception {
+		List<Gff3GenericModel> models = new ArrayList<>();
+		Gff3LineReader rdr = new Gff3LineReader( gffFile );
+		Gff3GenericModel model;
+		while ( null != ( model = rdr.nextLine() ) ) {
+			models.add( model );
+		}
+		rdr.close();
+		return models;
+	}
+}
@@ -0,0 +1,312 @@
+/**
+ *   Copyright Leslie L. Foster, 2011.
+ *
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation; version 2.1 of the License.
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation, Inc.
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+package common.input.gff3;
+
+import org.junit.Test;
+import oss.model.builder.gff3.AssembledModels;
+import oss.model.builder.gff3.Gff3DataAssembler;
+import oss.model.builder.gff3.Gff3GenericModel;
+import oss.model.builder.gff3.Gff3LineReader;
+import oss.model.builder.gff3.Gff3SequenceExtractor;
+import oss.model.builder.gff3.Gff3SequenceStore;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class Gff3SequenceStoreTest {
+	private static String FASTA_FILE = "/burkholderia/ATCC_23344_NC_006348.gff.fna";
+	private static String FEATURE_FILE = "/burkholderia/ATCC_23344_NC_006348.gff.short";
+
+	@Test
+	public void basesComeFromTheFile() {
+		try {
+			File fasta = TestUtils.resolveFileLoc(FASTA_FILE);
+			StringBuilder naive = new StringBuilder();
+			List<String> lines = Files.readAllLines( fasta.toPath(), StandardCharsets.US_ASCII );
+			for ( String line: lines.subList( 1, lines.size() ) ) {
+				naive.append( line.trim() );
+			}
+
+			Gff3SequenceStore store = Gff3SequenceStore.open( fasta );
+			String id = "gi|53723370|ref|NC_006348.1|";
+			assertEquals( 1, store.getSequenceIds().size() );
+			assertTrue( "Alias from the header", store.hasSequence( "NC_006348.1" ) );
+			assertFalse( store.hasSequence( "ref" ) );
+			assertEquals( naive.length(), store.getLength( "NC_006348.1" ) );
+
+			// Across line ends, and to the very last base.
+			assertEquals( naive.substring( 59, 215 ), store.getSequence( id, 60, 215, false ).toString() );
+			assertEquals( naive.substring( naive.length() - 100 ), store.getSequence( id, naive.length() - 99, naive.length(), false ).toString() );
+			CharSequence view = store.getSequence( id, 1001, 2000, false );
+			assertEquals( naive.substring( 1099, 1200 ), view.subSequence( 99, 200 ).toString() );
+
+			CharSequence reverse = store.getSequence( id, 61, 80, true );
+			assertEquals( reverseComplement( naive.substring( 60, 80 ) ), reverse.toString() );
+			assertEquals( reverseComplement( naive.substring( 65, 70 ) ), reverse.subSequence( 10, 15 ).toString() );
+
+			File fai = File.createTempFile( "gff3seq", ".fai" );
+			fai.deleteOnExit();
+			store.writeFai( fai );
+			assertEquals( id + "\t" + naive.length() + "\t" + ( lines.get( 0 ).length() + 1 ) + "\t70\t71",
+					      Files.readAllLines( fai.toPath() ).get( 0 ) );
+			Gff3SequenceStore reopened = Gff3SequenceStore.open( fasta, fai );
+			assertEquals( naive.substring( 3000, 3500 ), reopened.getSequence( "NC_006348.1", 3001, 3500, false ).toString() );
+		} catch ( Exception ex ) {
+			ex.printStackTrace();
+			fail(ex.getMessage());
+		}
+	}
+
+	@Test
+	public void sequencesFollowingFeatures() {
+		try {
+			File gff = File.createTempFile( "gff3seq", ".gff" );
+			gff.deleteOnExit();
+			String text = "##gff-version 3\n"
+					+ "ctg1\ttest\tgene\t3\t12\t.\t+\t.\tID=g1\n"
+					+ "ctg2\ttest\tgene\t1\t6\t.\t-\t.\tID=g2\n"
+					+ "##FASTA\n"
+					+ ">ctg1 first\nACGTACGTAC\nGGTTAACCGG\nTT\n"
+					+ ">ctg2\nAACCGGTTNa\n";
+			Files.write( gff.toPath(), text.getBytes( StandardCharsets.US_ASCII ) );
+
+			Gff3LineReader rdr = new Gff3LineReader( gff );
+			List<Gff3GenericModel> models = new ArrayList<>();
+			Gff3GenericModel model;
+			while ( null != ( model = rdr.nextLine() ) ) {
+				models.add( model );
+			}
+			rdr.close();
+			assertEquals( text.indexOf( '>' ), rdr.getFastaOffset() );
+
+			Gff3SequenceStore store = Gff3SequenceStore.open( gff, rdr.getFastaOffset() );
+			assertEquals( "[ctg1, ctg2]", store.getSequenceIds().toString() );
+			assertEquals( 22, store.getLength( "ctg1" ) );
+			assertEquals( "GTACGTACGG", store.getSequence( models.get( 0 ) ).toString() );
+			assertEquals( "AACCGG", store.getSequence( "ctg2", 1, 6, false ).toString() );
+			assertEquals( "CCGGTT", store.getSequence( models.get( 1 ) ).toString() );
+			assertEquals( "tNAACC", store.getSequence( "ctg2", 3, 10, true ).subSequence( 0, 6 ).toString() );
+			assertEquals( store.getSequenceIds(), Gff3SequenceStore.open( gff ).getSequenceIds() );
+		} catch ( Exception ex ) {
+			ex.printStackTrace();
+			fail(ex.getMessage());
+		}
+	}
+
+	@Test
+	public void crLfLinesGiveBasesOnly() {
+		try {
+			File fasta = File.createTempFile( "gff3seq", ".fa" );
+			fasta.deleteOnExit();
+			Files.write( fasta.toPath(), ">chr1\r\nACGT\r\nTTGG\r\n>chr2\r\nCCAA\r\n".getBytes( StandardCharsets.US_ASCII ) );
+
+			Gff3SequenceStore store = Gff3SequenceStore.open( fasta );
+			assertEquals( "ACGTTTGG", store.getSequence( "chr1" ).toString() );
+			assertEquals( "GTTT", store.getSequence( "chr1", 3, 6, false ).toString() );
+			assertEquals( "CCAA", store.getSequence( "chr2" ).toString() );
+
+			File fai = new File( fasta.getPath() + ".fai" );
+			fai.deleteOnExit();
+			store.writeFai( fai );
+			assertEquals( "chr1\t8\t7\t4\t6\nchr2\t4\t26\t4\t6\n",
+					new String( Files.readAllBytes( fai.toPath() ), StandardCharsets.UTF_8 ) );
+			assertEquals( "GTTT", Gff3SequenceStore.open( fasta, fai ).getSequence( "chr1", 3, 6, false ).toString() );
+		} catch ( Exception ex ) {
+			ex.printStackTrace();
+			fail(ex.getMessage());
+		}
+	}
+
+	@Test
+	public void longLastLineRejected() {
+		try {
+			File fasta = File.createTempFile( "gff3seq", ".fa" );
+			fasta.deleteOnExit();
+			Files.write( fasta.toPath(), ">s1\nACGT\nACGT\nACGTTT\n".getBytes( StandardCharsets.US_ASCII ) );
+			try {
+				Gff3SequenceStore.open( fasta );
+				fail("Last line longer than the others was accepted.");
+			} catch ( IOException expected ) {
+				assertTrue( expected.getMessage(), expected.getMessage().contains( "uneven length" ) );
+			}
+		} catch ( Exception ex ) {
+			ex.printStackTrace();
+			fail(ex.getMessage());
+		}
+	}
+
+	@Test
+	public void indexOfReplacedFileNotTrusted() {
+		try {
+			File fasta = File.createTempFile( "gff3seq", ".fa" );
+			fasta.deleteOnExit();
+			File fai = new File( fasta.getPath() + ".fai" );
+			fai.deleteOnExit();
+			Files.write( fasta.toPath(), ">chr1 with a long description\nACGTACGT\nTTGGCCAA\nGG\n".getBytes( StandardCharsets.US_ASCII ) );
+			Gff3SequenceStore.open( fasta, fai );
+
+			// As by cp -p of an older, shorter file: its mtime is behind that of the index.
+			long faiTime = fai.lastModified();
+			Files.write( fasta.toPath(), ">chr1\nACGT\nTTGG\n".getBytes( StandardCharsets.US_ASCII ) );
+			fasta.setLastModified( faiTime - 60000 );
+			Gff3SequenceStore store = Gff3SequenceStore.open( fasta, fai );
+			assertEquals( "ACGTTTGG", store.getSequence( "chr1" ).toString() );
+			assertEquals( "chr1\t8\t6\t4\t5\n", new String( Files.readAllBytes( fai.toPath() ), StandardCharsets.UTF_8 ) );
+		} catch ( Exception ex ) {
+			ex.printStackTrace();
+			fail(ex.getMessage());
+		}
+	}
+
+	@Test
+	public void proteinsTranslatedFromCodingParts() {
+		try {
+			Gff3SequenceStore store = Gff3SequenceStore.open( TestUtils.resolveFileLoc(FASTA_FILE) );
+			AssembledModels models = new Gff3DataAssembler( TestUtils.resolveToPath(FEATURE_FILE) ).assembleAll();
+
+			Gff3SequenceExtractor extractor = new Gff3SequenceExtractor( store );
+			extractor.setParallelism( 1 );
+			StringWriter sequentialProteins = new StringWriter();
+			int transcriptCount = extractor.extract( models, null, sequentialProteins );
+			extractor.setParallelism( 4 );
+			StringWriter transcripts = new StringWriter();
+			StringWriter proteins = new StringWriter();
+			assertEquals( transcriptCount, extractor.extract( models, transcripts, proteins ) );
+			assertEquals( "Same output, however many threads", sequentialProteins.toString(), proteins.toString() );
+			assertEquals( "Parented CDS", 83, transcriptCount );
+			assertTrue( transcripts.toString().startsWith( ">NC_006348.1:dnaA\nTTGACGCCCCAACAGTACGTGACGTG" ) );
+			assertTrue( "TTG starts as M in table 11", proteins.toString().startsWith( ">NC_006348.1:dnaA\nMTPQQYVTWIKPLAPVAFDAAANTLS" ) );
+			for ( String record: proteins.toString().substring( 1 ).split( "\n>" ) ) {
+				String protein = record.substring( record.indexOf( '\n' ) + 1 ).replace( "\n", "" );
+				assertTrue( record, protein.startsWith( "M" )  &&  protein.indexOf( '*' ) < 0 );
+			}
+		} catch ( Exception ex ) {
+			ex.printStackTrace();
+			fail(ex.getMessage());
+		}
+	}
+
+	@Test
+	public void splicedAlongTheMinusStrand() {
+		try {
+			File gff = File.createTempFile( "gff3seq", ".gff" );
+			gff.deleteOnExit();
+			String text = "##gff-version 3\n"
+					+ "ctg1\ttest\tgene\t3\t15\t.\t-\t.\tID=g1\n"
+					+ "ctg1\ttest\tmRNA\t3\t15\t.\t-\t.\tID=m1;Parent=g1\n"
+					+ "ctg1\ttest\texon\t3\t5\t.\t-\t.\tParent=m1\n"
+					+ "ctg1\ttest\texon\t10\t15\t.\t-\t.\tParent=m1\n"
+					+ "ctg1\ttest\tCDS\t3\t5\t.\t-\t1\tID=c1;Parent=m1\n"
+					+ "ctg1\ttest\tCDS\t10\t15\t.\t-\t1\tID=c1;Parent=m1\n"
+					+ "##FASTA\n"
+					+ ">ctg1\nACGTACGTAC\nGGTTAACCGG\nTT\n";
+			Files.write( gff.toPath(), text.getBytes( StandardCharsets.US_ASCII ) );
+
+			Gff3DataAssembler assembler = new Gff3DataAssembler( gff.getAbsolutePath() );
+			assembler.prepareModels( "ctg1" );
+			StringWriter transcripts = new StringWriter();
+			StringWriter proteins = new StringWriter();
+			Gff3SequenceExtractor extractor = new Gff3SequenceExtractor( Gff3SequenceStore.open( gff ) );
+			assertEquals( 1, extractor.extract( assembler.getTopLevelFeatures(), transcripts, proteins ) );
+			assertEquals( ">m1 gene=g1\nTAACCGTAC\n", transcripts.toString() );
+			assertEquals( "Phase of the 5' part skipped", ">m1 gene=g1\nNR\n", proteins.toString() );
+		} catch ( Exception ex ) {
+			ex.printStackTrace();
+			fail(ex.getMessage());
+		}
+	}
+
+	@Test
+	public void transcriptOfMissingGeneExtracted() {
+		try {
+			File gff = File.createTempFile( "gff3seq", ".gff" );
+			gff.deleteOnExit();
+			String text = "##gff-version 3\n"
+					+ "ctg1\ttest\tgene\t1\t9\t.\t+\t.\tID=g1\n"
+					+ "ctg1\ttest\tmRNA\t1\t9\t.\t+\t.\tID=m1;Parent=g1\n"
+					+ "ctg1\ttest\tCDS\t1\t9\t.\t+\t0\tParent=m1\n"
+					+ "ctg1\ttest\tmRNA\t10\t18\t.\t+\t.\tID=m2;Parent=lost\n"
+					+ "ctg1\ttest\tCDS\t10\t18\t.\t+\t0\tParent=m2\n"
+					+ "##FASTA\n"
+					+ ">ctg1\nATGGCCTAAATGAAATGA\n";
+			Files.write( gff.toPath(), text.getBytes( StandardCharsets.US_ASCII ) );
+			AssembledModels models = new Gff3DataAssembler( gff.getAbsolutePath() ).assembleAll();
+
+			StringWriter proteins = new StringWriter();
+			Gff3SequenceExtractor extractor = new Gff3SequenceExtractor( Gff3SequenceStore.open( gff ) );
+			assertEquals( 2, extractor.extract( models, null, proteins ) );
+			assertEquals( ">m1 gene=g1\nMA\n>m2 gene=lost\nMK\n", proteins.toString() );
+		} catch ( Exception ex ) {
+			ex.printStackTrace();
+			fail(ex.getMessage());
+		}
+	}
+
+	@Test
+	public void manySmallScaffoldsExtractedInOrder() {
+		try {
+			// A draft assembly: far more scaffolds than threads, each with fewer genes than make a batch.
+			File gff = File.createTempFile( "gff3seq", ".gff" );
+			gff.deleteOnExit();
+			int scaffoldCount = 300;
+			StringBuilder text = new StringBuilder( "##gff-version 3\n" );
+			for ( int i = 0; i < scaffoldCount; i++ ) {
+				text.append( "scf" + i + "\ttest\tgene\t1\t9\t.\t+\t.\tID=g" + i + "\n" );
+				text.append( "scf" + i + "\ttest\tCDS\t1\t9\t.\t+\t0\tID=c" + i + ";Parent=g" + i + "\n" );
+			}
+			text.append( "##FASTA\n" );
+			for ( int i = 0; i < scaffoldCount; i++ ) {
+				text.append( ">scf" + i + "\n" + ( i % 2 == 0 ? "ATGGCCTAA" : "ATGAAATGA" ) + "\n" );
+			}
+			Files.write( gff.toPath(), text.toString().getBytes( StandardCharsets.US_ASCII ) );
+			AssembledModels models = new Gff3DataAssembler( gff.getAbsolutePath() ).assembleAll();
+
+			Gff3SequenceExtractor extractor = new Gff3SequenceExtractor( Gff3SequenceStore.open( gff ) );
+			extractor.setParallelism( 1 );
+			StringWriter sequentialProteins = new StringWriter();
+			assertEquals( scaffoldCount, extractor.extract( models, null, sequentialProteins ) );
+			extractor.setParallelism( 4 );
+			StringWriter proteins = new StringWriter();
+			assertEquals( scaffoldCount, extractor.extract( models, null, proteins ) );
+			assertEquals( sequentialProteins.toString(), proteins.toString() );
+			assertTrue( proteins.toString().startsWith( ">g0\nMA\n>g1\nMK\n>g2\nMA\n" ) );
+			assertTrue( proteins.toString().endsWith( ">g299\nMK\n" ) );
+		} catch ( Exception ex ) {
+			ex.printStackTrace();
+			fail(ex.getMessage());
+		}
+	}
+
+	private static String reverseComplement( String bases ) {
+		StringBuilder complement = new StringBuilder();
+		for ( int i = bases.length() - 1; i >= 0; i-- ) {
+			complement.append( "TGCA".charAt( "ACGT".indexOf( bases.charAt( i ) ) ) );
+		}
+		return complement.toString();
+	}
+}
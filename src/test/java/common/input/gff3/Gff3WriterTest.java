@@ -0,0 +1,331 @@
+/**
+ *   Copyright Leslie L. Foster, 2011.
+ *
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation; version 2.1 of the License.
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation, Inc.
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+package common.input.gff3;
+
+import org.junit.Test;
+import oss.model.builder.gff3.AssembledModels;
+import oss.model.builder.gff3.Gff3DataAssembler;
+import oss.model.builder.gff3.Gff3GenericModel;
+import oss.model.builder.gff3.Gff3LineReader;
+import oss.model.builder.gff3.Gff3Writer;
+import oss.model.builder.gff3.ModelTreeNode;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class Gff3WriterTest {
+	private static String TEST_FILE_2 = "/discoidium_chr_1.gff";
+
+	@Test
+	public void writtenTreesReadBackTheSame() {
+		try {
+			String source = TestUtils.resolveToPath(TEST_FILE_2);
+			AssembledModels models = new Gff3DataAssembler( source ).assembleAll();
+			File dir = Files.createTempDirectory( "gff3write" ).toFile();
+			Map<String,File> landmarkVsFile = Gff3Writer.writeLandmarks( models, landmarkId -> new File( dir, landmarkId + ".gff3" ), 4 );
+			assertEquals( models.getLandmarkIds(), landmarkVsFile.keySet() );
+
+			List<String> written = new ArrayList<>();
+			for ( File file: landmarkVsFile.values() ) {
+				file.deleteOnExit();
+				written.addAll( summaries( file ) );
+
+				// Parents come first.
+				Set<String> idsSeen = new HashSet<>();
+				for ( String line: Files.readAllLines( file.toPath() ) ) {
+					for ( String setting: line.split( "\t" )[ line.startsWith( "#" ) ? 0 : 8 ].split( ";" ) ) {
+						if ( setting.startsWith( "ID=" ) ) {
+							idsSeen.add( setting.substring( 3 ) );
+						}
+						else if ( setting.startsWith( "Parent=" ) ) {
+							for ( String parent: setting.substring( 7 ).split( "," ) ) {
+								assertTrue( "Parent " + parent + " before " + line, idsSeen.contains( parent ) );
+							}
+						}
+					}
+				}
+			}
+			dir.deleteOnExit();
+			// As assembled, with the IDs made up for features lacking one.
+			List<String> read = new ArrayList<>();
+			Set<ModelTreeNode> seen = Collections.newSetFromMap( new IdentityHashMap<>() );
+			for ( String landmarkId: models.getLandmarkIds() ) {
+				for ( ModelTreeNode node: models.getTopLevelFeatures( landmarkId ) ) {
+					addSummaries( node, seen, read );
+				}
+			}
+			Collections.sort( read );
+			Collections.sort( written );
+			assertEquals( read, written );
+		} catch ( Exception ex ) {
+			ex.printStackTrace();
+			fail(ex.getMessage());
+		}
+	}
+
+	@Test
+	public void sharedExonWrittenAfterBothParents() {
+		try {
+			File source = File.createTempFile( "gff3shared", ".gff3" );
+			source.deleteOnExit();
+			Files.write( source.toPath(), ( "ctg1\tt\tgene\t1\t90\t.\t+\t.\tID=g\n"
+					+ "ctg1\tt\tmRNA\t1\t90\t.\t+\t.\tID=m1;Parent=g\n"
+					+ "ctg1\tt\tmRNA\t1\t60\t.\t+\t.\tID=m2;Parent=g\n"
+					+ "ctg1\tt\texon\t1\t30\t.\t+\t.\tID=e;Parent=m1,m2\n" ).getBytes( StandardCharsets.US_ASCII ) );
+			Gff3DataAssembler assembler = new Gff3DataAssembler( source.getPath() );
+			assembler.setMultiParentedFeaturesAcceptable( true );
+			AssembledModels models = assembler.assembleAll();
+
+			File dir = Files.createTempDirectory( "gff3write" ).toFile();
+			dir.deleteOnExit();
+			File written = Gff3Writer.writeLandmarks( models, landmarkId -> new File( dir, landmarkId + ".gff3" ), 1 ).get( "ctg1" );
+			written.deleteOnExit();
+			List<String> ids = new ArrayList<>();
+			for ( String summary: summaries( written ) ) {
+				ids.add( summary.split( "\\|" )[ 8 ] );
+			}
+			assertEquals( "[ID=g, ID=m1, ID=m2, ID=e]", ids.toString() );
+
+			Gff3DataAssembler reread = new Gff3DataAssembler( written.getPath() );
+			reread.setMultiParentedFeaturesAcceptable( true );
+			List<String> read = new ArrayList<>();
+			addSummaries( reread.assembleAll().getTopLevelFeatures( "ctg1" ).get( 0 ), Collections.newSetFromMap( new IdentityHashMap<>() ), read );
+			List<String> expected = new ArrayList<>();
+			addSummaries( models.getTopLevelFeatures( "ctg1" ).get( 0 ), Collections.newSetFromMap( new IdentityHashMap<>() ), expected );
+			assertEquals( expected, read );
+		} catch ( Exception ex ) {
+			ex.printStackTrace();
+			fail(ex.getMessage());
+		}
+	}
+
+	@Test
+	public void orphansWrittenUnderMissingParents() {
+		try {
+			File source = File.createTempFile( "gff3orphan", ".gff3" );
+			source.deleteOnExit();
+			Files.write( source.toPath(), ( "ctg1\tt\tgene\t1\t90\t.\t+\t.\tID=g1\n"
+					+ "ctg1\tt\texon\t1\t30\t.\t+\t.\tID=e1;Parent=tx9\n"
+					+ "ctg1\tt\tCDS\t1\t30\t.\t+\t0\tID=c1;Parent=g1,tx8\n" ).getBytes( StandardCharsets.US_ASCII ) );
+			Gff3DataAssembler assembler = new Gff3DataAssembler( source.getPath() );
+			assembler.setMultiParentedFeaturesAcceptable( true );
+			AssembledModels models = assembler.assembleAll();
+			assertEquals( 2, models.getPlaceholderRoots( "ctg1" ).size() );
+
+			File dir = Files.createTempDirectory( "gff3write" ).toFile();
+			dir.deleteOnExit();
+			File written = Gff3Writer.writeLandmarks( models, landmarkId -> new File( dir, landmarkId + ".gff3" ), 1 ).get( "ctg1" );
+			written.deleteOnExit();
+			List<String> ids = new ArrayList<>();
+			for ( String summary: summaries( written ) ) {
+				ids.add( summary.split( "\\|" )[ 8 ] );
+			}
+			Collections.sort( ids );
+			assertEquals( "[ID=c1, ID=e1, ID=g1]", ids.toString() );
+		} catch ( Exception ex ) {
+			ex.printStackTrace();
+			fail(ex.getMessage());
+		}
+	}
+
+	@Test
+	public void childrenOfUnwrittenParentsNotLost() {
+		try {
+			// c has a parent on another axis, never among the roots; a and b are each other's parent.
+			ModelTreeNode g = node( "g" );
+			ModelTreeNode elsewhere = node( "elsewhere" );
+			ModelTreeNode c = node( "c" );
+			link( c, g, elsewhere );
+			ModelTreeNode a = node( "a" );
+			ModelTreeNode b = node( "b" );
+			link( a, g, b );
+			link( b, a );
+
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			try ( Gff3Writer writer = new Gff3Writer( out ) ) {
+				writer.writeTrees( Collections.singletonList( g ) );
+			}
+			List<String> ids = new ArrayList<>();
+			for ( String line: out.toString( "UTF-8" ).split( "\n" ) ) {
+				ids.add( line.split( "\t" )[ 8 ].split( ";" )[ 0 ] );
+			}
+			assertEquals( "[ID=g, ID=c, ID=a, ID=b]", ids.toString() );
+		} catch ( Exception ex ) {
+			ex.printStackTrace();
+			fail(ex.getMessage());
+		}
+	}
+
+	@Test
+	public void valuesEscapedAsTheReaderUnescapes() {
+		try {
+			Gff3GenericModel model = new Gff3GenericModel();
+			model.setLandmarkId( "chr 1" );
+			model.setSource( "made;by=hand" );
+			model.setType( "gene" );
+			model.setStart( 5 );
+			model.setEnd( 1200 );
+			model.setScore( 0.25 );
+			model.setStrand( Gff3GenericModel.Strand.negative );
+			Map<String,String[]> attributes = new LinkedHashMap<>();
+			attributes.put( "ID", new String[] { "g1" } );
+			attributes.put( "Note", new String[] { "50% of reads; a=b, c\ttab" } );
+			attributes.put( "Dbxref", new String[] { "GO:0001", "EC:1,2" } );
+			attributes.put( "product", new String[] { "\u00E9tude" } );
+			model.setAttributes( attributes );
+
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			try ( Gff3Writer writer = new Gff3Writer( out ) ) {
+				writer.writeVersion();
+				writer.writeModel( model );
+			}
+			assertEquals( "##gff-version 3\n"
+					+ "chr%201\tmade;by=hand\tgene\t5\t1200\t0.25\t-\t.\t"
+					+ "ID=g1;Note=50%25 of reads%3B a%3Db%2C c%09tab;Dbxref=GO:0001,EC:1%2C2;product=\u00E9tude\n",
+					out.toString( "UTF-8" ) );
+
+			File file = File.createTempFile( "gff3write", ".gff3" );
+			file.deleteOnExit();
+			Files.write( file.toPath(), out.toByteArray() );
+			Gff3LineReader rdr = new Gff3LineReader( file );
+			Gff3GenericModel readBack = rdr.nextLine();
+			rdr.close();
+			assertEquals( "chr 1", readBack.getLandmarkId() );
+			assertEquals( summary( model ), summary( readBack ) );
+		} catch ( Exception ex ) {
+			ex.printStackTrace();
+			fail(ex.getMessage());
+		}
+	}
+
+	@Test
+	public void idsWrittenAsTheModelNowHasThem() {
+		try {
+			File file = File.createTempFile( "gff3write", ".gff3" );
+			file.deleteOnExit();
+			Files.write( file.toPath(), ( "ctg1\tt\tgene\t1\t90\t.\t+\t.\tID=g1;Name=first\n"
+					+ "ctg1\tt\tmRNA\t1\t90\t.\t+\t.\tName=tx;Parent=g1;Note=kept\n"
+					+ "ctg1\tt\texon\t1\t90\t.\t+\t.\t Name=x; ID=spaced;Parent=tx1 \n" ).getBytes( StandardCharsets.US_ASCII ) );
+			Gff3LineReader rdr = new Gff3LineReader( file );
+			Gff3GenericModel gene = rdr.nextLine();
+			Gff3GenericModel mRna = rdr.nextLine();
+			Gff3GenericModel exon = rdr.nextLine();
+			rdr.close();
+			gene.setId( "g1:1:90" );
+			mRna.setId( "Unknown_Feature_1" );
+			mRna.setParent( new String[] { "g1:1:90", "g;2" } );
+
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			try ( Gff3Writer writer = new Gff3Writer( out ) ) {
+				writer.writeModel( gene );
+				writer.writeModel( mRna );
+				writer.writeModel( exon );
+			}
+			assertEquals( "ctg1\tt\tgene\t1\t90\t0\t+\t.\tID=g1:1:90;Name=first\n"
+					+ "ctg1\tt\tmRNA\t1\t90\t0\t+\t.\tID=Unknown_Feature_1;Name=tx;Parent=g1:1:90,g%3B2;Note=kept\n"
+					// The key " ID" is not ID, to the reader; the line had no ID.
+					+ "ctg1\tt\texon\t1\t90\t0\t+\t.\tName=x; ID=spaced;Parent=tx1\n",
+					out.toString( "UTF-8" ) );
+		} catch ( Exception ex ) {
+			ex.printStackTrace();
+			fail(ex.getMessage());
+		}
+	}
+
+	private static ModelTreeNode node( String id ) {
+		Gff3GenericModel model = new Gff3GenericModel();
+		model.setLandmarkId( "ctg1" );
+		model.setType( "gene" );
+		model.setStart( 1 );
+		model.setEnd( 10 );
+		model.setId( id );
+		return new ModelTreeNode( model );
+	}
+
+	private static void link( ModelTreeNode child, ModelTreeNode... parents ) {
+		for ( ModelTreeNode parent: parents ) {
+			parent.addChild( child );
+		}
+		child.setParents( parents );
+	}
+
+	private static List<String> summaries( File file ) throws Exception {
+		List<String> summaries = new ArrayList<>();
+		Gff3LineReader rdr = new Gff3LineReader( file );
+		try {
+			Gff3GenericModel model;
+			while ( null != ( model = rdr.nextLine() ) ) {
+				summaries.add( summary( model ) );
+			}
+		} finally {
+			rdr.close();
+		}
+		return summaries;
+	}
+
+	private static void addSummaries( ModelTreeNode node, Set<ModelTreeNode> seen, List<String> summaries ) {
+		if ( ! seen.add( node ) ) {
+			return;
+		}
+		if ( node.getModel() != null ) {
+			summaries.add( summary( node.getModel() ) );
+		}
+		if ( node.getChildren() != null ) {
+			for ( ModelTreeNode child: node.getChildren() ) {
+				addSummaries( child, seen, summaries );
+			}
+		}
+	}
+
+	/** Columns and attributes, with ID and Parent as the model's fields give them. */
+	private static String summary( Gff3GenericModel model ) {
+		StringBuilder summary = new StringBuilder();
+		summary.append( model.getLandmarkId() ).append( '|' ).append( model.getSource() ).append( '|' ).append( model.getType() )
+		       .append( '|' ).append( model.getStart() ).append( '|' ).append( model.getEnd() ).append( '|' ).append( model.getScore() )
+		       .append( '|' ).append( model.getStrand() ).append( '|' ).append( model.getPhase() );
+		Map<String,String[]> attributes = model.getAttributes();
+		String id = model.getId() != null ? model.getId() : first( attributes.get( "ID" ) );
+		String[] parents = model.getParent() != null ? model.getParent() : attributes.get( "Parent" );
+		summary.append( "|ID=" ).append( id ).append( "|Parent=" ).append( Arrays.toString( parents ) );
+		for ( Map.Entry<String,String[]> entry: attributes.entrySet() ) {
+			if ( ! entry.getKey().equals( "ID" )  &&  ! entry.getKey().equals( "Parent" ) ) {
+				summary.append( '|' ).append( entry.getKey() ).append( '=' ).append( Arrays.toString( entry.getValue() ) );
+			}
+		}
+		return summary.toString();
+	}
+
+	private static String first( String[] values ) {
+		return values == null  ||  values.length == 0 ? null : values[ 0 ];
+	}
+}
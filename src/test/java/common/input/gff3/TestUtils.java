@@ -2,11 +2,17 @@ package common.input.gff3;
 
 import oss.model.builder.gff3.Gff3DataAssembler;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.util.Optional;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
 
 public class TestUtils {
     static String resolveToPath(String testFile ) {
@@ -29,5 +35,40 @@ public class TestUtils {
         }
     }
 
+    /** Write text as BGZF, as bgzip would, in blocks of the size given, ending with the empty end-of-file block. */
+    static void writeBgzf(byte[] text, File dest, int blockSize) throws IOException {
+        try (OutputStream out = new FileOutputStream(dest)) {
+            for (int pos = 0; pos < text.length; pos += blockSize) {
+                writeBgzfBlock(out, text, pos, Math.min(text.length, pos + blockSize));
+            }
+            writeBgzfBlock(out, text, 0, 0);
+        }
+    }
+
+    private static void writeBgzfBlock(OutputStream out, byte[] text, int from, int to) throws IOException {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        deflater.setInput(text, from, to - from);
+        deflater.finish();
+        ByteArrayOutputStream deflated = new ByteArrayOutputStream();
+        byte[] buf = new byte[4096];
+        while (!deflater.finished()) {
+            deflated.write(buf, 0, deflater.deflate(buf));
+        }
+        deflater.end();
+        CRC32 crc = new CRC32();
+        crc.update(text, from, to - from);
 
+        int totalSize = 18 + deflated.size() + 8;
+        out.write(new byte[] { 0x1f, (byte) 0x8b, 8, 4, 0, 0, 0, 0, 0, (byte) 0xff, 6, 0, 'B', 'C', 2, 0 });
+        writeLittleEndian(out, totalSize - 1, 2);
+        deflated.writeTo(out);
+        writeLittleEndian(out, (int) crc.getValue(), 4);
+        writeLittleEndian(out, to - from, 4);
+    }
+
+    private static void writeLittleEndian(OutputStream out, int value, int bytes) throws IOException {
+        for (int i = 0; i < bytes; i++) {
+            out.write(value >>> (8 * i));
+        }
+    }
 }